@@ -0,0 +1,80 @@
+package com.dburyak.exercise.jsonrpc.json;
+
+import com.dburyak.exercise.jsonrpc.JsonRpcRequest;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the previous way of parsing incoming requests in JsonRpcParsingHandler (decoding the full JSON tree twice)
+ * with the single-pass envelope scanning. Run with "-prof gc" to see the allocation rate difference.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonRpcEnvelopeScannerBenchmark {
+
+    @Param({"blockNumber", "ethCall", "sendRawTx"})
+    private String payload;
+
+    private Buffer body;
+
+    @Setup
+    public void setup() {
+        var req = new JsonObject()
+                .put("jsonrpc", "2.0")
+                .put("id", 42);
+        switch (payload) {
+            case "blockNumber" -> req
+                    .put("method", "eth_blockNumber")
+                    .put("params", new JsonArray());
+            case "ethCall" -> req
+                    .put("method", "eth_call")
+                    .put("params", new JsonArray()
+                            .add(new JsonObject()
+                                    .put("from", "0x" + "ab".repeat(20))
+                                    .put("to", "0x" + "cd".repeat(20))
+                                    .put("data", "0x" + "0123456789abcdef".repeat(512)))
+                            .add("latest"));
+            case "sendRawTx" -> req
+                    .put("method", "eth_sendRawTransaction")
+                    .put("params", new JsonArray().add("0x" + "f86c".repeat(16 * 1024)));
+            default -> throw new IllegalArgumentException("unknown payload: " + payload);
+        }
+        body = req.toBuffer();
+    }
+
+    @Benchmark
+    public void doubleFullTreeParse(Blackhole bh) {
+        var bodyJson = body.toJsonObject();
+        bh.consume(bodyJson.getString(JsonRpcRequest.FIELD_VERSION));
+        var fullRequest = body.toJsonObject();
+        bh.consume(fullRequest.getString(JsonRpcRequest.FIELD_METHOD));
+        bh.consume(fullRequest.getValue(JsonRpcRequest.FIELD_ID));
+    }
+
+    @Benchmark
+    public void envelopeScan(Blackhole bh) {
+        var req = JsonRpcEnvelopeScanner.scanRequest(body);
+        bh.consume(req.getVersion());
+        bh.consume(req.getMethod());
+        bh.consume(req.getRawId());
+    }
+}
@@ -0,0 +1,138 @@
+package com.dburyak.exercise.jsonrpc.redis;
+
+import io.vertx.rxjava3.core.Vertx;
+import io.vertx.rxjava3.redis.client.Redis;
+import io.vertx.rxjava3.redis.client.RedisConnection;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static io.vertx.redis.client.Command.DEL;
+import static io.vertx.redis.client.Request.cmd;
+
+/**
+ * Cost of a single rate limit script call per algorithm, and how evenly each algorithm spreads admitted calls. Needs a
+ * running redis, e.g. "docker run --rm -p 6379:6379 redis:7", and a different one can be passed via
+ * "-p redisUri=...".
+ * <p>
+ * A single client hammers one limit as fast as it can. Score is the time of one script call (i.e. one request with
+ * "callsPerRequest" calls), the "admitted" and "rejected" counters show the decisions. At the end of each iteration the
+ * max number of calls admitted within any sliding window of the limit's size is printed: fixed window lets through up
+ * to 2x the limit across the window boundary, while the sliding window doesn't exceed the limit. GCRA spreads the calls
+ * evenly over the window once the initial burst is spent.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RateLimitScriptBenchmark {
+    private static final int MAX_CALLS_IN_WINDOW = 1_000;
+    private static final long WINDOW_MS = 1_000;
+
+    @Param({"redis://localhost:6379"})
+    private String redisUri;
+
+    @Param({"fixedWindow", "slidingWindow", "gcra"})
+    private String algorithm;
+
+    @Param({"1", "50"})
+    private int callsPerRequest;
+
+    private Vertx vertx;
+    private RedisConnection redis;
+    private RedisScript script;
+    private List<String> keys;
+    private List<Object> args;
+    // timestamps of the admitted calls within the last window, ring buffer
+    private long[] admittedAt;
+    private int head;
+    private int size;
+    private int maxAdmittedInWindow;
+
+    @Setup
+    public void setup() {
+        vertx = Vertx.vertx();
+        redis = Redis.createClient(vertx, redisUri).rxConnect().blockingGet();
+        script = RedisScript.fromResource("redis/rate-limit.lua");
+        script.rxLoad(redis).blockingAwait();
+        keys = List.of("rtlmt-bench:" + algorithm + ":" + UUID.randomUUID());
+        args = new ArrayList<>();
+        args.add(algorithm);
+        args.add(MAX_CALLS_IN_WINDOW);
+        args.add(WINDOW_MS);
+        args.addAll(Collections.nCopies(callsPerRequest, "1:1")); // calls of cost 1 subject to the only limit
+        admittedAt = new long[4 * MAX_CALLS_IN_WINDOW + callsPerRequest];
+    }
+
+    @Setup(Level.Iteration)
+    public void resetWindowStats() {
+        head = 0;
+        size = 0;
+        maxAdmittedInWindow = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void printWindowStats() {
+        System.out.printf("%nmax admitted within any %d ms window: %d (limit %d)%n", WINDOW_MS,
+                maxAdmittedInWindow, MAX_CALLS_IN_WINDOW);
+    }
+
+    @TearDown
+    public void tearDown() {
+        redis.rxSend(cmd(DEL).arg(keys.get(0)))
+                .ignoreElement()
+                .blockingAwait();
+        redis.rxClose().blockingAwait();
+        vertx.rxClose().blockingAwait();
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Decisions {
+        public long admitted;
+        public long rejected;
+    }
+
+    @Benchmark
+    public void check(Decisions decisions) {
+        var resp = script.rxEval(redis, keys, args).blockingGet();
+        var nowMs = System.currentTimeMillis();
+        for (var i = 0; i < callsPerRequest; i++) {
+            if (resp.get(i).toInteger() == 1) {
+                decisions.admitted++;
+                onAdmitted(nowMs);
+            } else {
+                decisions.rejected++;
+            }
+        }
+    }
+
+    private void onAdmitted(long nowMs) {
+        while (size > 0 && admittedAt[head] <= nowMs - WINDOW_MS) {
+            head = (head + 1) % admittedAt.length;
+            size--;
+        }
+        admittedAt[(head + size) % admittedAt.length] = nowMs;
+        size++;
+        maxAdmittedInWindow = Math.max(maxAdmittedInWindow, size);
+    }
+}
@@ -0,0 +1,99 @@
+package com.dburyak.exercise.jsonrpc.tracking;
+
+import com.dburyak.exercise.jsonrpc.entity.TrackedCall;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.stream.Collectors.groupingBy;
+
+/**
+ * Compares the previous way of aggregating tracked calls in CallTrackingHandler (an object per call buffered in a list,
+ * grouped with nested "groupingBy" streams on flush) with in-place aggregation in {@link CallCountsTable}. Each
+ * invocation is one flush period of {@link #CALLS_PER_FLUSH} calls, score is per call. Run with "-prof gc" to see the
+ * allocation rate difference.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CallTrackingAggregationBenchmark {
+    private static final int CALLS_PER_FLUSH = 10_000;
+    private static final String[] METHODS = {"eth_blockNumber", "eth_call", "eth_getBalance", "eth_getLogs",
+            "eth_getTransactionReceipt", "eth_chainId", "eth_getBlockByNumber", "eth_estimateGas"};
+
+    @Param({"10", "1000", "10000"})
+    private int distinctIps;
+
+    private String[] callIps;
+    private String[] callMethods;
+    private boolean[] callSuccessful;
+    private CallCountsTable table;
+
+    @Setup
+    public void setup() {
+        var rnd = new Random(42);
+        var ips = new String[distinctIps];
+        for (var i = 0; i < distinctIps; i++) {
+            ips[i] = "10." + (i >> 16 & 0xFF) + "." + (i >> 8 & 0xFF) + "." + (i & 0xFF);
+        }
+        callIps = new String[CALLS_PER_FLUSH];
+        callMethods = new String[CALLS_PER_FLUSH];
+        callSuccessful = new boolean[CALLS_PER_FLUSH];
+        for (var i = 0; i < CALLS_PER_FLUSH; i++) {
+            callIps[i] = ips[rnd.nextInt(distinctIps)];
+            callMethods[i] = METHODS[rnd.nextInt(METHODS.length)];
+            callSuccessful[i] = rnd.nextInt(100) > 0;
+        }
+        table = new CallCountsTable(CALLS_PER_FLUSH);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_FLUSH)
+    public List<TrackedCall.Change> objectPerCallAndGroupingBy() {
+        var callsBatch = new ArrayList<Call>();
+        for (var i = 0; i < CALLS_PER_FLUSH; i++) {
+            callsBatch.add(new Call(callIps[i], callMethods[i], callSuccessful[i], 1));
+        }
+        var byIpAndMethod = callsBatch.stream()
+                .collect(groupingBy(Call::ip, groupingBy(Call::method)));
+        return byIpAndMethod.entrySet().stream().flatMap(eIp -> {
+            var ip = eIp.getKey();
+            return eIp.getValue().entrySet().stream().map(eMtd -> {
+                var method = eMtd.getKey();
+                var successfulCnt = eMtd.getValue().stream().filter(Call::successful).count();
+                var failedCnt = eMtd.getValue().size() - successfulCnt;
+                var units = eMtd.getValue().stream().mapToLong(Call::units).sum();
+                return new TrackedCall.Change(ip, method, successfulCnt, failedCnt, units);
+            });
+        }).toList();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_FLUSH)
+    public List<TrackedCall.Change> inPlaceTable() {
+        for (var i = 0; i < CALLS_PER_FLUSH; i++) {
+            table.increment(callIps[i], callMethods[i], callSuccessful[i], 1);
+        }
+        return table.drain();
+    }
+
+    private record Call(String ip, String method, boolean successful, int units) {
+    }
+}
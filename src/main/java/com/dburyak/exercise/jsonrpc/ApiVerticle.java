@@ -1,26 +1,49 @@
 package com.dburyak.exercise.jsonrpc;
 
+import com.dburyak.exercise.jsonrpc.cache.CoalescingStats;
+import com.dburyak.exercise.jsonrpc.cache.ResponseCache;
+import com.dburyak.exercise.jsonrpc.entity.CallsOfUserPage;
+import com.dburyak.exercise.jsonrpc.entity.HeavyHitter;
 import com.dburyak.exercise.jsonrpc.err.ProxyPublicException;
+import com.dburyak.exercise.jsonrpc.jfr.JfrEvents;
+import com.dburyak.exercise.jsonrpc.json.CallTrackingJson;
+import com.dburyak.exercise.jsonrpc.metrics.PrometheusWriter;
+import com.dburyak.exercise.jsonrpc.metrics.StageMetrics;
+import com.dburyak.exercise.jsonrpc.metrics.UpstreamMetrics;
 import com.dburyak.exercise.jsonrpc.repo.TrackedCallRepository;
+import com.dburyak.exercise.jsonrpc.tracking.HeavyHitterTracker;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.reactivex.rxjava3.core.Completable;
 import io.reactivex.rxjava3.core.Maybe;
 import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.functions.Function;
+import io.reactivex.rxjava3.subjects.UnicastSubject;
 import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
 import io.vertx.core.net.PfxOptions;
 import io.vertx.rxjava3.core.AbstractVerticle;
 import io.vertx.rxjava3.core.http.HttpServer;
+import io.vertx.rxjava3.core.http.HttpServerResponse;
 import io.vertx.rxjava3.ext.web.Router;
 import io.vertx.rxjava3.ext.web.RoutingContext;
 import io.vertx.rxjava3.ext.web.handler.BodyHandler;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_LENGTH;
 import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpHeaderNames.TRANSFER_ENCODING;
 import static io.netty.handler.codec.http.HttpHeaderValues.APPLICATION_JSON;
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
 import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
 import static io.netty.handler.codec.http.HttpResponseStatus.NO_CONTENT;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
@@ -28,14 +51,40 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 @RequiredArgsConstructor
 @Log4j2
 public class ApiVerticle extends AbstractVerticle {
+    private static final String PARAM_FROM = "from";
+    private static final String PARAM_TO = "to";
+    private static final String PARAM_CURSOR = "cursor";
+    private static final String PARAM_LIMIT = "limit";
+    private static final String PARAM_STREAM = "stream";
+    private static final int DEFAULT_PAGE_LIMIT = 100;
+    private static final int MAX_PAGE_LIMIT = 1_000;
+    private static final int EXPORT_PAGE_SIZE = 500;
+    private static final String APPLICATION_NDJSON = "application/x-ndjson";
+    private static final String FIELD_IPS = "ips";
+    private static final String FIELD_METHODS = "methods";
+    private static final int MAX_LOOKUP_IPS = 1_000;
+    private static final int MAX_LOOKUP_METHODS = 100;
+    private static final long MAX_LOOKUP_BODY_SIZE = 256 * 1024;
+    private static final int DEFAULT_HEAVY_HITTERS_LIMIT = 10;
     private final Config cfg;
     private final List<ReqHandler> handlers;
     private final TrackedCallRepository trackedCallRepo;
+    private final ResponseCache responseCache; // null if response caching is disabled
+    private final CoalescingStats coalescingStats; // null if request coalescing is disabled
+    private final HeavyHitterTracker heavyHitterTracker; // null if heavy hitters are not tracked
+    private final StageMetrics stageMetrics; // null if metrics are disabled
+    private final UpstreamMetrics upstreamMetrics; // null if metrics are disabled
 
     private HttpServer httpServer;
+    private StageMetrics.Recorder stageRecorder;
+    private List<String> stageNames;
 
     @Override
     public Completable rxStart() {
+        if (stageMetrics != null) {
+            stageRecorder = stageMetrics.newRecorder(handlers);
+        }
+        stageNames = handlers.stream().map(h -> h.getClass().getSimpleName()).toList();
         return Single.fromSupplier(this::buildRouter)
                 .flatMap(router -> {
                     httpServer = buildHttpServer();
@@ -76,11 +125,32 @@ public class ApiVerticle extends AbstractVerticle {
         router.route(proxyApi).handler(BodyHandler.create());
         router.route(proxyApi).handler(this::handleProxyReq);
         router.route(callTrackingApi + "/*").handler(this::setJsonContentType);
+        router.get(callTrackingApi).handler(this::handleExportTrackedCalls);
+        router.post(callTrackingApi + "/batch").handler(BodyHandler.create().setBodyLimit(MAX_LOOKUP_BODY_SIZE));
+        router.post(callTrackingApi + "/batch").produces(APPLICATION_JSON.toString())
+                .handler(this::handleGetTrackedCallsOfIps);
         router.get(callTrackingApi + "/:ip").produces(APPLICATION_JSON.toString())
                 .handler(this::handleGetTrackedCallsByIp);
         router.get(callTrackingApi + "/:ip/:method").produces(APPLICATION_JSON.toString())
                 .handler(this::handleGetSingleTrackedCallByIpAndMethod);
         router.delete(callTrackingApi + "/:ip").handler(this::delCallStatsOfIp);
+        if (stageMetrics != null) {
+            router.get(cfg.getMetricsApiPath()).handler(this::handleGetMetrics);
+        }
+        var statsApi = cfg.getStatsApiPath();
+        router.route(statsApi + "/*").handler(this::setJsonContentType);
+        if (responseCache != null) {
+            router.get(statsApi + "/response-cache").produces(APPLICATION_JSON.toString())
+                    .handler(this::handleGetResponseCacheStats);
+        }
+        if (coalescingStats != null) {
+            router.get(statsApi + "/request-coalescing").produces(APPLICATION_JSON.toString())
+                    .handler(this::handleGetCoalescingStats);
+        }
+        if (heavyHitterTracker != null) {
+            router.get(statsApi + "/heavy-hitters").produces(APPLICATION_JSON.toString())
+                    .handler(this::handleGetHeavyHitters);
+        }
         router.route().failureHandler(this::handleErr);
         return router;
     }
@@ -90,11 +160,27 @@ public class ApiVerticle extends AbstractVerticle {
         processWithTheChain(proxiedReqCtx)
                 // if the Maybe is empty, it means that one of the handlers has already responded
                 .flatMapCompletable(pCtx -> {
-                    reqCtx.response().headers().addAll(pCtx.getBackendResp().headers());
-                    return reqCtx.response()
-                            .setStatusCode(pCtx.getBackendResp().statusCode())
-                            .setStatusMessage(pCtx.getBackendResp().statusMessage())
-                            .rxEnd(pCtx.getBackendResp().body());
+                    var resp = reqCtx.response();
+                    var backendResp = pCtx.getBackendResp();
+                    if (backendResp != null) {
+                        resp.headers().addAll(backendResp.getHeaders());
+                        resp.setStatusCode(backendResp.getStatusCode())
+                                .setStatusMessage(backendResp.getStatusMessage());
+                    }
+                    var respBody = pCtx.getRespBody();
+                    if (respBody == null) {
+                        return resp.rxEnd(backendResp.getBody());
+                    }
+                    // response body is produced by the proxy itself (e.g. batch response), so backend headers that
+                    // describe the body don't apply anymore
+                    resp.headers().remove(CONTENT_LENGTH).remove(TRANSFER_ENCODING);
+                    if (backendResp == null) {
+                        resp.putHeader(CONTENT_TYPE, APPLICATION_JSON);
+                    }
+                    if (respBody.length() == 0) {
+                        return resp.setStatusCode(NO_CONTENT.code()).rxEnd();
+                    }
+                    return resp.rxEnd(respBody);
                 })
                 .subscribe(() -> {}, err -> reqCtx.fail(err));
     }
@@ -106,25 +192,221 @@ public class ApiVerticle extends AbstractVerticle {
 
     private void handleGetTrackedCallsByIp(RoutingContext reqCtx) {
         var ip = reqCtx.pathParam("ip");
-        trackedCallRepo.findByIp(ip)
+        var params = reqCtx.queryParams();
+        if (params.contains(PARAM_STREAM) || params.contains(PARAM_CURSOR) || params.contains(PARAM_LIMIT)) {
+            handleGetTrackedCallsByIpPaged(reqCtx, ip);
+            return;
+        }
+        timeRange(reqCtx)
+                .flatMap(range -> range.length == 0
+                        ? trackedCallRepo.findByIp(ip)
+                        : trackedCallRepo.findByIp(ip, range[0], range[1]))
                 .switchIfEmpty(Maybe.defer(() ->
                         reqCtx.response().setStatusCode(HttpResponseStatus.NOT_FOUND.code()).rxEnd().toMaybe()))
                 .flatMapCompletable(callsForIp ->
-                        reqCtx.response().rxEnd(callsForIp.toJson().toBuffer()))
+                        reqCtx.response().rxEnd(CallTrackingJson.callsOfUser(callsForIp)))
                 .subscribe(() -> {}, err -> reqCtx.fail(err));
     }
 
+    /**
+     * Calls of multiple IPs (and optionally only of the given methods) at once, request body is
+     * {"ips": [...], "methods": [...]}. IPs without calls are not included into the response array.
+     */
+    private void handleGetTrackedCallsOfIps(RoutingContext reqCtx) {
+        List<String> ips;
+        List<String> methods;
+        try {
+            var body = reqCtx.body().asJsonObject();
+            ips = stringList(body != null ? body.getJsonArray(FIELD_IPS) : null);
+            methods = body != null && body.getJsonArray(FIELD_METHODS) != null
+                    ? stringList(body.getJsonArray(FIELD_METHODS))
+                    : null;
+        } catch (DecodeException | ClassCastException e) {
+            ips = null;
+            methods = null;
+        }
+        if (ips == null || ips.isEmpty() || ips.size() > MAX_LOOKUP_IPS
+                || (methods != null && methods.size() > MAX_LOOKUP_METHODS)) {
+            reqCtx.fail(new ProxyPublicException(BAD_REQUEST.code(), "body must be {\"ips\": [...], \"methods\": "
+                    + "[...]} with 1.." + MAX_LOOKUP_IPS + " IPs and up to " + MAX_LOOKUP_METHODS + " methods"));
+            return;
+        }
+        trackedCallRepo.findByIps(ips, methods)
+                .flatMapCompletable(calls -> reqCtx.response().rxEnd(CallTrackingJson.array(calls)))
+                .subscribe(() -> {}, err -> reqCtx.fail(err));
+    }
+
+    private static List<String> stringList(JsonArray arr) {
+        if (arr == null) {
+            return null;
+        }
+        var list = new ArrayList<String>(arr.size());
+        for (var i = 0; i < arr.size(); i++) {
+            list.add(arr.getString(i));
+        }
+        return list.contains(null) ? null : list;
+    }
+
     private void handleGetSingleTrackedCallByIpAndMethod(RoutingContext reqCtx) {
         var ip = reqCtx.pathParam("ip");
         var method = reqCtx.pathParam("method");
-        trackedCallRepo.findByIpAndMethod(ip, method)
+        timeRange(reqCtx)
+                .flatMap(range -> range.length == 0
+                        ? trackedCallRepo.findByIpAndMethod(ip, method)
+                        : trackedCallRepo.findByIpAndMethod(ip, method, range[0], range[1]))
                 .switchIfEmpty(Maybe.defer(() ->
                         reqCtx.response().setStatusCode(HttpResponseStatus.NOT_FOUND.code()).rxEnd().toMaybe()))
                 .flatMapCompletable(call ->
-                        reqCtx.response().rxEnd(call.toJson().toBuffer()))
+                        reqCtx.response().rxEnd(CallTrackingJson.trackedCall(call)))
                 .subscribe(() -> {}, err -> reqCtx.fail(err));
     }
 
+    /**
+     * Calls of the IP either page by page ("cursor" and "limit" params, response contains the cursor of the next page),
+     * or all of them streamed with chunked encoding ("stream=true" param).
+     */
+    private void handleGetTrackedCallsByIpPaged(RoutingContext reqCtx, String ip) {
+        var params = reqCtx.queryParams();
+        if (params.contains(PARAM_FROM) || params.contains(PARAM_TO)) {
+            reqCtx.fail(new ProxyPublicException(BAD_REQUEST.code(),
+                    "time range can't be combined with pagination or streaming"));
+            return;
+        }
+        var cursor = params.contains(PARAM_CURSOR) ? params.get(PARAM_CURSOR) : TrackedCallRepository.FIRST_PAGE;
+        int limit;
+        try {
+            limit = params.contains(PARAM_LIMIT) ? Integer.parseInt(params.get(PARAM_LIMIT)) : DEFAULT_PAGE_LIMIT;
+        } catch (NumberFormatException e) {
+            limit = -1;
+        }
+        if (limit <= 0 || limit > MAX_PAGE_LIMIT || !cursor.matches("\\d+")) {
+            reqCtx.fail(new ProxyPublicException(BAD_REQUEST.code(),
+                    "'cursor' must be a cursor returned by the previous page, 'limit' must be within 1.."
+                            + MAX_PAGE_LIMIT));
+            return;
+        }
+        var streaming = Boolean.parseBoolean(params.get(PARAM_STREAM));
+        var pageLimit = limit;
+        trackedCallRepo.findPageByIp(ip, cursor, pageLimit)
+                .flatMapCompletable(page -> {
+                    var resp = reqCtx.response();
+                    if (TrackedCallRepository.FIRST_PAGE.equals(cursor) && page.getMethods().isEmpty()
+                            && page.getNextCursor() == null) {
+                        return resp.setStatusCode(NOT_FOUND.code()).rxEnd();
+                    }
+                    if (!streaming) {
+                        return resp.rxEnd(CallTrackingJson.callsOfUserPage(page));
+                    }
+                    resp.setChunked(true);
+                    return resp.rxWrite(CallTrackingJson.callsOfUserStart(ip, page.getMethods().size()))
+                            .andThen(streamPages(resp, page, pageLimit));
+                })
+                .subscribe(() -> {}, err -> failStreamed(reqCtx, err));
+    }
+
+    /**
+     * Exports all-time calls of all the users as newline-delimited JSON, one user per line, streamed with chunked
+     * encoding. Same as with streaming calls of a single user, the next page is read only after the previous one is
+     * written out, so the export takes constant memory regardless of the number of users.
+     */
+    private void handleExportTrackedCalls(RoutingContext reqCtx) {
+        var resp = reqCtx.response()
+                .setChunked(true)
+                .putHeader(CONTENT_TYPE, APPLICATION_NDJSON);
+        trackedCallRepo.findAllPage(TrackedCallRepository.FIRST_PAGE, EXPORT_PAGE_SIZE)
+                .flatMapCompletable(firstPage -> forEachPage(firstPage,
+                        page -> page.getCalls().isEmpty()
+                                ? Completable.complete()
+                                : resp.rxWrite(CallTrackingJson.ndjson(page.getCalls())),
+                        page -> page.getNextCursor() == null
+                                ? Maybe.empty()
+                                : trackedCallRepo.findAllPage(page.getNextCursor(), EXPORT_PAGE_SIZE).toMaybe()))
+                .andThen(resp.rxEnd())
+                .subscribe(() -> {}, err -> failStreamed(reqCtx, err));
+    }
+
+    private void failStreamed(RoutingContext reqCtx, Throwable err) {
+        if (reqCtx.response().headWritten()) {
+            // too late to respond with an error, the client sees the response cut off
+            log.error("failed to stream tracked calls: path={}", reqCtx.request().path(), err);
+            reqCtx.response().reset();
+        } else {
+            reqCtx.fail(err);
+        }
+    }
+
+    /**
+     * Writes the page, then reads and writes the following ones. The next page is read from redis only after the
+     * previous one is written out to the client, so a slow client slows down the reading rather than makes the result
+     * pile up in memory.
+     */
+    private Completable streamPages(HttpServerResponse resp, CallsOfUserPage firstPage, int limit) {
+        return Completable.defer(() -> {
+            var nothingWritten = new AtomicBoolean(true);
+            return forEachPage(firstPage,
+                    page -> page.getMethods().isEmpty()
+                            ? Completable.complete()
+                            : resp.rxWrite(CallTrackingJson.methods(page.getMethods(),
+                                    nothingWritten.getAndSet(false))),
+                    page -> page.getNextCursor() == null
+                            ? Maybe.empty()
+                            : trackedCallRepo.findPageByIp(page.getIp(), page.getNextCursor(), limit).toMaybe());
+        }).andThen(resp.rxEnd(CallTrackingJson.callsOfUserEnd()));
+    }
+
+    /**
+     * Processes the pages one by one: the next page is read only once the previous one is processed. Pages are driven
+     * by a queue rather than by recursion, so every processed page is released along with its subscriptions, and a
+     * scan of any number of pages takes constant memory.
+     *
+     * @param process processing of the page, e.g. writing it out to the client
+     * @param next reads the page that follows the given one, empty if it's the last one
+     */
+    private static <P> Completable forEachPage(P firstPage, Function<P, Completable> process,
+            Function<P, Maybe<P>> next) {
+        return Completable.defer(() -> {
+            var pages = UnicastSubject.<P>create();
+            pages.onNext(firstPage);
+            return pages.concatMapCompletable(page -> process.apply(page)
+                    .andThen(next.apply(page))
+                    .doOnSuccess(pages::onNext)
+                    .doOnComplete(pages::onComplete)
+                    .ignoreElement());
+        });
+    }
+
+    /**
+     * Parses optional "from" (inclusive) and "to" (exclusive, now by default) ISO-8601 instants of call tracking
+     * queries.
+     *
+     * @return [from, to], or empty array if no time range is requested (all-time counters)
+     */
+    private Maybe<Instant[]> timeRange(RoutingContext reqCtx) {
+        var fromParam = reqCtx.queryParams().get(PARAM_FROM);
+        var toParam = reqCtx.queryParams().get(PARAM_TO);
+        if (fromParam == null && toParam == null) {
+            return Maybe.just(new Instant[0]);
+        }
+        if (!cfg.getCallTrackingBuckets().isEnabled()) {
+            return Maybe.error(new ProxyPublicException(BAD_REQUEST.code(),
+                    "time range queries are not supported, time buckets of tracked calls are disabled"));
+        }
+        if (fromParam == null) {
+            return Maybe.error(new ProxyPublicException(BAD_REQUEST.code(), "'from' is required when 'to' is set"));
+        }
+        try {
+            var from = Instant.parse(fromParam);
+            var to = toParam != null ? Instant.parse(toParam) : Instant.now();
+            if (!from.isBefore(to)) {
+                return Maybe.error(new ProxyPublicException(BAD_REQUEST.code(), "'from' must be before 'to'"));
+            }
+            return Maybe.just(new Instant[]{from, to});
+        } catch (DateTimeParseException e) {
+            return Maybe.error(new ProxyPublicException(BAD_REQUEST.code(),
+                    "'from' and 'to' must be ISO-8601 instants, e.g. 2024-01-31T10:00:00Z", e));
+        }
+    }
+
     private void delCallStatsOfIp(RoutingContext reqCtx) {
         var ip = reqCtx.pathParam("ip");
         trackedCallRepo.deleteByIp(ip)
@@ -138,6 +420,61 @@ public class ApiVerticle extends AbstractVerticle {
                 .subscribe(() -> {}, err -> reqCtx.fail(err));
     }
 
+    private void handleGetResponseCacheStats(RoutingContext reqCtx) {
+        reqCtx.response().rxEnd(responseCache.stats().toBuffer())
+                .subscribe(() -> {}, err -> reqCtx.fail(err));
+    }
+
+    private void handleGetCoalescingStats(RoutingContext reqCtx) {
+        reqCtx.response().rxEnd(coalescingStats.toJson().toBuffer())
+                .subscribe(() -> {}, err -> reqCtx.fail(err));
+    }
+
+    private void handleGetMetrics(RoutingContext reqCtx) {
+        var out = new PrometheusWriter();
+        stageMetrics.writeTo(out);
+        upstreamMetrics.writeTo(out);
+        if (responseCache != null) {
+            responseCache.writeTo(out);
+        }
+        reqCtx.response()
+                .putHeader(CONTENT_TYPE, PrometheusWriter.CONTENT_TYPE)
+                .rxEnd(out.toBuffer())
+                .subscribe(() -> {}, err -> reqCtx.fail(err));
+    }
+
+    private void handleGetHeavyHitters(RoutingContext reqCtx) {
+        var maxLimit = cfg.getHeavyHitterTracking().getCapacity();
+        int limit;
+        try {
+            var limitParam = reqCtx.queryParams().get(PARAM_LIMIT);
+            limit = limitParam != null ? Integer.parseInt(limitParam) : Math.min(DEFAULT_HEAVY_HITTERS_LIMIT, maxLimit);
+        } catch (NumberFormatException e) {
+            limit = -1;
+        }
+        if (limit <= 0 || limit > maxLimit) {
+            reqCtx.fail(new ProxyPublicException(BAD_REQUEST.code(), "'limit' must be within 1.." + maxLimit));
+            return;
+        }
+        heavyHitterTracker.top(limit)
+                .flatMapCompletable(top -> reqCtx.response().rxEnd(new JsonObject()
+                        .put("window", top.getWindow().toString())
+                        .put("ips", heavyHittersJson(top.getIps(), "ip"))
+                        .put("methods", heavyHittersJson(top.getMethods(), "method"))
+                        .toBuffer()))
+                .subscribe(() -> {}, err -> reqCtx.fail(err));
+    }
+
+    private static JsonArray heavyHittersJson(List<HeavyHitter> heavyHitters, String keyName) {
+        var json = new JsonArray();
+        for (var heavyHitter : heavyHitters) {
+            json.add(new JsonObject()
+                    .put(keyName, heavyHitter.getKey())
+                    .put("calls", heavyHitter.getCalls()));
+        }
+        return json;
+    }
+
     private void handleErr(RoutingContext reqCtx) {
         var err = reqCtx.failure();
         if (err instanceof ProxyPublicException publicErr) {
@@ -160,6 +497,9 @@ public class ApiVerticle extends AbstractVerticle {
     }
 
     private Maybe<ProxiedReqCtx> processWithTheChain(ProxiedReqCtx reqCtx) {
+        if (stageRecorder != null || JfrEvents.isHandlerStageEnabled()) {
+            return processWithTheChainMeasured(reqCtx);
+        }
         // handlers chain always contains at least one handler that forwards the request to the backend
         var iter = handlers.iterator();
         var first = iter.next();
@@ -170,4 +510,41 @@ public class ApiVerticle extends AbstractVerticle {
         }
         return result;
     }
+
+    private Maybe<ProxiedReqCtx> processWithTheChainMeasured(ProxiedReqCtx reqCtx) {
+        var result = measuredStage(0, reqCtx);
+        for (var i = 1; i < handlers.size(); i++) {
+            var stage = i;
+            result = result.flatMap(pCtx -> measuredStage(stage, pCtx));
+        }
+        return result;
+    }
+
+    private Maybe<ProxiedReqCtx> measuredStage(int stage, ProxiedReqCtx reqCtx) {
+        var event = JfrEvents.beginHandlerStage();
+        var startedAt = System.nanoTime();
+        return handlers.get(stage).handle(reqCtx).doOnEvent((pCtx, err) -> {
+            var latency = System.nanoTime() - startedAt;
+            String outcome;
+            if (err != null) {
+                outcome = "failed";
+                if (stageRecorder != null) {
+                    stageRecorder.onFailed(stage, latency);
+                }
+            } else if (pCtx != null) {
+                outcome = "passed";
+                if (stageRecorder != null) {
+                    stageRecorder.onPassed(stage, latency);
+                }
+            } else {
+                // the stage has already responded, e.g. with 429
+                outcome = "responded";
+                if (stageRecorder != null) {
+                    stageRecorder.onShortCircuited(stage, latency,
+                            reqCtx.getIncomingReqCtx().response().getStatusCode());
+                }
+            }
+            JfrEvents.endHandlerStage(event, stageNames.get(stage), reqCtx, outcome);
+        });
+    }
 }
@@ -1,14 +1,35 @@
 package com.dburyak.exercise.jsonrpc;
 
+import com.dburyak.exercise.jsonrpc.Config.RateLimitingMode;
+import com.dburyak.exercise.jsonrpc.accesslog.BinaryAccessLog;
+import com.dburyak.exercise.jsonrpc.cache.CoalescingStats;
+import com.dburyak.exercise.jsonrpc.cache.ChainHead;
+import com.dburyak.exercise.jsonrpc.cache.ResponseCache;
 import com.dburyak.exercise.jsonrpc.handlers.AccessLoggingHandler;
 import com.dburyak.exercise.jsonrpc.handlers.CallTrackingHandler;
-import com.dburyak.exercise.jsonrpc.handlers.GlobalIpRateLimiter;
 import com.dburyak.exercise.jsonrpc.handlers.JsonRpcParsingHandler;
 import com.dburyak.exercise.jsonrpc.handlers.MetadataPopulatingHandler;
-import com.dburyak.exercise.jsonrpc.handlers.PerMethodRateLimiter;
+import com.dburyak.exercise.jsonrpc.handlers.RateLimitingHandler;
 import com.dburyak.exercise.jsonrpc.handlers.ReqForwardingHandler;
+import com.dburyak.exercise.jsonrpc.handlers.RequestCoalescingHandler;
+import com.dburyak.exercise.jsonrpc.handlers.ResponseCacheLookupHandler;
+import com.dburyak.exercise.jsonrpc.handlers.ResponseCacheStoringHandler;
+import com.dburyak.exercise.jsonrpc.lb.Backend;
+import com.dburyak.exercise.jsonrpc.lb.HedgingPolicy;
+import com.dburyak.exercise.jsonrpc.lb.LoadBalancers;
+import com.dburyak.exercise.jsonrpc.lb.RetryPolicy;
+import com.dburyak.exercise.jsonrpc.metrics.StageMetrics;
+import com.dburyak.exercise.jsonrpc.metrics.UpstreamMetrics;
+import com.dburyak.exercise.jsonrpc.ratelimit.LocalRateLimiter;
+import com.dburyak.exercise.jsonrpc.redis.RedisScript;
+import com.dburyak.exercise.jsonrpc.repo.MethodDictionary;
 import com.dburyak.exercise.jsonrpc.repo.TrackedCallRepository;
 import com.dburyak.exercise.jsonrpc.repo.TrackedCallRepositoryRedisImpl;
+import com.dburyak.exercise.jsonrpc.tracking.CallTrackingAggregator;
+import com.dburyak.exercise.jsonrpc.tracking.CallTrackingJournal;
+import com.dburyak.exercise.jsonrpc.tracking.CallTrackingMigrationJob;
+import com.dburyak.exercise.jsonrpc.tracking.CallTrackingRollupJob;
+import com.dburyak.exercise.jsonrpc.tracking.HeavyHitterTracker;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import io.reactivex.rxjava3.core.Completable;
@@ -18,16 +39,15 @@ import io.vertx.config.ConfigRetrieverOptions;
 import io.vertx.config.ConfigStoreOptions;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import io.vertx.ext.web.client.WebClientOptions;
 import io.vertx.rxjava3.config.ConfigRetriever;
 import io.vertx.rxjava3.core.RxHelper;
 import io.vertx.rxjava3.core.Vertx;
 import io.vertx.rxjava3.core.http.HttpClient;
-import io.vertx.rxjava3.ext.web.client.WebClient;
 import io.vertx.rxjava3.redis.client.Redis;
 import io.vertx.rxjava3.redis.client.RedisConnection;
 import lombok.extern.log4j.Log4j2;
 
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
@@ -38,10 +58,15 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 @Log4j2
 public class App {
+    private static final String RATE_LIMIT_SCRIPT = "redis/rate-limit.lua";
+    private static final String RATE_LIMIT_SYNC_SCRIPT = "redis/rate-limit-sync.lua";
+    private static final String METHOD_IDS_SCRIPT = "redis/method-ids.lua";
+    private static final String MIGRATE_METHOD_FIELDS_SCRIPT = "redis/migrate-method-fields.lua";
     private volatile Vertx vertx;
     private volatile Config cfg;
     private volatile List<String> verticleIds = List.of();
     private volatile HttpClient httpClient;
+    private volatile List<AsyncCloseable> sharedComponents = List.of();
     private final AtomicBoolean isShuttingDown = new AtomicBoolean(false);
 
     public static void main(String[] args) {
@@ -59,20 +84,67 @@ public class App {
                 .flatMap(cfg -> {
                     this.cfg = cfg;
                     httpClient = buildHttpClient(vertx);
-                    var webClient = buildWebClient(httpClient);
                     var redisClient = buildRedisClient(vertx, cfg);
                     var globalIpRtlmtCache = buildGlobalIpRtlmtCaffeineCache(cfg);
                     var perMethodIpRtlmtCache = buildPerMethodIpRtlmtCaffeineCache(cfg);
+                    // backends state is shared by all the verticles, so that load balancing decisions are based on the
+                    // whole load of this proxy instance
+                    var backends = LoadBalancers.buildBackends(cfg);
+                    var chainHead = new ChainHead();
+                    var responseCache = buildResponseCache(cfg, chainHead);
+                    var coalescingStats = cfg.isRequestCoalescingEnabled() ? new CoalescingStats() : null;
+                    var binaryAccessLog = buildBinaryAccessLog(cfg);
+                    var stageMetrics = cfg.isMetricsEnabled() ? new StageMetrics() : null;
+                    var upstreamMetrics = cfg.isMetricsEnabled() ? new UpstreamMetrics(backends) : null;
+                    var rateLimitScript = RedisScript.fromResource(RATE_LIMIT_SCRIPT);
+                    var rateLimitSyncScript = RedisScript.fromResource(RATE_LIMIT_SYNC_SCRIPT);
+                    var methodIdsScript = RedisScript.fromResource(METHOD_IDS_SCRIPT);
+                    var migrateMethodFieldsScript = RedisScript.fromResource(MIGRATE_METHOD_FIELDS_SCRIPT);
                     return redisClient.rxConnect().flatMap(redis -> {
-                        var callRepo = buildCallRepo(redis);
-                        return Observable.range(0, cfg.getNumVerticles())
+                        var callRepo = buildCallRepo(cfg, redis, methodIdsScript, migrateMethodFieldsScript);
+                        var callTrackingAggregator = buildCallTrackingAggregator(cfg, callRepo);
+                        var localRateLimiter = buildLocalRateLimiter(cfg, redis, rateLimitSyncScript);
+                        var heavyHitterTracker = buildHeavyHitterTracker(cfg, redis);
+                        var shared = new ArrayList<AsyncCloseable>();
+                        if (localRateLimiter != null) {
+                            localRateLimiter.start();
+                            shared.add(localRateLimiter);
+                        }
+                        callTrackingAggregator.start();
+                        shared.add(callTrackingAggregator);
+                        if (cfg.getCallTrackingBuckets().isEnabled()) {
+                            var rollupJob = new CallTrackingRollupJob(callRepo, Duration.ofMinutes(1));
+                            rollupJob.start();
+                            shared.add(rollupJob);
+                        }
+                        if (cfg.getCallTrackingMethodIds().isEnabled()) {
+                            var migrationJob = new CallTrackingMigrationJob(callRepo);
+                            migrationJob.start();
+                            shared.add(migrationJob);
+                        }
+                        if (heavyHitterTracker != null) {
+                            heavyHitterTracker.start();
+                            shared.add(heavyHitterTracker);
+                        }
+                        if (binaryAccessLog != null) {
+                            binaryAccessLog.start();
+                            shared.add(binaryAccessLog);
+                        }
+                        sharedComponents = List.copyOf(shared);
+                        return preloadRedisScripts(cfg, redis, rateLimitScript, rateLimitSyncScript,
+                                methodIdsScript)
+                                .andThen(Observable.range(0, cfg.getNumVerticles()))
                                 .flatMapSingle(i -> {
                                     // request handlers may be stateful, so we create a separate instance for each
                                     // verticle
-                                    var proxiedReqHandlersChain = buildHandlersChain(cfg, webClient,
-                                            redis, globalIpRtlmtCache, perMethodIpRtlmtCache, callRepo);
-                                    return vertx.rxDeployVerticle(new ApiVerticle(cfg,
-                                            proxiedReqHandlersChain, callRepo));
+                                    var proxiedReqHandlersChain = buildHandlersChain(cfg, httpClient, backends,
+                                            chainHead, redis, rateLimitScript, localRateLimiter, globalIpRtlmtCache,
+                                            perMethodIpRtlmtCache, responseCache, coalescingStats,
+                                            callTrackingAggregator, heavyHitterTracker, binaryAccessLog,
+                                            upstreamMetrics);
+                                    return vertx.rxDeployVerticle(new ApiVerticle(cfg, proxiedReqHandlersChain,
+                                            callRepo, responseCache, coalescingStats, heavyHitterTracker,
+                                            stageMetrics, upstreamMetrics));
                                 })
                                 .toList();
                     });
@@ -96,9 +168,10 @@ public class App {
         }
         var shutdownStartedAt = Instant.now();
         log.info("shutting down");
-        // Graceful shutdown in 3 steps:
+        // Graceful shutdown in 4 steps:
         // - first undeploy verticles to let them gracefully close their resources and stop receiving new requests (at
         //   this stage we still can have some queued up downstream requests)
+        // - then close components shared by all the verticles (e.g. flush locally accumulated state to redis)
         // - then gracefully shutdown (not the same as "close") the HttpClient we use to call proxied backends
         // - now we're good to close the Vertx instance. Vertx automatically closes any associated resources created
         //   via its API (e.g. HttpClient, Redis client, etc.), but does that abruptly killing any in-flight data.
@@ -110,7 +183,10 @@ public class App {
                 : Completable.complete();
         Observable.fromIterable(verticleIds)
                 .flatMapCompletable(vertx::rxUndeploy)
-                .doOnComplete(() -> log.info("all verticles stopped, closing downstream http client"))
+                .doOnComplete(() -> log.info("all verticles stopped, closing shared components"))
+                .andThen(Observable.fromIterable(sharedComponents)
+                        .concatMapCompletable(AsyncCloseable::closeAsync))
+                .doOnComplete(() -> log.info("shared components closed, closing downstream http client"))
                 .andThen(closeHttpClient)
                 .doOnComplete(() -> log.info("closing vertx"))
                 .andThen(vertx.rxClose())
@@ -143,24 +219,49 @@ public class App {
         );
     }
 
-    private static List<ReqHandler> buildHandlersChain(Config cfg, WebClient webClient, RedisConnection redis,
+    private static List<ReqHandler> buildHandlersChain(Config cfg, HttpClient httpClient, List<Backend> backends,
+            ChainHead chainHead, RedisConnection redis, RedisScript rateLimitScript, LocalRateLimiter localRateLimiter,
             Cache<String, Long> globalIpRtlmtCache, Cache<String, Long> perMethodIpRtlmtCache,
-            TrackedCallRepository callRepo) {
+            ResponseCache responseCache, CoalescingStats coalescingStats,
+            CallTrackingAggregator callTrackingAggregator, HeavyHitterTracker heavyHitterTracker,
+            BinaryAccessLog binaryAccessLog, UpstreamMetrics upstreamMetrics) {
         var handlers = new ArrayList<ReqHandler>();
         handlers.add(new MetadataPopulatingHandler()); // 1 - populate metadata (e.g. caller's IP)
-        if (cfg.getGlobalIpRateLimiting().isEnabled()) {
-            handlers.add(new GlobalIpRateLimiter(cfg, globalIpRtlmtCache, redis)); // 2 - global IP rate limiter
+        // parsing is cheap (only the envelope is scanned), and rate limiting needs to know the calls of the batch
+        // along with their methods, so parsing goes first
+        handlers.add(new JsonRpcParsingHandler(cfg, chainHead)); // 2 - parse and validate JSON-RPC request
+        if (cfg.getGlobalIpRateLimiting().isEnabled() || cfg.getPerMethodIpRateLimiting().isEnabled()) {
+            // 3 - global and per-method IP rate limiting, both checked with a single redis call (or locally)
+            handlers.add(new RateLimitingHandler(cfg, globalIpRtlmtCache, perMethodIpRtlmtCache, redis,
+                    rateLimitScript, localRateLimiter));
         }
-        handlers.add(new JsonRpcParsingHandler()); // 3 - parse and validate JSON-RPC request
-        if (cfg.getPerMethodIpRateLimiting().isEnabled()) {
-            handlers.add(new PerMethodRateLimiter(cfg, perMethodIpRtlmtCache, redis)); // 4 - per-method IP rate limiter
+        if (responseCache != null) {
+            // cache hits still count towards the rate limits and are tracked as usual calls
+            handlers.add(new ResponseCacheLookupHandler(responseCache)); // 4 - serve immutable results from the cache
         }
-        handlers.add(new ReqForwardingHandler(cfg, webClient)); // 5 - forward the request to backend
-        handlers.add(new CallTrackingHandler(cfg, callRepo)); // 6 - track the call
+        var loadBalancer = LoadBalancers.create(cfg, backends);
+        var upstreamRecorder = upstreamMetrics != null ? upstreamMetrics.newRecorder() : null;
+        var hedgingPolicy = cfg.getHedging().isEnabled() && backends.size() > 1
+                ? new HedgingPolicy(cfg.getHedging())
+                : null;
+        var retryPolicy = cfg.getRetries().isEnabled() && backends.size() > 1
+                ? new RetryPolicy(cfg.getRetries())
+                : null;
+        ReqHandler forwardingHandler = new ReqForwardingHandler(cfg, httpClient.getDelegate(), loadBalancer,
+                upstreamRecorder, hedgingPolicy, retryPolicy);
+        if (coalescingStats != null) {
+            // identical in-flight calls share a single backend call
+            forwardingHandler = new RequestCoalescingHandler(forwardingHandler, coalescingStats);
+        }
+        handlers.add(forwardingHandler); // 5 - forward the request to backend
+        if (responseCache != null) {
+            handlers.add(new ResponseCacheStoringHandler(responseCache)); // 6 - cache the backend responses
+        }
+        handlers.add(new CallTrackingHandler(callTrackingAggregator, heavyHitterTracker)); // 7 - track the call
         if (cfg.isAccessLogEnabled()) {
             // NOTE: depending on what information should be captured in the access log, we can place this handler
             // in different places in the chain.
-            handlers.add(new AccessLoggingHandler(cfg)); // 7 - access logging
+            handlers.add(new AccessLoggingHandler(cfg, binaryAccessLog)); // 8 - access logging
         }
         return handlers;
     }
@@ -169,18 +270,76 @@ public class App {
         return vertx.createHttpClient();
     }
 
-    private static WebClient buildWebClient(HttpClient httpClient) {
-        // we pass the "user-agent" header value down from the incoming request
-        return WebClient.wrap(httpClient, new WebClientOptions().setUserAgentEnabled(false));
-    }
-
     private static Redis buildRedisClient(Vertx vertx, Config cfg) {
         log.debug("using redis uri: {}", cfg.getRedisUri());
         return Redis.createClient(vertx, cfg.getRedisUri());
     }
 
-    private static TrackedCallRepository buildCallRepo(RedisConnection redis) {
-        return new TrackedCallRepositoryRedisImpl(redis);
+    private static Completable preloadRedisScripts(Config cfg, RedisConnection redis, RedisScript rateLimitScript,
+            RedisScript rateLimitSyncScript, RedisScript methodIdsScript) {
+        // not strictly required, scripts are loaded on the first call anyway, but this way the first requests don't
+        // pay for the extra round trip
+        var scripts = new ArrayList<RedisScript>();
+        if (cfg.getGlobalIpRateLimiting().isEnabled() || cfg.getPerMethodIpRateLimiting().isEnabled()) {
+            scripts.add(rateLimitScript);
+        }
+        if (isLocalRateLimitingEnabled(cfg)) {
+            scripts.add(rateLimitSyncScript);
+        }
+        if (cfg.getCallTrackingMethodIds().isEnabled()) {
+            scripts.add(methodIdsScript);
+        }
+        return Observable.fromIterable(scripts)
+                .flatMapCompletable(script -> script.rxLoad(redis));
+    }
+
+    private static boolean isLocalRateLimitingEnabled(Config cfg) {
+        var globalCfg = cfg.getGlobalIpRateLimiting();
+        var perMethodCfg = cfg.getPerMethodIpRateLimiting();
+        return (globalCfg.isEnabled() && globalCfg.getMode() == RateLimitingMode.LOCAL)
+                || (perMethodCfg.isEnabled() && perMethodCfg.getMode() == RateLimitingMode.LOCAL);
+    }
+
+    private static LocalRateLimiter buildLocalRateLimiter(Config cfg, RedisConnection redis,
+            RedisScript rateLimitSyncScript) {
+        if (!isLocalRateLimitingEnabled(cfg)) {
+            return null;
+        }
+        // shared by all the verticles, so that the limits are enforced for the whole proxy instance
+        return new LocalRateLimiter(redis, rateLimitSyncScript, cfg.getRateLimitSyncInterval());
+    }
+
+    private static TrackedCallRepository buildCallRepo(Config cfg, RedisConnection redis, RedisScript methodIdsScript,
+            RedisScript migrateMethodFieldsScript) {
+        // the dictionary is needed to read method ids even if they're not written anymore
+        var dictionary = new MethodDictionary(redis, methodIdsScript, cfg.getCallTrackingMethodIds().getMaxMethods());
+        return new TrackedCallRepositoryRedisImpl(redis, cfg.getCallTrackingBuckets(), cfg.getCallTrackingMethodIds(),
+                dictionary, migrateMethodFieldsScript);
+    }
+
+    private static CallTrackingAggregator buildCallTrackingAggregator(Config cfg, TrackedCallRepository callRepo) {
+        var journalCfg = cfg.getCallTrackingJournaling();
+        var journal = journalCfg.isEnabled()
+                ? new CallTrackingJournal(Path.of(journalCfg.getDir()), journalCfg.getSegmentSizeMb() * 1024 * 1024)
+                : null;
+        // shared by all the verticles, so that the whole proxy instance writes to redis once per flush interval
+        return new CallTrackingAggregator(callRepo, Duration.ofSeconds(1), 10_000, journal);
+    }
+
+    private static HeavyHitterTracker buildHeavyHitterTracker(Config cfg, RedisConnection redis) {
+        if (!cfg.getHeavyHitterTracking().isEnabled()) {
+            return null;
+        }
+        // shared by all the verticles, so that the whole proxy instance publishes a single sketch per slot
+        return new HeavyHitterTracker(redis, cfg.getHeavyHitterTracking());
+    }
+
+    private static BinaryAccessLog buildBinaryAccessLog(Config cfg) {
+        if (!cfg.isAccessLogEnabled() || !cfg.getBinaryAccessLogging().isEnabled()) {
+            return null;
+        }
+        // shared by all the verticles, so that there's a single writer of the files
+        return new BinaryAccessLog(cfg.getBinaryAccessLogging());
     }
 
     private static Cache<String, Long> buildGlobalIpRtlmtCaffeineCache(Config cfg) {
@@ -192,6 +351,13 @@ public class App {
                 .build();
     }
 
+    private static ResponseCache buildResponseCache(Config cfg, ChainHead chainHead) {
+        if (!cfg.getResponseCaching().isEnabled()) {
+            return null;
+        }
+        return new ResponseCache(cfg.getResponseCaching(), chainHead);
+    }
+
     private static Cache<String, Long> buildPerMethodIpRtlmtCaffeineCache(Config cfg) {
         if (!cfg.getPerMethodIpRateLimiting().isEnabled()) {
             return null;
@@ -0,0 +1,16 @@
+package com.dburyak.exercise.jsonrpc;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import lombok.Value;
+
+/**
+ * Response of a backend with the body fully read.
+ */
+@Value
+public class BackendResponse {
+    int statusCode;
+    String statusMessage;
+    MultiMap headers;
+    Buffer body;
+}
@@ -2,12 +2,15 @@ package com.dburyak.exercise.jsonrpc;
 
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import lombok.Getter;
 import lombok.Value;
 
 import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -27,6 +30,17 @@ public class Config {
     public static final String TLS_P12_PATH_ENV = CFG_PREFIX_ENV + "TLS_P12_PATH";
     public static final String TLS_P12_PASSWORD_ENV = CFG_PREFIX_ENV + "TLS_P12_PASSWORD";
     public static final String REDIS_URI_ENV = CFG_PREFIX_ENV + "REDIS_URI";
+    public static final String RESPONSE_CACHE_ENABLED_ENV = CFG_PREFIX_ENV + "RESPONSE_CACHE_ENABLED";
+    public static final String REQUEST_COALESCING_ENABLED_ENV = CFG_PREFIX_ENV + "REQUEST_COALESCING_ENABLED";
+    public static final String CALL_TRACKING_JOURNAL_ENABLED_ENV = CFG_PREFIX_ENV + "CALL_TRACKING_JOURNAL_ENABLED";
+    public static final String CALL_TRACKING_JOURNAL_DIR_ENV = CFG_PREFIX_ENV + "CALL_TRACKING_JOURNAL_DIR";
+    public static final String CALL_TRACKING_METHOD_IDS_ENABLED_ENV =
+            CFG_PREFIX_ENV + "CALL_TRACKING_METHOD_IDS_ENABLED";
+    public static final String HEAVY_HITTERS_ENABLED_ENV = CFG_PREFIX_ENV + "HEAVY_HITTERS_ENABLED";
+    public static final String BINARY_ACCESS_LOG_ENABLED_ENV = CFG_PREFIX_ENV + "BINARY_ACCESS_LOG_ENABLED";
+    public static final String METRICS_ENABLED_ENV = CFG_PREFIX_ENV + "METRICS_ENABLED";
+    public static final String HEDGING_ENABLED_ENV = CFG_PREFIX_ENV + "HEDGING_ENABLED";
+    public static final String RETRIES_ENABLED_ENV = CFG_PREFIX_ENV + "RETRIES_ENABLED";
     public static final List<String> ALL_ENV_VARS = List.of(
             NUM_VERTICLES_ENV,
             PORT_ENV,
@@ -39,7 +53,17 @@ public class Config {
             TLS_ENABLED_ENV,
             TLS_P12_PATH_ENV,
             TLS_P12_PASSWORD_ENV,
-            REDIS_URI_ENV
+            REDIS_URI_ENV,
+            RESPONSE_CACHE_ENABLED_ENV,
+            REQUEST_COALESCING_ENABLED_ENV,
+            CALL_TRACKING_JOURNAL_ENABLED_ENV,
+            CALL_TRACKING_JOURNAL_DIR_ENV,
+            CALL_TRACKING_METHOD_IDS_ENABLED_ENV,
+            HEAVY_HITTERS_ENABLED_ENV,
+            BINARY_ACCESS_LOG_ENABLED_ENV,
+            METRICS_ENABLED_ENV,
+            HEDGING_ENABLED_ENV,
+            RETRIES_ENABLED_ENV
     );
 
     private static final String CFG_PREFIX = "jsonrpc";
@@ -57,10 +81,63 @@ public class Config {
     private static final String TIME_WINDOW = "timeWindow";
     private static final String LOCAL_CACHE_SIZE = "localCacheSize";
     private static final String METHODS = "methods";
+    private static final String MODE = "mode";
+    private static final String MAX_OVERSHOOT = "maxOvershoot";
+    private static final String ALGORITHM = "algorithm";
+    private static final String RATE_LIMIT_SYNC_INTERVAL = "rateLimitSyncInterval";
     private static final String CALL_TRACKING_API_PATH = "callTrackingApiPath";
     private static final String ACCESS_LOG_ENABLED = "accessLogEnabled";
     private static final String TLS_ENABLED = "tlsEnabled";
     private static final String REDIS_URI = "redisUri";
+    private static final String MAX_BATCH_SIZE = "maxBatchSize";
+    private static final String MAX_UPSTREAM_BATCH_SIZE = "maxUpstreamBatchSize";
+    private static final String BACKEND_TIMEOUT = "backendTimeout";
+    private static final String LOAD_BALANCING = "loadBalancing";
+    private static final String STRATEGY = "strategy";
+    private static final String MAX_CONSECUTIVE_FAILURES = "maxConsecutiveFailures";
+    private static final String EJECTION_COOLDOWN = "ejectionCooldown";
+    private static final String SLOW_START = "slowStart";
+    private static final String STATS_API_PATH = "statsApiPath";
+    private static final String METRICS_ENABLED = "metricsEnabled";
+    private static final String METRICS_API_PATH = "metricsApiPath";
+    private static final String RESPONSE_CACHE = "responseCache";
+    private static final String MAX_SIZE_MB = "maxSizeMb";
+    private static final String FINALITY_DEPTH = "finalityDepth";
+    private static final String COMPUTE_UNITS = "computeUnits";
+    private static final String DEFAULT_COST = "defaultCost";
+    private static final String MAX_BLOCK_RANGE = "maxBlockRange";
+    private static final String COST = "cost";
+    private static final String PER_BLOCK_COST = "perBlockCost";
+    private static final String REQUEST_COALESCING_ENABLED = "requestCoalescingEnabled";
+    private static final String CALL_TRACKING_JOURNAL = "callTrackingJournal";
+    private static final String DIR = "dir";
+    private static final String SEGMENT_SIZE_MB = "segmentSizeMb";
+    private static final String CALL_TRACKING_BUCKETS = "callTrackingBuckets";
+    private static final String MINUTE_RETENTION = "minuteRetention";
+    private static final String HOUR_RETENTION = "hourRetention";
+    private static final String DAY_RETENTION = "dayRetention";
+    private static final String ROLLUP_DELAY = "rollupDelay";
+    private static final String CALL_TRACKING_METHOD_IDS = "callTrackingMethodIds";
+    private static final String MAX_METHODS = "maxMethods";
+    private static final String HEAVY_HITTERS = "heavyHitters";
+    private static final String WINDOW = "window";
+    private static final String SLOTS = "slots";
+    private static final String CAPACITY = "capacity";
+    private static final String SKETCH_DEPTH = "sketchDepth";
+    private static final String SKETCH_WIDTH = "sketchWidth";
+    private static final String PUBLISH_INTERVAL = "publishInterval";
+    private static final String BINARY_ACCESS_LOG = "binaryAccessLog";
+    private static final String FILE_SIZE_MB = "fileSizeMb";
+    private static final String MAX_FILES = "maxFiles";
+    private static final String RING_CAPACITY = "ringCapacity";
+    private static final String HEDGING = "hedging";
+    private static final String PERCENTILE = "percentile";
+    private static final String MIN_DELAY = "minDelay";
+    private static final String MAX_DELAY = "maxDelay";
+    private static final String BUDGET_PERCENT = "budgetPercent";
+    private static final String RETRIES = "retries";
+    private static final String MAX_ATTEMPTS = "maxAttempts";
+    private static final String ERROR_MESSAGES = "errorMessages";
 
 
     int numVerticles;
@@ -70,12 +147,30 @@ public class Config {
     Duration gracefulShutdownTimeout;
     GlobalIpRateLimiting globalIpRateLimiting;
     PerMethodIpRateLimiting perMethodIpRateLimiting;
+    Duration rateLimitSyncInterval;
     String callTrackingApiPath;
     boolean accessLogEnabled;
     boolean tlsEnabled;
     String tlsP12Path;
     String tlsP12Password;
     String redisUri;
+    int maxBatchSize;
+    int maxUpstreamBatchSize;
+    Duration backendTimeout;
+    LoadBalancing loadBalancing;
+    String statsApiPath;
+    boolean metricsEnabled;
+    String metricsApiPath;
+    ResponseCaching responseCaching;
+    ComputeUnits computeUnits;
+    boolean requestCoalescingEnabled;
+    CallTrackingJournaling callTrackingJournaling;
+    CallTrackingBuckets callTrackingBuckets;
+    CallTrackingMethodIds callTrackingMethodIds;
+    HeavyHitterTracking heavyHitterTracking;
+    BinaryAccessLogging binaryAccessLogging;
+    Hedging hedging;
+    Retries retries;
 
     public Config(JsonObject cfgRootJson) {
         var cfgProxyJson = cfgRootJson.getJsonObject(CFG_PREFIX);
@@ -98,9 +193,18 @@ public class Config {
                         () -> false),
                 getInt(null, null, REQUESTS, globalIpRateLmtlCfgJson, () -> 5_000),
                 parseDuration(getString(null, null, TIME_WINDOW, globalIpRateLmtlCfgJson, () -> "1m")),
-                getInt(null, null, LOCAL_CACHE_SIZE, globalIpRateLmtlCfgJson, () -> 5_000)
+                getInt(null, null, LOCAL_CACHE_SIZE, globalIpRateLmtlCfgJson, () -> 5_000),
+                RateLimitingMode.parse(getString(null, null, MODE, globalIpRateLmtlCfgJson, () -> "redis")),
+                getDouble(null, null, MAX_OVERSHOOT, globalIpRateLmtlCfgJson, () -> 0.1),
+                RateLimitingAlgorithm.parse(getString(null, null, ALGORITHM, globalIpRateLmtlCfgJson,
+                        () -> "fixedWindow"))
         );
         this.perMethodIpRateLimiting = parsePerMethodIpRateLmtCfg(cfgRootJson);
+        this.rateLimitSyncInterval = parseDuration(getString(null, null, RATE_LIMIT_SYNC_INTERVAL, cfgProxyJson,
+                () -> "0.1s"));
+        if (rateLimitSyncInterval.isNegative() || rateLimitSyncInterval.isZero()) {
+            throw new IllegalArgumentException(RATE_LIMIT_SYNC_INTERVAL + " must be > 0");
+        }
         this.callTrackingApiPath = getString(null, null, CALL_TRACKING_API_PATH, cfgProxyJson,
                 () -> "/call-tracking");
         this.accessLogEnabled = getBoolean(ACCESS_LOG_ENABLED_ENV, cfgRootJson, ACCESS_LOG_ENABLED, cfgProxyJson,
@@ -116,6 +220,98 @@ public class Config {
         this.tlsP12Path = tlsP12Path;
         this.tlsP12Password = tlsP12Password;
         this.redisUri = getString(REDIS_URI_ENV, cfgRootJson, REDIS_URI, cfgProxyJson, () -> "redis://localhost:6379");
+        this.maxBatchSize = getInt(null, null, MAX_BATCH_SIZE, cfgProxyJson, () -> 1_000);
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException(MAX_BATCH_SIZE + " must be > 0");
+        }
+        this.maxUpstreamBatchSize = getInt(null, null, MAX_UPSTREAM_BATCH_SIZE, cfgProxyJson, () -> 50);
+        if (maxUpstreamBatchSize <= 0) {
+            throw new IllegalArgumentException(MAX_UPSTREAM_BATCH_SIZE + " must be > 0");
+        }
+        this.backendTimeout = parseDuration(getString(null, null, BACKEND_TIMEOUT, cfgProxyJson, () -> "30s"));
+        var lbCfgJson = cfgProxyJson != null ? cfgProxyJson.getJsonObject(LOAD_BALANCING) : null;
+        this.loadBalancing = new LoadBalancing(
+                LoadBalancing.Strategy.parse(getString(null, null, STRATEGY, lbCfgJson, () -> "leastLoaded")),
+                getInt(null, null, MAX_CONSECUTIVE_FAILURES, lbCfgJson, () -> 5),
+                parseDuration(getString(null, null, EJECTION_COOLDOWN, lbCfgJson, () -> "10s")),
+                parseDuration(getString(null, null, SLOW_START, lbCfgJson, () -> "30s"))
+        );
+        this.statsApiPath = getString(null, null, STATS_API_PATH, cfgProxyJson, () -> "/stats");
+        this.metricsEnabled = getBoolean(METRICS_ENABLED_ENV, cfgRootJson, METRICS_ENABLED, cfgProxyJson, () -> true);
+        this.metricsApiPath = getString(null, null, METRICS_API_PATH, cfgProxyJson, () -> "/metrics");
+        var respCacheCfgJson = cfgProxyJson != null ? cfgProxyJson.getJsonObject(RESPONSE_CACHE) : null;
+        this.responseCaching = new ResponseCaching(
+                getBoolean(RESPONSE_CACHE_ENABLED_ENV, cfgRootJson, ENABLED, respCacheCfgJson, () -> true),
+                getInt(null, null, MAX_SIZE_MB, respCacheCfgJson, () -> 64),
+                getInt(null, null, FINALITY_DEPTH, respCacheCfgJson, () -> 64)
+        );
+        this.requestCoalescingEnabled = getBoolean(REQUEST_COALESCING_ENABLED_ENV, cfgRootJson,
+                REQUEST_COALESCING_ENABLED, cfgProxyJson, () -> true);
+        this.computeUnits = parseComputeUnitsCfg(cfgProxyJson);
+        var journalCfgJson = cfgProxyJson != null ? cfgProxyJson.getJsonObject(CALL_TRACKING_JOURNAL) : null;
+        this.callTrackingJournaling = new CallTrackingJournaling(
+                getBoolean(CALL_TRACKING_JOURNAL_ENABLED_ENV, cfgRootJson, ENABLED, journalCfgJson, () -> false),
+                getString(CALL_TRACKING_JOURNAL_DIR_ENV, cfgRootJson, DIR, journalCfgJson,
+                        () -> "data/call-tracking-journal"),
+                getInt(null, null, SEGMENT_SIZE_MB, journalCfgJson, () -> 8)
+        );
+        var bucketsCfgJson = cfgProxyJson != null ? cfgProxyJson.getJsonObject(CALL_TRACKING_BUCKETS) : null;
+        this.callTrackingBuckets = new CallTrackingBuckets(
+                getBoolean(null, null, ENABLED, bucketsCfgJson, () -> true),
+                parseDuration(getString(null, null, MINUTE_RETENTION, bucketsCfgJson, () -> "48h")),
+                parseDuration(getString(null, null, HOUR_RETENTION, bucketsCfgJson, () -> "840h")),
+                parseDuration(getString(null, null, DAY_RETENTION, bucketsCfgJson, () -> "9600h")),
+                parseDuration(getString(null, null, ROLLUP_DELAY, bucketsCfgJson, () -> "2m"))
+        );
+        var methodIdsCfgJson = cfgProxyJson != null ? cfgProxyJson.getJsonObject(CALL_TRACKING_METHOD_IDS) : null;
+        this.callTrackingMethodIds = new CallTrackingMethodIds(
+                getBoolean(CALL_TRACKING_METHOD_IDS_ENABLED_ENV, cfgRootJson, ENABLED, methodIdsCfgJson,
+                        () -> false),
+                getInt(null, null, MAX_METHODS, methodIdsCfgJson, () -> 10_000)
+        );
+        var heavyHittersCfgJson = cfgProxyJson != null ? cfgProxyJson.getJsonObject(HEAVY_HITTERS) : null;
+        this.heavyHitterTracking = new HeavyHitterTracking(
+                getBoolean(HEAVY_HITTERS_ENABLED_ENV, cfgRootJson, ENABLED, heavyHittersCfgJson, () -> true),
+                parseDuration(getString(null, null, WINDOW, heavyHittersCfgJson, () -> "5m")),
+                getInt(null, null, SLOTS, heavyHittersCfgJson, () -> 10),
+                getInt(null, null, CAPACITY, heavyHittersCfgJson, () -> 100),
+                getInt(null, null, SKETCH_DEPTH, heavyHittersCfgJson, () -> 4),
+                getInt(null, null, SKETCH_WIDTH, heavyHittersCfgJson, () -> 1024),
+                parseDuration(getString(null, null, PUBLISH_INTERVAL, heavyHittersCfgJson, () -> "5s"))
+        );
+        var binaryAccessLogCfgJson = cfgProxyJson != null ? cfgProxyJson.getJsonObject(BINARY_ACCESS_LOG) : null;
+        this.binaryAccessLogging = new BinaryAccessLogging(
+                getBoolean(BINARY_ACCESS_LOG_ENABLED_ENV, cfgRootJson, ENABLED, binaryAccessLogCfgJson, () -> false),
+                getString(null, null, DIR, binaryAccessLogCfgJson, () -> "data/access-log"),
+                getInt(null, null, FILE_SIZE_MB, binaryAccessLogCfgJson, () -> 64),
+                getInt(null, null, MAX_FILES, binaryAccessLogCfgJson, () -> 50),
+                getInt(null, null, RING_CAPACITY, binaryAccessLogCfgJson, () -> 16384)
+        );
+        var hedgingCfgJson = cfgProxyJson != null ? cfgProxyJson.getJsonObject(HEDGING) : null;
+        this.hedging = new Hedging(
+                getBoolean(HEDGING_ENABLED_ENV, cfgRootJson, ENABLED, hedgingCfgJson, () -> false),
+                // calls of unbounded cost (eth_call, eth_getLogs) are not hedged by default, a hedge doubles their cost
+                getStringList(null, null, METHODS, hedgingCfgJson, () -> List.of(
+                        "eth_blockNumber", "eth_chainId", "eth_getBalance", "eth_getCode", "eth_getStorageAt",
+                        "eth_getTransactionCount", "eth_getBlockByNumber", "eth_getBlockByHash",
+                        "eth_getTransactionByHash", "eth_getTransactionReceipt")),
+                getDouble(null, null, PERCENTILE, hedgingCfgJson, () -> 0.95),
+                parseDuration(getString(null, null, MIN_DELAY, hedgingCfgJson, () -> "0.005s")),
+                parseDuration(getString(null, null, MAX_DELAY, hedgingCfgJson, () -> "1s")),
+                getInt(null, null, BUDGET_PERCENT, hedgingCfgJson, () -> 10)
+        );
+        var retriesCfgJson = cfgProxyJson != null ? cfgProxyJson.getJsonObject(RETRIES) : null;
+        this.retries = new Retries(
+                getBoolean(RETRIES_ENABLED_ENV, cfgRootJson, ENABLED, retriesCfgJson, () -> false),
+                getStringList(null, null, METHODS, retriesCfgJson, () -> List.of(
+                        "eth_blockNumber", "eth_chainId", "eth_call", "eth_getBalance", "eth_getCode",
+                        "eth_getStorageAt", "eth_getTransactionCount", "eth_getBlockByNumber", "eth_getBlockByHash",
+                        "eth_getTransactionByHash", "eth_getTransactionReceipt", "eth_getLogs")),
+                getStringList(null, null, ERROR_MESSAGES, retriesCfgJson, () -> List.of(
+                        "header not found", "missing trie node", "unknown block")),
+                getInt(null, null, MAX_ATTEMPTS, retriesCfgJson, () -> 3),
+                getInt(null, null, BUDGET_PERCENT, retriesCfgJson, () -> 10)
+        );
     }
 
     @Value
@@ -124,8 +320,12 @@ public class Config {
         int requests;
         Duration timeWindow;
         int localCacheSize;
+        RateLimitingMode mode;
+        double maxOvershoot;
+        RateLimitingAlgorithm algorithm;
 
-        public GlobalIpRateLimiting(boolean enabled, int requests, Duration timeWindow, int localCacheSize) {
+        public GlobalIpRateLimiting(boolean enabled, int requests, Duration timeWindow, int localCacheSize,
+                RateLimitingMode mode, double maxOvershoot, RateLimitingAlgorithm algorithm) {
             if (requests <= 0) {
                 throw new IllegalArgumentException("requests must be > 0");
             }
@@ -135,10 +335,15 @@ public class Config {
             if (localCacheSize <= 0) {
                 throw new IllegalArgumentException("localCacheSize must be > 0");
             }
+            validateMaxOvershoot(maxOvershoot);
+            validateAlgorithm(mode, algorithm);
             this.enabled = enabled;
             this.requests = requests;
             this.timeWindow = timeWindow;
             this.localCacheSize = localCacheSize;
+            this.mode = mode;
+            this.maxOvershoot = maxOvershoot;
+            this.algorithm = algorithm;
         }
     }
 
@@ -147,17 +352,24 @@ public class Config {
         boolean enabled;
         int localCacheSize;
         Map<String, MethodCfg> methodCfgs;
+        RateLimitingMode mode;
+        double maxOvershoot;
 
-        public PerMethodIpRateLimiting(boolean enabled, int localCacheSize, Map<String, MethodCfg> methodCfgs) {
+        public PerMethodIpRateLimiting(boolean enabled, int localCacheSize, Map<String, MethodCfg> methodCfgs,
+                RateLimitingMode mode, double maxOvershoot) {
             if (localCacheSize <= 0) {
                 throw new IllegalArgumentException("localCacheSize must be > 0");
             }
             if (methodCfgs == null || methodCfgs.isEmpty()) {
                 throw new IllegalArgumentException("At least one method configuration must be provided");
             }
+            validateMaxOvershoot(maxOvershoot);
+            methodCfgs.values().forEach(m -> validateAlgorithm(mode, m.getAlgorithm()));
             this.enabled = enabled;
             this.localCacheSize = localCacheSize;
             this.methodCfgs = methodCfgs;
+            this.mode = mode;
+            this.maxOvershoot = maxOvershoot;
         }
 
         @Value
@@ -165,8 +377,9 @@ public class Config {
             String method;
             int requests;
             Duration timeWindow;
+            RateLimitingAlgorithm algorithm;
 
-            public MethodCfg(String method, int requests, Duration timeWindow) {
+            public MethodCfg(String method, int requests, Duration timeWindow, RateLimitingAlgorithm algorithm) {
                 if (method == null || method.isEmpty()) {
                     throw new IllegalArgumentException("method must be provided");
                 }
@@ -179,10 +392,444 @@ public class Config {
                 this.method = method;
                 this.requests = requests;
                 this.timeWindow = timeWindow;
+                this.algorithm = algorithm;
+            }
+        }
+    }
+
+    /**
+     * How rate limits are enforced:
+     * <ul>
+     *     <li>redis - exact, every request is checked against redis synchronously</li>
+     *     <li>local - approximate, decisions are made locally and synced with redis in the background, the limit may be
+     *     exceeded by up to "maxOvershoot" share of the limit per each proxy instance</li>
+     * </ul>
+     */
+    public enum RateLimitingMode {
+        REDIS("redis"),
+        LOCAL("local");
+
+        private final String cfgName;
+
+        RateLimitingMode(String cfgName) {
+            this.cfgName = cfgName;
+        }
+
+        public static RateLimitingMode parse(String cfgName) {
+            return Arrays.stream(values())
+                    .filter(m -> m.cfgName.equals(cfgName))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("unknown rate limiting mode: " + cfgName));
+        }
+    }
+
+    /**
+     * Rate limiting algorithm, configured per limit. All of them keep O(1) state per limited key:
+     * <ul>
+     *     <li>fixedWindow - counter of calls within the current window, allows up to 2x the limit across the window
+     *     boundary</li>
+     *     <li>slidingWindow - counters of the current and the previous windows, the previous one is weighted by how
+     *     much of it still overlaps with the sliding window ending now</li>
+     *     <li>gcra - generic cell rate algorithm, calls are spread evenly over the window, with bursts up to the
+     *     limit</li>
+     * </ul>
+     * Windows of all the algorithms except fixedWindow don't reset at the same moment for everyone.
+     */
+    public enum RateLimitingAlgorithm {
+        FIXED_WINDOW("fixedWindow"),
+        SLIDING_WINDOW("slidingWindow"),
+        GCRA("gcra");
+
+        @Getter
+        private final String cfgName;
+
+        RateLimitingAlgorithm(String cfgName) {
+            this.cfgName = cfgName;
+        }
+
+        public static RateLimitingAlgorithm parse(String cfgName) {
+            return Arrays.stream(values())
+                    .filter(a -> a.cfgName.equals(cfgName))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("unknown rate limiting algorithm: " + cfgName));
+        }
+    }
+
+    private static void validateAlgorithm(RateLimitingMode mode, RateLimitingAlgorithm algorithm) {
+        // local token buckets are synced with the redis counters of fixed windows
+        if (mode == RateLimitingMode.LOCAL && algorithm != RateLimitingAlgorithm.FIXED_WINDOW) {
+            throw new IllegalArgumentException("only fixedWindow algorithm is supported in local mode");
+        }
+    }
+
+    private static void validateMaxOvershoot(double maxOvershoot) {
+        if (maxOvershoot <= 0 || maxOvershoot > 1) {
+            throw new IllegalArgumentException("maxOvershoot must be in range (0, 1]");
+        }
+    }
+
+    @Value
+    public static class LoadBalancing {
+        Strategy strategy;
+        int maxConsecutiveFailures;
+        Duration ejectionCooldown;
+        Duration slowStart;
+
+        public LoadBalancing(Strategy strategy, int maxConsecutiveFailures, Duration ejectionCooldown,
+                Duration slowStart) {
+            if (maxConsecutiveFailures <= 0) {
+                throw new IllegalArgumentException("maxConsecutiveFailures must be > 0");
+            }
+            if (ejectionCooldown.isNegative() || ejectionCooldown.isZero()) {
+                throw new IllegalArgumentException("ejectionCooldown must be > 0");
+            }
+            if (slowStart.isNegative()) {
+                throw new IllegalArgumentException("slowStart must be >= 0");
+            }
+            this.strategy = strategy;
+            this.maxConsecutiveFailures = maxConsecutiveFailures;
+            this.ejectionCooldown = ejectionCooldown;
+            this.slowStart = slowStart;
+        }
+
+        public enum Strategy {
+            ROUND_ROBIN("roundRobin"),
+            LEAST_LOADED("leastLoaded");
+
+            private final String cfgName;
+
+            Strategy(String cfgName) {
+                this.cfgName = cfgName;
+            }
+
+            public static Strategy parse(String cfgName) {
+                return Arrays.stream(values())
+                        .filter(s -> s.cfgName.equals(cfgName))
+                        .findFirst()
+                        .orElseThrow(() -> new IllegalArgumentException("unknown load balancing strategy: " + cfgName));
+            }
+        }
+    }
+
+    @Value
+    public static class ResponseCaching {
+        boolean enabled;
+        int maxSizeMb;
+        int finalityDepth;
+
+        public ResponseCaching(boolean enabled, int maxSizeMb, int finalityDepth) {
+            if (maxSizeMb <= 0) {
+                throw new IllegalArgumentException("maxSizeMb must be > 0");
+            }
+            if (finalityDepth < 0) {
+                throw new IllegalArgumentException("finalityDepth must be >= 0");
+            }
+            this.enabled = enabled;
+            this.maxSizeMb = maxSizeMb;
+            this.finalityDepth = finalityDepth;
+        }
+    }
+
+    /**
+     * Local journal of tracked calls that are not persisted to redis yet, so that they survive redis outages and proxy
+     * restarts.
+     */
+    @Value
+    public static class CallTrackingJournaling {
+        boolean enabled;
+        String dir;
+        int segmentSizeMb;
+
+        public CallTrackingJournaling(boolean enabled, String dir, int segmentSizeMb) {
+            if (enabled && (dir == null || dir.isBlank())) {
+                throw new IllegalArgumentException("dir must be provided when call tracking journal is enabled");
+            }
+            if (segmentSizeMb <= 0) {
+                throw new IllegalArgumentException("segmentSizeMb must be > 0");
+            }
+            this.enabled = enabled;
+            this.dir = dir;
+            this.segmentSizeMb = segmentSizeMb;
+        }
+    }
+
+    /**
+     * Time-bucketed counters of tracked calls, in addition to all-time ones. Calls are counted into minute buckets,
+     * which are rolled up into hour buckets, which are rolled up into day buckets. Each bucket expires after the
+     * retention of its granularity.
+     */
+    @Value
+    public static class CallTrackingBuckets {
+        boolean enabled;
+        Duration minuteRetention;
+        Duration hourRetention;
+        Duration dayRetention;
+        Duration rollupDelay; // closed hour is rolled up only after this delay, so that late flushes make it in time
+
+        public CallTrackingBuckets(boolean enabled, Duration minuteRetention, Duration hourRetention,
+                Duration dayRetention, Duration rollupDelay) {
+            if (rollupDelay.isNegative()) {
+                throw new IllegalArgumentException("rollupDelay must be >= 0");
+            }
+            // fine buckets must outlive the rollup into the coarse ones
+            if (minuteRetention.compareTo(Duration.ofHours(1).plus(rollupDelay)) <= 0) {
+                throw new IllegalArgumentException("minuteRetention must be > 1h + rollupDelay");
+            }
+            if (hourRetention.compareTo(Duration.ofDays(1).plus(rollupDelay)) <= 0) {
+                throw new IllegalArgumentException("hourRetention must be > 24h + rollupDelay");
+            }
+            if (dayRetention.compareTo(Duration.ofDays(1)) < 0) {
+                throw new IllegalArgumentException("dayRetention must be >= 24h");
+            }
+            this.enabled = enabled;
+            this.minuteRetention = minuteRetention;
+            this.hourRetention = hourRetention;
+            this.dayRetention = dayRetention;
+            this.rollupDelay = rollupDelay;
+        }
+    }
+
+    /**
+     * Tracked calls refer to methods by small integer ids of a dictionary instead of method names, to save redis
+     * memory. Up to "maxMethods" methods get ids, the rest are stored by name.
+     */
+    @Value
+    public static class CallTrackingMethodIds {
+        boolean enabled;
+        int maxMethods;
+
+        public CallTrackingMethodIds(boolean enabled, int maxMethods) {
+            if (maxMethods <= 0) {
+                throw new IllegalArgumentException("maxMethods must be > 0");
+            }
+            this.enabled = enabled;
+            this.maxMethods = maxMethods;
+        }
+    }
+
+    /**
+     * Top IPs and methods by the number of calls over a sliding window, of all the proxy instances. The window slides
+     * by "window / slots". Each proxy instance keeps up to "capacity" top candidates per slot, which is also the max
+     * number of top IPs and methods that can be queried. Counts are estimated by a Count-Min sketch of "sketchDepth"
+     * rows of "sketchWidth" counters.
+     */
+    @Value
+    public static class HeavyHitterTracking {
+        boolean enabled;
+        Duration window;
+        int slots;
+        int capacity;
+        int sketchDepth;
+        int sketchWidth;
+        Duration publishInterval;
+
+        public HeavyHitterTracking(boolean enabled, Duration window, int slots, int capacity, int sketchDepth,
+                int sketchWidth, Duration publishInterval) {
+            if (slots <= 0) {
+                throw new IllegalArgumentException("slots must be > 0");
+            }
+            if (window.toMillis() < slots) {
+                throw new IllegalArgumentException("window must be at least 1ms per slot");
+            }
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity must be > 0");
+            }
+            if (sketchDepth <= 0) {
+                throw new IllegalArgumentException("sketchDepth must be > 0");
+            }
+            if (sketchWidth <= 0 || Integer.bitCount(sketchWidth) != 1) {
+                throw new IllegalArgumentException("sketchWidth must be a power of 2");
             }
+            if (publishInterval.isNegative() || publishInterval.isZero()) {
+                throw new IllegalArgumentException("publishInterval must be > 0");
+            }
+            if (publishInterval.compareTo(window.dividedBy(slots)) > 0) {
+                throw new IllegalArgumentException("publishInterval must be <= window / slots");
+            }
+            this.enabled = enabled;
+            this.window = window;
+            this.slots = slots;
+            this.capacity = capacity;
+            this.sketchDepth = sketchDepth;
+            this.sketchWidth = sketchWidth;
+            this.publishInterval = publishInterval;
         }
     }
 
+    /**
+     * Access log in memory-mapped binary files instead of the log4j access log, used only when access log is enabled.
+     * Each event loop buffers up to "ringCapacity" entries, the rest are dropped if the writer falls behind. Files are
+     * rotated every "fileSizeMb", only the latest "maxFiles" are kept.
+     */
+    @Value
+    public static class BinaryAccessLogging {
+        boolean enabled;
+        String dir;
+        int fileSizeMb;
+        int maxFiles;
+        int ringCapacity;
+
+        public BinaryAccessLogging(boolean enabled, String dir, int fileSizeMb, int maxFiles, int ringCapacity) {
+            if (enabled && (dir == null || dir.isBlank())) {
+                throw new IllegalArgumentException("dir must be provided when binary access log is enabled");
+            }
+            if (fileSizeMb <= 0 || fileSizeMb > 1024) {
+                throw new IllegalArgumentException("fileSizeMb must be in (0, 1024]");
+            }
+            if (maxFiles <= 0) {
+                throw new IllegalArgumentException("maxFiles must be > 0");
+            }
+            if (ringCapacity <= 0 || Integer.bitCount(ringCapacity) != 1) {
+                throw new IllegalArgumentException("ringCapacity must be a power of 2");
+            }
+            this.enabled = enabled;
+            this.dir = dir;
+            this.fileSizeMb = fileSizeMb;
+            this.maxFiles = maxFiles;
+            this.ringCapacity = ringCapacity;
+        }
+    }
+
+    /**
+     * Hedged requests: if a call of one of the read-only "methods" is not responded within the "percentile" of the
+     * recent latencies of its method (but within "minDelay".."maxDelay"), the same call is sent to another backend as
+     * well, and the first response wins. Hedges are limited to "budgetPercent" of the hedgeable calls.
+     */
+    @Value
+    public static class Hedging {
+        boolean enabled;
+        Set<String> methods;
+        double percentile;
+        Duration minDelay;
+        Duration maxDelay; // also used until enough latencies of the method are observed
+        int budgetPercent;
+
+        public Hedging(boolean enabled, List<String> methods, double percentile, Duration minDelay, Duration maxDelay,
+                int budgetPercent) {
+            if (percentile <= 0 || percentile >= 1) {
+                throw new IllegalArgumentException("percentile must be within (0, 1)");
+            }
+            if (minDelay.toMillis() < 1) {
+                throw new IllegalArgumentException("minDelay must be >= 1ms");
+            }
+            if (maxDelay.compareTo(minDelay) < 0) {
+                throw new IllegalArgumentException("maxDelay must be >= minDelay");
+            }
+            if (budgetPercent < 0 || budgetPercent > 100) {
+                throw new IllegalArgumentException("budgetPercent must be within 0..100");
+            }
+            this.enabled = enabled;
+            this.methods = Set.copyOf(methods);
+            this.percentile = percentile;
+            this.minDelay = minDelay;
+            this.maxDelay = maxDelay;
+            this.budgetPercent = budgetPercent;
+        }
+    }
+
+    /**
+     * Failover of the calls of the idempotent "methods" to another backend on connection errors, 502/503 responses and
+     * JSON-RPC errors whose message contains one of the "errorMessages" (i.e. the backend is lagging behind). At most
+     * "maxAttempts" in total per call, retries are limited to "budgetPercent" of the retryable calls.
+     */
+    @Value
+    public static class Retries {
+        // not idempotent, a retry after a lost response may send the transaction twice
+        private static final Set<String> NEVER_RETRIED = Set.of("eth_sendRawTransaction", "eth_sendTransaction");
+
+        boolean enabled;
+        Set<String> methods;
+        List<String> errorMessages; // lower case
+        int maxAttempts;
+        int budgetPercent;
+
+        public Retries(boolean enabled, List<String> methods, List<String> errorMessages, int maxAttempts,
+                int budgetPercent) {
+            for (var method : methods) {
+                if (NEVER_RETRIED.contains(method)) {
+                    throw new IllegalArgumentException("method must never be retried: " + method);
+                }
+            }
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be >= 1");
+            }
+            if (budgetPercent < 0 || budgetPercent > 100) {
+                throw new IllegalArgumentException("budgetPercent must be within 0..100");
+            }
+            this.enabled = enabled;
+            this.methods = Set.copyOf(methods);
+            this.errorMessages = errorMessages.stream().map(m -> m.toLowerCase(Locale.ROOT)).toList();
+            this.maxAttempts = maxAttempts;
+            this.budgetPercent = budgetPercent;
+        }
+    }
+
+    /**
+     * Cost of calls in compute units. Rate limits are budgets of units rather than of calls, and call tracking records
+     * consumed units along with the number of calls. Cost of a call is "cost" of its method plus "perBlockCost" for
+     * each block of the range the call covers (e.g. "fromBlock".."toBlock" of eth_getLogs filter), methods without
+     * explicit configuration cost "defaultCost".
+     */
+    @Value
+    public static class ComputeUnits {
+        int defaultCost;
+        int maxBlockRange;
+        Map<String, MethodCost> methodCosts;
+
+        public ComputeUnits(int defaultCost, int maxBlockRange, Map<String, MethodCost> methodCosts) {
+            if (defaultCost <= 0) {
+                throw new IllegalArgumentException("defaultCost must be > 0");
+            }
+            if (maxBlockRange <= 0) {
+                throw new IllegalArgumentException("maxBlockRange must be > 0");
+            }
+            this.defaultCost = defaultCost;
+            this.maxBlockRange = maxBlockRange;
+            this.methodCosts = methodCosts;
+        }
+
+        @Value
+        public static class MethodCost {
+            String method;
+            int cost;
+            int perBlockCost;
+
+            public MethodCost(String method, int cost, int perBlockCost) {
+                if (cost <= 0) {
+                    throw new IllegalArgumentException("cost must be > 0");
+                }
+                if (perBlockCost < 0) {
+                    throw new IllegalArgumentException("perBlockCost must be >= 0");
+                }
+                this.method = method;
+                this.cost = cost;
+                this.perBlockCost = perBlockCost;
+            }
+        }
+    }
+
+    private static ComputeUnits parseComputeUnitsCfg(JsonObject cfgProxyJson) {
+        var computeUnitsCfgJson = cfgProxyJson != null ? cfgProxyJson.getJsonObject(COMPUTE_UNITS) : null;
+        var methodsCfgJson = computeUnitsCfgJson != null ? computeUnitsCfgJson.getJsonObject(METHODS) : null;
+        var methodCosts = methodsCfgJson == null ? Map.<String, ComputeUnits.MethodCost>of() : methodsCfgJson.stream()
+                .map(e -> {
+                    var method = e.getKey();
+                    var methodCfgJson = (JsonObject) e.getValue();
+                    var cost = getInt(null, null, COST, methodCfgJson, () -> {
+                        throw new IllegalArgumentException(COST + " must be provided for " + COMPUTE_UNITS
+                                + " method " + method);
+                    });
+                    var perBlockCost = getInt(null, null, PER_BLOCK_COST, methodCfgJson, () -> 0);
+                    return new ComputeUnits.MethodCost(method, cost, perBlockCost);
+                })
+                .collect(Collectors.toMap(ComputeUnits.MethodCost::getMethod, m -> m));
+        return new ComputeUnits(
+                getInt(null, null, DEFAULT_COST, computeUnitsCfgJson, () -> 1),
+                getInt(null, null, MAX_BLOCK_RANGE, computeUnitsCfgJson, () -> 1_000),
+                methodCosts
+        );
+    }
+
     private static PerMethodIpRateLimiting parsePerMethodIpRateLmtCfg(JsonObject cfgRootJson) {
         var cfgProxyJson = cfgRootJson.getJsonObject(CFG_PREFIX);
         var perMtdIpRtlmtCfgJson = cfgProxyJson != null ? cfgProxyJson.getJsonObject(PER_METHOD_IP_RATE_LIMITING)
@@ -190,6 +837,7 @@ public class Config {
         var enabled = getBoolean(PER_METHOD_IP_RATE_LIMITING_ENABLED_ENV, cfgRootJson, ENABLED, perMtdIpRtlmtCfgJson,
                 () -> false);
         var localCacheSize = getInt(null, null, LOCAL_CACHE_SIZE, perMtdIpRtlmtCfgJson, () -> 5_000);
+        var defaultAlgorithm = getString(null, null, ALGORITHM, perMtdIpRtlmtCfgJson, () -> "fixedWindow");
         var methodsCfgJson = perMtdIpRtlmtCfgJson != null ? perMtdIpRtlmtCfgJson.getJsonObject(METHODS) : null;
         var methodsCfgMap = methodsCfgJson.stream()
                 .map(e -> {
@@ -203,10 +851,15 @@ public class Config {
                         throw new IllegalArgumentException(TIME_WINDOW + " must be provided for " +
                                 PER_METHOD_IP_RATE_LIMITING + " method " + method);
                     }));
-                    return new PerMethodIpRateLimiting.MethodCfg(method, requests, timeWindow);
+                    // each method may override the algorithm configured for all the methods
+                    var algorithm = RateLimitingAlgorithm.parse(getString(null, null, ALGORITHM, methodCfgJson,
+                            () -> defaultAlgorithm));
+                    return new PerMethodIpRateLimiting.MethodCfg(method, requests, timeWindow, algorithm);
                 })
                 .collect(Collectors.toMap(PerMethodIpRateLimiting.MethodCfg::getMethod, m -> m));
-        return new PerMethodIpRateLimiting(enabled, localCacheSize, methodsCfgMap);
+        var mode = RateLimitingMode.parse(getString(null, null, MODE, perMtdIpRtlmtCfgJson, () -> "redis"));
+        var maxOvershoot = getDouble(null, null, MAX_OVERSHOOT, perMtdIpRtlmtCfgJson, () -> 0.1);
+        return new PerMethodIpRateLimiting(enabled, localCacheSize, methodsCfgMap, mode, maxOvershoot);
     }
 
     private static int getInt(String envVarName, JsonObject cfgJson, String cfgName, JsonObject subCfgJson,
@@ -226,6 +879,23 @@ public class Config {
         return defaultValue.get();
     }
 
+    private static double getDouble(String envVarName, JsonObject cfgJson, String cfgName, JsonObject subCfgJson,
+            Supplier<Double> defaultValue) {
+        if (envVarName != null) {
+            var envValue = cfgJson.getDouble(envVarName);
+            if (envValue != null) {
+                return envValue;
+            }
+        }
+        if (subCfgJson != null && cfgName != null) {
+            var cfgValue = subCfgJson.getDouble(cfgName);
+            if (cfgValue != null) {
+                return cfgValue;
+            }
+        }
+        return defaultValue.get();
+    }
+
     private static String getString(String envVarName, JsonObject cfgJson, String cfgName, JsonObject subCfgJson,
             Supplier<String> defaultValue) {
         if (envVarName != null) {
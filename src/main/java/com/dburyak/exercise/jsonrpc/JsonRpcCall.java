@@ -0,0 +1,56 @@
+package com.dburyak.exercise.jsonrpc;
+
+import io.vertx.core.buffer.Buffer;
+import lombok.Data;
+
+/**
+ * Single JSON-RPC call within the proxied request: the request itself plus its per-call processing state. Plain
+ * (non-batch) request always consists of exactly one call, batch request has one call per batch element. Same as
+ * {@link ProxiedReqCtx}, it's accessed only from the event loop of the verticle handling the request.
+ */
+@Data
+public class JsonRpcCall {
+    private final JsonRpcRequest request; // null if the batch element is not a valid JSON-RPC request at all
+
+    /**
+     * Response for this call, either produced by the proxy itself or extracted from the backend response. Null until
+     * it's available. Calls that already have a response are not forwarded to the backend.
+     */
+    private Buffer resp;
+
+    /**
+     * Whether the call was rejected by the proxy itself (e.g. invalid or rate limited). Rejected calls are neither
+     * forwarded to the backend nor tracked.
+     */
+    private boolean rejected;
+    private boolean successful;
+
+    /**
+     * Key of the response cache entry for this call, set only if the call result is cacheable but was not found in the
+     * cache, so that the backend response gets cached once it's available.
+     */
+    private String cacheKey;
+
+    /**
+     * Whether the call shares the response of an identical in-flight call instead of being forwarded on its own.
+     */
+    private boolean coalesced;
+
+    /**
+     * Cost of the call in compute units (see {@link Config.ComputeUnits}), consumed from the rate limit budgets and
+     * recorded by the call tracking.
+     */
+    private int computeUnits = 1;
+
+    /**
+     * @param errorResp error response for the call, null if it gets no response (e.g. a notification)
+     */
+    public void reject(Buffer errorResp) {
+        this.rejected = true;
+        this.resp = errorResp;
+    }
+
+    public boolean isPending() {
+        return resp == null && !rejected && !coalesced;
+    }
+}
@@ -1,23 +1,85 @@
 package com.dburyak.exercise.jsonrpc;
 
+import com.dburyak.exercise.jsonrpc.json.CanonicalJson;
+import com.dburyak.exercise.jsonrpc.json.KnownMethods;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonObject;
-import lombok.Value;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.ToString;
 
-@Value
+/**
+ * JSON-RPC request. Only the envelope fields are extracted eagerly (see
+ * {@link com.dburyak.exercise.jsonrpc.json.JsonRpcEnvelopeScanner}), the full JSON tree is built on demand.
+ */
+@Getter
+@ToString(of = {"method", "rawId"})
 public class JsonRpcRequest {
     public static final String FIELD_VERSION = "jsonrpc";
     public static final String VERSION_2_0 = "2.0";
     public static final String FIELD_METHOD = "method";
     public static final String FIELD_ID = "id";
+    public static final String FIELD_PARAMS = "params";
 
-    JsonObject fullRequest;
-    String method;
-    Object id; // can be String, Number or null
+    private final Buffer raw;
+    private final String version;
+    private final String method;
+    private final int methodId; // id of the well-known method (see KnownMethods), or KnownMethods.UNKNOWN_ID
+    private final String rawId; // id exactly as it appears in the request JSON, null if there's no id at all
+    private final int paramsStart; // position of the params value in the raw buffer, -1 if there are no params
+    private final int paramsEnd;
     // Other properties (including any calculated ones) can be added here as needed
 
-    public JsonRpcRequest(JsonObject fullRequest) {
-        this.fullRequest = fullRequest;
-        this.method = fullRequest.getString(FIELD_METHOD);
-        this.id = fullRequest.getValue(FIELD_ID);
+    @Getter(AccessLevel.NONE)
+    private JsonObject fullRequest;
+    @Getter(AccessLevel.NONE)
+    private String canonicalKey;
+
+    public JsonRpcRequest(Buffer raw, String version, String method, int methodId, String rawId, int paramsStart,
+            int paramsEnd) {
+        this.raw = raw;
+        this.version = version;
+        this.method = method;
+        this.methodId = methodId;
+        this.rawId = rawId;
+        this.paramsStart = paramsStart;
+        this.paramsEnd = paramsEnd;
+    }
+
+    public boolean hasParams() {
+        return paramsStart >= 0;
+    }
+
+    /**
+     * Full JSON tree of the request. It is built lazily on the first call, so handlers that don't need anything except
+     * the envelope fields don't pay for decoding of the params. Requests are accessed only from the event loop of the
+     * verticle that handles them, so no synchronization is needed here.
+     */
+    public JsonObject getFullRequest() {
+        if (fullRequest == null) {
+            fullRequest = raw.toJsonObject();
+        }
+        return fullRequest;
+    }
+
+    /**
+     * Key that is equal for requests calling the same method with the same params, regardless of the formatting of the
+     * params (see {@link CanonicalJson}) and of the request id. Built lazily on the first call.
+     */
+    public String getCanonicalKey() {
+        if (canonicalKey == null) {
+            var params = hasParams() ? CanonicalJson.canonicalize(raw, paramsStart, paramsEnd) : "";
+            canonicalKey = method + ':' + params;
+        }
+        return canonicalKey;
+    }
+
+    /**
+     * Decoded id of the request: String, Number or null.
+     */
+    public Object getId() {
+        // needed only for locally produced responses (i.e. errors), so not worth decoding eagerly
+        return rawId != null ? Json.decodeValue(rawId) : null;
     }
 }
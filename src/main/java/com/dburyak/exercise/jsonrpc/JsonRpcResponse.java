@@ -67,7 +67,7 @@ public class JsonRpcResponse {
         var fullResp = new JsonObject()
                 .put(FIELD_VERSION, VERSION_2_0)
                 .put(FIELD_ERROR, errObj.toJson())
-                .put(FIELD_ID, err.getJsonRpcRequest().getId());
+                .put(FIELD_ID, err.getJsonRpcRequest() != null ? err.getJsonRpcRequest().getId() : null);
         return new JsonRpcResponse(fullResp, errObj);
     }
 
@@ -1,11 +1,11 @@
 package com.dburyak.exercise.jsonrpc;
 
 import io.vertx.core.buffer.Buffer;
-import io.vertx.core.json.JsonObject;
 import io.vertx.rxjava3.ext.web.RoutingContext;
-import io.vertx.rxjava3.ext.web.client.HttpResponse;
 import lombok.Data;
 
+import java.util.List;
+
 /**
  * Mutable context of a proxied request that is passed between different request handlers. Contains all the relevant
  * data. Thanks to Vertx's single-threaded event loop model, we don't need to worry about concurrent access to this
@@ -16,7 +16,20 @@ public class ProxiedReqCtx {
     private final RoutingContext incomingReqCtx;
     private String callersIp;
     private Buffer incomingReqBodyBuf;
-    private JsonObject incomingReqBodyJson;
-    private HttpResponse<Buffer> backendResp;
-    private JsonRpcRequest jsonRpcRequest;
+    private boolean batch;
+    private List<JsonRpcCall> calls = List.of();
+    private BackendResponse backendResp;
+
+    /**
+     * Response body produced by the proxy itself (e.g. assembled batch response). If set, it's sent to the client
+     * instead of the backend response body.
+     */
+    private Buffer respBody;
+
+    /**
+     * JSON-RPC request of a plain (non-batch) request.
+     */
+    public JsonRpcRequest getJsonRpcRequest() {
+        return calls.get(0).getRequest();
+    }
 }
@@ -0,0 +1,80 @@
+package com.dburyak.exercise.jsonrpc.accesslog;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Prints files of {@link BinaryAccessLog} in the same text format as the log4j access log. Arguments are files or
+ * directories with them, files of directories are printed in the order they were written.
+ * <pre>
+ * ./gradlew decodeAccessLog --args="data/access-log"
+ * </pre>
+ */
+public class AccessLogDecoder {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: AccessLogDecoder <file or dir>...");
+            System.exit(1);
+        }
+        for (var arg : args) {
+            decode(Path.of(arg), System.out);
+        }
+        System.out.flush();
+    }
+
+    /**
+     * Prints the file, or all the files of the directory.
+     */
+    static void decode(Path path, PrintStream out) throws IOException {
+        if (Files.isDirectory(path)) {
+            for (var file : BinaryAccessLog.listFiles(path)) {
+                decodeFile(file, out);
+            }
+        } else {
+            decodeFile(path, out);
+        }
+    }
+
+    private static void decodeFile(Path file, PrintStream out) throws IOException {
+        ByteBuffer buf;
+        try (var channel = FileChannel.open(file, READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buf.remaining() < Integer.BYTES + Short.BYTES || buf.getInt() != BinaryAccessLog.MAGIC) {
+            throw new IOException("not an access log file: " + file);
+        }
+        var version = buf.getShort();
+        if (version != BinaryAccessLog.VERSION) {
+            throw new IOException("unsupported access log file version: file=" + file + ", version=" + version);
+        }
+        var ip = new byte[AccessLogRing.MAX_IP_LENGTH];
+        var method = new byte[AccessLogRing.MAX_METHOD_LENGTH];
+        var line = new StringBuilder();
+        // zero length marks the end of the written records, the rest of the file is pre-allocated
+        while (buf.remaining() >= Short.BYTES) {
+            var length = buf.getShort();
+            if (length <= 0 || buf.remaining() < length) {
+                break;
+            }
+            var timestampMs = buf.getLong();
+            var ipLength = buf.get();
+            var methodLength = length - Long.BYTES - 1 - ipLength;
+            buf.get(ip, 0, ipLength);
+            buf.get(method, 0, methodLength);
+            line.setLength(0);
+            line.append(Instant.ofEpochMilli(timestampMs))
+                    .append(" - ").append(new String(ip, 0, ipLength, StandardCharsets.US_ASCII))
+                    .append(" - ").append(new String(method, 0, methodLength, StandardCharsets.US_ASCII));
+            out.println(line);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.dburyak.exercise.jsonrpc.accesslog;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pre-allocated ring buffer of access log entries of a single event loop. Single producer (the event loop) and single
+ * consumer (the writer of {@link BinaryAccessLog}), no locks. Entries are encoded into fixed-size slots without any
+ * allocations: timestamp, and ASCII characters of the IP and the method (non-ASCII ones are replaced with '?', too long
+ * ones are truncated). If the ring is full, the entry is dropped and counted.
+ * <p>
+ * Slot layout:
+ * <pre>
+ * long timestampMs | byte ipLength | ip (MAX_IP_LENGTH) | byte methodLength | method (MAX_METHOD_LENGTH)
+ * </pre>
+ */
+public class AccessLogRing {
+    static final int SLOT_SIZE = 128;
+    static final int MAX_IP_LENGTH = 45; // longest textual IPv6 address
+    static final int MAX_METHOD_LENGTH = SLOT_SIZE - Long.BYTES - 1 - MAX_IP_LENGTH - 1;
+    /**
+     * Max size of an entry in the file format, see {@link #drainTo}.
+     */
+    static final int MAX_RECORD_SIZE = Short.BYTES + Long.BYTES + 1 + MAX_IP_LENGTH + MAX_METHOD_LENGTH;
+    private static final int IP_OFFSET = Long.BYTES + 1;
+    private static final int METHOD_LENGTH_OFFSET = IP_OFFSET + MAX_IP_LENGTH;
+    private static final int METHOD_OFFSET = METHOD_LENGTH_OFFSET + 1;
+
+    private final ByteBuffer slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // next slot to write, moved by the producer
+    private final AtomicLong tail = new AtomicLong(); // next slot to read, moved by the consumer
+    private volatile long dropped; // written only by the producer
+    private volatile boolean closed;
+
+    /**
+     * @param capacity number of slots, must be a power of 2
+     */
+    public AccessLogRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of 2");
+        }
+        this.slots = ByteBuffer.allocate(capacity * SLOT_SIZE);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Must be called only by the producer.
+     *
+     * @return false if the ring is full and the entry is dropped
+     */
+    public boolean offer(long timestampMs, String ip, String method) {
+        var h = head.get();
+        if (h - tail.getAcquire() > mask) {
+            dropped++;
+            return false;
+        }
+        var offset = (int) (h & mask) * SLOT_SIZE;
+        slots.putLong(offset, timestampMs);
+        var ipLength = putAscii(ip, offset + IP_OFFSET, MAX_IP_LENGTH);
+        slots.put(offset + Long.BYTES, (byte) ipLength);
+        var methodLength = putAscii(method, offset + METHOD_OFFSET, MAX_METHOD_LENGTH);
+        slots.put(offset + METHOD_LENGTH_OFFSET, (byte) methodLength);
+        // publishes the slot contents to the consumer
+        head.setRelease(h + 1);
+        return true;
+    }
+
+    /**
+     * Marks the ring as abandoned by its producer, the rest of the entries are still drained.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    boolean isEmpty() {
+        return tail.get() == head.getAcquire();
+    }
+
+    long dropped() {
+        return dropped;
+    }
+
+    /**
+     * Moves entries into the buffer in the file format, as many as fit into it. Must be called only by the consumer.
+     * <pre>
+     * short length (of the rest of the record) | long timestampMs | byte ipLength | ip | method
+     * </pre>
+     *
+     * @return number of moved entries
+     */
+    int drainTo(ByteBuffer out) {
+        var t = tail.get();
+        var h = head.getAcquire();
+        var moved = 0;
+        while (t < h && out.remaining() >= MAX_RECORD_SIZE) {
+            var offset = (int) (t & mask) * SLOT_SIZE;
+            var ipLength = slots.get(offset + Long.BYTES);
+            var methodLength = slots.get(offset + METHOD_LENGTH_OFFSET);
+            out.putShort((short) (Long.BYTES + 1 + ipLength + methodLength));
+            out.putLong(slots.getLong(offset));
+            out.put(ipLength);
+            out.put(slots.array(), offset + IP_OFFSET, ipLength);
+            out.put(slots.array(), offset + METHOD_OFFSET, methodLength);
+            t++;
+            moved++;
+        }
+        // frees the slots for the producer
+        tail.setRelease(t);
+        return moved;
+    }
+
+    private int putAscii(String str, int offset, int maxLength) {
+        if (str == null) {
+            return 0;
+        }
+        var length = Math.min(str.length(), maxLength);
+        for (var i = 0; i < length; i++) {
+            var c = str.charAt(i);
+            slots.put(offset + i, c < 0x80 ? (byte) c : (byte) '?');
+        }
+        return length;
+    }
+}
@@ -0,0 +1,185 @@
+package com.dburyak.exercise.jsonrpc.accesslog;
+
+import com.dburyak.exercise.jsonrpc.AsyncCloseable;
+import com.dburyak.exercise.jsonrpc.Config.BinaryAccessLogging;
+import com.dburyak.exercise.jsonrpc.jfr.JfrEvents;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Access log sink that doesn't format anything on the event loops. Each event loop puts entries into its own
+ * pre-allocated {@link AccessLogRing}, and a single writer periodically moves them from all the rings into
+ * memory-mapped files, off the event loops. Files are rotated once full, only the latest "maxFiles" are kept. Files
+ * are binary, see {@link AccessLogDecoder} to read them.
+ * <p>
+ * File layout: {@link #MAGIC}, {@link #VERSION}, followed by records (see {@link AccessLogRing#drainTo}), followed by
+ * zeroes. Written records are not forced to disk, the OS writes mapped pages back on its own, so they survive proxy
+ * crashes but not OS crashes.
+ * <p>
+ * Single instance is shared by all the verticles.
+ */
+@Log4j2
+public class BinaryAccessLog implements AsyncCloseable {
+    static final int MAGIC = 0x414C4F47; // "ALOG"
+    static final short VERSION = 1;
+    static final String FILE_PREFIX = "access-";
+    static final String FILE_SUFFIX = ".alog";
+    private static final Duration DRAIN_INTERVAL = Duration.ofMillis(100);
+
+    private final Path dir;
+    private final int fileSize;
+    private final int maxFiles;
+    private final int ringCapacity;
+    private final List<AccessLogRing> rings = new CopyOnWriteArrayList<>();
+    // accessed only by drains, which are synchronized
+    private MappedByteBuffer file;
+    private long fileNo;
+    private long reportedDropped;
+    private volatile Disposable drainLoop;
+
+    public BinaryAccessLog(BinaryAccessLogging cfg) {
+        this.dir = Path.of(cfg.getDir());
+        this.fileSize = cfg.getFileSizeMb() * 1024 * 1024;
+        this.maxFiles = cfg.getMaxFiles();
+        this.ringCapacity = cfg.getRingCapacity();
+    }
+
+    /**
+     * Creates a ring for a single event loop.
+     */
+    public AccessLogRing newRing() {
+        var ring = new AccessLogRing(ringCapacity);
+        rings.add(ring);
+        return ring;
+    }
+
+    public void start() {
+        // drains never overlap, the next one is started only after the previous one is finished
+        drainLoop = Observable.interval(DRAIN_INTERVAL.toMillis(), DRAIN_INTERVAL.toMillis(), MILLISECONDS)
+                .concatMapCompletable(ignr -> drainAsync()
+                        .onErrorComplete(err -> {
+                            log.error("failed to write access log, will retry with the next drain", err);
+                            return true;
+                        }))
+                .subscribe();
+    }
+
+    @Override
+    public Completable closeAsync() {
+        if (drainLoop != null) {
+            drainLoop.dispose();
+        }
+        // rings of the verticles are already closed at this point
+        return drainAsync()
+                .andThen(Completable.fromAction(this::forceFile).subscribeOn(Schedulers.io()))
+                .onErrorComplete(err -> {
+                    log.error("failed to write the rest of access log", err);
+                    return true;
+                });
+    }
+
+    private Completable drainAsync() {
+        return Completable.fromAction(this::drain).subscribeOn(Schedulers.io());
+    }
+
+    // the final drain may overlap with the last drain of the disposed loop
+    private synchronized void drain() throws IOException {
+        var event = JfrEvents.beginFlush();
+        var entries = 0;
+        var bytes = 0L;
+        var dropped = 0L;
+        for (var ring : rings) {
+            while (!ring.isEmpty()) {
+                if (file == null || file.remaining() < AccessLogRing.MAX_RECORD_SIZE) {
+                    rotate();
+                }
+                var position = file.position();
+                entries += ring.drainTo(file);
+                bytes += file.position() - position;
+            }
+            dropped += ring.dropped();
+            if (ring.isClosed() && ring.isEmpty()) {
+                // dropped entries of the removed ring are not reported anymore, fine for the shutdown
+                rings.remove(ring);
+            }
+        }
+        if (dropped > reportedDropped) {
+            log.warn("access log entries dropped as the rings were full: dropped={}, totalDropped={}",
+                    dropped - reportedDropped, dropped);
+        }
+        reportedDropped = dropped;
+        if (entries > 0) {
+            JfrEvents.endFlush(event, "access-log", entries, bytes);
+        }
+    }
+
+    private synchronized void forceFile() {
+        if (file != null) {
+            file.force();
+            file = null;
+        }
+    }
+
+    private void rotate() throws IOException {
+        if (file == null) {
+            Files.createDirectories(dir);
+            var existing = listFiles(dir);
+            if (!existing.isEmpty()) {
+                fileNo = fileNo(existing.get(existing.size() - 1));
+            }
+        } else {
+            file.force();
+        }
+        var path = dir.resolve(String.format("%s%020d%s", FILE_PREFIX, ++fileNo, FILE_SUFFIX));
+        try (var channel = FileChannel.open(path, CREATE_NEW, READ, WRITE)) {
+            // mapping stays valid after the channel is closed
+            file = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        }
+        file.putInt(MAGIC);
+        file.putShort(VERSION);
+        var files = listFiles(dir);
+        for (var i = 0; i < files.size() - maxFiles; i++) {
+            try {
+                Files.deleteIfExists(files.get(i));
+            } catch (IOException e) {
+                // will be retried with the next rotation
+                log.warn("failed to delete old access log file: file={}", files.get(i), e);
+            }
+        }
+    }
+
+    static List<Path> listFiles(Path dir) {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                    .filter(p -> p.getFileName().toString().matches(FILE_PREFIX + "\\d+" + FILE_SUFFIX))
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long fileNo(Path file) {
+        var name = file.getFileName().toString();
+        return Long.parseLong(name, FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length(), 10);
+    }
+}
@@ -0,0 +1,55 @@
+package com.dburyak.exercise.jsonrpc.cache;
+
+import java.util.Map;
+
+/**
+ * Describes when result of a JSON-RPC method never changes and thus may be cached.
+ */
+enum Cacheability {
+    /**
+     * Result is a constant of the chain.
+     */
+    CONSTANT,
+
+    /**
+     * Params reference an immutable object by its hash. Result may still be null if the object is not known to the
+     * node yet, such results are not cached.
+     */
+    BY_HASH,
+
+    /**
+     * Transaction referenced by hash, the result is immutable only once the transaction is mined, i.e. once the result
+     * contains "blockHash".
+     */
+    MINED_TX,
+
+    /**
+     * Params reference a block by its number (the first param), the result is immutable only if the block is already
+     * finalized.
+     */
+    FINALIZED_BLOCK;
+
+    private static final Map<String, Cacheability> METHODS = Map.ofEntries(
+            Map.entry("eth_chainId", CONSTANT),
+            Map.entry("net_version", CONSTANT),
+            Map.entry("eth_getBlockByHash", BY_HASH),
+            Map.entry("eth_getBlockTransactionCountByHash", BY_HASH),
+            Map.entry("eth_getUncleCountByBlockHash", BY_HASH),
+            Map.entry("eth_getUncleByBlockHashAndIndex", BY_HASH),
+            Map.entry("eth_getTransactionByBlockHashAndIndex", BY_HASH),
+            Map.entry("eth_getTransactionByHash", MINED_TX),
+            Map.entry("eth_getTransactionReceipt", MINED_TX),
+            Map.entry("eth_getBlockByNumber", FINALIZED_BLOCK),
+            Map.entry("eth_getBlockTransactionCountByNumber", FINALIZED_BLOCK),
+            Map.entry("eth_getUncleCountByBlockNumber", FINALIZED_BLOCK),
+            Map.entry("eth_getUncleByBlockNumberAndIndex", FINALIZED_BLOCK),
+            Map.entry("eth_getTransactionByBlockNumberAndIndex", FINALIZED_BLOCK)
+    );
+
+    /**
+     * @return cacheability of the method, or null if the method results are never cached
+     */
+    static Cacheability of(String method) {
+        return method != null ? METHODS.get(method) : null;
+    }
+}
@@ -0,0 +1,26 @@
+package com.dburyak.exercise.jsonrpc.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latest block number of the chain as observed in "eth_blockNumber" responses that pass through the proxy (see
+ * {@link ResponseCache}). Backends may lag behind each other, so the most advanced one defines the head.
+ * <p>
+ * Single instance is shared by all the verticles, so it must be thread-safe.
+ */
+public class ChainHead {
+    public static final long UNKNOWN = -1;
+
+    private final AtomicLong latestBlock = new AtomicLong(UNKNOWN);
+
+    /**
+     * @return latest observed block number, or {@link #UNKNOWN} if none was observed yet
+     */
+    public long getLatestBlock() {
+        return latestBlock.get();
+    }
+
+    public void observe(long blockNum) {
+        latestBlock.accumulateAndGet(blockNum, Math::max);
+    }
+}
@@ -0,0 +1,33 @@
+package com.dburyak.exercise.jsonrpc.cache;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the request coalescing, shared by all the verticles.
+ */
+public class CoalescingStats {
+    private final LongAdder leaderCalls = new LongAdder();
+    private final LongAdder coalescedCalls = new LongAdder();
+
+    /**
+     * Records a call that was forwarded to the backend while identical calls could join it.
+     */
+    public void onLeaderCall() {
+        leaderCalls.increment();
+    }
+
+    /**
+     * Records a call that joined an identical in-flight call instead of being forwarded to the backend.
+     */
+    public void onCoalescedCall() {
+        coalescedCalls.increment();
+    }
+
+    public JsonObject toJson() {
+        return new JsonObject()
+                .put("leaderCalls", leaderCalls.sum())
+                .put("savedUpstreamCalls", coalescedCalls.sum());
+    }
+}
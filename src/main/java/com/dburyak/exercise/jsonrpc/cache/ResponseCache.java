@@ -0,0 +1,232 @@
+package com.dburyak.exercise.jsonrpc.cache;
+
+import com.dburyak.exercise.jsonrpc.Config;
+import com.dburyak.exercise.jsonrpc.JsonRpcRequest;
+import com.dburyak.exercise.jsonrpc.json.JsonRpcEnvelopeScanner;
+import com.dburyak.exercise.jsonrpc.metrics.PrometheusWriter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.ARR_START;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.QUOTE;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.findField;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.rangeEquals;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.skipString;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.skipWs;
+
+/**
+ * Cache of backend responses for JSON-RPC calls whose results never change (see {@link Cacheability}). Entries are
+ * keyed by method and canonicalized params, and hold raw response bytes along with the position of the "id" value, so
+ * that a cached response can be served to any caller with the caller's own id patched in.
+ * <p>
+ * Size of the cache is limited by the total number of bytes of the cached responses rather than by the number of
+ * entries, as responses vary in size a lot (e.g. "eth_chainId" vs "eth_getBlockByNumber" with full transactions).
+ * <p>
+ * Whether a block is finalized is decided based on the latest block number observed in "eth_blockNumber" responses
+ * that pass through the proxy (see {@link ChainHead}): blocks that are at least {@code finalityDepth} blocks behind it
+ * are considered finalized. Until the latest block number is known, calls referencing blocks by number are not cached.
+ * <p>
+ * Single instance is shared by all the verticles, so it must be thread-safe.
+ */
+@Log4j2
+public class ResponseCache {
+    private static final String BLOCK_NUMBER_METHOD = "eth_blockNumber";
+    private static final byte[] BLOCK_HASH = "blockHash".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+    // rough memory overhead of the cache entry itself, the key and the value objects
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private final Cache<String, CachedResponse> cache;
+    private final long maxSizeBytes;
+    private final int finalityDepth;
+    private final ChainHead chainHead;
+
+    public ResponseCache(Config.ResponseCaching cfg, ChainHead chainHead) {
+        this(cfg, chainHead, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param executor executor of the cache maintenance (e.g. evictions)
+     */
+    ResponseCache(Config.ResponseCaching cfg, ChainHead chainHead, Executor executor) {
+        this.chainHead = chainHead;
+        this.maxSizeBytes = cfg.getMaxSizeMb() * 1024L * 1024L;
+        this.finalityDepth = cfg.getFinalityDepth();
+        this.cache = Caffeine.newBuilder()
+                .executor(executor)
+                .maximumWeight(maxSizeBytes)
+                .weigher((String key, CachedResponse resp) ->
+                        key.length() + resp.getBody().length + ENTRY_OVERHEAD_BYTES)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return cache key of the request, or null if the request result is not cacheable
+     */
+    public String key(JsonRpcRequest req) {
+        var cacheability = Cacheability.of(req.getMethod());
+        if (cacheability == null) {
+            return null;
+        }
+        if (cacheability == Cacheability.FINALIZED_BLOCK && !refersToFinalizedBlock(req)) {
+            return null;
+        }
+        return req.getCanonicalKey();
+    }
+
+    /**
+     * @param rawId id of the caller's request exactly as it appeared in the request JSON
+     * @return cached response with the caller's id, or null if there's no cached response for the key
+     */
+    public Buffer get(String key, String rawId) {
+        var cached = cache.getIfPresent(key);
+        return cached != null ? cached.withId(rawId) : null;
+    }
+
+    /**
+     * Offers the successful backend response of the call to the cache. Response is cached only if the result is
+     * really immutable, e.g. transaction is already mined.
+     *
+     * @param key cache key of the request, null if the request is not cacheable
+     */
+    public void offer(JsonRpcRequest req, String key, Buffer resp) {
+        if (key == null && !BLOCK_NUMBER_METHOD.equals(req.getMethod())) {
+            return;
+        }
+        try {
+            var env = JsonRpcEnvelopeScanner.scanResponse(resp, 0, resp.length());
+            if (env.isError() || env.getResultStart() < 0) {
+                return;
+            }
+            if (key == null) {
+                observeLatestBlock(resp, env.getResultStart(), env.getResultEnd());
+                return;
+            }
+            if (env.getIdStart() < 0 || rangeEquals(resp, env.getResultStart(), env.getResultEnd(), NULL)) {
+                return;
+            }
+            if (Cacheability.of(req.getMethod()) == Cacheability.MINED_TX) {
+                var blockHashPos = findField(resp, env.getResultStart(), env.getResultEnd(), BLOCK_HASH);
+                if (blockHashPos < 0 || resp.getByte(blockHashPos) != QUOTE) {
+                    return; // pending transaction
+                }
+            }
+            // copy the bytes, so that the cached entry doesn't retain the whole buffer of a batch response
+            cache.put(key, new CachedResponse(resp.getBytes(), env.getIdStart(), env.getIdEnd()));
+        } catch (DecodeException e) {
+            log.debug("malformed backend response, not caching: method={}", req.getMethod(), e);
+        }
+    }
+
+    public JsonObject stats() {
+        var stats = cache.stats();
+        return new JsonObject()
+                .put("hits", stats.hitCount())
+                .put("misses", stats.missCount())
+                .put("hitRate", stats.hitRate())
+                .put("evictions", stats.evictionCount())
+                .put("evictedBytes", stats.evictionWeight())
+                .put("entries", cache.estimatedSize())
+                .put("sizeBytes", sizeBytes())
+                .put("maxSizeBytes", maxSizeBytes)
+                .put("latestBlock", chainHead.getLatestBlock());
+    }
+
+    public void writeTo(PrometheusWriter out) {
+        var stats = cache.stats();
+        out.help("jsonrpc_response_cache_hits_total", "counter", "Calls responded from the response cache");
+        out.sample("jsonrpc_response_cache_hits_total", stats.hitCount());
+        out.help("jsonrpc_response_cache_misses_total", "counter", "Cacheable calls not found in the response cache");
+        out.sample("jsonrpc_response_cache_misses_total", stats.missCount());
+        out.help("jsonrpc_response_cache_evictions_total", "counter", "Responses evicted from the response cache");
+        out.sample("jsonrpc_response_cache_evictions_total", stats.evictionCount());
+        out.help("jsonrpc_response_cache_evicted_bytes_total", "counter",
+                "Size of the responses evicted from the response cache");
+        out.sample("jsonrpc_response_cache_evicted_bytes_total", stats.evictionWeight());
+        out.help("jsonrpc_response_cache_entries", "gauge", "Responses in the response cache");
+        out.sample("jsonrpc_response_cache_entries", cache.estimatedSize());
+        out.help("jsonrpc_response_cache_size_bytes", "gauge", "Size of the responses in the response cache");
+        out.sample("jsonrpc_response_cache_size_bytes", sizeBytes());
+        out.help("jsonrpc_response_cache_max_size_bytes", "gauge", "Max size of the responses in the response cache");
+        out.sample("jsonrpc_response_cache_max_size_bytes", maxSizeBytes);
+    }
+
+    private long sizeBytes() {
+        return cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+    }
+
+    private boolean refersToFinalizedBlock(JsonRpcRequest req) {
+        var latest = chainHead.getLatestBlock();
+        if (latest == ChainHead.UNKNOWN || !req.hasParams()) {
+            return false;
+        }
+        var raw = req.getRaw();
+        var end = req.getParamsEnd();
+        var pos = skipWs(raw, req.getParamsStart(), end);
+        if (raw.getByte(pos) != ARR_START) {
+            return false;
+        }
+        pos = skipWs(raw, pos + 1, end);
+        if (pos >= end || raw.getByte(pos) != QUOTE) {
+            return false;
+        }
+        // block tags ("latest", "safe", etc.) are not parsed as numbers and thus are never cached
+        var blockNum = parseHexQuantity(raw, pos + 1, skipString(raw, pos, end) - 1);
+        return blockNum >= 0 && blockNum <= latest - finalityDepth;
+    }
+
+    private void observeLatestBlock(Buffer resp, int resultStart, int resultEnd) {
+        if (resp.getByte(resultStart) != QUOTE) {
+            return;
+        }
+        var blockNum = parseHexQuantity(resp, resultStart + 1, resultEnd - 1);
+        if (blockNum >= 0) {
+            chainHead.observe(blockNum);
+        }
+    }
+
+    /**
+     * @return value of "0x"-prefixed hex quantity located in the given range, or -1 if it's not a valid quantity
+     */
+    private static long parseHexQuantity(Buffer buf, int start, int end) {
+        // 15 hex digits are more than enough for block numbers and can't overflow long
+        if (end - start < 3 || end - start > 17 || buf.getByte(start) != '0' || buf.getByte(start + 1) != 'x') {
+            return -1;
+        }
+        var value = 0L;
+        for (var i = start + 2; i < end; i++) {
+            var digit = Character.digit(buf.getByte(i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    @Value
+    private static class CachedResponse {
+        byte[] body;
+        int idStart;
+        int idEnd;
+
+        Buffer withId(String rawId) {
+            return Buffer.buffer(body.length - (idEnd - idStart) + rawId.length())
+                    .appendBytes(body, 0, idStart)
+                    .appendString(rawId)
+                    .appendBytes(body, idEnd, body.length - idEnd);
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package com.dburyak.exercise.jsonrpc.entity;
 
-import io.vertx.core.json.JsonObject;
 import lombok.Value;
 
 import java.util.Map;
@@ -14,9 +13,6 @@ public class CallsOfUser {
     public static class CallStats {
         long successfulCalls;
         long failedCalls;
-    }
-
-    public JsonObject toJson() {
-        return JsonObject.mapFrom(this);
+        long units;
     }
 }
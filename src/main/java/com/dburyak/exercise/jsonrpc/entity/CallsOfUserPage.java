@@ -0,0 +1,17 @@
+package com.dburyak.exercise.jsonrpc.entity;
+
+import com.dburyak.exercise.jsonrpc.entity.CallsOfUser.CallStats;
+import lombok.Value;
+
+import java.util.Map;
+
+/**
+ * Part of {@link CallsOfUser} read with a cursor. Each method appears in exactly one page of a full iteration (unless
+ * the storage rehashes in the middle of it, then some methods may appear twice).
+ */
+@Value
+public class CallsOfUserPage {
+    String ip;
+    Map<String, CallStats> methods;
+    String nextCursor; // null for the last page
+}
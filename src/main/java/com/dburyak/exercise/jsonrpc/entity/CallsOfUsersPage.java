@@ -0,0 +1,15 @@
+package com.dburyak.exercise.jsonrpc.entity;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Part of calls of all the users read with a cursor. A user may appear in more than one page of a full iteration if
+ * the storage rehashes in the middle of it.
+ */
+@Value
+public class CallsOfUsersPage {
+    List<CallsOfUser> calls;
+    String nextCursor; // null for the last page
+}
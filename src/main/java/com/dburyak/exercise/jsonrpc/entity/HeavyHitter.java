@@ -0,0 +1,12 @@
+package com.dburyak.exercise.jsonrpc.entity;
+
+import lombok.Value;
+
+/**
+ * IP or method among the most frequent ones, with the estimated number of its calls.
+ */
+@Value
+public class HeavyHitter {
+    String key;
+    long calls;
+}
@@ -0,0 +1,16 @@
+package com.dburyak.exercise.jsonrpc.entity;
+
+import lombok.Value;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * IPs and methods with the most calls within the sliding window, from the highest number of calls to the lowest.
+ */
+@Value
+public class HeavyHitters {
+    Duration window;
+    List<HeavyHitter> ips;
+    List<HeavyHitter> methods;
+}
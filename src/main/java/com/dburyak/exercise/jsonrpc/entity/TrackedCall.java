@@ -1,6 +1,5 @@
 package com.dburyak.exercise.jsonrpc.entity;
 
-import io.vertx.core.json.JsonObject;
 import lombok.Value;
 
 @Value
@@ -9,6 +8,7 @@ public class TrackedCall {
     String method;
     long successfulCalls;
     long failedCalls;
+    long units; // compute units consumed by all the calls, both successful and failed
 
     /**
      * Represents a change in the number of successful and failed calls for a specific IP and method. Whereas
@@ -21,9 +21,6 @@ public class TrackedCall {
         String method;
         long successfulCalls;
         long failedCalls;
-    }
-
-    public JsonObject toJson() {
-        return JsonObject.mapFrom(this);
+        long units;
     }
 }
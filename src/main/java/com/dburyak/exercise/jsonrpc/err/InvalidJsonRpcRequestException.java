@@ -0,0 +1,12 @@
+package com.dburyak.exercise.jsonrpc.err;
+
+import io.vertx.core.json.JsonObject;
+
+import static com.dburyak.exercise.jsonrpc.json.JsonRpcResponses.INVALID_REQUEST_CODE;
+
+public class InvalidJsonRpcRequestException extends ProxyPublicException {
+
+    public InvalidJsonRpcRequestException(String details) {
+        super(null, 400, INVALID_REQUEST_CODE, "Invalid Request", new JsonObject().put("details", details));
+    }
+}
@@ -0,0 +1,9 @@
+package com.dburyak.exercise.jsonrpc.err;
+
+public class MalformedJsonRpcRequestException extends ProxyPublicException {
+    public static final int JSON_RPC_PARSE_ERROR_CODE = -32700;
+
+    public MalformedJsonRpcRequestException(Throwable cause) {
+        super(null, 400, JSON_RPC_PARSE_ERROR_CODE, "Parse error", null, cause);
+    }
+}
@@ -3,6 +3,9 @@ package com.dburyak.exercise.jsonrpc.handlers;
 import com.dburyak.exercise.jsonrpc.Config;
 import com.dburyak.exercise.jsonrpc.ProxiedReqCtx;
 import com.dburyak.exercise.jsonrpc.ReqHandler;
+import com.dburyak.exercise.jsonrpc.accesslog.AccessLogRing;
+import com.dburyak.exercise.jsonrpc.accesslog.BinaryAccessLog;
+import com.dburyak.exercise.jsonrpc.jfr.JfrEvents;
 import io.reactivex.rxjava3.core.Completable;
 import io.reactivex.rxjava3.core.Maybe;
 import io.reactivex.rxjava3.core.Observable;
@@ -26,6 +29,9 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
  * simply to configure the logger to use an async appender. However, this approach relies on the logging framework.
  * Potentially, this handler could use not a logging framework, but write access information to a database or any other
  * kind of storage or sink like syslog. That's why I implement both async handling here and using a DTO.
+ * <p>
+ * When {@link BinaryAccessLog} is given, entries are put into the ring of this event loop instead, without any
+ * allocations and formatting, and the log4j path is not used at all.
  */
 @Log4j2
 public class AccessLoggingHandler implements ReqHandler {
@@ -33,19 +39,28 @@ public class AccessLoggingHandler implements ReqHandler {
     private static final Logger ACCESS_LOG = LogManager.getLogger("ACCESS_LOG");
     private static final Duration BATCH_WRITE_INTERVAL = Duration.ofSeconds(1); // this could be configurable
     private final Duration gracefulShutdownTimeout;
+    private final BinaryAccessLog binaryAccessLog;
     private final Subject<AccessLogEntry> accessLogEntries = UnicastSubject.create();
 
     // Vertx event-loop is single-threaded, and we create separate handler instance for each verticle, so we don't
     // need any concurrency control here
     private int inFlightOps = 0;
     private Disposable writerSubscription;
+    private AccessLogRing ring;
 
-    public AccessLoggingHandler(Config cfg) {
+    /**
+     * @param binaryAccessLog binary access log to write to, or null to write to the log4j access log
+     */
+    public AccessLoggingHandler(Config cfg, BinaryAccessLog binaryAccessLog) {
         this.gracefulShutdownTimeout = cfg.getGracefulShutdownTimeout();
+        this.binaryAccessLog = binaryAccessLog;
     }
 
     @Override
     public Maybe<ProxiedReqCtx> handle(ProxiedReqCtx reqCtx) {
+        if (binaryAccessLog != null) {
+            return Maybe.fromSupplier(() -> writeBinary(reqCtx));
+        }
         return Maybe.fromSupplier(() -> {
             if (writerSubscription == null) {
                 // We can't start it from the constructor as it's called on a thread different from the EL of the
@@ -54,16 +69,40 @@ public class AccessLoggingHandler implements ReqHandler {
                 // and let each verticle to start its components during verticle startup each on its EL thread.
                 startLogWriterHandler();
             }
-            var logEntry = new AccessLogEntry(Instant.now(), reqCtx.getCallersIp(),
-                    reqCtx.getJsonRpcRequest().getMethod());
-            accessLogEntries.onNext(logEntry);
-            inFlightOps++;
+            var now = Instant.now();
+            for (var call : reqCtx.getCalls()) {
+                if (call.isRejected()) {
+                    continue;
+                }
+                var logEntry = new AccessLogEntry(now, reqCtx.getCallersIp(), call.getRequest().getMethod());
+                accessLogEntries.onNext(logEntry);
+                inFlightOps++;
+            }
             return reqCtx;
         });
     }
 
+    private ProxiedReqCtx writeBinary(ProxiedReqCtx reqCtx) {
+        if (ring == null) {
+            // created lazily for the same reason as the log writer, so that it's created on the EL of the verticle
+            ring = binaryAccessLog.newRing();
+        }
+        var now = System.currentTimeMillis();
+        for (var call : reqCtx.getCalls()) {
+            if (!call.isRejected()) {
+                // entries dropped when the ring is full are counted and reported by the binary access log
+                ring.offer(now, reqCtx.getCallersIp(), call.getRequest().getMethod());
+            }
+        }
+        return reqCtx;
+    }
+
     @Override
     public Completable closeAsync() {
+        if (ring != null) {
+            // the rest of the ring is written by the binary access log when it's closed
+            ring.close();
+        }
         log.debug("closing, inFlightRequests={}", inFlightOps);
         if (inFlightOps <= 0) {
             return Completable.complete();
@@ -97,10 +136,12 @@ public class AccessLoggingHandler implements ReqHandler {
                 .subscribe(batch -> {
                     // If we need to switch access log storage implementations here, we would introduce an interface
                     // and use it here instead of direct logging.
+                    var event = JfrEvents.beginFlush();
                     for (var entry : batch) {
                         ACCESS_LOG.info(entry);
                         inFlightOps--;
                     }
+                    JfrEvents.endFlush(event, "access-log", batch.size(), 0);
                 }, err -> log.error("unexpected error in access log writer handler, stopping the handler", err));
     }
 }
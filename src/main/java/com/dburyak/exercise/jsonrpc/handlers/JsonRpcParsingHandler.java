@@ -1,29 +1,111 @@
 package com.dburyak.exercise.jsonrpc.handlers;
 
+import com.dburyak.exercise.jsonrpc.Config;
+import com.dburyak.exercise.jsonrpc.JsonRpcCall;
 import com.dburyak.exercise.jsonrpc.JsonRpcRequest;
 import com.dburyak.exercise.jsonrpc.ProxiedReqCtx;
 import com.dburyak.exercise.jsonrpc.ReqHandler;
+import com.dburyak.exercise.jsonrpc.cache.ChainHead;
+import com.dburyak.exercise.jsonrpc.err.InvalidJsonRpcRequestException;
+import com.dburyak.exercise.jsonrpc.err.MalformedJsonRpcRequestException;
 import com.dburyak.exercise.jsonrpc.err.UnsupportedJsonRpcVersionException;
+import com.dburyak.exercise.jsonrpc.json.JsonRpcEnvelopeScanner;
+import com.dburyak.exercise.jsonrpc.json.JsonRpcResponses;
+import com.dburyak.exercise.jsonrpc.ratelimit.CallCostEstimator;
 import io.reactivex.rxjava3.core.Maybe;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.dburyak.exercise.jsonrpc.json.JsonRpcResponses.INVALID_REQUEST_CODE;
 
 /**
  * Handler that parses incoming JSON-RPC requests and populates the ProxiedReqCtx with the parsed data.
+ * <p>
+ * Only the request envelope is parsed here (see {@link JsonRpcEnvelopeScanner}), the full JSON tree is built lazily if
+ * any of the subsequent handlers needs it.
+ * <p>
+ * Both plain and batch requests are supported. Invalid elements of a batch don't fail the whole batch, they are
+ * rejected individually with their own error responses as required by the JSON-RPC spec.
  */
 public class JsonRpcParsingHandler implements ReqHandler {
+    private static final String INVALID_REQUEST_MSG = "Invalid Request";
+    private final int maxBatchSize;
+    private final CallCostEstimator callCostEstimator;
+
+    public JsonRpcParsingHandler(Config cfg, ChainHead chainHead) {
+        this.maxBatchSize = cfg.getMaxBatchSize();
+        this.callCostEstimator = new CallCostEstimator(cfg.getComputeUnits(), chainHead);
+    }
 
     @Override
     public Maybe<ProxiedReqCtx> handle(ProxiedReqCtx reqCtx) {
         return Maybe.fromSupplier(() -> {
-            var bodyBuf = reqCtx.getIncomingReqCtx().body().buffer();
-            reqCtx.setIncomingReqBodyBuf(bodyBuf);
-            var bodyJson = bodyBuf.toJsonObject();
-            reqCtx.setIncomingReqBodyJson(bodyJson);
-            var jsonRpcVersion = bodyJson.getString(JsonRpcRequest.FIELD_VERSION);
-            if (!JsonRpcRequest.VERSION_2_0.equals(jsonRpcVersion)) {
-                throw new UnsupportedJsonRpcVersionException(jsonRpcVersion);
-            }
-            reqCtx.setJsonRpcRequest(new JsonRpcRequest(bodyBuf.toJsonObject()));
+            parse(reqCtx, reqCtx.getIncomingReqCtx().body().buffer());
             return reqCtx;
         });
     }
+
+    void parse(ProxiedReqCtx reqCtx, Buffer bodyBuf) {
+        reqCtx.setIncomingReqBodyBuf(bodyBuf);
+        try {
+            if (JsonRpcResponses.isArray(bodyBuf)) {
+                reqCtx.setBatch(true);
+                reqCtx.setCalls(parseBatch(bodyBuf));
+            } else {
+                var call = new JsonRpcCall(parseSingle(bodyBuf));
+                call.setComputeUnits(callCostEstimator.cost(call.getRequest()));
+                reqCtx.setCalls(List.of(call));
+            }
+        } catch (DecodeException e) {
+            throw new MalformedJsonRpcRequestException(e);
+        }
+    }
+
+    private JsonRpcRequest parseSingle(Buffer bodyBuf) {
+        var jsonRpcRequest = JsonRpcEnvelopeScanner.scanRequest(bodyBuf);
+        var jsonRpcVersion = jsonRpcRequest.getVersion();
+        if (!JsonRpcRequest.VERSION_2_0.equals(jsonRpcVersion)) {
+            throw new UnsupportedJsonRpcVersionException(jsonRpcVersion);
+        }
+        if (jsonRpcRequest.getMethod() == null) {
+            throw new InvalidJsonRpcRequestException("method is missing");
+        }
+        return jsonRpcRequest;
+    }
+
+    private List<JsonRpcCall> parseBatch(Buffer bodyBuf) {
+        var bounds = JsonRpcResponses.arrayElements(bodyBuf);
+        var size = bounds.length / 2;
+        if (size == 0) {
+            throw new InvalidJsonRpcRequestException("empty batch");
+        }
+        if (size > maxBatchSize) {
+            throw new InvalidJsonRpcRequestException("batch is too large, max size is " + maxBatchSize);
+        }
+        var calls = new ArrayList<JsonRpcCall>(size);
+        for (var i = 0; i < size; i++) {
+            JsonRpcRequest jsonRpcRequest;
+            try {
+                jsonRpcRequest = JsonRpcEnvelopeScanner.scanRequest(bodyBuf, bounds[2 * i], bounds[2 * i + 1]);
+            } catch (DecodeException e) {
+                // element is not a JSON object
+                var call = new JsonRpcCall(null);
+                call.reject(JsonRpcResponses.error(null, INVALID_REQUEST_CODE, INVALID_REQUEST_MSG));
+                calls.add(call);
+                continue;
+            }
+            var call = new JsonRpcCall(jsonRpcRequest);
+            if (!JsonRpcRequest.VERSION_2_0.equals(jsonRpcRequest.getVersion()) || jsonRpcRequest.getMethod() == null) {
+                call.reject(JsonRpcResponses.error(jsonRpcRequest.getRawId(), INVALID_REQUEST_CODE,
+                        INVALID_REQUEST_MSG));
+            } else {
+                call.setComputeUnits(callCostEstimator.cost(jsonRpcRequest));
+            }
+            calls.add(call);
+        }
+        return calls;
+    }
 }
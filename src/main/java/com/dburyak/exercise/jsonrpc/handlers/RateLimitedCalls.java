@@ -0,0 +1,40 @@
+package com.dburyak.exercise.jsonrpc.handlers;
+
+import com.dburyak.exercise.jsonrpc.JsonRpcCall;
+import com.dburyak.exercise.jsonrpc.ProxiedReqCtx;
+import com.dburyak.exercise.jsonrpc.json.JsonRpcResponses;
+
+import java.util.List;
+
+import static com.dburyak.exercise.jsonrpc.json.JsonRpcResponses.LIMIT_EXCEEDED_CODE;
+
+/**
+ * Helpers shared by rate limiters for applying rate limiting decisions to individual calls of the request.
+ * <p>
+ * Plain request is rejected as a whole with 429 status code. Batch request is never rejected as a whole though: each
+ * call that exceeds the limit gets its own JSON-RPC error in the batch response, and the rest of the calls proceed.
+ */
+final class RateLimitedCalls {
+    private static final String LIMIT_EXCEEDED_MSG = "Rate limit exceeded";
+
+    private RateLimitedCalls() {
+    }
+
+    /**
+     * @return calls of the request that are subject to rate limiting (i.e. not rejected or answered yet)
+     */
+    static List<JsonRpcCall> pending(ProxiedReqCtx reqCtx) {
+        if (!reqCtx.isBatch()) {
+            return reqCtx.getCalls();
+        }
+        return reqCtx.getCalls().stream()
+                .filter(JsonRpcCall::isPending)
+                .toList();
+    }
+
+    static void reject(JsonRpcCall call) {
+        var rawId = call.getRequest().getRawId();
+        // notifications never get responses, not even errors, so they are just dropped from the batch response
+        call.reject(rawId != null ? JsonRpcResponses.error(rawId, LIMIT_EXCEEDED_CODE, LIMIT_EXCEEDED_MSG) : null);
+    }
+}
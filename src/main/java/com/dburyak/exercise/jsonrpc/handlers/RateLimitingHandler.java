@@ -0,0 +1,310 @@
+package com.dburyak.exercise.jsonrpc.handlers;
+
+import com.dburyak.exercise.jsonrpc.Config;
+import com.dburyak.exercise.jsonrpc.Config.PerMethodIpRateLimiting.MethodCfg;
+import com.dburyak.exercise.jsonrpc.Config.RateLimitingAlgorithm;
+import com.dburyak.exercise.jsonrpc.Config.RateLimitingMode;
+import com.dburyak.exercise.jsonrpc.JsonRpcCall;
+import com.dburyak.exercise.jsonrpc.ProxiedReqCtx;
+import com.dburyak.exercise.jsonrpc.ReqHandler;
+import com.dburyak.exercise.jsonrpc.jfr.JfrEvents;
+import com.dburyak.exercise.jsonrpc.ratelimit.LocalLimit;
+import com.dburyak.exercise.jsonrpc.ratelimit.LocalRateLimiter;
+import com.dburyak.exercise.jsonrpc.redis.RedisScript;
+import com.github.benmanes.caffeine.cache.Cache;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.core.Observable;
+import io.vertx.rxjava3.redis.client.RedisConnection;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.TOO_MANY_REQUESTS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Rate limiter of the calls per caller's IP (global limit) and per IP+method combination (per-method limits), each
+ * limit is enforced by its own algorithm (see {@link RateLimitingAlgorithm}). Both kinds of limits are evaluated
+ * together for all the calls of the request by a single atomic redis script call (see "redis/rate-limit.lua"): each
+ * call is admitted only if it fits into all the limits it's subject to. Limits are budgets of compute units, each call
+ * consumes as many units as it costs (see {@link com.dburyak.exercise.jsonrpc.ratelimit.CallCostEstimator}).
+ * <p>
+ * Limits that have already been exhausted are remembered locally till the moment the next call may fit into them (as
+ * reported by the script), so that the calls subject to them are rejected without going to redis at all. If the global
+ * limit of the IP is exhausted, the request doesn't go to redis regardless of its methods.
+ * <p>
+ * Global and per-method limits may be configured to be enforced locally instead (see {@link LocalRateLimiter}), then
+ * decisions on them are made without any I/O. If both kinds of limits are enforced locally, requests never wait for
+ * redis.
+ */
+@Log4j2
+public class RateLimitingHandler implements ReqHandler {
+    private static final String DELIMITER = ":";
+    private static final String PREFIX = "rtlmt" + DELIMITER;
+    // state of different algorithms has different shape, so each algorithm has its own keys
+    private static final String SLIDING_WINDOW_PREFIX = "rtlmt-sw" + DELIMITER;
+    private static final String GCRA_PREFIX = "rtlmt-gcra" + DELIMITER;
+    private static final String GLOBAL_LIMIT_IDX = "1";
+    private static final String LIMIT_IDX_DELIMITER = ",";
+    private static final String CALL_COST_DELIMITER = ":";
+    private final Cache<String, Long> globalIpLocalCache; // null if global rate limiting is disabled
+    private final Cache<String, Long> perMethodIpLocalCache; // null if per-method rate limiting is disabled
+    private final RedisConnection redis;
+    private final RedisScript rateLimitScript;
+    private final LocalRateLimiter localRateLimiter; // null if none of the limits is enforced locally
+    private final boolean globalEnabled;
+    private final boolean globalEnforcedLocally;
+    private final int globalMaxCallsInWindow;
+    private final long globalWindowMs;
+    private final double globalMaxOvershoot;
+    private final RateLimitingAlgorithm globalAlgorithm;
+    private final Map<String, MethodCfg> methodCfg;
+    private final boolean perMethodEnforcedLocally;
+    private final double perMethodMaxOvershoot;
+    private final Duration gracefulShutdownTimeout;
+
+    // Vertx event-loop is single-threaded, and we create separate handler instance for each verticle, so we don't
+    // need any concurrency control here
+    private int inFlightRequests = 0;
+
+    public RateLimitingHandler(Config cfg, Cache<String, Long> globalIpLocalCache,
+            Cache<String, Long> perMethodIpLocalCache, RedisConnection redis, RedisScript rateLimitScript,
+            LocalRateLimiter localRateLimiter) {
+        this.globalIpLocalCache = globalIpLocalCache;
+        this.perMethodIpLocalCache = perMethodIpLocalCache;
+        this.redis = redis;
+        this.rateLimitScript = rateLimitScript;
+        this.localRateLimiter = localRateLimiter;
+        var globalCfg = cfg.getGlobalIpRateLimiting();
+        this.globalEnabled = globalCfg.isEnabled();
+        this.globalEnforcedLocally = globalCfg.getMode() == RateLimitingMode.LOCAL;
+        this.globalMaxCallsInWindow = globalCfg.getRequests();
+        this.globalWindowMs = globalCfg.getTimeWindow().toMillis();
+        this.globalMaxOvershoot = globalCfg.getMaxOvershoot();
+        this.globalAlgorithm = globalCfg.getAlgorithm();
+        var perMethodCfg = cfg.getPerMethodIpRateLimiting();
+        this.methodCfg = perMethodCfg.isEnabled() ? perMethodCfg.getMethodCfgs() : Collections.emptyMap();
+        this.perMethodEnforcedLocally = perMethodCfg.getMode() == RateLimitingMode.LOCAL;
+        this.perMethodMaxOvershoot = perMethodCfg.getMaxOvershoot();
+        this.gracefulShutdownTimeout = cfg.getGracefulShutdownTimeout();
+    }
+
+    @Override
+    public Maybe<ProxiedReqCtx> handle(ProxiedReqCtx reqCtx) {
+        return Maybe.defer(() -> {
+            var calls = RateLimitedCalls.pending(reqCtx);
+            if (calls.isEmpty()) {
+                return Maybe.just(reqCtx);
+            }
+            var ip = reqCtx.getCallersIp();
+            var nowMs = System.currentTimeMillis();
+            var globalCheckedInRedis = globalEnabled && !globalEnforcedLocally;
+            if (globalCheckedInRedis && cachedHitLimit(globalIpLocalCache, ip, nowMs)) {
+                calls.forEach(RateLimitedCalls::reject);
+                return applyDecision(reqCtx, true);
+            }
+            // limits checked in redis are numbered in the order they are passed to the script, starting from 1
+            var limits = new ArrayList<Limit>();
+            if (globalCheckedInRedis) {
+                limits.add(new Limit(globalIpLocalCache, ip, redisKey(globalAlgorithm, ip), globalAlgorithm,
+                        globalMaxCallsInWindow, globalWindowMs));
+            }
+            var limitIdxByMethod = new HashMap<String, String>();
+            var callsToCheck = new ArrayList<JsonRpcCall>(calls.size());
+            var callLimits = new ArrayList<String>(calls.size());
+            var callLocalLimits = new ArrayList<List<LocalLimit>>(calls.size());
+            var anyRejected = false;
+            for (var call : calls) {
+                var method = call.getRequest().getMethod();
+                var mCfg = methodCfg.get(method);
+                var units = call.getComputeUnits();
+                // locally enforced limits are checked first, as they don't need any I/O
+                var localLimits = acquireLocalLimits(ip, method, mCfg, units, nowMs);
+                if (localLimits == null) {
+                    RateLimitedCalls.reject(call);
+                    anyRejected = true;
+                    continue;
+                }
+                String limitIdxs = globalCheckedInRedis ? GLOBAL_LIMIT_IDX : null;
+                if (mCfg != null && !perMethodEnforcedLocally) {
+                    var localCacheKey = localCacheKey(ip, method);
+                    if (cachedHitLimit(perMethodIpLocalCache, localCacheKey, nowMs)) {
+                        localLimits.forEach(l -> l.release(units));
+                        RateLimitedCalls.reject(call);
+                        anyRejected = true;
+                        continue;
+                    }
+                    var methodLimitIdx = limitIdxByMethod.computeIfAbsent(method, ignr -> {
+                        limits.add(new Limit(perMethodIpLocalCache, localCacheKey,
+                                redisKey(mCfg.getAlgorithm(), ip, method), mCfg.getAlgorithm(), mCfg.getRequests(),
+                                mCfg.getTimeWindow().toMillis()));
+                        return Integer.toString(limits.size());
+                    });
+                    limitIdxs = limitIdxs != null ? limitIdxs + LIMIT_IDX_DELIMITER + methodLimitIdx : methodLimitIdx;
+                }
+                if (limitIdxs != null) {
+                    callsToCheck.add(call);
+                    callLimits.add(units + CALL_COST_DELIMITER + limitIdxs);
+                    callLocalLimits.add(localLimits);
+                }
+            }
+            if (callsToCheck.isEmpty()) {
+                return applyDecision(reqCtx, anyRejected);
+            }
+            var keys = new ArrayList<String>(limits.size());
+            var args = new ArrayList<Object>(limits.size() * 3 + callLimits.size());
+            for (var limit : limits) {
+                keys.add(limit.getRedisKey());
+                args.add(limit.getAlgorithm().getCfgName());
+                args.add(limit.getMaxCallsInWindow());
+                args.add(limit.getWindowMs());
+            }
+            args.addAll(callLimits);
+            var wasRejected = anyRejected;
+            return rateLimitScript.rxEval(redis, keys, args)
+                    .compose(JfrEvents.redisBatch("rate-limit", "check", 1))
+                    .doOnSubscribe(ignr -> inFlightRequests++)
+                    .doFinally(() -> inFlightRequests--)
+                    .doOnError(ignr -> {
+                        // the request fails, so none of the calls is admitted
+                        for (var j = 0; j < callsToCheck.size(); j++) {
+                            var units = callsToCheck.get(j).getComputeUnits();
+                            callLocalLimits.get(j).forEach(l -> l.release(units));
+                        }
+                    })
+                    .flatMapMaybe(resp -> {
+                        var rejected = wasRejected;
+                        for (var j = 0; j < callsToCheck.size(); j++) {
+                            if (resp.get(j).toInteger() == 0) {
+                                var units = callsToCheck.get(j).getComputeUnits();
+                                callLocalLimits.get(j).forEach(l -> l.release(units));
+                                RateLimitedCalls.reject(callsToCheck.get(j));
+                                rejected = true;
+                            }
+                        }
+                        // both local caches are filled from the same response
+                        for (var i = 0; i < limits.size(); i++) {
+                            var limit = limits.get(i);
+                            var retryAfterMs = resp.get(callsToCheck.size() + i).toLong();
+                            if (retryAfterMs > 0) {
+                                limit.getLocalCache().put(limit.getLocalCacheKey(), nowMs + retryAfterMs);
+                            }
+                        }
+                        return applyDecision(reqCtx, rejected);
+                    });
+        });
+    }
+
+    @Override
+    public Completable closeAsync() {
+        log.debug("closing, inFlightRequests={}", inFlightRequests);
+        if (inFlightRequests <= 0) {
+            return Completable.complete();
+        }
+        // there's a way to implement it with listeners/Promises without polling, but it's more complex and requires
+        // more memory and CPU wasted on each request, so polling being ugly still is not a bad trade-off here
+        return Observable.interval(0, 50, MILLISECONDS)
+                .filter(ignr -> inFlightRequests <= 0)
+                .take(1)
+                .ignoreElements()
+                .timeout(gracefulShutdownTimeout.toMillis(), MILLISECONDS, Completable.complete());
+    }
+
+    /**
+     * Admits the call by all the locally enforced limits it's subject to.
+     *
+     * @return acquired local limits (to be released if the call is rejected by other limits), or null if the call
+     *         doesn't fit into some of the local limits
+     */
+    private List<LocalLimit> acquireLocalLimits(String ip, String method, MethodCfg mCfg, int units, long nowMs) {
+        if (localRateLimiter == null) {
+            return List.of();
+        }
+        LocalLimit globalLimit = null;
+        if (globalEnabled && globalEnforcedLocally) {
+            globalLimit = localRateLimiter.limit(redisKey(globalAlgorithm, ip), globalMaxCallsInWindow, globalWindowMs,
+                    globalMaxOvershoot);
+            if (!globalLimit.tryAcquire(nowMs, units)) {
+                return null;
+            }
+        }
+        if (mCfg != null && perMethodEnforcedLocally) {
+            var methodLimit = localRateLimiter.limit(redisKey(mCfg.getAlgorithm(), ip, method), mCfg.getRequests(),
+                    mCfg.getTimeWindow().toMillis(), perMethodMaxOvershoot);
+            if (!methodLimit.tryAcquire(nowMs, units)) {
+                if (globalLimit != null) {
+                    globalLimit.release(units);
+                }
+                return null;
+            }
+            return globalLimit != null ? List.of(globalLimit, methodLimit) : List.of(methodLimit);
+        }
+        return globalLimit != null ? List.of(globalLimit) : List.of();
+    }
+
+    private boolean cachedHitLimit(Cache<String, Long> localCache, String key, long nowMs) {
+        var cachedWindowExpiresAt = localCache.getIfPresent(key);
+        if (cachedWindowExpiresAt != null) {
+            if (cachedWindowExpiresAt < nowMs) {
+                // time-window expired, remove from cache and let the request through
+                localCache.invalidate(key);
+            } else {
+                // already hit the limit in the current time-window
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Maybe<ProxiedReqCtx> applyDecision(ProxiedReqCtx reqCtx, boolean anyRejected) {
+        if (anyRejected && !reqCtx.isBatch()) {
+            return respondWithTooManyRequests(reqCtx).andThen(Maybe.empty());
+        }
+        // rejected calls of a batch already have their error responses (except for notifications, that get none)
+        return Maybe.just(reqCtx);
+    }
+
+    private Completable respondWithTooManyRequests(ProxiedReqCtx reqCtx) {
+        return reqCtx.getIncomingReqCtx().response()
+                .setStatusCode(TOO_MANY_REQUESTS.code())
+                .setStatusMessage(TOO_MANY_REQUESTS.reasonPhrase())
+                .rxEnd();
+    }
+
+    private String localCacheKey(String ip, String method) {
+        return ip + DELIMITER + method;
+    }
+
+    private String redisKey(RateLimitingAlgorithm algorithm, String ip) {
+        return keyPrefix(algorithm) + ip;
+    }
+
+    private String redisKey(RateLimitingAlgorithm algorithm, String ip, String method) {
+        return keyPrefix(algorithm) + ip + DELIMITER + method;
+    }
+
+    private static String keyPrefix(RateLimitingAlgorithm algorithm) {
+        return switch (algorithm) {
+            case FIXED_WINDOW -> PREFIX;
+            case SLIDING_WINDOW -> SLIDING_WINDOW_PREFIX;
+            case GCRA -> GCRA_PREFIX;
+        };
+    }
+
+    @Value
+    private static class Limit {
+        Cache<String, Long> localCache;
+        String localCacheKey;
+        String redisKey;
+        RateLimitingAlgorithm algorithm;
+        int maxCallsInWindow;
+        long windowMs;
+    }
+}
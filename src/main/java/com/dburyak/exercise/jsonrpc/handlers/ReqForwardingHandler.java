@@ -1,81 +1,498 @@
 package com.dburyak.exercise.jsonrpc.handlers;
 
+import com.dburyak.exercise.jsonrpc.BackendResponse;
 import com.dburyak.exercise.jsonrpc.Config;
+import com.dburyak.exercise.jsonrpc.JsonRpcCall;
 import com.dburyak.exercise.jsonrpc.ProxiedReqCtx;
 import com.dburyak.exercise.jsonrpc.ReqHandler;
+import com.dburyak.exercise.jsonrpc.jfr.BackendCallEvent;
+import com.dburyak.exercise.jsonrpc.jfr.JfrEvents;
+import com.dburyak.exercise.jsonrpc.json.JsonRpcEnvelopeScanner;
+import com.dburyak.exercise.jsonrpc.json.JsonRpcResponses;
+import com.dburyak.exercise.jsonrpc.lb.Backend;
+import com.dburyak.exercise.jsonrpc.lb.HedgingPolicy;
+import com.dburyak.exercise.jsonrpc.lb.LoadBalancer;
+import com.dburyak.exercise.jsonrpc.lb.RetryPolicy;
+import com.dburyak.exercise.jsonrpc.metrics.UpstreamMetrics;
+import io.reactivex.rxjava3.core.Completable;
 import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import io.reactivex.rxjava3.subjects.CompletableSubject;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
 import io.vertx.core.http.RequestOptions;
-import io.vertx.rxjava3.ext.web.client.HttpRequest;
-import io.vertx.rxjava3.ext.web.client.WebClient;
+import io.vertx.core.json.DecodeException;
+import io.vertx.rxjava3.core.RxHelper;
+import io.vertx.rxjava3.core.Vertx;
+import lombok.Value;
 import lombok.extern.log4j.Log4j2;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.dburyak.exercise.jsonrpc.handlers.MetadataPopulatingHandler.X_FORWARDED_FOR_HEADER;
+import static com.dburyak.exercise.jsonrpc.json.JsonRpcResponses.INTERNAL_ERROR_CODE;
+import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
 
 /**
  * This is the main handler for the application - it forwards the incoming request to one of the backends and sends the
  * backend response back to the client.
+ * <p>
+ * Batch requests are split into chunks of at most {@link Config#getMaxUpstreamBatchSize()} calls, which are sent
+ * concurrently to different backends. Responses of all the chunks are then reassembled into a single batch response
+ * in the order of the original calls. Calls that already have a response (e.g. rate limited ones) are not forwarded.
+ * <p>
+ * Backend for each request (or batch chunk) is chosen by the {@link LoadBalancer}, which is fed with latency and health
+ * of every backend request sent from here. Per backend and per method telemetry of the calls is recorded into
+ * {@link UpstreamMetrics}, if enabled.
+ * <p>
+ * Single calls of read-only methods may be hedged (see {@link HedgingPolicy}): if the backend does not respond in time,
+ * the call is sent to another backend as well, and the first response wins. The losing request is reset, so that it
+ * doesn't hold a pooled connection till the backend timeout, and the backend is not blamed for it.
+ * <p>
+ * Requests with only idempotent calls that fail in a backend-specific way (see {@link RetryPolicy}) fail over to
+ * another backend. All the attempts send the very same request body buffer, it's never copied or re-encoded.
  */
 @Log4j2
 public class ReqForwardingHandler implements ReqHandler {
     private static final String HOST_HEADER = "host";
     private static final String CONNECTION_HEADER = "connection";
+    private static final String CONTENT_LENGTH_HEADER = "content-length";
+    private static final String BACKEND_FAILED_MSG = "Backend request failed";
+    private static final String NO_BACKEND_RESP_MSG = "No response from backend";
 
-    private final WebClient webClient;
-    private final List<RequestOptions> reqOptsList;
+    private final HttpClient httpClient;
+    private final LoadBalancer loadBalancer;
+    private final int maxUpstreamBatchSize;
+    private final long backendTimeoutMs;
+    private final UpstreamMetrics.Recorder upstreamRecorder; // null if metrics are disabled
+    private final HedgingPolicy hedgingPolicy; // null if hedging is disabled
+    private final RetryPolicy retryPolicy; // null if retries are disabled
 
-    private int reqNum = 0;
-
-    public ReqForwardingHandler(Config cfg, WebClient webClient) {
-        this.webClient = webClient;
-        this.reqOptsList = cfg.getProxiedBackendUrls().stream()
-                .map(url -> {
-                    var reqOpts = new RequestOptions();
-                    reqOpts.setAbsoluteURI(url);
-                    return reqOpts;
-                })
-                .toList();
+    public ReqForwardingHandler(Config cfg, HttpClient httpClient, LoadBalancer loadBalancer,
+            UpstreamMetrics.Recorder upstreamRecorder, HedgingPolicy hedgingPolicy, RetryPolicy retryPolicy) {
+        this.httpClient = httpClient;
+        this.loadBalancer = loadBalancer;
+        this.upstreamRecorder = upstreamRecorder;
+        this.hedgingPolicy = hedgingPolicy;
+        this.retryPolicy = retryPolicy;
+        this.maxUpstreamBatchSize = cfg.getMaxUpstreamBatchSize();
+        this.backendTimeoutMs = cfg.getBackendTimeout().toMillis();
     }
 
     @Override
     public Maybe<ProxiedReqCtx> handle(ProxiedReqCtx pReqCtx) {
-        // Even though we've already parsed the incoming request body as Json, no need to re-encode it again. We can
+        if (pReqCtx.isBatch()) {
+            return forwardBatch(pReqCtx);
+        }
+        // Even though we've already scanned the incoming request body, no need to re-encode it again. We can
         // just forward the original buffer as-is. This will work as long as we don't have any requirements around
         // modifying the request body.
-        var reqOpts = nextReqOpts();
-        var pReq = webClient.request(pReqCtx.getIncomingReqCtx().request().method(), reqOpts);
-        pReq = populateHeaders(pReq, pReqCtx, reqOpts);
-        return pReq.rxSendBuffer(pReqCtx.getIncomingReqBodyBuf())
-                .map(backendResp -> {
+        var call = pReqCtx.getCalls().get(0);
+        if (!call.isPending()) {
+            // already responded by the proxy itself (e.g. from the cache)
+            return Maybe.just(pReqCtx);
+        }
+        var backend = loadBalancer.pick();
+        var tried = new ArrayList<Backend>();
+        tried.add(backend);
+        var method = call.getRequest().getMethod();
+        var body = pReqCtx.getIncomingReqBodyBuf();
+        var resp = hedgingPolicy != null && hedgingPolicy.isHedgeable(method)
+                ? sendHedged(pReqCtx, backend, method, tried)
+                : send(pReqCtx, backend, body, false, pReqCtx.getCalls());
+        return withFailover(pReqCtx, tried, body, false, pReqCtx.getCalls(), resp)
+                .map(winner -> {
+                    var backendResp = winner.getResp();
+                    recordRespBody(winner.getBackend(), call, backendResp.getBody());
                     pReqCtx.setBackendResp(backendResp);
+                    call.setSuccessful(backendResp.getStatusCode() == OK.code());
                     return pReqCtx;
                 })
                 .toMaybe();
     }
 
-    private <T> HttpRequest<T> populateHeaders(HttpRequest<T> pReq, ProxiedReqCtx pReqCtx, RequestOptions reqOpts) {
-        pReq.putHeaders(pReqCtx.getIncomingReqCtx().request().headers());
-        if (pReq.headers().contains(HOST_HEADER)) {
-            // replace host header that contains this proxy host with the backend host
-            pReq.headers().remove(HOST_HEADER);
-            pReq.putHeader(HOST_HEADER, reqOpts.getHost());
+    /**
+     * Sends the single call to the primary backend, and to another one as well if the primary does not respond within
+     * the hedge delay. Whichever responds first wins, the other request is disposed. Failure of the primary before the
+     * hedge is sent fails the call, failure of one of the two in-flight requests lets the other one win.
+     *
+     * @param tried backends the call is sent to, the hedge one is added once it's sent
+     */
+    private Single<Reply> sendHedged(ProxiedReqCtx pReqCtx, Backend primary, String method, List<Backend> tried) {
+        return Single.defer(() -> {
+            hedgingPolicy.onHedgeableCall();
+            var delayNanos = hedgingPolicy.hedgeDelayNanos(primary, method);
+            var body = pReqCtx.getIncomingReqBodyBuf();
+            var primaryFailed = CompletableSubject.create();
+            var primaryResp = send(pReqCtx, primary, body, false, pReqCtx.getCalls())
+                    .doOnError(ignr -> primaryFailed.onComplete())
+                    .toObservable();
+            // the hedge is sent from the event loop, as the load balancer and the hedging policy are not thread-safe
+            var ctx = Vertx.currentContext();
+            var scheduler = ctx != null ? RxHelper.scheduler(ctx) : Schedulers.computation();
+            var hedgeResp = Observable.timer(delayNanos, TimeUnit.NANOSECONDS, scheduler)
+                    .takeUntil(primaryFailed.toObservable())
+                    .flatMapMaybe(ignr -> {
+                        var hedge = loadBalancer.pick(tried);
+                        if (tried.contains(hedge) || !hedgingPolicy.tryAcquireHedge()) {
+                            return Maybe.<Reply>empty();
+                        }
+                        tried.add(hedge);
+                        log.debug("hedging call: method={}, primary={}, hedge={}, delayNanos={}", method, primary,
+                                hedge, delayNanos);
+                        return send(pReqCtx, hedge, body, false, pReqCtx.getCalls()).toMaybe();
+                    });
+            return Observable.mergeDelayError(primaryResp, hedgeResp)
+                    .firstOrError();
+        });
+    }
+
+    private Maybe<ProxiedReqCtx> forwardBatch(ProxiedReqCtx pReqCtx) {
+        var pendingCalls = pReqCtx.getCalls().stream()
+                .filter(JsonRpcCall::isPending)
+                .toList();
+        return Observable.fromIterable(chunks(pendingCalls, maxUpstreamBatchSize))
+                .flatMapCompletable(chunk -> forwardChunk(pReqCtx, chunk))
+                .andThen(Maybe.fromSupplier(() -> {
+                    pReqCtx.setRespBody(assembleBatchResp(pReqCtx));
+                    return pReqCtx;
+                }));
+    }
+
+    static List<List<JsonRpcCall>> chunks(List<JsonRpcCall> calls, int maxChunkSize) {
+        var chunks = new ArrayList<List<JsonRpcCall>>();
+        for (var i = 0; i < calls.size(); i += maxChunkSize) {
+            chunks.add(calls.subList(i, Math.min(i + maxChunkSize, calls.size())));
         }
-        pReq.headers().remove(CONNECTION_HEADER);
-        pReq.putHeader(CONNECTION_HEADER, "keep-alive");
-        var ipInHeader = pReqCtx.getIncomingReqCtx().request().getHeader(X_FORWARDED_FOR_HEADER);
-        if (ipInHeader == null) {
-            pReq.putHeader(X_FORWARDED_FOR_HEADER, pReqCtx.getCallersIp());
+        return chunks;
+    }
+
+    private Completable forwardChunk(ProxiedReqCtx pReqCtx, List<JsonRpcCall> chunk) {
+        var backend = loadBalancer.pick();
+        var tried = new ArrayList<Backend>();
+        tried.add(backend);
+        var body = JsonRpcResponses.array(chunk.stream()
+                .map(c -> c.getRequest().getRaw())
+                .toList());
+        var resp = send(pReqCtx, backend, body, true, chunk);
+        return withFailover(pReqCtx, tried, body, true, chunk, resp)
+                .doOnSuccess(winner -> distributeChunkResp(winner.getBackend(), chunk, winner.getResp()))
+                .ignoreElement()
+                .onErrorComplete(err -> {
+                    // failure of one chunk should not fail the whole batch
+                    log.warn("batch chunk request failed: backend={}, numCalls={}", backend, chunk.size(), err);
+                    failChunk(chunk, BACKEND_FAILED_MSG);
+                    return true;
+                });
+    }
+
+    /**
+     * Retries the request on other backends if it fails in a retryable way, up to the max attempts and as long as the
+     * retries budget allows. If the retries are exhausted, the last outcome is returned as is.
+     *
+     * @param tried backends the first attempt is sent to (both the primary and the hedge one if it's hedged), retries
+     *         go to other backends and are added here as well
+     * @param firstAttempt first attempt of the request
+     */
+    private Single<Reply> withFailover(ProxiedReqCtx pReqCtx, List<Backend> tried, Buffer body,
+            boolean bodyModified, List<JsonRpcCall> calls, Single<Reply> firstAttempt) {
+        if (retryPolicy == null || !retryPolicy.isRetryable(calls)) {
+            return firstAttempt;
         }
-        return pReq;
+        return Single.defer(() -> {
+            retryPolicy.onRetryableRequest();
+            return retryIfFailed(pReqCtx, tried, body, bodyModified, calls, firstAttempt, 1);
+        });
     }
 
-    private RequestOptions nextReqOpts() {
-        var reqMod = reqNum++ % reqOptsList.size();
-        var reqOpts = reqOptsList.get(reqMod);
-        if (reqNum >= reqOptsList.size()) { // to prevent overflow
-            reqNum = 0;
+    private Single<Reply> retryIfFailed(ProxiedReqCtx pReqCtx, List<Backend> tried, Buffer body,
+            boolean bodyModified, List<JsonRpcCall> calls, Single<Reply> attempt, int attemptNum) {
+        if (attemptNum >= retryPolicy.getMaxAttempts()) {
+            return attempt;
         }
-        return reqOpts;
+        // materialized, so that failures of the retries are not mistaken for failures of this attempt
+        return attempt.materialize().flatMap(outcome -> {
+            if (outcome.isOnError()) {
+                var err = outcome.getError();
+                return retryPolicy.isRetryableFailure(err)
+                        ? retry(pReqCtx, tried, body, bodyModified, calls, Single.error(err), attemptNum)
+                        : Single.<Reply>error(err);
+            }
+            var resp = outcome.getValue();
+            return isRetryableResp(resp.getResp(), !pReqCtx.isBatch())
+                    ? retry(pReqCtx, tried, body, bodyModified, calls, Single.just(resp), attemptNum)
+                    : Single.just(resp);
+        });
+    }
+
+    /**
+     * @param tried backends the request has already been sent to, the retry goes to another one
+     * @param outcome outcome of the failed attempt, returned if the retry can't be made
+     */
+    private Single<Reply> retry(ProxiedReqCtx pReqCtx, List<Backend> tried, Buffer body, boolean bodyModified,
+            List<JsonRpcCall> calls, Single<Reply> outcome, int attemptNum) {
+        var next = loadBalancer.pick(tried);
+        if (tried.contains(next) || !retryPolicy.tryAcquireRetry()) {
+            return outcome;
+        }
+        log.debug("retrying request on another backend: tried={}, next={}, numCalls={}, attempt={}", tried, next,
+                calls.size(), attemptNum + 1);
+        tried.add(next);
+        var nextAttempt = send(pReqCtx, next, body, bodyModified, calls);
+        return retryIfFailed(pReqCtx, tried, body, bodyModified, calls, nextAttempt, attemptNum + 1);
+    }
+
+    /**
+     * @param scanBody whether to look for JSON-RPC errors of a lagging backend in the body, only the envelope of a
+     *         single call response is scanned
+     */
+    private boolean isRetryableResp(BackendResponse backendResp, boolean scanBody) {
+        if (retryPolicy.isRetryableStatus(backendResp.getStatusCode())) {
+            return true;
+        }
+        var body = backendResp.getBody();
+        if (!scanBody || backendResp.getStatusCode() != OK.code() || body == null) {
+            return false;
+        }
+        try {
+            return retryPolicy.isRetryableError(JsonRpcEnvelopeScanner.scanResponse(body, 0, body.length()));
+        } catch (DecodeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sends the request to the given backend, keeping track of the backend load and health. The response body is read
+     * fully before the response is emitted.
+     * <p>
+     * If the returned single is disposed before the response is read (e.g. the request lost to a hedge), the request
+     * is reset, so that the connection is not held till the timeout. The backend is released only once the request is
+     * actually terminated.
+     *
+     * @param bodyModified whether the body differs from the incoming request body
+     * @param calls calls sent with the request
+     */
+    private Single<Reply> send(ProxiedReqCtx pReqCtx, Backend backend, Buffer body, boolean bodyModified,
+            List<JsonRpcCall> calls) {
+        return Single.create(emitter -> {
+            var reqOpts = new RequestOptions(backend.getReqOpts())
+                    .setMethod(pReqCtx.getIncomingReqCtx().request().method())
+                    .setTimeout(backendTimeoutMs);
+            var event = JfrEvents.beginBackendCall();
+            var startedAt = System.nanoTime();
+            var terminated = new AtomicBoolean();
+            backend.onRequestStarted();
+            httpClient.request(reqOpts)
+                    .compose(pReq -> {
+                        if (emitter.isDisposed()) {
+                            // cancelled while waiting for the connection, the reset fails the response
+                            pReq.reset();
+                            return pReq.response();
+                        }
+                        emitter.setCancellable(() -> {
+                            if (!terminated.get()) {
+                                pReq.reset();
+                            }
+                        });
+                        populateHeaders(pReq, pReqCtx, reqOpts, bodyModified);
+                        return pReq.send(body);
+                    })
+                    .compose(resp -> resp.body().map(respBody -> new BackendResponse(resp.statusCode(),
+                            resp.statusMessage(), resp.headers(), respBody)))
+                    .onComplete(ar -> {
+                        terminated.set(true);
+                        var latency = System.nanoTime() - startedAt;
+                        if (emitter.isDisposed()) {
+                            if (hedgingPolicy != null && !pReqCtx.isBatch()) {
+                                hedgingPolicy.onCancelled(backend, calls.get(0).getRequest().getMethod(), latency);
+                            }
+                            backend.onRequestCancelled();
+                        } else if (ar.succeeded()) {
+                            onResponse(pReqCtx, backend, body, calls, ar.result(), event, latency);
+                            emitter.onSuccess(new Reply(backend, ar.result()));
+                        } else {
+                            onFailure(pReqCtx, backend, body, calls, ar.cause(), event, latency);
+                            emitter.onError(ar.cause());
+                        }
+                    });
+        });
+    }
+
+    private void onResponse(ProxiedReqCtx pReqCtx, Backend backend, Buffer body, List<JsonRpcCall> calls,
+            BackendResponse backendResp, BackendCallEvent event, long latency) {
+        JfrEvents.endBackendCall(event, backend.getUrl(), pReqCtx.getCallersIp(), pReqCtx.isBatch(), calls,
+                body.length(), backendResp.getBody().length(), backendResp.getStatusCode(), null);
+        var isBackendFailure = backendResp.getStatusCode() >= INTERNAL_SERVER_ERROR.code();
+        backend.onRequestFinished(latency, isBackendFailure);
+        recordHedgingLatency(pReqCtx, backend, calls, latency);
+        if (upstreamRecorder != null) {
+            for (var call : calls) {
+                upstreamRecorder.onResponse(backend, call.getRequest().getMethodId(), latency,
+                        backendResp.getStatusCode());
+            }
+        }
+    }
+
+    /**
+     * Records timeouts and connection errors.
+     */
+    private void onFailure(ProxiedReqCtx pReqCtx, Backend backend, Buffer body, List<JsonRpcCall> calls,
+            Throwable err, BackendCallEvent event, long latency) {
+        JfrEvents.endBackendCall(event, backend.getUrl(), pReqCtx.getCallersIp(), pReqCtx.isBatch(), calls,
+                body.length(), 0, 0, err);
+        backend.onRequestFinished(latency, true);
+        recordHedgingLatency(pReqCtx, backend, calls, latency);
+        if (upstreamRecorder != null) {
+            for (var call : calls) {
+                upstreamRecorder.onFailure(backend, call.getRequest().getMethodId(), latency,
+                        err instanceof TimeoutException);
+            }
+        }
+    }
+
+    private void recordHedgingLatency(ProxiedReqCtx pReqCtx, Backend backend, List<JsonRpcCall> calls, long latency) {
+        if (hedgingPolicy == null || pReqCtx.isBatch()) {
+            return;
+        }
+        var method = calls.get(0).getRequest().getMethod();
+        if (hedgingPolicy.isHedgeable(method)) {
+            hedgingPolicy.onLatency(backend, method, latency);
+        }
+    }
+
+    /**
+     * Records size and JSON-RPC error code of the response, only the envelope is scanned.
+     */
+    private void recordRespBody(Backend backend, JsonRpcCall call, Buffer body) {
+        if (upstreamRecorder == null || body == null) {
+            return;
+        }
+        Integer errorCode;
+        try {
+            errorCode = JsonRpcEnvelopeScanner.scanResponse(body, 0, body.length()).getErrorCode();
+        } catch (DecodeException e) {
+            // not a JSON-RPC response, e.g. an error page of the backend
+            errorCode = null;
+        }
+        upstreamRecorder.onResponseBody(backend, call.getRequest().getMethodId(), body.length(), errorCode);
+    }
+
+    void distributeChunkResp(Backend backend, List<JsonRpcCall> chunk, BackendResponse backendResp) {
+        var body = backendResp.getBody();
+        if (backendResp.getStatusCode() != OK.code() || !JsonRpcResponses.isArray(body)) {
+            log.debug("unexpected backend response for batch chunk: status={}", backendResp.getStatusCode());
+            failChunk(chunk, BACKEND_FAILED_MSG);
+            return;
+        }
+        int[] bounds;
+        try {
+            bounds = JsonRpcResponses.arrayElements(body);
+        } catch (DecodeException e) {
+            log.debug("malformed backend response for batch chunk", e);
+            failChunk(chunk, BACKEND_FAILED_MSG);
+            return;
+        }
+        for (var i = 0; i < bounds.length / 2; i++) {
+            var start = bounds[2 * i];
+            var end = bounds[2 * i + 1];
+            try {
+                var envelope = JsonRpcEnvelopeScanner.scanResponse(body, start, end);
+                var call = findCallById(chunk, envelope.getRawId(), i);
+                if (call != null) {
+                    call.setResp(body.slice(start, end));
+                    call.setSuccessful(true);
+                    if (upstreamRecorder != null) {
+                        upstreamRecorder.onResponseBody(backend, call.getRequest().getMethodId(), end - start,
+                                envelope.getErrorCode());
+                    }
+                }
+            } catch (DecodeException e) {
+                log.debug("malformed backend response element in batch chunk, ignoring", e);
+            }
+        }
+        for (var call : chunk) {
+            var isNotification = call.getRequest().getRawId() == null;
+            if (isNotification) {
+                // notifications never get responses, but they were delivered successfully
+                call.setSuccessful(true);
+            } else if (call.getResp() == null) {
+                call.setResp(JsonRpcResponses.error(call.getRequest().getRawId(), INTERNAL_ERROR_CODE,
+                        NO_BACKEND_RESP_MSG));
+            }
+        }
+    }
+
+    /**
+     * Backends may respond to batch elements in any order, so responses are matched to calls by id. Usually they
+     * respond in the same order though, so the call at the same position is checked first.
+     */
+    private JsonRpcCall findCallById(List<JsonRpcCall> chunk, String rawId, int idxHint) {
+        if (rawId == null) {
+            return null;
+        }
+        if (idxHint < chunk.size()) {
+            var hinted = chunk.get(idxHint);
+            if (hinted.getResp() == null && rawId.equals(hinted.getRequest().getRawId())) {
+                return hinted;
+            }
+        }
+        for (var call : chunk) {
+            if (call.getResp() == null && rawId.equals(call.getRequest().getRawId())) {
+                return call;
+            }
+        }
+        return null;
+    }
+
+    private void failChunk(List<JsonRpcCall> chunk, String errMsg) {
+        for (var call : chunk) {
+            call.setSuccessful(false);
+            if (call.getRequest().getRawId() != null) {
+                call.setResp(JsonRpcResponses.error(call.getRequest().getRawId(), INTERNAL_ERROR_CODE, errMsg));
+            }
+        }
+    }
+
+    static Buffer assembleBatchResp(ProxiedReqCtx pReqCtx) {
+        var resps = new ArrayList<Buffer>(pReqCtx.getCalls().size());
+        for (var call : pReqCtx.getCalls()) {
+            if (call.getResp() != null) {
+                resps.add(call.getResp());
+            }
+        }
+        // per JSON-RPC spec, if there are no responses at all (batch of notifications), nothing should be returned
+        return resps.isEmpty() ? Buffer.buffer() : JsonRpcResponses.array(resps);
+    }
+
+    private void populateHeaders(HttpClientRequest pReq, ProxiedReqCtx pReqCtx, RequestOptions reqOpts,
+            boolean bodyModified) {
+        var headers = pReq.headers();
+        headers.addAll(pReqCtx.getIncomingReqCtx().request().headers());
+        if (headers.contains(HOST_HEADER)) {
+            // replace host header that contains this proxy host with the backend host
+            headers.set(HOST_HEADER, reqOpts.getHost());
+        }
+        headers.set(CONNECTION_HEADER, "keep-alive");
+        if (bodyModified) {
+            // length of the new body will be set by the client
+            headers.remove(CONTENT_LENGTH_HEADER);
+        }
+        if (!headers.contains(X_FORWARDED_FOR_HEADER)) {
+            headers.set(X_FORWARDED_FOR_HEADER, pReqCtx.getCallersIp());
+        }
+    }
+
+    @Value
+    private static class Reply {
+        Backend backend;
+        BackendResponse resp;
     }
 }
@@ -0,0 +1,196 @@
+package com.dburyak.exercise.jsonrpc.handlers;
+
+import com.dburyak.exercise.jsonrpc.JsonRpcCall;
+import com.dburyak.exercise.jsonrpc.JsonRpcRequest;
+import com.dburyak.exercise.jsonrpc.ProxiedReqCtx;
+import com.dburyak.exercise.jsonrpc.ReqHandler;
+import com.dburyak.exercise.jsonrpc.cache.CoalescingStats;
+import com.dburyak.exercise.jsonrpc.json.JsonRpcEnvelopeScanner;
+import com.dburyak.exercise.jsonrpc.json.JsonRpcResponses;
+import com.dburyak.exercise.jsonrpc.json.KnownMethods;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.subjects.SingleSubject;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.dburyak.exercise.jsonrpc.json.JsonRpcResponses.INTERNAL_ERROR_CODE;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+
+/**
+ * Coalesces identical calls (same method and same params, see {@link JsonRpcRequest#getCanonicalKey()}) while one of
+ * them is in flight: the first call (leader) is forwarded to the backend as usual, all the identical calls that arrive
+ * before it's completed (followers) are not forwarded at all and get the leader's response with their own ids patched
+ * in. This helps a lot during spikes of identical requests, e.g. "eth_blockNumber" polled by thousands of
+ * clients.
+ * <p>
+ * Wraps the forwarding handler, as leader responses must be shared right after they are received from the backend,
+ * regardless of what happens with the leader request afterwards.
+ * <p>
+ * Calls are coalesced only within the verticle, as in-flight calls are tracked per verticle. Vertx event-loop is
+ * single-threaded, and we create separate handler instance for each verticle, so no synchronization is needed.
+ */
+@Log4j2
+public class RequestCoalescingHandler implements ReqHandler {
+    // calls with side effects, or whose results depend on the state of the particular caller (e.g. filters), must be
+    // forwarded each on its own
+    private static final Set<String> NON_COALESCABLE_METHODS = Set.of(
+            "eth_sign",
+            "eth_signTransaction",
+            "eth_sendTransaction",
+            "eth_sendRawTransaction",
+            "eth_newFilter",
+            "eth_newBlockFilter",
+            "eth_newPendingTransactionFilter",
+            "eth_uninstallFilter",
+            "eth_getFilterChanges",
+            "eth_subscribe",
+            "eth_unsubscribe"
+    );
+    private static final String BACKEND_FAILED_MSG = "Backend request failed";
+
+    private final ReqHandler forwardingHandler;
+    private final CoalescingStats stats;
+    private final Map<String, SingleSubject<SharedResp>> inFlightCalls = new HashMap<>();
+
+    public RequestCoalescingHandler(ReqHandler forwardingHandler, CoalescingStats stats) {
+        this.forwardingHandler = forwardingHandler;
+        this.stats = stats;
+    }
+
+    @Override
+    public Maybe<ProxiedReqCtx> handle(ProxiedReqCtx reqCtx) {
+        var leaders = new ArrayList<Leader>();
+        var followers = new ArrayList<Follower>();
+        for (var call : reqCtx.getCalls()) {
+            if (!isCoalescable(call)) {
+                continue;
+            }
+            var key = call.getRequest().getCanonicalKey();
+            var inFlight = inFlightCalls.get(key);
+            if (inFlight != null) {
+                call.setCoalesced(true);
+                followers.add(new Follower(call, inFlight));
+                stats.onCoalescedCall();
+            } else {
+                var leaderResp = SingleSubject.<SharedResp>create();
+                inFlightCalls.put(key, leaderResp);
+                leaders.add(new Leader(call, key, leaderResp));
+                stats.onLeaderCall();
+            }
+        }
+        if (leaders.isEmpty() && followers.isEmpty()) {
+            return forwardingHandler.handle(reqCtx);
+        }
+        return forwardingHandler.handle(reqCtx)
+                .doOnEvent((ignr, err) -> shareLeaderResps(reqCtx, leaders))
+                .doOnDispose(() -> shareLeaderResps(reqCtx, leaders))
+                .flatMap(ignr -> awaitLeaderResps(reqCtx, followers));
+    }
+
+    @Override
+    public Completable closeAsync() {
+        return forwardingHandler.closeAsync();
+    }
+
+    private boolean isCoalescable(JsonRpcCall call) {
+        // notifications don't need responses, so there's nothing to share with them
+        if (!call.isPending() || call.getRequest().getRawId() == null) {
+            return false;
+        }
+        // unknown methods may have side effects, so only well-known ones are coalesced
+        return call.getRequest().getMethodId() != KnownMethods.UNKNOWN_ID
+                && !NON_COALESCABLE_METHODS.contains(call.getRequest().getMethod());
+    }
+
+    private void shareLeaderResps(ProxiedReqCtx reqCtx, List<Leader> leaders) {
+        for (var leader : leaders) {
+            // remove only once, this also guards against completing the subject twice
+            if (!inFlightCalls.remove(leader.getKey(), leader.getResp())) {
+                continue;
+            }
+            var resp = leaderResp(reqCtx, leader.getCall());
+            SharedResp sharedResp = null;
+            if (resp != null) {
+                try {
+                    var env = JsonRpcEnvelopeScanner.scanResponse(resp, 0, resp.length());
+                    if (env.getIdStart() >= 0) {
+                        sharedResp = new SharedResp(resp, env.getIdStart(), env.getIdEnd());
+                    }
+                } catch (DecodeException e) {
+                    log.debug("malformed backend response, can't share it: method={}",
+                            leader.getCall().getRequest().getMethod(), e);
+                }
+            }
+            if (sharedResp != null) {
+                leader.getResp().onSuccess(sharedResp);
+            } else {
+                leader.getResp().onError(new IllegalStateException("no successful response for the leader call"));
+            }
+        }
+    }
+
+    private Buffer leaderResp(ProxiedReqCtx reqCtx, JsonRpcCall call) {
+        if (reqCtx.isBatch()) {
+            return call.isSuccessful() ? call.getResp() : null;
+        }
+        var backendResp = reqCtx.getBackendResp();
+        return (backendResp != null && backendResp.getStatusCode() == OK.code()) ? backendResp.getBody() : null;
+    }
+
+    private Maybe<ProxiedReqCtx> awaitLeaderResps(ProxiedReqCtx reqCtx, List<Follower> followers) {
+        if (followers.isEmpty()) {
+            return Maybe.just(reqCtx);
+        }
+        return Observable.fromIterable(followers)
+                .flatMapCompletable(follower -> follower.getLeaderResp()
+                        .doOnSuccess(shared -> {
+                            follower.getCall().setResp(JsonRpcResponses.withId(shared.getBody(), shared.getIdStart(),
+                                    shared.getIdEnd(), follower.getCall().getRequest().getRawId()));
+                            follower.getCall().setSuccessful(true);
+                        })
+                        .ignoreElement()
+                        .onErrorComplete(err -> {
+                            follower.getCall().setResp(JsonRpcResponses.error(
+                                    follower.getCall().getRequest().getRawId(), INTERNAL_ERROR_CODE,
+                                    BACKEND_FAILED_MSG));
+                            return true;
+                        }))
+                .andThen(Maybe.fromSupplier(() -> {
+                    // responses of the followers were not available when forwarding handler produced the response
+                    reqCtx.setRespBody(reqCtx.isBatch()
+                            ? ReqForwardingHandler.assembleBatchResp(reqCtx)
+                            : reqCtx.getCalls().get(0).getResp());
+                    return reqCtx;
+                }));
+    }
+
+    @Value
+    private static class SharedResp {
+        Buffer body;
+        int idStart;
+        int idEnd;
+    }
+
+    @Value
+    private static class Leader {
+        JsonRpcCall call;
+        String key;
+        SingleSubject<SharedResp> resp;
+    }
+
+    @Value
+    private static class Follower {
+        JsonRpcCall call;
+        SingleSubject<SharedResp> leaderResp;
+    }
+}
@@ -0,0 +1,44 @@
+package com.dburyak.exercise.jsonrpc.handlers;
+
+import com.dburyak.exercise.jsonrpc.ProxiedReqCtx;
+import com.dburyak.exercise.jsonrpc.ReqHandler;
+import com.dburyak.exercise.jsonrpc.cache.ResponseCache;
+import io.reactivex.rxjava3.core.Maybe;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Serves calls with immutable results from the {@link ResponseCache}. Calls that are served from the cache get their
+ * responses here and are not forwarded to the backend. Calls that are cacheable but missing in the cache are marked
+ * with the cache key, so that {@link ResponseCacheStoringHandler} caches their responses later.
+ */
+@RequiredArgsConstructor
+public class ResponseCacheLookupHandler implements ReqHandler {
+    private final ResponseCache cache;
+
+    @Override
+    public Maybe<ProxiedReqCtx> handle(ProxiedReqCtx reqCtx) {
+        return Maybe.fromSupplier(() -> {
+            for (var call : reqCtx.getCalls()) {
+                // notifications don't need responses, nothing to serve from the cache
+                if (!call.isPending() || call.getRequest().getRawId() == null) {
+                    continue;
+                }
+                var key = cache.key(call.getRequest());
+                if (key == null) {
+                    continue;
+                }
+                var resp = cache.get(key, call.getRequest().getRawId());
+                if (resp != null) {
+                    call.setResp(resp);
+                    call.setSuccessful(true);
+                } else {
+                    call.setCacheKey(key);
+                }
+            }
+            if (!reqCtx.isBatch() && reqCtx.getCalls().get(0).getResp() != null) {
+                reqCtx.setRespBody(reqCtx.getCalls().get(0).getResp());
+            }
+            return reqCtx;
+        });
+    }
+}
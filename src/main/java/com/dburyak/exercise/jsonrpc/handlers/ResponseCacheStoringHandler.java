@@ -0,0 +1,37 @@
+package com.dburyak.exercise.jsonrpc.handlers;
+
+import com.dburyak.exercise.jsonrpc.ProxiedReqCtx;
+import com.dburyak.exercise.jsonrpc.ReqHandler;
+import com.dburyak.exercise.jsonrpc.cache.ResponseCache;
+import io.reactivex.rxjava3.core.Maybe;
+import lombok.RequiredArgsConstructor;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+
+/**
+ * Offers backend responses to the {@link ResponseCache}. Must be placed right after the forwarding handler.
+ */
+@RequiredArgsConstructor
+public class ResponseCacheStoringHandler implements ReqHandler {
+    private final ResponseCache cache;
+
+    @Override
+    public Maybe<ProxiedReqCtx> handle(ProxiedReqCtx reqCtx) {
+        return Maybe.fromSupplier(() -> {
+            if (!reqCtx.isBatch()) {
+                var backendResp = reqCtx.getBackendResp();
+                if (backendResp != null && backendResp.getStatusCode() == OK.code()) {
+                    var call = reqCtx.getCalls().get(0);
+                    cache.offer(call.getRequest(), call.getCacheKey(), backendResp.getBody());
+                }
+                return reqCtx;
+            }
+            for (var call : reqCtx.getCalls()) {
+                if (!call.isRejected() && call.isSuccessful() && call.getResp() != null) {
+                    cache.offer(call.getRequest(), call.getCacheKey(), call.getResp());
+                }
+            }
+            return reqCtx;
+        });
+    }
+}
@@ -0,0 +1,47 @@
+package com.dburyak.exercise.jsonrpc.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Single HTTP request to a backend, a plain call or a chunk of a batch.
+ */
+@Name("com.dburyak.jsonrpc.BackendCall")
+@Label("Backend Call")
+@Category({"JSON-RPC Proxy", "Backends"})
+@Description("HTTP request to a backend, a plain call or a chunk of a batch")
+@StackTrace(false)
+public class BackendCallEvent extends jdk.jfr.Event {
+    @Label("Backend")
+    String backend;
+
+    @Label("Method")
+    @Description("JSON-RPC method, \"batch\" for batch chunks")
+    String method;
+
+    @Label("IP Hash")
+    long ipHash;
+
+    @Label("Calls")
+    int calls;
+
+    @Label("Request Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Response Size")
+    @DataAmount
+    long responseBytes;
+
+    @Label("Status")
+    @Description("HTTP status, 0 if there's no response")
+    int status;
+
+    @Label("Failure")
+    @Description("Exception of the failed request, e.g. timeout")
+    String failure;
+}
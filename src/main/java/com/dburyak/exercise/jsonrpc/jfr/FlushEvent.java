@@ -0,0 +1,29 @@
+package com.dburyak.exercise.jsonrpc.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flush of locally accumulated entries to their storage, e.g. tracked calls to redis.
+ */
+@Name("com.dburyak.jsonrpc.Flush")
+@Label("Flush")
+@Category({"JSON-RPC Proxy", "Flushes"})
+@Description("Flush of locally accumulated entries to their storage")
+@StackTrace(false)
+public class FlushEvent extends jdk.jfr.Event {
+    @Label("Sink")
+    String sink;
+
+    @Label("Entries")
+    int entries;
+
+    @Label("Size")
+    @Description("Written bytes, 0 if unknown")
+    @DataAmount
+    long bytes;
+}
@@ -0,0 +1,36 @@
+package com.dburyak.exercise.jsonrpc.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Processing of a proxied request by a single handler of the chain.
+ */
+@Name("com.dburyak.jsonrpc.HandlerStage")
+@Label("Handler Stage")
+@Category({"JSON-RPC Proxy", "Requests"})
+@Description("Processing of a proxied request by a single handler of the chain")
+@StackTrace(false)
+public class HandlerStageEvent extends jdk.jfr.Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Method")
+    @Description("JSON-RPC method, \"batch\" for batch requests, empty if not parsed yet")
+    String method;
+
+    @Label("IP Hash")
+    long ipHash;
+
+    @Label("Request Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Outcome")
+    @Description("passed (to the next stage), responded (by the stage itself), failed")
+    String outcome;
+}
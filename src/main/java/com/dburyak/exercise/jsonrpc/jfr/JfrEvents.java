@@ -0,0 +1,196 @@
+package com.dburyak.exercise.jsonrpc.jfr;
+
+import com.dburyak.exercise.jsonrpc.JsonRpcCall;
+import com.dburyak.exercise.jsonrpc.ProxiedReqCtx;
+import io.reactivex.rxjava3.core.CompletableTransformer;
+import io.reactivex.rxjava3.core.SingleTransformer;
+import jdk.jfr.EventType;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Custom JFR events of the proxy, to be seen in the continuous flight recordings along with the JVM ones. Enabled with
+ * the usual JFR settings, e.g. "-XX:StartFlightRecording:settings=profile" enables all of them, see
+ * "com.dburyak.jsonrpc.*" events.
+ * <p>
+ * Events are created only when their type is enabled in a running recording, so with JFR off or the events disabled
+ * the cost is a single check of a volatile flag per instrumented operation: no allocations, no extra rx operators.
+ */
+public final class JfrEvents {
+    private static final EventType HANDLER_STAGE = EventType.getEventType(HandlerStageEvent.class);
+    private static final EventType BACKEND_CALL = EventType.getEventType(BackendCallEvent.class);
+    private static final EventType REDIS_BATCH = EventType.getEventType(RedisBatchEvent.class);
+    private static final EventType FLUSH = EventType.getEventType(FlushEvent.class);
+    private static final String BATCH_METHOD = "batch";
+    // IPs are not recorded as is, hashes are only good to correlate events of the same caller within a recording
+    private static final long IP_HASH_SEED = ThreadLocalRandom.current().nextLong();
+
+    private JfrEvents() {
+    }
+
+    public static boolean isHandlerStageEnabled() {
+        return HANDLER_STAGE.isEnabled();
+    }
+
+    /**
+     * @return started event, or null if the event type is disabled
+     */
+    public static HandlerStageEvent beginHandlerStage() {
+        if (!HANDLER_STAGE.isEnabled()) {
+            return null;
+        }
+        var event = new HandlerStageEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param event started event, may be null
+     */
+    public static void endHandlerStage(HandlerStageEvent event, String stage, ProxiedReqCtx reqCtx, String outcome) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.stage = stage;
+            event.method = method(reqCtx.isBatch(), reqCtx.getCalls());
+            event.ipHash = ipHash(reqCtx.getCallersIp());
+            var body = reqCtx.getIncomingReqBodyBuf();
+            event.bytes = body != null ? body.length() : 0;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return started event, or null if the event type is disabled
+     */
+    public static BackendCallEvent beginBackendCall() {
+        if (!BACKEND_CALL.isEnabled()) {
+            return null;
+        }
+        var event = new BackendCallEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param event started event, may be null
+     * @param status HTTP status of the response, 0 if there's no response
+     * @param failure error of the request, null if there's a response
+     */
+    public static void endBackendCall(BackendCallEvent event, String backend, String callersIp, boolean batch,
+            List<JsonRpcCall> calls, long bytes, long responseBytes, int status, Throwable failure) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.backend = backend;
+            event.method = method(batch, calls);
+            event.ipHash = ipHash(callersIp);
+            event.calls = calls.size();
+            event.bytes = bytes;
+            event.responseBytes = responseBytes;
+            event.status = status;
+            event.failure = failure != null ? failure.getClass().getSimpleName() : null;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records the redis round trip of the single it's applied to. Applied at assembly time, so that nothing is added
+     * to the pipeline if the event type is disabled.
+     */
+    public static <T> SingleTransformer<T, T> redisBatch(String component, String operation, int commands) {
+        return upstream -> {
+            if (!REDIS_BATCH.isEnabled()) {
+                return upstream;
+            }
+            var event = new RedisBatchEvent[1];
+            return upstream
+                    .doOnSubscribe(ignr -> {
+                        event[0] = new RedisBatchEvent();
+                        event[0].begin();
+                    })
+                    .doOnEvent((ignr, err) -> {
+                        event[0].end();
+                        if (event[0].shouldCommit()) {
+                            event[0].component = component;
+                            event[0].operation = operation;
+                            event[0].commands = commands;
+                            event[0].failed = err != null;
+                            event[0].commit();
+                        }
+                    });
+        };
+    }
+
+    /**
+     * Records the flush the completable is applied to. Applied at assembly time, so that nothing is added to the
+     * pipeline if the event type is disabled.
+     */
+    public static CompletableTransformer flush(String sink, int entries) {
+        return upstream -> {
+            if (!FLUSH.isEnabled()) {
+                return upstream;
+            }
+            var event = new FlushEvent[1];
+            return upstream
+                    .doOnSubscribe(ignr -> {
+                        event[0] = new FlushEvent();
+                        event[0].begin();
+                    })
+                    .doOnEvent(err -> endFlush(event[0], sink, entries, 0));
+        };
+    }
+
+    /**
+     * @return started event, or null if the event type is disabled
+     */
+    public static FlushEvent beginFlush() {
+        if (!FLUSH.isEnabled()) {
+            return null;
+        }
+        var event = new FlushEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param event started event, may be null
+     * @param bytes written bytes, 0 if unknown
+     */
+    public static void endFlush(FlushEvent event, String sink, int entries, long bytes) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.sink = sink;
+            event.entries = entries;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    private static String method(boolean batch, List<JsonRpcCall> calls) {
+        if (batch) {
+            return BATCH_METHOD;
+        }
+        return calls.isEmpty() ? null : calls.get(0).getRequest().getMethod();
+    }
+
+    private static long ipHash(String ip) {
+        if (ip == null) {
+            return 0;
+        }
+        // murmur3 finalizer over the salted string hash
+        var h = ip.hashCode() ^ IP_HASH_SEED;
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+}
@@ -0,0 +1,29 @@
+package com.dburyak.exercise.jsonrpc.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Single round trip to redis: a batch of commands or a script call.
+ */
+@Name("com.dburyak.jsonrpc.RedisBatch")
+@Label("Redis Batch")
+@Category({"JSON-RPC Proxy", "Redis"})
+@Description("Round trip to redis: a batch of commands or a script call")
+@StackTrace(false)
+public class RedisBatchEvent extends jdk.jfr.Event {
+    @Label("Component")
+    String component;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Commands")
+    int commands;
+
+    @Label("Failed")
+    boolean failed;
+}
@@ -0,0 +1,172 @@
+package com.dburyak.exercise.jsonrpc.json;
+
+import com.dburyak.exercise.jsonrpc.entity.CallsOfUser;
+import com.dburyak.exercise.jsonrpc.entity.CallsOfUser.CallStats;
+import com.dburyak.exercise.jsonrpc.entity.CallsOfUserPage;
+import com.dburyak.exercise.jsonrpc.entity.TrackedCall;
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.ARR_END;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.ARR_START;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.BACKSLASH;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.COLON;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.COMMA;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.OBJ_END;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.OBJ_START;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.QUOTE;
+
+/**
+ * Writes call tracking API responses directly into buffers, without building JSON trees or reflection-based mapping.
+ * Output is the same as of mapping the entities with Jackson. Objects that are streamed are split into the start,
+ * chunks of entries, and the end, so that they can be written to the response as they are read from the storage.
+ */
+public final class CallTrackingJson {
+    private static final byte[] IP = "{\"ip\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] METHOD = ",\"method\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] METHODS = ",\"methods\":{".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NEXT_CURSOR = "},\"nextCursor\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SUCCESSFUL_CALLS = "\"successfulCalls\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FAILED_CALLS = ",\"failedCalls\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] UNITS = ",\"units\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CALLS_OF_USER_END = "}}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final int ENTRY_SIZE_ESTIMATE = 96;
+    private static final byte NEWLINE = '\n';
+
+    private CallTrackingJson() {
+    }
+
+    public static Buffer trackedCall(TrackedCall call) {
+        var buf = Buffer.buffer(ENTRY_SIZE_ESTIMATE).appendBytes(IP);
+        appendString(buf, call.getIp());
+        buf.appendBytes(METHOD);
+        appendString(buf, call.getMethod());
+        buf.appendByte(COMMA);
+        appendCounters(buf, call.getSuccessfulCalls(), call.getFailedCalls(), call.getUnits());
+        return buf.appendByte(OBJ_END);
+    }
+
+    public static Buffer callsOfUser(CallsOfUser calls) {
+        var buf = callsOfUserStart(calls.getIp(), calls.getMethods().size());
+        appendMethods(buf, calls.getMethods(), true);
+        return buf.appendBytes(CALLS_OF_USER_END);
+    }
+
+    public static Buffer callsOfUserPage(CallsOfUserPage page) {
+        var buf = callsOfUserStart(page.getIp(), page.getMethods().size());
+        appendMethods(buf, page.getMethods(), true);
+        buf.appendBytes(NEXT_CURSOR);
+        if (page.getNextCursor() != null) {
+            appendString(buf, page.getNextCursor());
+        } else {
+            buf.appendBytes(NULL);
+        }
+        return buf.appendByte(OBJ_END);
+    }
+
+    /**
+     * Calls of the users as JSON array.
+     */
+    public static Buffer array(List<CallsOfUser> calls) {
+        var buf = Buffer.buffer(ENTRY_SIZE_ESTIMATE * calls.size() * 4).appendByte(ARR_START);
+        for (var i = 0; i < calls.size(); i++) {
+            if (i > 0) {
+                buf.appendByte(COMMA);
+            }
+            buf.appendBuffer(callsOfUser(calls.get(i)));
+        }
+        return buf.appendByte(ARR_END);
+    }
+
+    /**
+     * Calls of the users as newline-delimited JSON, one user per line.
+     */
+    public static Buffer ndjson(List<CallsOfUser> calls) {
+        var buf = Buffer.buffer(ENTRY_SIZE_ESTIMATE * calls.size() * 4);
+        for (var callsOfUser : calls) {
+            buf.appendBuffer(callsOfUser(callsOfUser)).appendByte(NEWLINE);
+        }
+        return buf;
+    }
+
+    /**
+     * Start of the streamed {@link CallsOfUser}, followed by any number of {@link #methods} chunks, followed by
+     * {@link #callsOfUserEnd()}.
+     */
+    public static Buffer callsOfUserStart(String ip, int expectedMethods) {
+        var buf = Buffer.buffer(ENTRY_SIZE_ESTIMATE * (expectedMethods + 1)).appendBytes(IP);
+        appendString(buf, ip);
+        return buf.appendBytes(METHODS);
+    }
+
+    /**
+     * @param first whether these are the first entries of the "methods" object
+     */
+    public static Buffer methods(Map<String, CallStats> methods, boolean first) {
+        var buf = Buffer.buffer(ENTRY_SIZE_ESTIMATE * methods.size());
+        appendMethods(buf, methods, first);
+        return buf;
+    }
+
+    public static Buffer callsOfUserEnd() {
+        return Buffer.buffer(CALLS_OF_USER_END);
+    }
+
+    private static void appendMethods(Buffer buf, Map<String, CallStats> methods, boolean first) {
+        var needsComma = !first;
+        for (var e : methods.entrySet()) {
+            if (needsComma) {
+                buf.appendByte(COMMA);
+            }
+            needsComma = true;
+            appendString(buf, e.getKey());
+            buf.appendByte(COLON).appendByte(OBJ_START);
+            var stats = e.getValue();
+            appendCounters(buf, stats.getSuccessfulCalls(), stats.getFailedCalls(), stats.getUnits());
+            buf.appendByte(OBJ_END);
+        }
+    }
+
+    private static void appendCounters(Buffer buf, long successfulCalls, long failedCalls, long units) {
+        buf.appendBytes(SUCCESSFUL_CALLS).appendString(Long.toString(successfulCalls))
+                .appendBytes(FAILED_CALLS).appendString(Long.toString(failedCalls))
+                .appendBytes(UNITS).appendString(Long.toString(units));
+    }
+
+    /**
+     * Appends the value as a JSON string, escaping quotes, backslashes and control characters.
+     */
+    public static void appendString(Buffer buf, String value) {
+        buf.appendByte(QUOTE);
+        var plainFrom = 0;
+        for (var i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (c != '"' && c != '\\' && c >= 0x20) {
+                continue;
+            }
+            if (plainFrom < i) {
+                buf.appendString(value.substring(plainFrom, i));
+            }
+            plainFrom = i + 1;
+            switch (c) {
+                case '"', '\\' -> buf.appendByte(BACKSLASH).appendByte((byte) c);
+                case '\n' -> buf.appendByte(BACKSLASH).appendByte((byte) 'n');
+                case '\r' -> buf.appendByte(BACKSLASH).appendByte((byte) 'r');
+                case '\t' -> buf.appendByte(BACKSLASH).appendByte((byte) 't');
+                default -> buf.appendByte(BACKSLASH).appendByte((byte) 'u').appendByte((byte) '0')
+                        .appendByte((byte) '0').appendByte(HEX[c >> 4]).appendByte(HEX[c & 0xF]);
+            }
+        }
+        if (plainFrom == 0) {
+            buf.appendString(value);
+        } else if (plainFrom < value.length()) {
+            buf.appendString(value.substring(plainFrom));
+        }
+        buf.appendByte(QUOTE);
+    }
+}
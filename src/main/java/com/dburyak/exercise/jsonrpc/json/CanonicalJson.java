@@ -0,0 +1,66 @@
+package com.dburyak.exercise.jsonrpc.json;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.QUOTE;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.skipString;
+
+/**
+ * Canonical form of raw JSON values, used for comparing JSON-RPC params of different requests without decoding them.
+ * Canonicalization is deliberately cheap and covers only the differences that are common in practice for Ethereum
+ * calls:
+ * <ul>
+ *     <li>insignificant whitespaces are removed</li>
+ *     <li>hex strings ("0x"-prefixed hashes, addresses and quantities) are lower-cased, as Ethereum nodes treat them
+ *     case-insensitively</li>
+ * </ul>
+ * Order of the object fields is preserved, so semantically equal objects with different fields order have different
+ * canonical forms. That's fine, it only means a missed chance to share a response.
+ */
+public final class CanonicalJson {
+
+    private CanonicalJson() {
+    }
+
+    /**
+     * @return canonical form of the JSON value located in the given range of the buffer
+     */
+    public static String canonicalize(Buffer buf, int start, int end) {
+        var out = new byte[end - start];
+        var n = 0;
+        var pos = start;
+        while (pos < end) {
+            var b = buf.getByte(pos);
+            if (b == QUOTE) {
+                var strEnd = skipString(buf, pos, end);
+                var lowerCase = isHexString(buf, pos + 1, strEnd - 1);
+                for (var i = pos; i < strEnd; i++) {
+                    var c = buf.getByte(i);
+                    out[n++] = (lowerCase && c >= 'A' && c <= 'Z') ? (byte) (c + ('a' - 'A')) : c;
+                }
+                pos = strEnd;
+            } else {
+                if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                    out[n++] = b;
+                }
+                pos++;
+            }
+        }
+        return new String(out, 0, n, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isHexString(Buffer buf, int start, int end) {
+        if (end - start < 3 || buf.getByte(start) != '0' || (buf.getByte(start + 1) | 0x20) != 'x') {
+            return false;
+        }
+        for (var i = start + 2; i < end; i++) {
+            var c = buf.getByte(i) | 0x20; // lower-case letters, digits are not affected
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
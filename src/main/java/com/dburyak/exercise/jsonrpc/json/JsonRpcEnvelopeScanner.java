@@ -0,0 +1,239 @@
+package com.dburyak.exercise.jsonrpc.json;
+
+import com.dburyak.exercise.jsonrpc.JsonRpcRequest;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.COLON;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.COMMA;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.OBJ_END;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.OBJ_START;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.QUOTE;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.byteAt;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.expect;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.hasEscapes;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.rangeEquals;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.skipString;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.skipValue;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.skipWs;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.unexpected;
+
+/**
+ * Single-pass scanner of the JSON-RPC request envelope. It walks the top-level object of the raw request once and
+ * extracts only the fields that the handlers chain works with ("jsonrpc", "method" and "id"), all the other values
+ * (including potentially huge "params") are skipped without being decoded. Full JSON tree is built later lazily by
+ * {@link JsonRpcRequest#getFullRequest()} only if some handler needs it.
+ * <p>
+ * Responses are scanned the same way: only "id" and "error" are extracted, "result" is skipped and only its position
+ * is recorded.
+ */
+public final class JsonRpcEnvelopeScanner {
+    private static final byte[] KEY_VERSION = JsonRpcRequest.FIELD_VERSION.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_METHOD = JsonRpcRequest.FIELD_METHOD.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_ID = JsonRpcRequest.FIELD_ID.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_PARAMS = JsonRpcRequest.FIELD_PARAMS.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_RESULT = "result".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_ERROR = "error".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_ERR_CODE = "code".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_ERR_MESSAGE = "message".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] VERSION_2_0 = ("\"" + JsonRpcRequest.VERSION_2_0 + "\"")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private JsonRpcEnvelopeScanner() {
+    }
+
+    public static JsonRpcRequest scanRequest(Buffer buf) {
+        return scanRequest(buf, 0, buf.length());
+    }
+
+    /**
+     * Scans JSON-RPC request object located in the given byte range of the buffer.
+     *
+     * @throws DecodeException if the envelope is not a valid JSON object
+     */
+    public static JsonRpcRequest scanRequest(Buffer buf, int start, int end) {
+        String version = null;
+        String method = null;
+        var methodId = KnownMethods.UNKNOWN_ID;
+        String rawId = null;
+        var paramsStart = -1;
+        var paramsEnd = -1;
+        var pos = skipWs(buf, start, end);
+        pos = expect(buf, pos, end, OBJ_START);
+        pos = skipWs(buf, pos, end);
+        if (byteAt(buf, pos, end) == OBJ_END) {
+            pos++;
+        } else {
+            while (true) {
+                var keyStart = pos + 1;
+                pos = skipString(buf, pos, end);
+                var keyEnd = pos - 1;
+                pos = skipWs(buf, pos, end);
+                pos = expect(buf, pos, end, COLON);
+                pos = skipWs(buf, pos, end);
+                var valueStart = pos;
+                pos = skipValue(buf, pos, end);
+                var valueEnd = pos;
+                if (rangeEquals(buf, keyStart, keyEnd, KEY_METHOD)) {
+                    methodId = knownMethodId(buf, valueStart, valueEnd);
+                    if (methodId != KnownMethods.UNKNOWN_ID) {
+                        method = KnownMethods.nameOf(methodId);
+                    } else {
+                        method = readMethod(buf, valueStart, valueEnd);
+                        // well-known method name may still be there with escapes
+                        methodId = KnownMethods.idOf(method);
+                    }
+                } else if (rangeEquals(buf, keyStart, keyEnd, KEY_ID)) {
+                    rawId = buf.getString(valueStart, valueEnd);
+                } else if (rangeEquals(buf, keyStart, keyEnd, KEY_PARAMS)) {
+                    // positions are relative to the request raw buffer
+                    paramsStart = valueStart - start;
+                    paramsEnd = valueEnd - start;
+                } else if (rangeEquals(buf, keyStart, keyEnd, KEY_VERSION)) {
+                    version = readVersion(buf, valueStart, valueEnd);
+                }
+                pos = skipWs(buf, pos, end);
+                var b = byteAt(buf, pos, end);
+                pos++;
+                if (b == OBJ_END) {
+                    break;
+                } else if (b != COMMA) {
+                    throw unexpected(buf, pos - 1);
+                }
+                pos = skipWs(buf, pos, end);
+            }
+        }
+        if (skipWs(buf, pos, end) != end) {
+            throw unexpected(buf, skipWs(buf, pos, end));
+        }
+        var raw = (start == 0 && end == buf.length()) ? buf : buf.slice(start, end);
+        return new JsonRpcRequest(raw, version, method, methodId, rawId, paramsStart, paramsEnd);
+    }
+
+    /**
+     * Scans JSON-RPC response object located in the given byte range of the buffer.
+     *
+     * @throws DecodeException if the envelope is not a valid JSON object
+     */
+    public static JsonRpcResponseEnvelope scanResponse(Buffer buf, int start, int end) {
+        String rawId = null;
+        var idStart = -1;
+        var idEnd = -1;
+        var resultStart = -1;
+        var resultEnd = -1;
+        Integer errCode = null;
+        String errMessage = null;
+        var pos = skipWs(buf, start, end);
+        pos = expect(buf, pos, end, OBJ_START);
+        pos = skipWs(buf, pos, end);
+        if (byteAt(buf, pos, end) == OBJ_END) {
+            return new JsonRpcResponseEnvelope(null, -1, -1, -1, -1, null, null);
+        }
+        while (true) {
+            var keyStart = pos + 1;
+            pos = skipString(buf, pos, end);
+            var keyEnd = pos - 1;
+            pos = skipWs(buf, pos, end);
+            pos = expect(buf, pos, end, COLON);
+            pos = skipWs(buf, pos, end);
+            var valueStart = pos;
+            if (rangeEquals(buf, keyStart, keyEnd, KEY_ERROR) && byteAt(buf, pos, end) == OBJ_START) {
+                // error object is small, scan it in place
+                pos = skipWs(buf, pos + 1, end);
+                errCode = JsonRpcResponses.INTERNAL_ERROR_CODE; // in case the backend didn't provide any code
+                while (byteAt(buf, pos, end) != OBJ_END) {
+                    var errKeyStart = pos + 1;
+                    pos = skipString(buf, pos, end);
+                    var errKeyEnd = pos - 1;
+                    pos = skipWs(buf, pos, end);
+                    pos = expect(buf, pos, end, COLON);
+                    pos = skipWs(buf, pos, end);
+                    var errValueStart = pos;
+                    pos = skipValue(buf, pos, end);
+                    if (rangeEquals(buf, errKeyStart, errKeyEnd, KEY_ERR_CODE)) {
+                        errCode = parseInt(buf, errValueStart, pos);
+                    } else if (rangeEquals(buf, errKeyStart, errKeyEnd, KEY_ERR_MESSAGE)
+                            && buf.getByte(errValueStart) == QUOTE) {
+                        errMessage = hasEscapes(buf, errValueStart + 1, pos - 1)
+                                ? (String) Json.decodeValue(buf.slice(errValueStart, pos))
+                                : buf.getString(errValueStart + 1, pos - 1);
+                    }
+                    pos = skipWs(buf, pos, end);
+                    if (byteAt(buf, pos, end) == COMMA) {
+                        pos = skipWs(buf, pos + 1, end);
+                    }
+                }
+                pos++;
+            } else {
+                pos = skipValue(buf, pos, end);
+                if (rangeEquals(buf, keyStart, keyEnd, KEY_ID)) {
+                    idStart = valueStart;
+                    idEnd = pos;
+                    rawId = buf.getString(valueStart, pos);
+                } else if (rangeEquals(buf, keyStart, keyEnd, KEY_RESULT)) {
+                    resultStart = valueStart;
+                    resultEnd = pos;
+                }
+            }
+            pos = skipWs(buf, pos, end);
+            var b = byteAt(buf, pos, end);
+            if (b == OBJ_END) {
+                break;
+            } else if (b != COMMA) {
+                throw unexpected(buf, pos);
+            }
+            pos = skipWs(buf, pos + 1, end);
+        }
+        return new JsonRpcResponseEnvelope(rawId, idStart, idEnd, resultStart, resultEnd, errCode, errMessage);
+    }
+
+    /**
+     * @return id of the well-known method, looked up directly in the raw bytes, or {@link KnownMethods#UNKNOWN_ID}
+     */
+    private static int knownMethodId(Buffer buf, int valueStart, int valueEnd) {
+        if (buf.getByte(valueStart) != QUOTE) {
+            return KnownMethods.UNKNOWN_ID;
+        }
+        return KnownMethods.idOf(buf, valueStart + 1, valueEnd - 1);
+    }
+
+    /**
+     * Reads method name that is not a well-known one (see {@link #knownMethodId}).
+     */
+    private static String readMethod(Buffer buf, int valueStart, int valueEnd) {
+        if (buf.getByte(valueStart) != QUOTE) {
+            // not a string, will be rejected as an invalid request
+            return null;
+        }
+        var contentStart = valueStart + 1;
+        var contentEnd = valueEnd - 1;
+        if (hasEscapes(buf, contentStart, contentEnd)) {
+            return KnownMethods.intern((String) Json.decodeValue(buf.slice(valueStart, valueEnd)));
+        }
+        return buf.getString(contentStart, contentEnd);
+    }
+
+    private static String readVersion(Buffer buf, int valueStart, int valueEnd) {
+        if (rangeEquals(buf, valueStart, valueEnd, VERSION_2_0)) {
+            return JsonRpcRequest.VERSION_2_0;
+        }
+        // unsupported version, the value is only needed for the error message
+        return buf.getString(valueStart, valueEnd);
+    }
+
+    private static int parseInt(Buffer buf, int start, int end) {
+        var negative = buf.getByte(start) == '-';
+        var value = 0;
+        for (var i = negative ? start + 1 : start; i < end; i++) {
+            var b = buf.getByte(i);
+            if (b < '0' || b > '9') {
+                return JsonRpcResponses.INTERNAL_ERROR_CODE;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return negative ? -value : value;
+    }
+}
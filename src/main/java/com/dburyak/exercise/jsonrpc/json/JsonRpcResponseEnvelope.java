@@ -0,0 +1,22 @@
+package com.dburyak.exercise.jsonrpc.json;
+
+import lombok.Value;
+
+/**
+ * Envelope fields of a JSON-RPC response scanned from the raw response bytes, see
+ * {@link JsonRpcEnvelopeScanner#scanResponse}.
+ */
+@Value
+public class JsonRpcResponseEnvelope {
+    String rawId; // id exactly as it appears in the response JSON, null if there's no id
+    int idStart; // position of the id value in the scanned buffer, -1 if there's no id
+    int idEnd;
+    int resultStart; // position of the result value in the scanned buffer, -1 if there's no result
+    int resultEnd;
+    Integer errorCode; // null if it's not an error response
+    String errorMessage;
+
+    public boolean isError() {
+        return errorCode != null;
+    }
+}
@@ -0,0 +1,139 @@
+package com.dburyak.exercise.jsonrpc.json;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.ARR_END;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.ARR_START;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.COMMA;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.byteAt;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.expect;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.skipValue;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.skipWs;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.unexpected;
+
+/**
+ * Helpers for working with raw JSON-RPC payloads: producing locally generated responses, splitting and assembling
+ * batches. Everything operates on buffers directly, without building JSON trees.
+ */
+public final class JsonRpcResponses {
+    public static final int INVALID_REQUEST_CODE = -32600;
+    public static final int INTERNAL_ERROR_CODE = -32603;
+    public static final int LIMIT_EXCEEDED_CODE = -32005;
+    private static final byte[] ERR_PREFIX = "{\"jsonrpc\":\"2.0\",\"error\":{\"code\":"
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ERR_MSG = ",\"message\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ERR_ID = "},\"id\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+    private static final int[] NO_ELEMENTS = new int[0];
+
+    private JsonRpcResponses() {
+    }
+
+    /**
+     * Builds JSON-RPC error response.
+     *
+     * @param rawId id of the request exactly as it appeared in the request JSON, null for no id
+     */
+    public static Buffer error(String rawId, int code, String message) {
+        var buf = Buffer.buffer(128)
+                .appendBytes(ERR_PREFIX)
+                .appendString(Integer.toString(code))
+                .appendBytes(ERR_MSG)
+                .appendString(message != null ? Json.encode(message) : "null")
+                .appendBytes(ERR_ID);
+        return rawId != null ? buf.appendString(rawId).appendByte(JsonScanner.OBJ_END)
+                : buf.appendBytes(NULL).appendByte(JsonScanner.OBJ_END);
+    }
+
+    /**
+     * Copies the response replacing its id with the given one.
+     *
+     * @param idStart position of the id value in the response, see {@link JsonRpcResponseEnvelope#getIdStart()}
+     * @param idEnd end of the id value in the response
+     * @param rawId new id exactly as it should appear in the response JSON
+     */
+    public static Buffer withId(Buffer resp, int idStart, int idEnd, String rawId) {
+        return Buffer.buffer(resp.length() - (idEnd - idStart) + rawId.length())
+                .appendBuffer(resp, 0, idStart)
+                .appendString(rawId)
+                .appendBuffer(resp, idEnd, resp.length() - idEnd);
+    }
+
+    /**
+     * Assembles JSON array out of the given elements, each of which must be a valid JSON value.
+     */
+    public static Buffer array(List<Buffer> elements) {
+        var size = 2 + elements.size();
+        for (var element : elements) {
+            size += element.length();
+        }
+        var buf = Buffer.buffer(size).appendByte(ARR_START);
+        for (var i = 0; i < elements.size(); i++) {
+            if (i > 0) {
+                buf.appendByte(COMMA);
+            }
+            buf.appendBuffer(elements.get(i));
+        }
+        return buf.appendByte(ARR_END);
+    }
+
+    /**
+     * @return true if the first meaningful character of the buffer opens a JSON array
+     */
+    public static boolean isArray(Buffer buf) {
+        var pos = skipWs(buf, 0, buf.length());
+        return pos < buf.length() && buf.getByte(pos) == ARR_START;
+    }
+
+    /**
+     * Finds boundaries of all the elements of the top-level JSON array in the buffer.
+     *
+     * @return flat array of [start, end) pairs, i.e. element i occupies range [result[2*i], result[2*i+1])
+     * @throws DecodeException if the buffer doesn't contain a JSON array
+     */
+    public static int[] arrayElements(Buffer buf) {
+        var end = buf.length();
+        var pos = skipWs(buf, 0, end);
+        pos = expect(buf, pos, end, ARR_START);
+        pos = skipWs(buf, pos, end);
+        if (byteAt(buf, pos, end) == ARR_END) {
+            checkTrailing(buf, pos + 1, end);
+            return NO_ELEMENTS;
+        }
+        var bounds = new int[16];
+        var n = 0;
+        while (true) {
+            var elementStart = pos;
+            pos = skipValue(buf, pos, end);
+            if (n + 2 > bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[n++] = elementStart;
+            bounds[n++] = pos;
+            pos = skipWs(buf, pos, end);
+            var b = byteAt(buf, pos, end);
+            pos++;
+            if (b == ARR_END) {
+                break;
+            } else if (b != COMMA) {
+                throw unexpected(buf, pos - 1);
+            }
+            pos = skipWs(buf, pos, end);
+        }
+        checkTrailing(buf, pos, end);
+        return Arrays.copyOf(bounds, n);
+    }
+
+    private static void checkTrailing(Buffer buf, int pos, int end) {
+        var trailingPos = skipWs(buf, pos, end);
+        if (trailingPos != end) {
+            throw unexpected(buf, trailingPos);
+        }
+    }
+}
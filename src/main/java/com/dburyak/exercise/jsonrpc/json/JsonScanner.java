@@ -0,0 +1,184 @@
+package com.dburyak.exercise.jsonrpc.json;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+
+/**
+ * Low-level helpers for scanning raw JSON bytes without building the object tree. All the methods operate on the byte
+ * range of the buffer and return positions within it, so nothing is copied or allocated on the happy path.
+ * <p>
+ * Scanning is intentionally lenient: it only validates the structure it actually walks through (braces, brackets,
+ * strings and delimiters), but doesn't validate e.g. number formats of the skipped values. This is fine for the proxy
+ * as the full validation of the request is done by the backend anyway.
+ */
+public final class JsonScanner {
+    public static final byte QUOTE = '"';
+    public static final byte BACKSLASH = '\\';
+    public static final byte OBJ_START = '{';
+    public static final byte OBJ_END = '}';
+    public static final byte ARR_START = '[';
+    public static final byte ARR_END = ']';
+    public static final byte COMMA = ',';
+    public static final byte COLON = ':';
+
+    private JsonScanner() {
+    }
+
+    public static int skipWs(Buffer buf, int pos, int end) {
+        while (pos < end) {
+            var b = buf.getByte(pos);
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return pos;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    public static byte byteAt(Buffer buf, int pos, int end) {
+        if (pos >= end) {
+            throw new DecodeException("unexpected end of JSON input at position " + pos);
+        }
+        return buf.getByte(pos);
+    }
+
+    public static int expect(Buffer buf, int pos, int end, byte expected) {
+        if (byteAt(buf, pos, end) != expected) {
+            throw unexpected(buf, pos);
+        }
+        return pos + 1;
+    }
+
+    /**
+     * Skips the string starting at the given position (which must point to the opening quote).
+     *
+     * @return position right after the closing quote
+     */
+    public static int skipString(Buffer buf, int pos, int end) {
+        pos = expect(buf, pos, end, QUOTE);
+        while (pos < end) {
+            var b = buf.getByte(pos);
+            if (b == QUOTE) {
+                return pos + 1;
+            } else if (b == BACKSLASH) {
+                pos += 2;
+            } else {
+                pos++;
+            }
+        }
+        throw new DecodeException("unterminated JSON string");
+    }
+
+    /**
+     * Skips any JSON value starting at the given position (whitespaces must be already skipped).
+     *
+     * @return position right after the value
+     */
+    public static int skipValue(Buffer buf, int pos, int end) {
+        var b = byteAt(buf, pos, end);
+        if (b == QUOTE) {
+            return skipString(buf, pos, end);
+        } else if (b == OBJ_START || b == ARR_START) {
+            return skipContainer(buf, pos, end);
+        } else {
+            return skipScalar(buf, pos, end);
+        }
+    }
+
+    /**
+     * @return true if the given range (string content without the quotes) contains escape sequences
+     */
+    public static boolean hasEscapes(Buffer buf, int start, int end) {
+        for (var i = start; i < end; i++) {
+            if (buf.getByte(i) == BACKSLASH) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static boolean rangeEquals(Buffer buf, int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (var i = 0; i < expected.length; i++) {
+            if (buf.getByte(start + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the value of the given top-level field of the JSON object located in the given range.
+     *
+     * @return position of the field value, or -1 if the value is not an object or there's no such field
+     */
+    public static int findField(Buffer buf, int start, int end, byte[] key) {
+        var pos = skipWs(buf, start, end);
+        if (pos >= end || buf.getByte(pos) != OBJ_START) {
+            return -1;
+        }
+        pos = skipWs(buf, pos + 1, end);
+        while (pos < end && buf.getByte(pos) == QUOTE) {
+            var keyStart = pos + 1;
+            pos = skipString(buf, pos, end);
+            var keyEnd = pos - 1;
+            pos = skipWs(buf, pos, end);
+            pos = expect(buf, pos, end, COLON);
+            pos = skipWs(buf, pos, end);
+            if (rangeEquals(buf, keyStart, keyEnd, key)) {
+                return pos;
+            }
+            pos = skipWs(buf, skipValue(buf, pos, end), end);
+            if (pos < end && buf.getByte(pos) == COMMA) {
+                pos = skipWs(buf, pos + 1, end);
+            }
+        }
+        return -1;
+    }
+
+    public static DecodeException unexpected(Buffer buf, int pos) {
+        return new DecodeException("unexpected character '" + (char) buf.getByte(pos) + "' at position " + pos);
+    }
+
+    private static int skipContainer(Buffer buf, int pos, int end) {
+        // strings are the only place where braces/brackets may appear without affecting the nesting, so it's
+        // enough to track the depth and skip strings as a whole
+        var depth = 0;
+        while (pos < end) {
+            var b = buf.getByte(pos);
+            if (b == QUOTE) {
+                pos = skipString(buf, pos, end);
+                continue;
+            }
+            if (b == OBJ_START || b == ARR_START) {
+                depth++;
+            } else if (b == OBJ_END || b == ARR_END) {
+                depth--;
+                if (depth == 0) {
+                    return pos + 1;
+                }
+            }
+            pos++;
+        }
+        throw new DecodeException("unterminated JSON object or array");
+    }
+
+    private static int skipScalar(Buffer buf, int pos, int end) {
+        var start = pos;
+        while (pos < end) {
+            var b = buf.getByte(pos);
+            var isScalarByte = (b >= '0' && b <= '9') || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')
+                    || b == '-' || b == '+' || b == '.';
+            if (!isScalarByte) {
+                break;
+            }
+            pos++;
+        }
+        if (pos == start) {
+            throw unexpected(buf, pos);
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,183 @@
+package com.dburyak.exercise.jsonrpc.json;
+
+import com.dburyak.exercise.jsonrpc.JsonRpcRequest;
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Static table of well-known Ethereum JSON-RPC method names. Method names in incoming requests are looked up here
+ * directly in the raw request bytes, so for the vast majority of requests the method name String is not allocated at
+ * all and the same interned instance is shared by all the requests. Interned names can be compared by reference, and
+ * each of them has a small stable numeric id.
+ * <p>
+ * The list doesn't need to be complete: unknown methods are still supported, they just get their own String instance
+ * per request.
+ */
+public final class KnownMethods {
+    private static final List<String> NAMES = List.of(
+            "web3_clientVersion",
+            "web3_sha3",
+            "net_version",
+            "net_listening",
+            "net_peerCount",
+            "eth_protocolVersion",
+            "eth_syncing",
+            "eth_coinbase",
+            "eth_chainId",
+            "eth_mining",
+            "eth_hashrate",
+            "eth_gasPrice",
+            "eth_maxPriorityFeePerGas",
+            "eth_feeHistory",
+            "eth_blobBaseFee",
+            "eth_accounts",
+            "eth_blockNumber",
+            "eth_getBalance",
+            "eth_getStorageAt",
+            "eth_getTransactionCount",
+            "eth_getBlockTransactionCountByHash",
+            "eth_getBlockTransactionCountByNumber",
+            "eth_getUncleCountByBlockHash",
+            "eth_getUncleCountByBlockNumber",
+            "eth_getCode",
+            "eth_sign",
+            "eth_signTransaction",
+            "eth_sendTransaction",
+            "eth_sendRawTransaction",
+            "eth_call",
+            "eth_estimateGas",
+            "eth_createAccessList",
+            "eth_getBlockByHash",
+            "eth_getBlockByNumber",
+            "eth_getBlockReceipts",
+            "eth_getTransactionByHash",
+            "eth_getTransactionByBlockHashAndIndex",
+            "eth_getTransactionByBlockNumberAndIndex",
+            "eth_getTransactionReceipt",
+            "eth_getUncleByBlockHashAndIndex",
+            "eth_getUncleByBlockNumberAndIndex",
+            "eth_newFilter",
+            "eth_newBlockFilter",
+            "eth_newPendingTransactionFilter",
+            "eth_uninstallFilter",
+            "eth_getFilterChanges",
+            "eth_getFilterLogs",
+            "eth_getLogs",
+            "eth_getProof",
+            "eth_subscribe",
+            "eth_unsubscribe",
+            "debug_traceTransaction",
+            "debug_traceCall",
+            "debug_traceBlockByNumber",
+            "debug_traceBlockByHash",
+            "trace_block",
+            "trace_transaction",
+            "trace_call",
+            "trace_filter",
+            "txpool_status",
+            "txpool_content"
+    );
+    public static final int UNKNOWN_ID = -1;
+
+    // open-addressing hash table over UTF-8 bytes of the names, sized to keep probe sequences short
+    private static final int TABLE_SIZE = Integer.highestOneBit(NAMES.size() * 4);
+    private static final int TABLE_MASK = TABLE_SIZE - 1;
+    private static final byte[][] TABLE_BYTES = new byte[TABLE_SIZE][];
+    private static final int[] TABLE_IDS = new int[TABLE_SIZE];
+    private static final Map<String, Integer> IDS = new HashMap<>(NAMES.size() * 2);
+
+    static {
+        for (var id = 0; id < NAMES.size(); id++) {
+            var name = NAMES.get(id);
+            var bytes = name.getBytes(StandardCharsets.UTF_8);
+            var slot = hash(bytes, 0, bytes.length) & TABLE_MASK;
+            while (TABLE_BYTES[slot] != null) {
+                slot = (slot + 1) & TABLE_MASK;
+            }
+            TABLE_BYTES[slot] = bytes;
+            TABLE_IDS[slot] = id;
+            IDS.put(name, id);
+        }
+    }
+
+    private KnownMethods() {
+    }
+
+    /**
+     * Looks up method name located in the given byte range of the buffer (without quotes).
+     *
+     * @return stable numeric id of the known method, or {@link #UNKNOWN_ID}
+     */
+    public static int idOf(Buffer buf, int start, int end) {
+        var slot = lookupSlot(buf, start, end);
+        return slot >= 0 ? TABLE_IDS[slot] : UNKNOWN_ID;
+    }
+
+    /**
+     * Interns the given method name.
+     *
+     * @return interned method name, or the argument itself if this is not a known method
+     */
+    public static String intern(String method) {
+        var id = idOf(method);
+        return id != UNKNOWN_ID ? NAMES.get(id) : method;
+    }
+
+    /**
+     * Prefer {@link JsonRpcRequest#getMethodId()} on the hot path, the id is resolved there at scan time already.
+     *
+     * @return stable numeric id of the known method, or {@link #UNKNOWN_ID}
+     */
+    public static int idOf(String method) {
+        if (method == null) {
+            return UNKNOWN_ID;
+        }
+        return IDS.getOrDefault(method, UNKNOWN_ID);
+    }
+
+    public static String nameOf(int id) {
+        return (id >= 0 && id < NAMES.size()) ? NAMES.get(id) : null;
+    }
+
+    public static int size() {
+        return NAMES.size();
+    }
+
+    private static int lookupSlot(Buffer buf, int start, int end) {
+        var len = end - start;
+        var h = 0;
+        for (var i = start; i < end; i++) {
+            h = 31 * h + buf.getByte(i);
+        }
+        var slot = h & TABLE_MASK;
+        while (TABLE_BYTES[slot] != null) {
+            var candidate = TABLE_BYTES[slot];
+            if (candidate.length == len && bytesEqual(buf, start, candidate)) {
+                return slot;
+            }
+            slot = (slot + 1) & TABLE_MASK;
+        }
+        return -1;
+    }
+
+    private static boolean bytesEqual(Buffer buf, int start, byte[] candidate) {
+        for (var i = 0; i < candidate.length; i++) {
+            if (buf.getByte(start + i) != candidate[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] bytes, int start, int end) {
+        var h = 0;
+        for (var i = start; i < end; i++) {
+            h = 31 * h + bytes[i];
+        }
+        return h;
+    }
+}
@@ -0,0 +1,141 @@
+package com.dburyak.exercise.jsonrpc.lb;
+
+import io.vertx.core.http.RequestOptions;
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Proxied backend along with its runtime state used for load balancing decisions: number of in-flight requests, EWMA of
+ * the response latency and outlier ejection state.
+ * <p>
+ * Single instance per backend is shared by all the verticles, so all the state is kept in atomics and updated without
+ * locks. Updates of the related fields are not atomic as a whole, which is fine as all of them are just heuristics.
+ */
+public class Backend {
+    // weight of the latest latency sample in EWMA, higher values make the balancer react faster to latency changes
+    private static final double EWMA_ALPHA = 0.3;
+    // new backends start with a modest latency estimate, so that they get some traffic and real measurements quickly
+    private static final double INITIAL_EWMA_NANOS = 1_000_000.0;
+
+    @Getter
+    private final int index; // position in the list of all the backends, to index per backend state in arrays
+    @Getter
+    private final String url;
+    @Getter
+    private final RequestOptions reqOpts; // shared, must never be modified after creation
+    private final int maxConsecutiveFailures;
+    private final long ejectionCooldownMs;
+    private final long slowStartMs;
+    private final LongSupplier clockMs;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong ewmaLatencyNanosBits = new AtomicLong(Double.doubleToRawLongBits(INITIAL_EWMA_NANOS));
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicInteger consecutiveEjections = new AtomicInteger();
+    private volatile long ejectedUntilMs = 0;
+
+    public Backend(int index, String url, int maxConsecutiveFailures, long ejectionCooldownMs, long slowStartMs) {
+        this(index, url, maxConsecutiveFailures, ejectionCooldownMs, slowStartMs, System::currentTimeMillis);
+    }
+
+    Backend(int index, String url, int maxConsecutiveFailures, long ejectionCooldownMs, long slowStartMs,
+            LongSupplier clockMs) {
+        this.index = index;
+        this.url = url;
+        this.reqOpts = new RequestOptions().setAbsoluteURI(url);
+        this.maxConsecutiveFailures = maxConsecutiveFailures;
+        this.ejectionCooldownMs = ejectionCooldownMs;
+        this.slowStartMs = slowStartMs;
+        this.clockMs = clockMs;
+    }
+
+    public void onRequestStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Records outcome of the request to this backend.
+     *
+     * @param latencyNanos request latency
+     * @param failed whether the request failed in a way that indicates backend problems (5xx, timeout, connection
+     *         error)
+     */
+    public void onRequestFinished(long latencyNanos, boolean failed) {
+        inFlight.decrementAndGet();
+        updateEwma(latencyNanos);
+        if (!failed) {
+            consecutiveFailures.set(0);
+            if (!isEjected(clockMs.getAsLong())) {
+                consecutiveEjections.set(0);
+            }
+            return;
+        }
+        if (consecutiveFailures.incrementAndGet() >= maxConsecutiveFailures) {
+            eject();
+        }
+    }
+
+    /**
+     * Records that the request was cancelled by the proxy itself before completion, so it says nothing about the
+     * backend health. Must be called once the cancelled request has actually terminated, not when it's cancelled.
+     */
+    public void onRequestCancelled() {
+        inFlight.decrementAndGet();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public double getEwmaLatencyNanos() {
+        return Double.longBitsToDouble(ewmaLatencyNanosBits.get());
+    }
+
+    public boolean isEjected(long nowMs) {
+        return nowMs < ejectedUntilMs;
+    }
+
+    public long getEjectedUntilMs() {
+        return ejectedUntilMs;
+    }
+
+    /**
+     * Share of the traffic the backend is ready to take: backends that are just back from ejection are brought back
+     * gradually during slow start period.
+     *
+     * @return value in range (0, 1]
+     */
+    public double warmupFactor(long nowMs) {
+        var sinceReturnMs = nowMs - ejectedUntilMs;
+        if (ejectedUntilMs == 0 || slowStartMs <= 0 || sinceReturnMs >= slowStartMs) {
+            return 1.0;
+        }
+        return Math.max(0.1, (double) sinceReturnMs / slowStartMs);
+    }
+
+    private void eject() {
+        var nowMs = clockMs.getAsLong();
+        if (isEjected(nowMs)) {
+            return;
+        }
+        // backends that keep failing right after they are back get ejected for longer periods
+        var ejections = Math.min(consecutiveEjections.incrementAndGet(), 6);
+        ejectedUntilMs = nowMs + ejectionCooldownMs * (1L << (ejections - 1));
+        consecutiveFailures.set(0);
+    }
+
+    private void updateEwma(long latencyNanos) {
+        ewmaLatencyNanosBits.getAndUpdate(bits -> {
+            var prev = Double.longBitsToDouble(bits);
+            return Double.doubleToRawLongBits(prev + EWMA_ALPHA * (latencyNanos - prev));
+        });
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+}
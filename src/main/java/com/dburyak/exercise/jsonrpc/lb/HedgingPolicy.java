@@ -0,0 +1,106 @@
+package com.dburyak.exercise.jsonrpc.lb;
+
+import com.dburyak.exercise.jsonrpc.Config;
+import com.dburyak.exercise.jsonrpc.metrics.LatencyHistogram;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which calls are hedged and when: a call of an allowed (read-only) method that is not responded within the
+ * configured percentile of the recent latencies of its method on the chosen backend is sent to another backend as well.
+ * Latencies are kept in two windows per backend and method, the current one and the previous one, so that the threshold
+ * follows latency changes without being noisy right after a window rotation. Hedges are limited by
+ * {@link RequestBudget}.
+ * <p>
+ * Not thread-safe, a separate instance is created for each verticle.
+ */
+public class HedgingPolicy {
+    private static final int WINDOW_SIZE = 2_000;
+    // below this number of samples the current window is not trusted, the previous one (or max delay) is used instead
+    private static final int MIN_SAMPLES = 100;
+    // hedges that can be saved up during quiet periods
+    private static final double MAX_BUDGET_TOKENS = 10;
+
+    private final Set<String> methods;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final long maxDelayNanos;
+    private final RequestBudget budget;
+    private final Map<Backend, Map<String, MethodLatencies>> latencies = new HashMap<>();
+
+    public HedgingPolicy(Config.Hedging cfg) {
+        this.methods = cfg.getMethods();
+        this.percentile = cfg.getPercentile();
+        this.minDelayNanos = cfg.getMinDelay().toNanos();
+        this.maxDelayNanos = cfg.getMaxDelay().toNanos();
+        this.budget = new RequestBudget(cfg.getBudgetPercent() / 100.0, MAX_BUDGET_TOKENS);
+    }
+
+    public boolean isHedgeable(String method) {
+        return methods.contains(method);
+    }
+
+    /**
+     * Must be called for every call of a hedgeable method, hedged or not, as hedges budget is a share of them.
+     */
+    public void onHedgeableCall() {
+        budget.onRequest();
+    }
+
+    /**
+     * @return whether the hedge fits into the budget, the budget is spent if so
+     */
+    public boolean tryAcquireHedge() {
+        return budget.tryAcquire();
+    }
+
+    /**
+     * @return how long to wait for the response of the backend before sending a hedge
+     */
+    public long hedgeDelayNanos(Backend backend, String method) {
+        var backendLatencies = latencies.get(backend);
+        var methodLatencies = backendLatencies != null ? backendLatencies.get(method) : null;
+        if (methodLatencies == null) {
+            return maxDelayNanos;
+        }
+        var window = methodLatencies.current.getCount() >= MIN_SAMPLES ? methodLatencies.current
+                : methodLatencies.previous;
+        if (window == null) {
+            return maxDelayNanos;
+        }
+        return Math.min(maxDelayNanos, Math.max(minDelayNanos, window.valueAtQuantile(percentile)));
+    }
+
+    /**
+     * Records latency of the completed backend request of a hedgeable method, whether it won or not. Requests that
+     * were reset are recorded with {@link #onCancelled}.
+     */
+    public void onLatency(Backend backend, String method, long latencyNanos) {
+        var methodLatencies = latencies.computeIfAbsent(backend, ignr -> new HashMap<>())
+                .computeIfAbsent(method, ignr -> new MethodLatencies());
+        methodLatencies.current.record(latencyNanos);
+        if (methodLatencies.current.getCount() >= WINDOW_SIZE) {
+            methodLatencies.previous = methodLatencies.current;
+            methodLatencies.current = new LatencyHistogram.Snapshot();
+        }
+    }
+
+    /**
+     * Records latency of the backend request of a hedgeable method that was reset before it completed (e.g. it lost to
+     * a hedge). Its actual latency is unknown, only that it's above the time till the reset. If that's above the
+     * current delay, the request is counted as a slow one, otherwise dropping the slow primaries that got hedged would
+     * pull the delay down with every hedge.
+     */
+    public void onCancelled(Backend backend, String method, long elapsedNanos) {
+        if (isHedgeable(method) && elapsedNanos >= hedgeDelayNanos(backend, method)) {
+            onLatency(backend, method, elapsedNanos);
+        }
+    }
+
+    private static class MethodLatencies {
+        private LatencyHistogram.Snapshot current = new LatencyHistogram.Snapshot();
+        private LatencyHistogram.Snapshot previous;
+    }
+}
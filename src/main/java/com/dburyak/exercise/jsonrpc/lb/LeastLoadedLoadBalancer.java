@@ -0,0 +1,65 @@
+package com.dburyak.exercise.jsonrpc.lb;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.random.RandomGenerator;
+
+/**
+ * Power-of-two-choices balancer: picks two random available backends and sends the request to the less loaded one.
+ * Load is estimated as EWMA latency multiplied by the number of in-flight requests, so slow or lagging backends get
+ * less traffic automatically. Comparing only two random candidates instead of searching for the global minimum avoids
+ * herding of all the verticles onto the same backend based on slightly stale state.
+ */
+public class LeastLoadedLoadBalancer implements LoadBalancer {
+    private final List<Backend> backends;
+    private final LongSupplier clockMs;
+    private final Supplier<RandomGenerator> random;
+
+    public LeastLoadedLoadBalancer(List<Backend> backends) {
+        this(backends, System::currentTimeMillis, ThreadLocalRandom::current);
+    }
+
+    LeastLoadedLoadBalancer(List<Backend> backends, LongSupplier clockMs, Supplier<RandomGenerator> random) {
+        this.backends = backends;
+        this.clockMs = clockMs;
+        this.random = random;
+    }
+
+    @Override
+    public Backend pick(Collection<Backend> excluded) {
+        var size = backends.size();
+        if (size == 1) {
+            return backends.get(0);
+        }
+        var nowMs = clockMs.getAsLong();
+        var rnd = random.get();
+        Backend first = null;
+        Backend second = null;
+        // a few random probes are enough to find two available backends, unless most of them are ejected
+        for (var attempt = 0; attempt < size * 2 && second == null; attempt++) {
+            var candidate = backends.get(rnd.nextInt(size));
+            if (excluded.contains(candidate) || candidate == first || candidate.isEjected(nowMs)) {
+                continue;
+            }
+            if (first == null) {
+                first = candidate;
+            } else {
+                second = candidate;
+            }
+        }
+        if (first == null) {
+            return LoadBalancers.leastRecentlyEjected(backends, excluded);
+        }
+        if (second == null) {
+            return first;
+        }
+        return cost(first, nowMs) <= cost(second, nowMs) ? first : second;
+    }
+
+    private static double cost(Backend backend, long nowMs) {
+        return backend.getEwmaLatencyNanos() * (backend.getInFlight() + 1) / backend.warmupFactor(nowMs);
+    }
+}
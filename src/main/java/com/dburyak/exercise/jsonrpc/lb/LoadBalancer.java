@@ -0,0 +1,22 @@
+package com.dburyak.exercise.jsonrpc.lb;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Strategy of choosing the backend for the next request. Implementations are not required to be thread-safe, a
+ * separate instance is created for each verticle. All the instances share the same {@link Backend} objects though.
+ */
+public interface LoadBalancer {
+
+    /**
+     * Picks the backend for the next request.
+     *
+     * @param excluded backends that should be avoided if possible (e.g. the ones that have already failed)
+     */
+    Backend pick(Collection<Backend> excluded);
+
+    default Backend pick() {
+        return pick(List.of());
+    }
+}
@@ -0,0 +1,46 @@
+package com.dburyak.exercise.jsonrpc.lb;
+
+import com.dburyak.exercise.jsonrpc.Config;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+public final class LoadBalancers {
+
+    private LoadBalancers() {
+    }
+
+    /**
+     * Creates backends state that is shared by all the verticles.
+     */
+    public static List<Backend> buildBackends(Config cfg) {
+        var lbCfg = cfg.getLoadBalancing();
+        var urls = cfg.getProxiedBackendUrls();
+        return IntStream.range(0, urls.size())
+                .mapToObj(i -> new Backend(i, urls.get(i), lbCfg.getMaxConsecutiveFailures(),
+                        lbCfg.getEjectionCooldown().toMillis(), lbCfg.getSlowStart().toMillis()))
+                .toList();
+    }
+
+    /**
+     * Creates load balancer instance for a single verticle.
+     */
+    public static LoadBalancer create(Config cfg, List<Backend> backends) {
+        return switch (cfg.getLoadBalancing().getStrategy()) {
+            case ROUND_ROBIN -> new RoundRobinLoadBalancer(backends);
+            case LEAST_LOADED -> new LeastLoadedLoadBalancer(backends);
+        };
+    }
+
+    static Backend leastRecentlyEjected(List<Backend> backends, Collection<Backend> excluded) {
+        var candidates = backends.stream()
+                .filter(b -> !excluded.contains(b))
+                .toList();
+        // excluded ones are still better than nothing
+        return (candidates.isEmpty() ? backends : candidates).stream()
+                .min(Comparator.comparingLong(Backend::getEjectedUntilMs))
+                .orElseThrow();
+    }
+}
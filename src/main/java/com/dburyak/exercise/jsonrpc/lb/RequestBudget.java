@@ -0,0 +1,44 @@
+package com.dburyak.exercise.jsonrpc.lb;
+
+/**
+ * Budget of the extra backend requests (hedges, retries) as a share of the regular ones. Every regular request earns
+ * {@code ratio} tokens, every extra request spends a whole token, so over time the extra load never exceeds the ratio,
+ * while a few extra requests can still be sent in a burst after a quiet period.
+ * <p>
+ * Not thread-safe, a separate instance is created for each verticle.
+ */
+public class RequestBudget {
+    private final double ratio;
+    private final double maxTokens;
+    private double tokens;
+
+    /**
+     * @param ratio extra requests allowed per regular request, e.g. 0.1 for 10%
+     * @param maxTokens max number of extra requests that can be saved up for a burst
+     */
+    public RequestBudget(double ratio, double maxTokens) {
+        if (ratio < 0) {
+            throw new IllegalArgumentException("ratio must be >= 0");
+        }
+        if (maxTokens < 1) {
+            throw new IllegalArgumentException("maxTokens must be >= 1");
+        }
+        this.ratio = ratio;
+        this.maxTokens = maxTokens;
+    }
+
+    public void onRequest() {
+        tokens = Math.min(maxTokens, tokens + ratio);
+    }
+
+    /**
+     * @return whether the extra request fits into the budget, the budget is spent if so
+     */
+    public boolean tryAcquire() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+}
@@ -0,0 +1,93 @@
+package com.dburyak.exercise.jsonrpc.lb;
+
+import com.dburyak.exercise.jsonrpc.Config;
+import com.dburyak.exercise.jsonrpc.JsonRpcCall;
+import com.dburyak.exercise.jsonrpc.json.JsonRpcResponseEnvelope;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_GATEWAY;
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
+
+/**
+ * Decides which failed backend requests are retried on another backend. Only requests whose calls are all of the
+ * idempotent methods are retried, and only on failures that say nothing about the call itself: connection errors,
+ * 502/503 responses and JSON-RPC errors of a lagging backend (e.g. "header not found"). Timeouts are not retried, as
+ * a retry would double the latency seen by the caller, slow calls are hedged instead (see {@link HedgingPolicy}).
+ * <p>
+ * Retries are limited by {@link RequestBudget}, so that during an outage of the whole backends fleet retries don't
+ * multiply the load on it.
+ * <p>
+ * Not thread-safe, a separate instance is created for each verticle.
+ */
+public class RetryPolicy {
+    // retries that can be saved up during quiet periods
+    private static final double MAX_BUDGET_TOKENS = 10;
+
+    private final Set<String> methods;
+    private final List<String> errorMessages;
+    private final int maxAttempts;
+    private final RequestBudget budget;
+
+    public RetryPolicy(Config.Retries cfg) {
+        this.methods = cfg.getMethods();
+        this.errorMessages = cfg.getErrorMessages();
+        this.maxAttempts = cfg.getMaxAttempts();
+        this.budget = new RequestBudget(cfg.getBudgetPercent() / 100.0, MAX_BUDGET_TOKENS);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @return whether the request with the calls may be retried, i.e. all the calls are idempotent
+     */
+    public boolean isRetryable(List<JsonRpcCall> calls) {
+        for (var call : calls) {
+            if (!methods.contains(call.getRequest().getMethod())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Must be called once for every retryable request, failed or not, as retries budget is a share of them.
+     */
+    public void onRetryableRequest() {
+        budget.onRequest();
+    }
+
+    /**
+     * @return whether the retry fits into the budget, the budget is spent if so
+     */
+    public boolean tryAcquireRetry() {
+        return budget.tryAcquire();
+    }
+
+    public boolean isRetryableFailure(Throwable err) {
+        // everything but timeouts is a connection level error here
+        return !(err instanceof TimeoutException);
+    }
+
+    public boolean isRetryableStatus(int statusCode) {
+        return statusCode == BAD_GATEWAY.code() || statusCode == SERVICE_UNAVAILABLE.code();
+    }
+
+    public boolean isRetryableError(JsonRpcResponseEnvelope envelope) {
+        if (!envelope.isError() || envelope.getErrorMessage() == null || errorMessages.isEmpty()) {
+            return false;
+        }
+        var message = envelope.getErrorMessage().toLowerCase(Locale.ROOT);
+        for (var errorMessage : errorMessages) {
+            if (message.contains(errorMessage)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,37 @@
+package com.dburyak.exercise.jsonrpc.lb;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Plain round-robin over the backends that are not ejected.
+ */
+public class RoundRobinLoadBalancer implements LoadBalancer {
+    private final List<Backend> backends;
+    private int reqNum = 0;
+
+    public RoundRobinLoadBalancer(List<Backend> backends) {
+        this.backends = backends;
+    }
+
+    @Override
+    public Backend pick(Collection<Backend> excluded) {
+        var nowMs = System.currentTimeMillis();
+        for (var attempt = 0; attempt < backends.size(); attempt++) {
+            var backend = next();
+            if (!excluded.contains(backend) && !backend.isEjected(nowMs)) {
+                return backend;
+            }
+        }
+        // everything is either ejected or excluded, better to try anyway than to fail the request right away
+        return LoadBalancers.leastRecentlyEjected(backends, excluded);
+    }
+
+    private Backend next() {
+        var backend = backends.get(reqNum++ % backends.size());
+        if (reqNum >= backends.size()) { // to prevent overflow
+            reqNum = 0;
+        }
+        return backend;
+    }
+}
@@ -0,0 +1,121 @@
+package com.dburyak.exercise.jsonrpc.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with HDR-style log-linear buckets: each power of 2 of nanoseconds is split into
+ * {@link #SUB_BUCKETS} linear sub-buckets, so any recorded value is off by at most 1/{@link #SUB_BUCKETS} (~6%) of
+ * itself, with a fixed small number of buckets for the whole range. Latencies above {@link #MAX_TRACKABLE_NANOS} are
+ * counted into the last bucket.
+ * <p>
+ * Single writer (the event loop of the recorder), any number of readers. Writes are plain increments published with
+ * release semantics, there are no CAS loops and no contention, readers see a slightly stale but consistent-enough
+ * state.
+ */
+public class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final long MAX_TRACKABLE_NANOS = (1L << 40) - 1; // ~18 minutes
+    static final int BUCKETS = bucketIndex(MAX_TRACKABLE_NANOS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    /**
+     * Must be called only by the writer.
+     */
+    public void record(long nanos) {
+        var value = Math.min(Math.max(nanos, 0), MAX_TRACKABLE_NANOS);
+        var idx = bucketIndex(value);
+        counts.lazySet(idx, counts.get(idx) + 1);
+        sumNanos.lazySet(sumNanos.get() + value);
+        count.lazySet(count.get() + 1);
+    }
+
+    /**
+     * Adds the recorded values to the snapshot, may be called by any thread.
+     */
+    public void addTo(Snapshot snapshot) {
+        for (var i = 0; i < BUCKETS; i++) {
+            snapshot.counts[i] += counts.get(i);
+        }
+        snapshot.count += count.get();
+        snapshot.sumNanos += sumNanos.get();
+    }
+
+    static int bucketIndex(long value) {
+        // values below 2 * SUB_BUCKETS are exact, above them the lowest bits are dropped
+        var shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * @return highest value that falls into the bucket
+     */
+    static long bucketUpperBound(int idx) {
+        if (idx < 2 * SUB_BUCKETS) {
+            return idx;
+        }
+        var shift = (idx >>> SUB_BUCKET_BITS) - 1;
+        var subBucket = idx - (shift << SUB_BUCKET_BITS);
+        return ((long) (subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Merged state of histograms, not thread-safe. Can also be used as a plain single-threaded histogram.
+     */
+    public static class Snapshot {
+        private final long[] counts = new long[BUCKETS];
+        private long count;
+        private long sumNanos;
+
+        public void record(long nanos) {
+            var value = Math.min(Math.max(nanos, 0), MAX_TRACKABLE_NANOS);
+            counts[bucketIndex(value)]++;
+            sumNanos += value;
+            count++;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSumNanos() {
+            return sumNanos;
+        }
+
+        /**
+         * Exact if the value is a power of 2 minus 1, as buckets never cross powers of 2.
+         *
+         * @return number of recorded values that are less than or equal to the value
+         */
+        public long countAtOrBelow(long nanos) {
+            var result = 0L;
+            for (var i = 0; i < BUCKETS && bucketUpperBound(i) <= nanos; i++) {
+                result += counts[i];
+            }
+            return result;
+        }
+
+        /**
+         * @param quantile quantile within [0, 1]
+         * @return value at the quantile, rounded up to the upper bound of its bucket, or 0 if nothing is recorded
+         */
+        public long valueAtQuantile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            var rank = Math.max(1, (long) Math.ceil(quantile * count));
+            var seen = 0L;
+            for (var i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return bucketUpperBound(i);
+                }
+            }
+            return MAX_TRACKABLE_NANOS;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.dburyak.exercise.jsonrpc.metrics;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Minimal writer of the Prometheus text exposition format, just enough for the metrics of the proxy.
+ */
+public class PrometheusWriter {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    // powers of 2 of nanoseconds from ~4us to ~17s, exact boundaries of the latency histogram buckets
+    private static final int MIN_BOUNDARY_EXP = 12;
+    private static final int MAX_BOUNDARY_EXP = 34;
+    private final StringBuilder out = new StringBuilder(16 * 1024);
+
+    public void help(String metric, String type, String help) {
+        out.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * @param labels label names and values, interleaved
+     */
+    public void sample(String metric, long value, String... labels) {
+        sample(metric, Long.toString(value), labels);
+    }
+
+    /**
+     * @param labels label names and values, interleaved
+     */
+    public void sample(String metric, String value, String... labels) {
+        out.append(metric);
+        if (labels.length > 0) {
+            out.append('{');
+            for (var i = 0; i < labels.length; i += 2) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.append(labels[i]).append("=\"");
+                appendEscaped(labels[i + 1]);
+                out.append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Writes samples of a histogram metric in seconds, "help" of the metric must be written before.
+     *
+     * @param labels label names and values, interleaved
+     */
+    public void latencyHistogram(String metric, LatencyHistogram.Snapshot latency, String... labels) {
+        var bucketLabels = Arrays.copyOf(labels, labels.length + 2);
+        bucketLabels[labels.length] = "le";
+        for (var exp = MIN_BOUNDARY_EXP; exp <= MAX_BOUNDARY_EXP; exp++) {
+            // values are integer nanos, so "<= 2^exp - 1" is "< 2^exp", off by 1ns from "le"
+            bucketLabels[labels.length + 1] = seconds(1L << exp);
+            sample(metric + "_bucket", latency.countAtOrBelow((1L << exp) - 1), bucketLabels);
+        }
+        bucketLabels[labels.length + 1] = "+Inf";
+        sample(metric + "_bucket", latency.getCount(), bucketLabels);
+        sample(metric + "_sum", seconds(latency.getSumNanos()), labels);
+        sample(metric + "_count", latency.getCount(), labels);
+    }
+
+    public Buffer toBuffer() {
+        return Buffer.buffer(out.toString());
+    }
+
+    /**
+     * @return nanos as seconds, without the floating point noise
+     */
+    public static String seconds(long nanos) {
+        return BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+    }
+
+    private void appendEscaped(String labelValue) {
+        for (var i = 0; i < labelValue.length(); i++) {
+            var c = labelValue.charAt(i);
+            switch (c) {
+                case '\\' -> out.append("\\\\");
+                case '"' -> out.append("\\\"");
+                case '\n' -> out.append("\\n");
+                default -> out.append(c);
+            }
+        }
+    }
+}
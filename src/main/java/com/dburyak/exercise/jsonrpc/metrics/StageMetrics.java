@@ -0,0 +1,133 @@
+package com.dburyak.exercise.jsonrpc.metrics;
+
+import com.dburyak.exercise.jsonrpc.ReqHandler;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency and outcomes of each stage (request handler) of the proxied requests processing chain. Each verticle records
+ * into its own {@link Recorder}, so that recording is contention-free, recorders are merged only when metrics are
+ * scraped.
+ * <p>
+ * Thread-safe, single instance is shared by all the verticles.
+ */
+public class StageMetrics {
+    private static final int MAX_STATUS_CODE = 599;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final List<Recorder> recorders = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates a recorder for the handlers chain of a single verticle, stage index is the index of the handler.
+     */
+    public Recorder newRecorder(List<ReqHandler> handlers) {
+        var stages = handlers.stream().map(h -> h.getClass().getSimpleName()).toList();
+        var recorder = new Recorder(stages);
+        recorders.add(recorder);
+        return recorder;
+    }
+
+    /**
+     * Writes merged metrics of all the recorders.
+     */
+    public void writeTo(PrometheusWriter out) {
+        var merged = new LinkedHashMap<String, StageSnapshot>();
+        for (var recorder : recorders) {
+            for (var i = 0; i < recorder.stages.size(); i++) {
+                var snapshot = merged.computeIfAbsent(recorder.stages.get(i), ignr -> new StageSnapshot());
+                recorder.latencies[i].addTo(snapshot.latency);
+                snapshot.errors += recorder.errors.get(i);
+                var statusOffset = i * (MAX_STATUS_CODE + 1);
+                for (var status = 0; status <= MAX_STATUS_CODE; status++) {
+                    snapshot.shortCircuits[status] += recorder.shortCircuits.get(statusOffset + status);
+                }
+            }
+        }
+
+        out.help("jsonrpc_stage_latency_seconds", "histogram",
+                "Latency of the stages of proxied requests processing");
+        merged.forEach((stage, snapshot) ->
+                out.latencyHistogram("jsonrpc_stage_latency_seconds", snapshot.latency, "stage", stage));
+
+        // quantiles since the start, at the full resolution of the histograms
+        out.help("jsonrpc_stage_latency_quantile_seconds", "gauge",
+                "Latency quantiles of the stages of proxied requests processing since the start");
+        merged.forEach((stage, snapshot) -> {
+            for (var quantile : QUANTILES) {
+                out.sample("jsonrpc_stage_latency_quantile_seconds",
+                        PrometheusWriter.seconds(snapshot.latency.valueAtQuantile(quantile)),
+                        "stage", stage, "quantile", Double.toString(quantile));
+            }
+        });
+
+        out.help("jsonrpc_stage_short_circuits_total", "counter",
+                "Requests responded by a stage without passing them to the next stages, e.g. rate limited ones");
+        merged.forEach((stage, snapshot) -> {
+            for (var status = 0; status <= MAX_STATUS_CODE; status++) {
+                if (snapshot.shortCircuits[status] > 0) {
+                    out.sample("jsonrpc_stage_short_circuits_total", snapshot.shortCircuits[status],
+                            "stage", stage, "status", Integer.toString(status));
+                }
+            }
+        });
+
+        out.help("jsonrpc_stage_errors_total", "counter", "Requests failed by a stage");
+        merged.forEach((stage, snapshot) ->
+                out.sample("jsonrpc_stage_errors_total", snapshot.errors, "stage", stage));
+    }
+
+    /**
+     * Metrics of the stages of a single verticle. Must be used only on the event loop of the verticle.
+     */
+    public static class Recorder {
+        private final List<String> stages;
+        private final LatencyHistogram[] latencies;
+        private final AtomicLongArray shortCircuits; // by stage and status code
+        private final AtomicLongArray errors; // by stage
+
+        private Recorder(List<String> stages) {
+            this.stages = stages;
+            this.latencies = new LatencyHistogram[stages.size()];
+            for (var i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyHistogram();
+            }
+            this.shortCircuits = new AtomicLongArray(stages.size() * (MAX_STATUS_CODE + 1));
+            this.errors = new AtomicLongArray(stages.size());
+        }
+
+        /**
+         * Records a stage that passed the request to the next stage.
+         */
+        public void onPassed(int stage, long latencyNanos) {
+            latencies[stage].record(latencyNanos);
+        }
+
+        /**
+         * Records a stage that responded to the request itself.
+         */
+        public void onShortCircuited(int stage, long latencyNanos, int statusCode) {
+            latencies[stage].record(latencyNanos);
+            var status = statusCode >= 0 && statusCode <= MAX_STATUS_CODE ? statusCode : 0;
+            var idx = stage * (MAX_STATUS_CODE + 1) + status;
+            // single writer, no need for atomic increments
+            shortCircuits.lazySet(idx, shortCircuits.get(idx) + 1);
+        }
+
+        /**
+         * Records a stage that failed the request.
+         */
+        public void onFailed(int stage, long latencyNanos) {
+            latencies[stage].record(latencyNanos);
+            errors.lazySet(stage, errors.get(stage) + 1);
+        }
+    }
+
+    private static class StageSnapshot {
+        private final LatencyHistogram.Snapshot latency = new LatencyHistogram.Snapshot();
+        private final long[] shortCircuits = new long[MAX_STATUS_CODE + 1];
+        private long errors;
+    }
+}
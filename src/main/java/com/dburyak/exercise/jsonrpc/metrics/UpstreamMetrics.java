@@ -0,0 +1,206 @@
+package com.dburyak.exercise.jsonrpc.metrics;
+
+import com.dburyak.exercise.jsonrpc.json.KnownMethods;
+import com.dburyak.exercise.jsonrpc.lb.Backend;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Telemetry of the calls sent to the backends, per backend and per method: latency, HTTP statuses, timeouts and
+ * connection errors, JSON-RPC error codes of the responses and response sizes. Calls of a batch chunk are counted
+ * separately, each with the latency and HTTP status of the whole chunk and with its own response element.
+ * <p>
+ * Methods come from the callers, so only the known methods (see {@link KnownMethods}) get their own series, the rest
+ * are counted as {@link #OTHER_METHOD}. Number of distinct JSON-RPC error codes per series is bounded the same way.
+ * <p>
+ * Each verticle records into its own {@link Recorder}, recorders are merged only when metrics are read. Thread-safe,
+ * single instance is shared by all the verticles.
+ */
+public class UpstreamMetrics {
+    public static final String OTHER_METHOD = "other";
+    private static final int METHODS = KnownMethods.size() + 1; // the last one is for all the other methods
+    private static final int MAX_ERROR_CODES = 32; // per series
+    private static final int OTHER_ERROR_CODE = Integer.MIN_VALUE;
+    private static final String[] STATUS_CLASSES = {"1xx", "2xx", "3xx", "4xx", "5xx"};
+
+    private final List<Backend> backends;
+    private final List<Recorder> recorders = new CopyOnWriteArrayList<>();
+
+    public UpstreamMetrics(List<Backend> backends) {
+        this.backends = backends;
+    }
+
+    /**
+     * Creates a recorder for a single verticle.
+     */
+    public Recorder newRecorder() {
+        var recorder = new Recorder();
+        recorders.add(recorder);
+        return recorder;
+    }
+
+    public void writeTo(PrometheusWriter out) {
+        var merged = new SeriesSnapshot[backends.size() * METHODS];
+        for (var recorder : recorders) {
+            for (var i = 0; i < merged.length; i++) {
+                var series = recorder.series.get(i);
+                if (series != null) {
+                    if (merged[i] == null) {
+                        merged[i] = new SeriesSnapshot();
+                    }
+                    series.addTo(merged[i]);
+                }
+            }
+        }
+
+        out.help("jsonrpc_upstream_latency_seconds", "histogram", "Latency of the calls sent to the backends");
+        forEachSeries(merged, (snapshot, backend, method) -> out.latencyHistogram("jsonrpc_upstream_latency_seconds",
+                snapshot.latency, "backend", backend, "method", method));
+
+        out.help("jsonrpc_upstream_responses_total", "counter", "Calls responded by the backends, by HTTP status");
+        forEachSeries(merged, (snapshot, backend, method) -> {
+            for (var i = 0; i < STATUS_CLASSES.length; i++) {
+                if (snapshot.statusClasses[i] > 0) {
+                    out.sample("jsonrpc_upstream_responses_total", snapshot.statusClasses[i],
+                            "backend", backend, "method", method, "status", STATUS_CLASSES[i]);
+                }
+            }
+        });
+
+        out.help("jsonrpc_upstream_failures_total", "counter", "Calls that got no response from the backends");
+        forEachSeries(merged, (snapshot, backend, method) -> {
+            out.sample("jsonrpc_upstream_failures_total", snapshot.timeouts,
+                    "backend", backend, "method", method, "reason", "timeout");
+            out.sample("jsonrpc_upstream_failures_total", snapshot.connectionErrors,
+                    "backend", backend, "method", method, "reason", "connection");
+        });
+
+        out.help("jsonrpc_upstream_jsonrpc_errors_total", "counter",
+                "JSON-RPC error responses of the backends, by error code");
+        forEachSeries(merged, (snapshot, backend, method) -> snapshot.errorCodes.forEach((code, count) ->
+                out.sample("jsonrpc_upstream_jsonrpc_errors_total", count, "backend", backend, "method", method,
+                        "code", code == OTHER_ERROR_CODE ? "other" : Integer.toString(code))));
+
+        out.help("jsonrpc_upstream_response_bytes_total", "counter", "Size of the responses of the backends");
+        forEachSeries(merged, (snapshot, backend, method) -> out.sample("jsonrpc_upstream_response_bytes_total",
+                snapshot.responseBytes, "backend", backend, "method", method));
+    }
+
+    private void forEachSeries(SeriesSnapshot[] merged, SeriesConsumer consumer) {
+        for (var i = 0; i < merged.length; i++) {
+            if (merged[i] != null) {
+                var methodIdx = i % METHODS;
+                var method = methodIdx < KnownMethods.size() ? KnownMethods.nameOf(methodIdx) : OTHER_METHOD;
+                consumer.accept(merged[i], backends.get(i / METHODS).getUrl(), method);
+            }
+        }
+    }
+
+    private static int seriesIndex(int backendIdx, int methodIdx) {
+        return backendIdx * METHODS + (methodIdx != KnownMethods.UNKNOWN_ID ? methodIdx : METHODS - 1);
+    }
+
+    @FunctionalInterface
+    private interface SeriesConsumer {
+        void accept(SeriesSnapshot snapshot, String backend, String method);
+    }
+
+    /**
+     * Telemetry of the calls of a single verticle. Must be used only on the event loop of the verticle.
+     */
+    public class Recorder {
+        // by backend and method, created on the first call
+        private final AtomicReferenceArray<Series> series = new AtomicReferenceArray<>(backends.size() * METHODS);
+
+        private Recorder() {
+        }
+
+        /**
+         * Records a call that got HTTP response from the backend.
+         *
+         * @param methodId id of the called method (see {@link KnownMethods}), or {@link KnownMethods#UNKNOWN_ID}
+         */
+        public void onResponse(Backend backend, int methodId, long latencyNanos, int statusCode) {
+            var s = series(backend, methodId);
+            s.latency.record(latencyNanos);
+            var statusClass = statusCode / 100 - 1;
+            if (statusClass >= 0 && statusClass < STATUS_CLASSES.length) {
+                // single writer, no need for atomic increments
+                s.statusClasses.lazySet(statusClass, s.statusClasses.get(statusClass) + 1);
+            }
+        }
+
+        /**
+         * Records a call that got no response from the backend.
+         */
+        public void onFailure(Backend backend, int methodId, long latencyNanos, boolean timeout) {
+            var s = series(backend, methodId);
+            s.latency.record(latencyNanos);
+            var counter = timeout ? s.timeouts : s.connectionErrors;
+            counter.lazySet(counter.get() + 1);
+        }
+
+        /**
+         * Records JSON-RPC response of the call.
+         *
+         * @param errorCode JSON-RPC error code, null if it's not an error response
+         */
+        public void onResponseBody(Backend backend, int methodId, int bytes, Integer errorCode) {
+            var s = series(backend, methodId);
+            s.responseBytes.lazySet(s.responseBytes.get() + bytes);
+            if (errorCode != null) {
+                var code = s.errorCodes.containsKey(errorCode) || s.errorCodes.size() < MAX_ERROR_CODES
+                        ? errorCode
+                        : OTHER_ERROR_CODE;
+                var counter = s.errorCodes.computeIfAbsent(code, ignr -> new AtomicLong());
+                counter.lazySet(counter.get() + 1);
+            }
+        }
+
+        private Series series(Backend backend, int methodId) {
+            var idx = seriesIndex(backend.getIndex(), methodId);
+            var s = series.get(idx);
+            if (s == null) {
+                s = new Series();
+                series.set(idx, s);
+            }
+            return s;
+        }
+    }
+
+    private static class Series {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLongArray statusClasses = new AtomicLongArray(STATUS_CLASSES.length);
+        private final AtomicLong timeouts = new AtomicLong();
+        private final AtomicLong connectionErrors = new AtomicLong();
+        private final AtomicLong responseBytes = new AtomicLong();
+        private final Map<Integer, AtomicLong> errorCodes = new ConcurrentHashMap<>();
+
+        private void addTo(SeriesSnapshot snapshot) {
+            latency.addTo(snapshot.latency);
+            for (var i = 0; i < STATUS_CLASSES.length; i++) {
+                snapshot.statusClasses[i] += statusClasses.get(i);
+            }
+            snapshot.timeouts += timeouts.get();
+            snapshot.connectionErrors += connectionErrors.get();
+            snapshot.responseBytes += responseBytes.get();
+            errorCodes.forEach((code, count) -> snapshot.errorCodes.merge(code, count.get(), Long::sum));
+        }
+    }
+
+    private static class SeriesSnapshot {
+        private final LatencyHistogram.Snapshot latency = new LatencyHistogram.Snapshot();
+        private final long[] statusClasses = new long[STATUS_CLASSES.length];
+        private final Map<Integer, Long> errorCodes = new TreeMap<>();
+        private long timeouts;
+        private long connectionErrors;
+        private long responseBytes;
+    }
+}
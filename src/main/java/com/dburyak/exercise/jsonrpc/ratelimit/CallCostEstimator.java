@@ -0,0 +1,182 @@
+package com.dburyak.exercise.jsonrpc.ratelimit;
+
+import com.dburyak.exercise.jsonrpc.Config.ComputeUnits;
+import com.dburyak.exercise.jsonrpc.JsonRpcRequest;
+import com.dburyak.exercise.jsonrpc.cache.ChainHead;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.ARR_START;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.OBJ_START;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.QUOTE;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.findField;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.rangeEquals;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.skipString;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.skipValue;
+import static com.dburyak.exercise.jsonrpc.json.JsonScanner.skipWs;
+
+/**
+ * Estimates cost of JSON-RPC calls in compute units (see {@link ComputeUnits}).
+ * <p>
+ * The dynamic part of the cost is based on the block range of the filter object passed as the first param (e.g.
+ * eth_getLogs, trace_filter). The range is read from the raw params without decoding them:
+ * <ul>
+ *     <li>filter by "blockHash" covers a single block</li>
+ *     <li>"fromBlock".."toBlock" covers exactly that many blocks (capped by "maxBlockRange"): hex numbers are taken
+ *     as is, "earliest" is block 0, while "latest", "pending" and absent values are resolved against the latest block
+ *     observed by the proxy (see {@link ChainHead}), e.g. the usual polling filter from a recent block to "latest"
+ *     covers just a few blocks</li>
+ *     <li>same tags on both ends cover a single block, even if the head is not known yet</li>
+ *     <li>anything else (e.g. "safe", or "latest" before the head is observed) is conservatively assumed to cover
+ *     "maxBlockRange" blocks</li>
+ * </ul>
+ * Costs are not capped here, rate limits charge at most their whole budget for a single call (see
+ * "redis/rate-limit.lua" and {@link LocalLimit}), so that a call that costs more than the limit is still admitted when
+ * the budget is untouched.
+ * <p>
+ * Thread-safe, may be shared.
+ */
+public class CallCostEstimator {
+    private static final byte[] KEY_FROM_BLOCK = "fromBlock".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_TO_BLOCK = "toBlock".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_BLOCK_HASH = "blockHash".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TAG_LATEST = "\"latest\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TAG_EARLIEST = "\"earliest\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TAG_PENDING = "\"pending\"".getBytes(StandardCharsets.UTF_8);
+    private static final long UNKNOWN_RANGE = -1;
+
+    private final ComputeUnits cfg;
+    private final ChainHead chainHead;
+
+    public CallCostEstimator(ComputeUnits cfg, ChainHead chainHead) {
+        this.cfg = cfg;
+        this.chainHead = chainHead;
+    }
+
+    /**
+     * @return cost of the call in compute units, always > 0
+     */
+    public int cost(JsonRpcRequest req) {
+        var methodCost = req.getMethod() != null ? cfg.getMethodCosts().get(req.getMethod()) : null;
+        if (methodCost == null) {
+            return cfg.getDefaultCost();
+        }
+        if (methodCost.getPerBlockCost() == 0 || !req.hasParams()) {
+            return methodCost.getCost();
+        }
+        long blocks;
+        try {
+            blocks = blockRange(req.getRaw(), req.getParamsStart(), req.getParamsEnd());
+        } catch (DecodeException e) {
+            // malformed params, the backend will reject the call anyway
+            blocks = 1;
+        }
+        if (blocks == UNKNOWN_RANGE || blocks > cfg.getMaxBlockRange()) {
+            blocks = cfg.getMaxBlockRange();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, methodCost.getCost() + blocks * methodCost.getPerBlockCost());
+    }
+
+    private long blockRange(Buffer raw, int paramsStart, int paramsEnd) {
+        var pos = skipWs(raw, paramsStart, paramsEnd);
+        if (pos >= paramsEnd || raw.getByte(pos) != ARR_START) {
+            return 1;
+        }
+        var filterStart = skipWs(raw, pos + 1, paramsEnd);
+        if (filterStart >= paramsEnd || raw.getByte(filterStart) != OBJ_START) {
+            return 1;
+        }
+        var filterEnd = skipValue(raw, filterStart, paramsEnd);
+        if (findField(raw, filterStart, filterEnd, KEY_BLOCK_HASH) >= 0) {
+            return 1;
+        }
+        var fromPos = findField(raw, filterStart, filterEnd, KEY_FROM_BLOCK);
+        var toPos = findField(raw, filterStart, filterEnd, KEY_TO_BLOCK);
+        var head = chainHead.getLatestBlock();
+        var from = resolveBlock(raw, fromPos, filterEnd, head);
+        var to = resolveBlock(raw, toPos, filterEnd, head);
+        if (from >= 0 && to >= 0) {
+            return Math.max(1, to - from + 1);
+        }
+        if (from < 0 && to < 0 && sameValue(raw, fromPos, toPos, filterEnd)) {
+            return 1;
+        }
+        return UNKNOWN_RANGE;
+    }
+
+    /**
+     * @param pos position of the value, or -1 if it's absent, which means "latest"
+     * @return block number of the value, or {@link #UNKNOWN_RANGE} if it can't be resolved
+     */
+    private static long resolveBlock(Buffer raw, int pos, int end, long head) {
+        var headBlock = head != ChainHead.UNKNOWN ? head : UNKNOWN_RANGE;
+        if (pos < 0) {
+            return headBlock;
+        }
+        var number = blockNumber(raw, pos, end);
+        if (number != UNKNOWN_RANGE) {
+            return number;
+        }
+        var valueEnd = skipValue(raw, pos, end);
+        if (rangeEquals(raw, pos, valueEnd, TAG_EARLIEST)) {
+            return 0;
+        }
+        if (rangeEquals(raw, pos, valueEnd, TAG_LATEST) || rangeEquals(raw, pos, valueEnd, TAG_PENDING)) {
+            return headBlock;
+        }
+        return UNKNOWN_RANGE;
+    }
+
+    /**
+     * @return block number if the value is a hex quantity, or {@link #UNKNOWN_RANGE} for tags and anything else
+     */
+    private static long blockNumber(Buffer raw, int pos, int end) {
+        if (raw.getByte(pos) != QUOTE) {
+            return UNKNOWN_RANGE;
+        }
+        var valueEnd = skipString(raw, pos, end) - 1;
+        var i = pos + 1;
+        if (valueEnd - i < 3 || raw.getByte(i) != '0' || (raw.getByte(i + 1) != 'x' && raw.getByte(i + 1) != 'X')) {
+            return UNKNOWN_RANGE;
+        }
+        // more than 15 hex digits can't be a real block number
+        if (valueEnd - i - 2 > 15) {
+            return UNKNOWN_RANGE;
+        }
+        var value = 0L;
+        for (i += 2; i < valueEnd; i++) {
+            var digit = Character.digit(raw.getByte(i), 16);
+            if (digit < 0) {
+                return UNKNOWN_RANGE;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * @return whether both values are the same, absent value is treated as "latest"
+     */
+    private static boolean sameValue(Buffer raw, int pos1, int pos2, int end) {
+        if (pos1 < 0 && pos2 < 0) {
+            return true;
+        }
+        if (pos1 < 0 || pos2 < 0) {
+            var pos = Math.max(pos1, pos2);
+            return rangeEquals(raw, pos, skipValue(raw, pos, end), TAG_LATEST);
+        }
+        var end1 = skipValue(raw, pos1, end);
+        var end2 = skipValue(raw, pos2, end);
+        if (end1 - pos1 != end2 - pos2) {
+            return false;
+        }
+        for (var i = 0; i < end1 - pos1; i++) {
+            if (raw.getByte(pos1 + i) != raw.getByte(pos2 + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,101 @@
+package com.dburyak.exercise.jsonrpc.ratelimit;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Locally enforced fixed-window limit of a single key (e.g. IP or IP+method). Works as a token bucket that is refilled
+ * on every sync with redis: between two syncs the proxy instance may admit at most {@code overshootAllowance} units
+ * (a single call of any cost is always allowed though), and never more than what is left of the limit according to the
+ * last known global counter value. Limits and counters are in compute units, not calls, a single call is charged at
+ * most the whole limit (see {@link #charge}).
+ * <p>
+ * Shared by all the verticles, so all the state is kept in atomics and volatile fields.
+ */
+public class LocalLimit {
+    @Getter
+    private final String redisKey;
+    private final int maxCallsInWindow;
+    @Getter
+    private final long windowMs;
+    private final int overshootAllowance;
+
+    // units of the calls admitted locally and not yet pushed to redis
+    private final AtomicInteger pending = new AtomicInteger();
+    // global counter value and the end of its window as of the last sync
+    private volatile long globalCount = 0;
+    private volatile long windowEndMs = 0;
+    private volatile long lastUsedMs;
+
+    LocalLimit(String redisKey, int maxCallsInWindow, long windowMs, double maxOvershoot, long nowMs) {
+        this.redisKey = redisKey;
+        this.maxCallsInWindow = maxCallsInWindow;
+        this.windowMs = windowMs;
+        this.overshootAllowance = Math.max(1, (int) Math.ceil(maxCallsInWindow * maxOvershoot));
+        this.lastUsedMs = nowMs;
+    }
+
+    /**
+     * Admits a single call if it fits into the limit, no I/O involved.
+     *
+     * @param units cost of the call in compute units
+     * @return whether the call is admitted
+     */
+    public boolean tryAcquire(long nowMs, int units) {
+        var charged = charge(units);
+        lastUsedMs = nowMs;
+        var knownCount = nowMs < windowEndMs ? globalCount : 0;
+        while (true) {
+            var p = pending.get();
+            if ((p > 0 && p + charged > overshootAllowance) || knownCount + p + charged > maxCallsInWindow) {
+                return false;
+            }
+            if (pending.compareAndSet(p, p + charged)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the call admitted by {@link #tryAcquire} back, e.g. if it was rejected by another limit. If the call has
+     * already been pushed to redis with a sync, it stays counted there, so pending units never go below zero, otherwise
+     * the released units would be granted once more as extra local allowance.
+     */
+    public void release(int units) {
+        var charged = charge(units);
+        pending.updateAndGet(p -> Math.max(0, p - charged));
+    }
+
+    /**
+     * Calls that cost more than the whole limit would never be admitted otherwise, same as in "redis/rate-limit.lua".
+     */
+    private int charge(int units) {
+        return Math.min(units, maxCallsInWindow);
+    }
+
+    int pendingDelta() {
+        return pending.get();
+    }
+
+    /**
+     * Applies the result of the sync.
+     *
+     * @param pushedDelta number of calls pushed to redis with this sync
+     * @param cnt global counter value after the push
+     * @param ttlMs time left till the end of the window
+     */
+    void onSynced(int pushedDelta, long cnt, long ttlMs, long nowMs) {
+        // calls released during the sync were pushed anyway, see release()
+        pending.updateAndGet(p -> Math.max(0, p - pushedDelta));
+        globalCount = cnt;
+        windowEndMs = nowMs + ttlMs;
+    }
+
+    /**
+     * @return whether the limit can be forgotten: nothing to push, and it wasn't used during the whole window
+     */
+    boolean isIdle(long nowMs) {
+        return pending.get() == 0 && nowMs >= windowEndMs && nowMs - lastUsedMs >= windowMs;
+    }
+}
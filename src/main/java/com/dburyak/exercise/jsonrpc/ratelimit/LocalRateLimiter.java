@@ -0,0 +1,140 @@
+package com.dburyak.exercise.jsonrpc.ratelimit;
+
+import com.dburyak.exercise.jsonrpc.AsyncCloseable;
+import com.dburyak.exercise.jsonrpc.jfr.JfrEvents;
+import com.dburyak.exercise.jsonrpc.redis.RedisScript;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.vertx.rxjava3.redis.client.RedisConnection;
+import lombok.extern.log4j.Log4j2;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Approximate distributed rate limiter: admission decisions are made locally by {@link LocalLimit}s without any I/O,
+ * and the local state is periodically reconciled with redis in the background. On every sync, the calls admitted
+ * locally since the previous sync are pushed to the same redis counters that are used by the exact (synchronous)
+ * rate limiting, and the global counter values are pulled back, all in a single script call (see
+ * "redis/rate-limit-sync.lua").
+ * <p>
+ * Between two syncs, every proxy instance may admit up to the "max overshoot" share of the limit on its own, so the
+ * limit may be exceeded by at most that many calls per each other proxy instance. This is the price for taking redis
+ * out of the request path.
+ * <p>
+ * Single instance is shared by all the verticles.
+ */
+@Log4j2
+public class LocalRateLimiter implements AsyncCloseable {
+    // keeps script calls reasonably small, chunks are sent concurrently and are pipelined by the redis client
+    private static final int MAX_KEYS_PER_SYNC_CALL = 1_000;
+
+    private final RedisConnection redis;
+    private final RedisScript syncScript;
+    private final Duration syncInterval;
+    private final LongSupplier clockMs;
+    private final ConcurrentHashMap<String, LocalLimit> limits = new ConcurrentHashMap<>();
+    private volatile Disposable syncLoop;
+
+    public LocalRateLimiter(RedisConnection redis, RedisScript syncScript, Duration syncInterval) {
+        this(redis, syncScript, syncInterval, System::currentTimeMillis);
+    }
+
+    LocalRateLimiter(RedisConnection redis, RedisScript syncScript, Duration syncInterval, LongSupplier clockMs) {
+        this.redis = redis;
+        this.syncScript = syncScript;
+        this.syncInterval = syncInterval;
+        this.clockMs = clockMs;
+    }
+
+    /**
+     * @return local limit of the key, created on the first access
+     */
+    public LocalLimit limit(String redisKey, int maxCallsInWindow, long windowMs, double maxOvershoot) {
+        var limit = limits.get(redisKey);
+        if (limit != null) {
+            return limit;
+        }
+        return limits.computeIfAbsent(redisKey, k -> new LocalLimit(k, maxCallsInWindow, windowMs, maxOvershoot,
+                clockMs.getAsLong()));
+    }
+
+    /**
+     * Starts periodic background sync with redis.
+     */
+    public void start() {
+        // syncs never overlap, the next one is started only after the previous one is finished
+        syncLoop = Observable.interval(syncInterval.toMillis(), syncInterval.toMillis(), MILLISECONDS)
+                .concatMapCompletable(ignr -> sync()
+                        .onErrorComplete(err -> {
+                            log.warn("rate limits sync failed, will retry with the next sync", err);
+                            return true;
+                        }))
+                .subscribe();
+    }
+
+    @Override
+    public Completable closeAsync() {
+        if (syncLoop != null) {
+            syncLoop.dispose();
+        }
+        // push whatever was admitted since the last sync, so that other proxy instances see it
+        return sync().onErrorComplete(err -> {
+            log.warn("final rate limits sync failed", err);
+            return true;
+        });
+    }
+
+    Completable sync() {
+        return Completable.defer(() -> {
+            var nowMs = clockMs.getAsLong();
+            var toSync = new ArrayList<LocalLimit>(limits.size());
+            for (var limit : limits.values()) {
+                if (limit.isIdle(nowMs)) {
+                    // a call admitted concurrently with the removal may be not counted, fine for approximate limiting
+                    limits.remove(limit.getRedisKey(), limit);
+                } else {
+                    toSync.add(limit);
+                }
+            }
+            if (toSync.isEmpty()) {
+                return Completable.complete();
+            }
+            var chunks = new ArrayList<List<LocalLimit>>();
+            for (var i = 0; i < toSync.size(); i += MAX_KEYS_PER_SYNC_CALL) {
+                chunks.add(toSync.subList(i, Math.min(i + MAX_KEYS_PER_SYNC_CALL, toSync.size())));
+            }
+            return Observable.fromIterable(chunks)
+                    .flatMapCompletable(this::syncChunk);
+        });
+    }
+
+    private Completable syncChunk(List<LocalLimit> chunk) {
+        var keys = new ArrayList<String>(chunk.size());
+        var args = new ArrayList<Object>(chunk.size() * 2);
+        var deltas = new int[chunk.size()];
+        for (var i = 0; i < chunk.size(); i++) {
+            var limit = chunk.get(i);
+            deltas[i] = limit.pendingDelta();
+            keys.add(limit.getRedisKey());
+            args.add(deltas[i]);
+            args.add(limit.getWindowMs());
+        }
+        return syncScript.rxEval(redis, keys, args)
+                .compose(JfrEvents.redisBatch("rate-limit", "sync", 1))
+                .doOnSuccess(resp -> {
+                    var nowMs = clockMs.getAsLong();
+                    for (var i = 0; i < chunk.size(); i++) {
+                        chunk.get(i).onSynced(deltas[i], resp.get(2 * i).toLong(), resp.get(2 * i + 1).toLong(),
+                                nowMs);
+                    }
+                })
+                .ignoreElement();
+    }
+}
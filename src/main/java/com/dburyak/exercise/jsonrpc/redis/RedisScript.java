@@ -0,0 +1,107 @@
+package com.dburyak.exercise.jsonrpc.redis;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.core.Single;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+import io.vertx.rxjava3.redis.client.RedisConnection;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+import static io.vertx.redis.client.Command.EVAL;
+import static io.vertx.redis.client.Command.EVALSHA;
+import static io.vertx.redis.client.Command.SCRIPT;
+import static io.vertx.redis.client.Request.cmd;
+
+/**
+ * Lua script executed on the redis side. Script is invoked by its SHA1 digest via "EVALSHA", so that the script body is
+ * not sent over the network on each call. If redis doesn't know the script (e.g. it was restarted or the script cache
+ * was flushed), the call falls back to "EVAL" with the full body, which also loads the script into the redis script
+ * cache for the subsequent calls.
+ * <p>
+ * Instances are immutable and thread-safe.
+ */
+@Log4j2
+public class RedisScript {
+    private static final String NOSCRIPT_ERR_PREFIX = "NOSCRIPT";
+
+    @Getter
+    private final String name;
+    private final String body;
+    @Getter
+    private final String sha;
+
+    public RedisScript(String name, String body) {
+        this.name = name;
+        this.body = body;
+        this.sha = sha1Hex(body);
+    }
+
+    /**
+     * Loads the script from the classpath resource.
+     */
+    public static RedisScript fromResource(String path) {
+        try (var in = RedisScript.class.getClassLoader().getResourceAsStream(path)) {
+            if (in == null) {
+                throw new IllegalArgumentException("redis script not found on classpath: " + path);
+            }
+            return new RedisScript(path, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to read redis script: " + path, e);
+        }
+    }
+
+    /**
+     * Preloads the script into the redis script cache, so that the first calls don't need the "EVAL" fallback.
+     */
+    public Completable rxLoad(RedisConnection redis) {
+        return redis.rxSend(cmd(SCRIPT).arg("LOAD").arg(body))
+                .doOnSuccess(resp -> log.debug("redis script loaded: name={}, sha={}", name, resp))
+                .ignoreElement();
+    }
+
+    /**
+     * Executes the script.
+     */
+    public Single<Response> rxEval(RedisConnection redis, List<String> keys, List<?> args) {
+        return redis.rxSend(buildReq(cmd(EVALSHA).arg(sha), keys, args))
+                .onErrorResumeNext(err -> {
+                    if (err.getMessage() == null || !err.getMessage().startsWith(NOSCRIPT_ERR_PREFIX)) {
+                        return Maybe.error(err);
+                    }
+                    log.debug("redis script is not loaded, falling back to EVAL: name={}", name);
+                    return redis.rxSend(buildReq(cmd(EVAL).arg(body), keys, args));
+                })
+                .toSingle();
+    }
+
+    private static Request buildReq(Request req, List<String> keys, List<?> args) {
+        req.arg(keys.size());
+        for (var key : keys) {
+            req.arg(key);
+        }
+        for (var arg : args) {
+            req.arg(arg.toString());
+        }
+        return req;
+    }
+
+    private static String sha1Hex(String str) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-1").digest(str.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 support is mandatory for every JVM
+            throw new IllegalStateException(e);
+        }
+    }
+}
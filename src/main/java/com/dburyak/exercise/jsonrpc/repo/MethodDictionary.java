@@ -0,0 +1,158 @@
+package com.dburyak.exercise.jsonrpc.repo;
+
+import com.dburyak.exercise.jsonrpc.json.KnownMethods;
+import com.dburyak.exercise.jsonrpc.redis.RedisScript;
+import io.reactivex.rxjava3.core.Single;
+import io.vertx.rxjava3.redis.client.RedisConnection;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.vertx.redis.client.Command.HMGET;
+import static io.vertx.redis.client.Request.cmd;
+
+/**
+ * Dictionary of JSON-RPC methods of tracked calls, maps method names to small integer ids, so that hashes of tracked
+ * calls refer to methods by ids instead of repeating their names in every field. The dictionary is kept in redis
+ * (see "redis/method-ids.lua") and is shared by all the proxy instances. Ids never change once assigned, so they're
+ * cached locally forever, the cache is bounded by the max number of ids.
+ * <p>
+ * Methods come from the callers, so only well-known methods (see {@link KnownMethods}) get ids, otherwise junk method
+ * names would use up the dictionary. The number of ids is limited as well. Methods without ids are tracked by name.
+ * <p>
+ * Thread-safe, single instance is shared by all the verticles.
+ */
+@Log4j2
+public class MethodDictionary {
+    public static final int NO_ID = 0;
+    private static final String IDS_KEY = "trck-method-ids";
+    private static final String NAMES_KEY = "trck-method-names";
+    private static final String LAST_ID_KEY = "trck-method-last-id";
+
+    private final RedisConnection redis;
+    private final RedisScript idsScript;
+    private final int maxIds;
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, String> names = new ConcurrentHashMap<>();
+
+    public MethodDictionary(RedisConnection redis, RedisScript idsScript, int maxIds) {
+        this.redis = redis;
+        this.idsScript = idsScript;
+        this.maxIds = maxIds;
+    }
+
+    /**
+     * Ids of the methods, new ids are assigned to the well-known methods that don't have them yet.
+     *
+     * @return ids by method, methods that didn't get ids (not well-known ones, or the dictionary is full) are not
+     *         included
+     */
+    public Single<Map<String, Integer>> assignIds(Collection<String> methods) {
+        var result = new HashMap<String, Integer>(methods.size() * 2);
+        var unknown = cached(methods, result);
+        unknown.removeIf(method -> KnownMethods.idOf(method) == KnownMethods.UNKNOWN_ID);
+        if (unknown.isEmpty()) {
+            return Single.just(result);
+        }
+        var args = new ArrayList<Object>(unknown.size() + 1);
+        args.add(maxIds);
+        args.addAll(unknown);
+        return idsScript.rxEval(redis, List.of(IDS_KEY, NAMES_KEY, LAST_ID_KEY), args).map(resp -> {
+            for (var i = 0; i < unknown.size(); i++) {
+                var id = resp.get(i).toInteger();
+                if (id != NO_ID) {
+                    cache(unknown.get(i), id);
+                    result.put(unknown.get(i), id);
+                }
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Ids of the methods that have them, without assigning new ones.
+     *
+     * @return ids by method, methods without ids are not included
+     */
+    public Single<Map<String, Integer>> ids(Collection<String> methods) {
+        var result = new HashMap<String, Integer>(methods.size() * 2);
+        var unknown = cached(methods, result);
+        if (unknown.isEmpty()) {
+            return Single.just(result);
+        }
+        var req = cmd(HMGET).arg(IDS_KEY);
+        for (var method : unknown) {
+            req.arg(method);
+        }
+        return redis.rxSend(req).toSingle().map(resp -> {
+            for (var i = 0; i < unknown.size(); i++) {
+                if (resp.get(i) != null) {
+                    var id = resp.get(i).toInteger();
+                    cache(unknown.get(i), id);
+                    result.put(unknown.get(i), id);
+                }
+            }
+            return result;
+        });
+    }
+
+    /**
+     * @return names by id, ids that are not in the dictionary are not included
+     */
+    public Single<Map<Integer, String>> names(Collection<Integer> methodIds) {
+        var result = new HashMap<Integer, String>(methodIds.size() * 2);
+        var unknown = new ArrayList<Integer>();
+        for (var id : methodIds) {
+            var name = names.get(id);
+            if (name != null) {
+                result.put(id, name);
+            } else {
+                unknown.add(id);
+            }
+        }
+        if (unknown.isEmpty()) {
+            return Single.just(result);
+        }
+        var req = cmd(HMGET).arg(NAMES_KEY);
+        for (var id : unknown) {
+            req.arg(id);
+        }
+        return redis.rxSend(req).toSingle().map(resp -> {
+            for (var i = 0; i < unknown.size(); i++) {
+                if (resp.get(i) != null) {
+                    var name = resp.get(i).toString();
+                    cache(name, unknown.get(i));
+                    result.put(unknown.get(i), name);
+                } else {
+                    // may happen only if the dictionary was deleted while the hashes that refer to it were kept
+                    log.warn("unknown method id of tracked calls: id={}", unknown.get(i));
+                }
+            }
+            return result;
+        });
+    }
+
+    private List<String> cached(Collection<String> methods, Map<String, Integer> result) {
+        var unknown = new LinkedHashSet<String>();
+        for (var method : methods) {
+            var id = ids.get(method);
+            if (id != null) {
+                result.put(method, id);
+            } else {
+                unknown.add(method);
+            }
+        }
+        return new ArrayList<>(unknown);
+    }
+
+    private void cache(String method, int id) {
+        ids.put(method, id);
+        names.put(id, method);
+    }
+}
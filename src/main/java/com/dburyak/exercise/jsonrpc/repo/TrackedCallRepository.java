@@ -1,19 +1,71 @@
 package com.dburyak.exercise.jsonrpc.repo;
 
 import com.dburyak.exercise.jsonrpc.entity.CallsOfUser;
+import com.dburyak.exercise.jsonrpc.entity.CallsOfUserPage;
+import com.dburyak.exercise.jsonrpc.entity.CallsOfUsersPage;
 import com.dburyak.exercise.jsonrpc.entity.TrackedCall;
 import io.reactivex.rxjava3.core.Completable;
 import io.reactivex.rxjava3.core.Maybe;
 import io.reactivex.rxjava3.core.Single;
 
+import java.time.Instant;
 import java.util.Collection;
+import java.util.List;
 
 public interface TrackedCallRepository {
+    String FIRST_PAGE = "0";
+
     Completable increment(Collection<TrackedCall.Change> calls);
 
     Maybe<TrackedCall> findByIpAndMethod(String ip, String method);
 
+    /**
+     * Same as {@link #findByIpAndMethod(String, String)}, but counts only the calls made within [from, to).
+     */
+    Maybe<TrackedCall> findByIpAndMethod(String ip, String method, Instant from, Instant to);
+
     Maybe<CallsOfUser> findByIp(String ip);
 
+    /**
+     * Reads all-time calls of multiple users at once. Users without calls are not included into the result.
+     *
+     * @param methods methods to read calls of, null or empty for all the methods
+     */
+    Single<List<CallsOfUser>> findByIps(List<String> ips, List<String> methods);
+
+    /**
+     * Reads calls of the IP page by page, see {@link CallsOfUserPage}. Iteration starts with {@link #FIRST_PAGE} cursor
+     * and ends with the page that has no next cursor.
+     *
+     * @param count approximate number of counters to read per page
+     */
+    Single<CallsOfUserPage> findPageByIp(String ip, String cursor, int count);
+
+    /**
+     * Reads calls of all the users page by page, see {@link CallsOfUsersPage}. Iteration starts with
+     * {@link #FIRST_PAGE} cursor and ends with the page that has no next cursor.
+     *
+     * @param count approximate number of users to read per page
+     */
+    Single<CallsOfUsersPage> findAllPage(String cursor, int count);
+
+    /**
+     * Same as {@link #findByIp(String)}, but counts only the calls made within [from, to). Precision is one minute,
+     * i.e. the range is widened to whole minutes.
+     */
+    Maybe<CallsOfUser> findByIp(String ip, Instant from, Instant to);
+
     Single<Boolean> deleteByIp(String ip);
+
+    /**
+     * Rolls up fine-grained time buckets that can't change anymore into coarse-grained ones. Idempotent, may be called
+     * by multiple proxy instances concurrently.
+     */
+    Completable rollUp();
+
+    /**
+     * Migrates tracked calls written by the previous versions of the proxy to the current storage layout. Idempotent,
+     * may be called by multiple proxy instances concurrently, and concurrently with writes.
+     */
+    Completable migrate();
 }
@@ -1,45 +1,129 @@
 package com.dburyak.exercise.jsonrpc.repo;
 
+import com.dburyak.exercise.jsonrpc.Config.CallTrackingBuckets;
+import com.dburyak.exercise.jsonrpc.Config.CallTrackingMethodIds;
 import com.dburyak.exercise.jsonrpc.entity.CallsOfUser;
 import com.dburyak.exercise.jsonrpc.entity.CallsOfUser.CallStats;
+import com.dburyak.exercise.jsonrpc.entity.CallsOfUserPage;
+import com.dburyak.exercise.jsonrpc.entity.CallsOfUsersPage;
 import com.dburyak.exercise.jsonrpc.entity.TrackedCall;
 import com.dburyak.exercise.jsonrpc.entity.TrackedCall.Change;
+import com.dburyak.exercise.jsonrpc.jfr.JfrEvents;
+import com.dburyak.exercise.jsonrpc.redis.RedisScript;
 import io.reactivex.rxjava3.core.Completable;
 import io.reactivex.rxjava3.core.Maybe;
 import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.core.Single;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
 import io.vertx.rxjava3.redis.client.RedisConnection;
-import lombok.RequiredArgsConstructor;
-import lombok.Value;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.LongSupplier;
 import java.util.stream.Stream;
 
 import static io.vertx.redis.client.Command.DEL;
+import static io.vertx.redis.client.Command.EXPIRE;
+import static io.vertx.redis.client.Command.GET;
+import static io.vertx.redis.client.Command.HGETALL;
 import static io.vertx.redis.client.Command.HINCRBY;
+import static io.vertx.redis.client.Command.HKEYS;
 import static io.vertx.redis.client.Command.HMGET;
 import static io.vertx.redis.client.Command.HSCAN;
+import static io.vertx.redis.client.Command.HSET;
+import static io.vertx.redis.client.Command.MGET;
+import static io.vertx.redis.client.Command.SADD;
+import static io.vertx.redis.client.Command.SCAN;
+import static io.vertx.redis.client.Command.SET;
+import static io.vertx.redis.client.Command.SSCAN;
 import static io.vertx.redis.client.Request.cmd;
-import static java.util.Map.entry;
 import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.summingLong;
+import static java.util.stream.Collectors.toCollection;
 import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
 
-@RequiredArgsConstructor
+/**
+ * Tracked calls are kept in redis hashes by IP with a field per method and status. There's an all-time hash per IP,
+ * and, if enabled, time-bucketed hashes per IP:
+ * <ul>
+ *     <li>minute buckets are incremented by the same pipelined batch as the all-time hash</li>
+ *     <li>hour and day buckets are produced by the rollup (see {@link #rollUp()}), which sums up the finer buckets of
+ *     the period and overwrites the coarse one with the sums, so it's safe to repeat it</li>
+ * </ul>
+ * Rollup progress is tracked with a watermark per granularity (start of the next bucket to roll up), IPs that have
+ * calls within a bucket are tracked with a set per bucket. All the bucket keys expire after the retention of their
+ * granularity. Calls are bucketed by the time they are flushed to redis.
+ * <p>
+ * Fields refer to methods by ids of the {@link MethodDictionary}: field is the integer {@code methodId * 3 + status}
+ * where status is 0, 1, 2 for successful calls, failed calls and units. Such fields are a few bytes long and redis
+ * keeps them as integers in listpack-encoded hashes. Methods that didn't get ids (the dictionary is full), and all the
+ * methods if method ids are disabled, are stored in "method:status" fields, which is also the layout of the previous
+ * versions. Reads accept both layouts, so hashes may be migrated gradually (see {@link #migrate()}).
+ */
 public class TrackedCallRepositoryRedisImpl implements TrackedCallRepository {
     public static final String DELIMITER = ":";
     public static final String SUCCESS = "s";
     public static final String FAILURE = "f";
+    public static final String UNITS = "u";
     private static final String PREFIX = "trck" + DELIMITER;
-    private static final String SUCCESS_SUFFIX = DELIMITER + SUCCESS;
+    private static final String BUCKET_PREFIX = "trck-";
+    private static final String IPS_PREFIX = "trck-ips-";
+    private static final String ROLLUP_WATERMARK_PREFIX = "trck-rollup" + DELIMITER;
+    private static final String ROLLUP_LOCK_KEY = "trck-rollup-lock";
+    // rollup is idempotent, the lock just saves redis from the duplicate work of other proxy instances
+    private static final Duration ROLLUP_LOCK_TTL = Duration.ofSeconds(50);
+    private static final int ROLLUP_IPS_CHUNK = 100;
+    private static final int EXPORT_CHUNK = 100;
+    private static final int EXPORT_PARALLELISM = 4;
+    private static final String[] STATUSES = {SUCCESS, FAILURE, UNITS};
+    private static final String MIGRATED_KEY = "trck-method-ids-migrated";
+    private static final int MIGRATION_CHUNK = 100;
+    private static final String JFR_COMPONENT = "call-tracking";
     private final RedisConnection redis;
+    private final CallTrackingBuckets buckets; // null if time buckets are disabled
+    // reads always resolve method ids, "methodIdsEnabled" is only about writing them
+    private final MethodDictionary dictionary;
+    private final boolean methodIdsEnabled;
+    private final RedisScript migrationScript;
+    private final LongSupplier clockMs;
+
+    public TrackedCallRepositoryRedisImpl(RedisConnection redis, CallTrackingBuckets buckets,
+            CallTrackingMethodIds methodIds, MethodDictionary dictionary, RedisScript migrationScript) {
+        this(redis, buckets, methodIds, dictionary, migrationScript, System::currentTimeMillis);
+    }
+
+    TrackedCallRepositoryRedisImpl(RedisConnection redis, CallTrackingBuckets buckets,
+            CallTrackingMethodIds methodIds, MethodDictionary dictionary, RedisScript migrationScript,
+            LongSupplier clockMs) {
+        this.redis = redis;
+        this.buckets = buckets != null && buckets.isEnabled() ? buckets : null;
+        this.dictionary = dictionary;
+        this.methodIdsEnabled = methodIds.isEnabled();
+        this.migrationScript = migrationScript;
+        this.clockMs = clockMs;
+    }
 
     @Override
     public Completable increment(Collection<Change> calls) {
+        var methods = calls.stream().map(Change::getMethod).collect(toSet());
+        return writeIds(methods).flatMapCompletable(methodIds -> increment(calls, methodIds));
+    }
+
+    private Completable increment(Collection<Change> calls, Map<String, Integer> methodIds) {
+        var now = nowSec();
+        var minute = TimeBucket.MINUTE.start(now);
+        var ipsOfHourKey = ipsKey(TimeBucket.HOUR, TimeBucket.HOUR.start(now));
         var byIp = calls.stream().collect(groupingBy(Change::getIp));
         var reqs = byIp.entrySet().stream().flatMap(ipEntry -> {
             var ip = ipEntry.getKey();
@@ -47,71 +131,340 @@ public class TrackedCallRepositoryRedisImpl implements TrackedCallRepository {
                     .collect(groupingBy(Change::getMethod, summingLong(Change::getSuccessfulCalls)));
             var methodFailureInc = ipEntry.getValue().stream()
                     .collect(groupingBy(Change::getMethod, summingLong(Change::getFailedCalls)));
-            var successIncReqs = methodSuccessInc.entrySet().stream()
-                    .filter(e -> e.getValue() > 0) // no need to increment by 0
-                    .map(e ->
-                            cmd(HINCRBY).arg(redisKey(ip))
-                                    .arg(redisField(e.getKey(), SUCCESS))
-                                    .arg(e.getValue()));
-            var failureIncReqs = methodFailureInc.entrySet().stream()
-                    .filter(e -> e.getValue() > 0) // no need to increment by 0
-                    .map(e ->
-                            cmd(HINCRBY).arg(redisKey(ip))
-                                    .arg(redisField(e.getKey(), FAILURE))
-                                    .arg(e.getValue()));
-            return Stream.concat(successIncReqs, failureIncReqs);
-        }).toList();
-        return redis.rxBatch(reqs)
-                .ignoreElement();
+            var methodUnitsInc = ipEntry.getValue().stream()
+                    .collect(groupingBy(Change::getMethod, summingLong(Change::getUnits)));
+            var keys = buckets != null
+                    ? List.of(redisKey(ip), bucketKey(TimeBucket.MINUTE, minute, ip))
+                    : List.of(redisKey(ip));
+            var incReqs = keys.stream().flatMap(key -> Stream.of(
+                    incReqs(key, methodSuccessInc, 0, methodIds),
+                    incReqs(key, methodFailureInc, 1, methodIds),
+                    incReqs(key, methodUnitsInc, 2, methodIds)
+            ).flatMap(s -> s));
+            if (buckets == null) {
+                return incReqs;
+            }
+            var bucketReqs = Stream.of(
+                    cmd(EXPIRE).arg(bucketKey(TimeBucket.MINUTE, minute, ip)).arg(retentionSec(TimeBucket.MINUTE)),
+                    cmd(SADD).arg(ipsOfHourKey).arg(ip));
+            return Stream.concat(incReqs, bucketReqs);
+        }).collect(toCollection(ArrayList::new));
+        if (buckets != null && !byIp.isEmpty()) {
+            // IPs of the hour are needed only until the hour is rolled up from the minute buckets
+            reqs.add(cmd(EXPIRE).arg(ipsOfHourKey).arg(retentionSec(TimeBucket.MINUTE)));
+        }
+        return batch("increment", reqs).ignoreElement();
+    }
+
+    private Stream<Request> incReqs(String key, Map<String, Long> incByMethod, int statusIdx,
+            Map<String, Integer> methodIds) {
+        return incByMethod.entrySet().stream()
+                .filter(e -> e.getValue() > 0) // no need to increment by 0
+                .map(e ->
+                        cmd(HINCRBY).arg(key)
+                                .arg(redisField(e.getKey(), statusIdx, methodIds))
+                                .arg(e.getValue()));
+    }
+
+    /**
+     * @return ids of the methods to write counters with, empty if method ids are disabled
+     */
+    private Single<Map<String, Integer>> writeIds(Collection<String> methods) {
+        return methodIdsEnabled ? dictionary.assignIds(methods) : Single.just(Map.of());
     }
 
     @Override
     public Maybe<TrackedCall> findByIpAndMethod(String ip, String method) {
-        var successField = redisField(method, SUCCESS);
-        var failureField = redisField(method, FAILURE);
-        var req = cmd(HMGET).arg(redisKey(ip))
-                .arg(successField)
-                .arg(failureField);
-        return redis.rxSend(req).flatMap(resp -> {
-            var successfulCallsResp = resp.get(0);
-            var failedCallsResp = resp.get(1);
-            if (successfulCallsResp == null && failedCallsResp == null) {
-                return Maybe.empty();
-            }
-            var successfulCalls = (successfulCallsResp != null) ? successfulCallsResp.toLong() : 0;
-            var failedCalls = (failedCallsResp != null) ? failedCallsResp.toLong() : 0;
-            return Maybe.just(new TrackedCall(ip, method, successfulCalls, failedCalls));
-        });
+        return findByIps(List.of(ip), List.of(method))
+                .flatMapMaybe(calls -> calls.isEmpty() ? Maybe.empty() : callOfMethod(calls.get(0), method));
+    }
+
+    @Override
+    public Maybe<TrackedCall> findByIpAndMethod(String ip, String method, Instant from, Instant to) {
+        return findByIp(ip, from, to).flatMap(calls -> callOfMethod(calls, method));
+    }
+
+    private static Maybe<TrackedCall> callOfMethod(CallsOfUser calls, String method) {
+        var stats = calls.getMethods().get(method);
+        return stats != null
+                ? Maybe.just(new TrackedCall(calls.getIp(), method, stats.getSuccessfulCalls(), stats.getFailedCalls(),
+                stats.getUnits()))
+                : Maybe.empty();
     }
 
     @Override
     public Maybe<CallsOfUser> findByIp(String ip) {
-        return hscan(redisKey(ip), 0L).toList().flatMapMaybe(batches -> {
-            var callStatsMap = batches.stream().flatMap(r -> r.getValues().stream())
-                    .map(e -> {
-                        var field = e.getKey();
-                        var method = field.substring(0, field.length() - SUCCESS_SUFFIX.length());
-                        var isSuccess = field.endsWith(SUCCESS_SUFFIX);
-                        var count = e.getValue();
-                        // wish there were tuples in Java, it's late to add vavr at this point
-                        return entry(method, isSuccess ? entry(SUCCESS, count) : entry(FAILURE, count));
-                    })
-                    .collect(groupingBy(Entry::getKey)) // by method
-                    .entrySet().stream().map(e -> {
-                        var method = e.getKey();
-                        var successfulCalls = e.getValue().stream()
-                                .filter(t -> SUCCESS.equals(t.getValue().getKey()))
-                                .findFirst()
-                                .map(t -> t.getValue().getValue()).orElse(0L);
-                        var failedCalls = e.getValue().stream()
-                                .filter(t -> FAILURE.equals(t.getValue().getKey()))
-                                .findFirst()
-                                .map(t -> t.getValue().getValue()).orElse(0L);
-                        return new TrackedCall(ip, method, successfulCalls, failedCalls);
+        return findByIps(List.of(ip), null)
+                .flatMapMaybe(calls -> calls.isEmpty() ? Maybe.empty() : Maybe.just(calls.get(0)));
+    }
+
+    /**
+     * All the users are read with a single pipelined batch: HGETALL per user, or HMGET of the counters of the given
+     * methods per user.
+     */
+    @Override
+    public Single<List<CallsOfUser>> findByIps(List<String> ips, List<String> methods) {
+        if (ips.isEmpty()) {
+            return Single.just(List.of());
+        }
+        if (methods == null || methods.isEmpty()) {
+            return findAllByKeys(ips.stream().map(this::redisKey).toList());
+        }
+        return dictionary.ids(methods).flatMap(methodIds -> {
+            var fieldsByMethod = methods.stream().map(method -> readFields(method, methodIds)).toList();
+            var reqs = ips.stream()
+                    .map(ip -> {
+                        var req = cmd(HMGET).arg(redisKey(ip));
+                        fieldsByMethod.forEach(fields -> fields.forEach(req::arg));
+                        return req;
                     })
-                    .collect(toMap(TrackedCall::getMethod,
-                            c -> new CallStats(c.getSuccessfulCalls(), c.getFailedCalls())));
-            return callStatsMap.isEmpty() ? Maybe.empty() : Maybe.just(new CallsOfUser(ip, callStatsMap));
+                    .toList();
+            return batch("find-by-ips", reqs).map(resps -> {
+                var calls = new ArrayList<CallsOfUser>(ips.size());
+                for (var i = 0; i < ips.size(); i++) {
+                    var values = resps.get(i);
+                    var callStatsMap = new HashMap<String, CallStats>();
+                    var offset = 0;
+                    for (var j = 0; j < methods.size(); j++) {
+                        var numFields = fieldsByMethod.get(j).size();
+                        var counters = sumCounters(values, offset, numFields);
+                        offset += numFields;
+                        if (counters != null) {
+                            callStatsMap.put(methods.get(j), new CallStats(counters[0], counters[1], counters[2]));
+                        }
+                    }
+                    if (!callStatsMap.isEmpty()) {
+                        calls.add(new CallsOfUser(ips.get(i), callStatsMap));
+                    }
+                }
+                return calls;
+            });
+        });
+    }
+
+    /**
+     * Sums up successful/failed/units values of "numFields" fields read by {@link #readFields}.
+     *
+     * @return successful/failed/units counters, or null if none of the fields exist
+     */
+    private static long[] sumCounters(Response values, int offset, int numFields) {
+        long[] counters = null;
+        for (var k = 0; k < numFields; k++) {
+            var value = values.get(offset + k);
+            if (value != null) {
+                if (counters == null) {
+                    counters = new long[STATUSES.length];
+                }
+                counters[k % STATUSES.length] += value.toLong();
+            }
+        }
+        return counters;
+    }
+
+    /**
+     * Counters of a method may be split between HSCAN pages, so each page reads all the counters of its methods with
+     * HMGET (in a single batch), and a method is included only into the page that contains its first existing counter
+     * (in the order of {@link #readFields}). This way every method appears in exactly one page with consistent
+     * counters.
+     */
+    @Override
+    public Single<CallsOfUserPage> findPageByIp(String ip, String cursor, int count) {
+        var key = redisKey(ip);
+        var req = cmd(HSCAN).arg(key).arg(cursor).arg("COUNT").arg(count);
+        return redis.rxSend(req).toSingle().flatMap(resp -> {
+            var nextCursor = resp.get(0).toString();
+            var pageFields = resp.get(1).getKeys();
+            var next = FIRST_PAGE.equals(nextCursor) ? null : nextCursor;
+            var pageMethodIds = new HashSet<Integer>();
+            for (var field : pageFields) {
+                var idField = idField(field);
+                if (idField >= 0) {
+                    pageMethodIds.add((int) (idField / STATUSES.length));
+                }
+            }
+            return dictionary.names(pageMethodIds).flatMap(names -> {
+                var pageMethods = new LinkedHashSet<String>();
+                for (var field : pageFields) {
+                    var idField = idField(field);
+                    var method = idField >= 0
+                            ? names.get((int) (idField / STATUSES.length))
+                            : methodOfLegacyField(field);
+                    if (method != null) {
+                        pageMethods.add(method);
+                    }
+                }
+                if (pageMethods.isEmpty()) {
+                    return Single.just(new CallsOfUserPage(ip, Map.of(), next));
+                }
+                return dictionary.ids(pageMethods)
+                        .flatMap(methodIds -> readPage(ip, List.copyOf(pageMethods), methodIds, pageFields, next));
+            });
+        });
+    }
+
+    private Single<CallsOfUserPage> readPage(String ip, List<String> methods, Map<String, Integer> methodIds,
+            Set<String> pageFields, String next) {
+        var key = redisKey(ip);
+        var fieldsByMethod = methods.stream().map(method -> readFields(method, methodIds)).toList();
+        var reqs = fieldsByMethod.stream()
+                .map(fields -> {
+                    var req = cmd(HMGET).arg(key);
+                    fields.forEach(req::arg);
+                    return req;
+                })
+                .toList();
+        return batch("read-page", reqs).map(countersResps -> {
+            var callStatsMap = new HashMap<String, CallStats>();
+            for (var i = 0; i < methods.size(); i++) {
+                var fields = fieldsByMethod.get(i);
+                var values = countersResps.get(i);
+                String firstExisting = null;
+                for (var k = 0; k < fields.size() && firstExisting == null; k++) {
+                    if (values.get(k) != null) {
+                        firstExisting = fields.get(k);
+                    }
+                }
+                // counters of the method are included into the page that contains the first one of them
+                if (firstExisting != null && pageFields.contains(firstExisting)) {
+                    var counters = sumCounters(values, 0, fields.size());
+                    callStatsMap.put(methods.get(i), new CallStats(counters[0], counters[1], counters[2]));
+                }
+            }
+            return new CallsOfUserPage(ip, callStatsMap, next);
+        });
+    }
+
+    /**
+     * Keys of a SCAN page are read with HGETALL in chunks, each chunk is a single pipelined batch, and only a few
+     * chunks are in flight at a time. So a page costs a bounded amount of memory and doesn't flood redis however many
+     * keys match.
+     */
+    @Override
+    public Single<CallsOfUsersPage> findAllPage(String cursor, int count) {
+        var req = cmd(SCAN).arg(cursor).arg("MATCH").arg(PREFIX + "*").arg("COUNT").arg(count);
+        return redis.rxSend(req).toSingle().flatMap(resp -> {
+            var nextCursor = resp.get(0).toString();
+            var keysResp = resp.get(1);
+            var chunks = new ArrayList<List<String>>();
+            var chunk = new ArrayList<String>(EXPORT_CHUNK);
+            for (var i = 0; i < keysResp.size(); i++) {
+                chunk.add(keysResp.get(i).toString());
+                if (chunk.size() == EXPORT_CHUNK || i == keysResp.size() - 1) {
+                    chunks.add(chunk);
+                    chunk = new ArrayList<>(EXPORT_CHUNK);
+                }
+            }
+            var next = FIRST_PAGE.equals(nextCursor) ? null : nextCursor;
+            return Observable.fromIterable(chunks)
+                    .flatMap(keys -> findAllByKeys(keys).toObservable(), EXPORT_PARALLELISM)
+                    .concatMapIterable(calls -> calls)
+                    .toList()
+                    .map(calls -> new CallsOfUsersPage(calls, next));
+        });
+    }
+
+    /**
+     * Reads all-time calls of the users with the given keys in a single pipelined batch, users without calls are
+     * skipped.
+     */
+    private Single<List<CallsOfUser>> findAllByKeys(List<String> keys) {
+        var reqs = keys.stream().map(key -> cmd(HGETALL).arg(key)).toList();
+        return batch("find-all", reqs).flatMap(resps -> {
+            var countersOfKeys = new ArrayList<Counters>(keys.size());
+            for (var resp : resps) {
+                var counters = new Counters();
+                if (resp != null) {
+                    counters.add(resp);
+                }
+                countersOfKeys.add(counters);
+            }
+            return resolve(countersOfKeys);
+        }).map(countersOfKeys -> {
+            var calls = new ArrayList<CallsOfUser>(keys.size());
+            for (var i = 0; i < keys.size(); i++) {
+                var countersByMethod = countersOfKeys.get(i);
+                if (!countersByMethod.isEmpty()) {
+                    var ip = keys.get(i).substring(PREFIX.length());
+                    calls.add(new CallsOfUser(ip, toCallStats(countersByMethod)));
+                }
+            }
+            return calls;
+        });
+    }
+
+    @Override
+    public Maybe<CallsOfUser> findByIp(String ip, Instant from, Instant to) {
+        if (buckets == null) {
+            return Maybe.error(new IllegalStateException("time buckets of tracked calls are disabled"));
+        }
+        return bucketKeys(ip, from, to).flatMapMaybe(keys -> {
+            if (keys.isEmpty()) {
+                return Maybe.empty();
+            }
+            var reqs = keys.stream().map(key -> cmd(HGETALL).arg(key)).toList();
+            return batch("find-by-ip-in-range", reqs).flatMap(resps -> {
+                var counters = new Counters();
+                for (var resp : resps) {
+                    if (resp != null) {
+                        counters.add(resp);
+                    }
+                }
+                return resolve(List.of(counters));
+            }).flatMapMaybe(countersOfKeys -> {
+                var countersByMethod = countersOfKeys.get(0);
+                if (countersByMethod.isEmpty()) {
+                    return Maybe.empty();
+                }
+                return Maybe.just(new CallsOfUser(ip, toCallStats(countersByMethod)));
+            });
+        });
+    }
+
+    /**
+     * Covers [from, to) with as few buckets as possible: day buckets for whole days that are rolled up already, hour
+     * buckets for whole hours that are rolled up already, and minute buckets for the rest. The range is limited by the
+     * day retention, so the number of buckets is always small.
+     */
+    private Single<List<String>> bucketKeys(String ip, Instant from, Instant to) {
+        var now = nowSec();
+        var fromSec = TimeBucket.MINUTE.start(Math.max(from.getEpochSecond(), now - retentionSec(TimeBucket.DAY)));
+        // end is exclusive, so a partially covered minute is included by rounding up
+        var toEpochSec = to.getEpochSecond() + (to.getNano() > 0 ? 1 : 0);
+        var toSec = TimeBucket.MINUTE.start(Math.min(toEpochSec, now) + TimeBucket.MINUTE.seconds - 1);
+        return watermarks(now).map(watermarks -> {
+            var hourWatermark = watermarks[0];
+            var dayWatermark = watermarks[1];
+            var keys = new ArrayList<String>();
+            var t = fromSec;
+            while (t < toSec) {
+                TimeBucket bucket;
+                if (fitsInto(TimeBucket.DAY, t, toSec, dayWatermark)) {
+                    bucket = TimeBucket.DAY;
+                } else if (fitsInto(TimeBucket.HOUR, t, toSec, hourWatermark)) {
+                    bucket = TimeBucket.HOUR;
+                } else {
+                    bucket = TimeBucket.MINUTE;
+                }
+                keys.add(bucketKey(bucket, t, ip));
+                t += bucket.seconds;
+            }
+            return keys;
+        });
+    }
+
+    private static boolean fitsInto(TimeBucket bucket, long start, long end, long watermark) {
+        return bucket.start(start) == start && start + bucket.seconds <= end && start + bucket.seconds <= watermark;
+    }
+
+    /**
+     * @return hour and day rollup watermarks, absent ones (the rollup hasn't run yet) are the start of the current
+     *         bucket
+     */
+    private Single<long[]> watermarks(long now) {
+        var req = cmd(MGET).arg(watermarkKey(TimeBucket.HOUR)).arg(watermarkKey(TimeBucket.DAY));
+        return redis.rxSend(req).toSingle().map(resp -> new long[]{
+                resp.get(0) != null ? resp.get(0).toLong() : TimeBucket.HOUR.start(now),
+                resp.get(1) != null ? resp.get(1).toLong() : TimeBucket.DAY.start(now)
         });
     }
 
@@ -122,31 +475,402 @@ public class TrackedCallRepositoryRedisImpl implements TrackedCallRepository {
                 .map(resp -> resp.toInteger() > 0);
     }
 
-    private Observable<HScanResult> hscan(String key, long cursor) {
-        var req = cmd(HSCAN).arg(key).arg(cursor);
+    @Override
+    public Completable rollUp() {
+        if (buckets == null) {
+            return Completable.complete();
+        }
+        var lockReq = cmd(SET).arg(ROLLUP_LOCK_KEY).arg(1).arg("NX").arg("PX").arg(ROLLUP_LOCK_TTL.toMillis());
+        // empty response means some other proxy instance is rolling up right now
+        return redis.rxSend(lockReq)
+                .flatMapCompletable(ignr -> {
+                    var now = nowSec();
+                    return rollUpPending(TimeBucket.HOUR, now)
+                            .andThen(Completable.defer(() -> rollUpPending(TimeBucket.DAY, now)));
+                });
+    }
+
+    /**
+     * Rolls up all the buckets of the given granularity that are complete, one by one, moving the watermark.
+     */
+    private Completable rollUpPending(TimeBucket coarse, long now) {
+        var req = cmd(MGET).arg(watermarkKey(TimeBucket.HOUR)).arg(watermarkKey(TimeBucket.DAY));
+        return redis.rxSend(req).toSingle().flatMapCompletable(resp -> {
+            var watermarkResp = resp.get(coarse == TimeBucket.HOUR ? 0 : 1);
+            if (watermarkResp == null) {
+                // first run ever, there's no data in the fine buckets before this point
+                var initReq = cmd(SET).arg(watermarkKey(coarse)).arg(coarse.start(now)).arg("NX");
+                return redis.rxSend(initReq).ignoreElement();
+            }
+            var watermark = watermarkResp.toLong();
+            // hours are complete after the late flushes had their time to land, days - once all their hours are rolled
+            var completeUntil = coarse == TimeBucket.HOUR
+                    ? now - buckets.getRollupDelay().toSeconds()
+                    : (resp.get(0) != null ? resp.get(0).toLong() : 0);
+            if (watermark + coarse.seconds > completeUntil) {
+                return Completable.complete();
+            }
+            var moveWatermarkReq = cmd(SET).arg(watermarkKey(coarse)).arg(watermark + coarse.seconds);
+            return rollUpBucket(coarse, watermark)
+                    .andThen(redis.rxSend(moveWatermarkReq).ignoreElement())
+                    .andThen(Completable.defer(() -> rollUpPending(coarse, now)));
+        });
+    }
+
+    private Completable rollUpBucket(TimeBucket coarse, long start) {
+        return sscan(ipsKey(coarse, start), "0")
+                .concatMapCompletable(ips -> rollUpIps(coarse, start, ips));
+    }
+
+    private Completable rollUpIps(TimeBucket coarse, long start, List<String> ips) {
+        var fine = coarse.finer();
+        var fineBucketsPerIp = (int) (coarse.seconds / fine.seconds);
+        var reads = new ArrayList<Request>(ips.size() * fineBucketsPerIp);
+        for (var ip : ips) {
+            for (var t = start; t < start + coarse.seconds; t += fine.seconds) {
+                reads.add(cmd(HGETALL).arg(bucketKey(fine, t, ip)));
+            }
+        }
+        return batch("rollup-read", reads).flatMap(resps -> {
+            var countersOfIps = new ArrayList<Counters>(ips.size());
+            for (var i = 0; i < ips.size(); i++) {
+                var counters = new Counters();
+                for (var j = 0; j < fineBucketsPerIp; j++) {
+                    var resp = resps.get(i * fineBucketsPerIp + j);
+                    if (resp != null) {
+                        counters.add(resp);
+                    }
+                }
+                countersOfIps.add(counters);
+            }
+            return resolve(countersOfIps);
+        }).flatMapCompletable(countersOfIps -> {
+            var methods = new HashSet<String>();
+            countersOfIps.forEach(countersByMethod -> methods.addAll(countersByMethod.keySet()));
+            return writeIds(methods).flatMapCompletable(methodIds -> {
+                var writes = rollUpWrites(coarse, start, ips, countersOfIps, methodIds);
+                return writes.isEmpty() ? Completable.complete() : batch("rollup-write", writes).ignoreElement();
+            });
+        });
+    }
+
+    private List<Request> rollUpWrites(TimeBucket coarse, long start, List<String> ips,
+            List<Map<String, long[]>> countersOfIps, Map<String, Integer> methodIds) {
+        var writes = new ArrayList<Request>();
+        for (var i = 0; i < ips.size(); i++) {
+            var countersByMethod = countersOfIps.get(i);
+            if (countersByMethod.isEmpty()) {
+                // fine buckets may have expired already if the rollup was behind for too long
+                continue;
+            }
+            var ip = ips.get(i);
+            var key = bucketKey(coarse, start, ip);
+            var hset = cmd(HSET).arg(key);
+            countersByMethod.forEach((method, counters) -> {
+                for (var statusIdx = 0; statusIdx < STATUSES.length; statusIdx++) {
+                    hset.arg(redisField(method, statusIdx, methodIds)).arg(counters[statusIdx]);
+                }
+            });
+            // the bucket may have been rolled up before with the other layout, its fields must not stay
+            writes.add(cmd(DEL).arg(key));
+            writes.add(hset);
+            writes.add(cmd(EXPIRE).arg(key).arg(retentionSec(coarse)));
+            if (coarse.coarser() != null) {
+                var ipsKey = ipsKey(coarse.coarser(), coarse.coarser().start(start));
+                writes.add(cmd(SADD).arg(ipsKey).arg(ip));
+                writes.add(cmd(EXPIRE).arg(ipsKey).arg(retentionSec(coarse)));
+            }
+        }
+        return writes;
+    }
+
+    private Observable<List<String>> sscan(String key, String cursor) {
+        var req = cmd(SSCAN).arg(key).arg(cursor).arg("COUNT").arg(ROLLUP_IPS_CHUNK);
         return redis.rxSend(req).flatMapObservable(resp -> {
-            var nextCursor = resp.get(0).toLong();
-            var entries = resp.get(1);
-            var values = new ArrayList<Map.Entry<String, Long>>(entries.size() / 2);
-            for (var method : entries.getKeys()) {
-                values.add(entry(method, entries.get(method).toLong()));
-            }
-            var scanResult = Observable.just(new HScanResult(nextCursor, values));
-            return (nextCursor == 0L) ? scanResult : hscan(key, nextCursor).startWith(scanResult);
+            var nextCursor = resp.get(0).toString();
+            var membersResp = resp.get(1);
+            var members = new ArrayList<String>(membersResp.size());
+            for (var i = 0; i < membersResp.size(); i++) {
+                members.add(membersResp.get(i).toString());
+            }
+            var scanResult = Observable.just((List<String>) members);
+            return "0".equals(nextCursor) ? scanResult : sscan(key, nextCursor).startWith(scanResult);
         });
     }
 
-    @Value
-    private static class HScanResult {
-        long cursor;
-        List<Map.Entry<String, Long>> values;
+    /**
+     * Moves counters of "method:status" fields of all-time, day and hour hashes to method id fields. Minute buckets
+     * are not migrated, they expire soon anyway. Once finished, the migration is marked as done and is not repeated by
+     * the subsequent calls. Counters written in the legacy layout by proxy instances of the previous version during a
+     * rolling update are still read correctly, the migration may be repeated to move them after deleting
+     * {@value #MIGRATED_KEY} key.
+     */
+    @Override
+    public Completable migrate() {
+        if (!methodIdsEnabled) {
+            return Completable.complete();
+        }
+        return redis.rxSend(cmd(GET).arg(MIGRATED_KEY))
+                .isEmpty()
+                .flatMapCompletable(notMigrated -> {
+                    if (!notMigrated) {
+                        return Completable.complete();
+                    }
+                    return migrateKeys(PREFIX + "*", FIRST_PAGE)
+                            .andThen(Completable.defer(() -> migrateKeys(
+                                    BUCKET_PREFIX + TimeBucket.DAY.id + DELIMITER + "*", FIRST_PAGE)))
+                            .andThen(Completable.defer(() -> migrateKeys(
+                                    BUCKET_PREFIX + TimeBucket.HOUR.id + DELIMITER + "*", FIRST_PAGE)))
+                            .andThen(redis.rxSend(cmd(SET).arg(MIGRATED_KEY).arg(1)).ignoreElement());
+                });
+    }
+
+    private Completable migrateKeys(String pattern, String cursor) {
+        var req = cmd(SCAN).arg(cursor).arg("MATCH").arg(pattern).arg("COUNT").arg(MIGRATION_CHUNK);
+        return redis.rxSend(req).toSingle().flatMapCompletable(resp -> {
+            var nextCursor = resp.get(0).toString();
+            var keysResp = resp.get(1);
+            var keys = new ArrayList<String>(keysResp.size());
+            for (var i = 0; i < keysResp.size(); i++) {
+                keys.add(keysResp.get(i).toString());
+            }
+            var migratePage = keys.isEmpty() ? Completable.complete() : migrateHashes(keys);
+            return FIRST_PAGE.equals(nextCursor)
+                    ? migratePage
+                    : migratePage.andThen(Completable.defer(() -> migrateKeys(pattern, nextCursor)));
+        });
+    }
+
+    private Completable migrateHashes(List<String> keys) {
+        var reqs = keys.stream().map(key -> cmd(HKEYS).arg(key)).toList();
+        return batch("migrate", reqs).flatMapCompletable(resps -> {
+            var legacyFieldsOfKeys = new ArrayList<List<String>>(keys.size());
+            var methods = new HashSet<String>();
+            for (var resp : resps) {
+                var legacyFields = new ArrayList<String>();
+                for (var i = 0; resp != null && i < resp.size(); i++) {
+                    var field = resp.get(i).toString();
+                    var method = methodOfLegacyField(field);
+                    if (method != null) {
+                        legacyFields.add(field);
+                        methods.add(method);
+                    }
+                }
+                legacyFieldsOfKeys.add(legacyFields);
+            }
+            if (methods.isEmpty()) {
+                return Completable.complete();
+            }
+            return dictionary.assignIds(methods).flatMapCompletable(methodIds -> {
+                var migrations = new ArrayList<Completable>();
+                for (var i = 0; i < keys.size(); i++) {
+                    var args = new ArrayList<String>();
+                    for (var field : legacyFieldsOfKeys.get(i)) {
+                        var statusIdx = field.lastIndexOf(DELIMITER);
+                        var id = methodIds.get(field.substring(0, statusIdx));
+                        var status = List.of(STATUSES).indexOf(field.substring(statusIdx + DELIMITER.length()));
+                        if (id != null && status >= 0) {
+                            args.add(field);
+                            args.add(methodIdField(id, status));
+                        }
+                    }
+                    if (!args.isEmpty()) {
+                        migrations.add(migrationScript.rxEval(redis, List.of(keys.get(i)), args).ignoreElement());
+                    }
+                }
+                // scripts of the chunk are pipelined by the redis client
+                return Completable.merge(migrations);
+            });
+        });
+    }
+
+    /**
+     * Translates method ids of the counters to method names.
+     *
+     * @return successful/failed/units counters by method name, of each of the given counters
+     */
+    private Single<List<Map<String, long[]>>> resolve(List<Counters> countersList) {
+        var methodIds = new HashSet<Integer>();
+        countersList.forEach(counters -> methodIds.addAll(counters.byMethodId.keySet()));
+        if (methodIds.isEmpty()) {
+            return Single.just(countersList.stream().map(counters -> counters.byMethod).toList());
+        }
+        return dictionary.names(methodIds).map(names -> countersList.stream()
+                .map(counters -> {
+                    var countersByMethod = counters.byMethod;
+                    counters.byMethodId.forEach((id, idCounters) -> {
+                        var method = names.get(id);
+                        if (method != null) {
+                            var methodCounters = countersByMethod.computeIfAbsent(method,
+                                    ignr -> new long[STATUSES.length]);
+                            for (var i = 0; i < STATUSES.length; i++) {
+                                methodCounters[i] += idCounters[i];
+                            }
+                        }
+                    });
+                    return countersByMethod;
+                })
+                .toList());
+    }
+
+    /**
+     * Sends the commands in a single round trip, recorded as a JFR event if enabled.
+     */
+    private Single<List<Response>> batch(String operation, List<Request> reqs) {
+        return redis.rxBatch(reqs).compose(JfrEvents.redisBatch(JFR_COMPONENT, operation, reqs.size()));
+    }
+
+    private static Map<String, CallStats> toCallStats(Map<String, long[]> countersByMethod) {
+        return countersByMethod.entrySet().stream()
+                .collect(toMap(Entry::getKey, e -> new CallStats(e.getValue()[0], e.getValue()[1], e.getValue()[2])));
+    }
+
+    private long nowSec() {
+        return clockMs.getAsLong() / 1_000;
     }
 
     private String redisKey(String ip) {
         return PREFIX + ip;
     }
 
-    private String redisField(String method, String status) {
-        return method + DELIMITER + status;
+    /**
+     * @param statusIdx index of the status in {@link #STATUSES}
+     */
+    private static String redisField(String method, int statusIdx, Map<String, Integer> methodIds) {
+        var id = methodIds.get(method);
+        return id != null ? methodIdField(id, statusIdx) : method + DELIMITER + STATUSES[statusIdx];
+    }
+
+    private static String methodIdField(int methodId, int statusIdx) {
+        return Long.toString((long) methodId * STATUSES.length + statusIdx);
+    }
+
+    /**
+     * Fields that counters of the method may be stored in: successful/failed/units of the method id (if any), followed
+     * by successful/failed/units of the legacy layout.
+     */
+    private static List<String> readFields(String method, Map<String, Integer> methodIds) {
+        var fields = new ArrayList<String>(2 * STATUSES.length);
+        var id = methodIds.get(method);
+        for (var statusIdx = 0; statusIdx < STATUSES.length; statusIdx++) {
+            if (id != null) {
+                fields.add(methodIdField(id, statusIdx));
+            }
+        }
+        for (var status : STATUSES) {
+            fields.add(method + DELIMITER + status);
+        }
+        return fields;
+    }
+
+    /**
+     * @return value of the method id field, or -1 if it's not a method id field
+     */
+    private static long idField(String field) {
+        if (field.isEmpty() || field.length() > 18) {
+            return -1;
+        }
+        for (var i = 0; i < field.length(); i++) {
+            if (field.charAt(i) < '0' || field.charAt(i) > '9') {
+                return -1;
+            }
+        }
+        return Long.parseLong(field);
+    }
+
+    /**
+     * @return method of the "method:status" field, or null if it's not such a field
+     */
+    private static String methodOfLegacyField(String field) {
+        var statusIdx = field.lastIndexOf(DELIMITER);
+        return statusIdx > 0 ? field.substring(0, statusIdx) : null;
+    }
+
+    private static String bucketKey(TimeBucket bucket, long start, String ip) {
+        return BUCKET_PREFIX + bucket.id + DELIMITER + start + DELIMITER + ip;
+    }
+
+    private static String ipsKey(TimeBucket bucket, long start) {
+        return IPS_PREFIX + bucket.id + DELIMITER + start;
+    }
+
+    private static String watermarkKey(TimeBucket bucket) {
+        return ROLLUP_WATERMARK_PREFIX + bucket.id;
+    }
+
+    private long retentionSec(TimeBucket bucket) {
+        return switch (bucket) {
+            case MINUTE -> buckets.getMinuteRetention().toSeconds();
+            case HOUR -> buckets.getHourRetention().toSeconds();
+            case DAY -> buckets.getDayRetention().toSeconds();
+        };
+    }
+
+    /**
+     * Successful/failed/units counters of a user by method, read from hashes with fields of both layouts.
+     */
+    private static class Counters {
+        private final Map<String, long[]> byMethod = new HashMap<>();
+        private final Map<Integer, long[]> byMethodId = new HashMap<>();
+
+        private void add(Response hash) {
+            for (var field : hash.getKeys()) {
+                var idField = idField(field);
+                if (idField >= 0) {
+                    var counters = byMethodId.computeIfAbsent((int) (idField / STATUSES.length),
+                            ignr -> new long[STATUSES.length]);
+                    counters[(int) (idField % STATUSES.length)] += hash.get(field).toLong();
+                    continue;
+                }
+                var statusIdx = field.lastIndexOf(DELIMITER);
+                if (statusIdx < 0) {
+                    continue;
+                }
+                var counters = byMethod.computeIfAbsent(field.substring(0, statusIdx),
+                        ignr -> new long[STATUSES.length]);
+                var value = hash.get(field).toLong();
+                switch (field.substring(statusIdx + DELIMITER.length())) {
+                    case SUCCESS -> counters[0] += value;
+                    case FAILURE -> counters[1] += value;
+                    case UNITS -> counters[2] += value;
+                    default -> {
+                        // unknown field, ignore
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Granularity of time buckets, buckets are aligned to UTC.
+     */
+    private enum TimeBucket {
+        MINUTE("m", 60),
+        HOUR("h", 3_600),
+        DAY("d", 86_400);
+
+        private final String id;
+        private final long seconds;
+
+        TimeBucket(String id, long seconds) {
+            this.id = id;
+            this.seconds = seconds;
+        }
+
+        long start(long epochSec) {
+            return epochSec - Math.floorMod(epochSec, seconds);
+        }
+
+        TimeBucket finer() {
+            return this == DAY ? HOUR : MINUTE;
+        }
+
+        TimeBucket coarser() {
+            return switch (this) {
+                case MINUTE -> HOUR;
+                case HOUR -> DAY;
+                case DAY -> null;
+            };
+        }
     }
 }
@@ -0,0 +1,163 @@
+package com.dburyak.exercise.jsonrpc.tracking;
+
+import com.dburyak.exercise.jsonrpc.entity.TrackedCall;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Table of call counters aggregated in place by (IP, method). IPs and methods are interned into small int ids, and the
+ * counters are kept in parallel primitive arrays of an open-addressing hash table keyed by the pair of ids packed into
+ * a long. Counting a call of an IP and a method that were already seen since the last drain doesn't allocate anything.
+ * <p>
+ * Not thread-safe, meant to be owned by a single verticle.
+ */
+public class CallCountsTable {
+    private static final long EMPTY = -1L;
+    private static final int MIN_CAPACITY = 64;
+
+    private final Ids ips = new Ids();
+    private final Ids methods = new Ids();
+    private long[] keys;
+    private long[] successfulCalls;
+    private long[] failedCalls;
+    private long[] units;
+    private int mask;
+    private int size;
+    private long calls;
+
+    public CallCountsTable(int expectedEntries) {
+        allocate(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, expectedEntries) * 2 - 1) << 1));
+    }
+
+    public void increment(String ip, String method, boolean successful, int callUnits) {
+        var key = ((long) ips.idOf(ip) << 32) | methods.idOf(method);
+        var slot = slotOf(key);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            successfulCalls[slot] = 0;
+            failedCalls[slot] = 0;
+            units[slot] = 0;
+            size++;
+        }
+        if (successful) {
+            successfulCalls[slot]++;
+        } else {
+            failedCalls[slot]++;
+        }
+        units[slot] += callUnits;
+        calls++;
+        if (size * 2 > keys.length) {
+            resize();
+        }
+    }
+
+    /**
+     * @return number of distinct (IP, method) pairs counted since the last drain
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of calls counted since the last drain
+     */
+    public long calls() {
+        return calls;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Converts all the counters to changes and resets the table. Arrays of the table are reused, so the next period
+     * starts with the capacity that was needed for the previous one.
+     */
+    public List<TrackedCall.Change> drain() {
+        var changes = new ArrayList<TrackedCall.Change>(size);
+        for (var slot = 0; slot < keys.length; slot++) {
+            var key = keys[slot];
+            if (key != EMPTY) {
+                changes.add(new TrackedCall.Change(ips.valueOf((int) (key >>> 32)), methods.valueOf((int) key),
+                        successfulCalls[slot], failedCalls[slot], units[slot]));
+            }
+        }
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        calls = 0;
+        ips.clear();
+        methods.clear();
+        return changes;
+    }
+
+    private int slotOf(long key) {
+        var slot = mix(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        var oldKeys = keys;
+        var oldSuccessful = successfulCalls;
+        var oldFailed = failedCalls;
+        var oldUnits = units;
+        allocate(oldKeys.length * 2);
+        for (var i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                var slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                successfulCalls[slot] = oldSuccessful[i];
+                failedCalls[slot] = oldFailed[i];
+                units[slot] = oldUnits[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        successfulCalls = new long[capacity];
+        failedCalls = new long[capacity];
+        units = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int mix(long key) {
+        var h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Dictionary of strings seen since the last drain. Lookups of known strings don't allocate (hash code of a String
+     * is cached in the String itself).
+     */
+    private static class Ids {
+        private final HashMap<String, Integer> ids = new HashMap<>();
+        private final ArrayList<String> values = new ArrayList<>();
+
+        int idOf(String value) {
+            var id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            var newId = values.size();
+            ids.put(value, newId);
+            values.add(value);
+            return newId;
+        }
+
+        String valueOf(int id) {
+            return values.get(id);
+        }
+
+        void clear() {
+            ids.clear();
+            values.clear();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.dburyak.exercise.jsonrpc.tracking;
+
+import com.dburyak.exercise.jsonrpc.AsyncCloseable;
+import com.dburyak.exercise.jsonrpc.entity.TrackedCall;
+import com.dburyak.exercise.jsonrpc.jfr.JfrEvents;
+import com.dburyak.exercise.jsonrpc.repo.TrackedCallRepository;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import io.vertx.core.Context;
+import lombok.extern.log4j.Log4j2;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Node-wide aggregator of tracked calls with a single flusher. Calls are counted into stripes, one per event loop (see
+ * {@link Stripe}), so counting never contends. Periodically the flusher drains every stripe on its own event loop,
+ * merges the changes of all the stripes, and persists them with a single pipelined batch. This way the number of
+ * redis writes doesn't depend on the number of verticles.
+ * <p>
+ * Changes that failed to be persisted are kept and merged into the next flush. If the journal is enabled, every
+ * merged batch is journaled locally (off the event loops) before it's sent to redis, and acknowledged in the journal
+ * once redis confirms it, so the changes survive redis outages and restarts: pending changes of the journal are merged
+ * into the first flush after startup (see {@link CallTrackingJournal}).
+ * <p>
+ * Single instance is shared by all the verticles.
+ */
+@Log4j2
+public class CallTrackingAggregator implements AsyncCloseable {
+    private static final long NOT_JOURNALED = -1L;
+
+    private final TrackedCallRepository repo;
+    private final Duration flushInterval;
+    private final int maxStripeEntries;
+    // becomes null if the journal can't be recovered, its segments must not be overwritten then
+    private volatile CallTrackingJournal journal;
+    private final List<Stripe> stripes = new CopyOnWriteArrayList<>();
+    // changes drained from the stripes (on flush, overflow or close), to be persisted with the next flush
+    private final Queue<List<TrackedCall.Change>> handedOver = new ConcurrentLinkedQueue<>();
+    // accessed only by the flusher, flushes never overlap (but may run on different threads)
+    private volatile List<TrackedCall.Change> unpersisted = List.of();
+    private volatile Disposable flushLoop;
+
+    /**
+     * @param journal journal of not yet persisted changes, may be null if journaling is disabled
+     */
+    public CallTrackingAggregator(TrackedCallRepository repo, Duration flushInterval, int maxStripeEntries,
+            CallTrackingJournal journal) {
+        this.repo = repo;
+        this.flushInterval = flushInterval;
+        this.maxStripeEntries = maxStripeEntries;
+        this.journal = journal;
+    }
+
+    /**
+     * Creates a stripe for the event loop of the given context. Must be called on that event loop, the stripe must be
+     * used only on it.
+     */
+    public Stripe newStripe(Context context) {
+        var stripe = new Stripe(context);
+        stripes.add(stripe);
+        return stripe;
+    }
+
+    /**
+     * Recovers pending changes from the journal and starts periodic flushing.
+     */
+    public void start() {
+        // flushes never overlap, the next one is started only after the previous one is finished
+        flushLoop = recoverJournal()
+                .andThen(Observable.interval(flushInterval.toMillis(), flushInterval.toMillis(), MILLISECONDS))
+                .concatMapCompletable(ignr -> flush())
+                .subscribe();
+    }
+
+    @Override
+    public Completable closeAsync() {
+        if (flushLoop != null) {
+            flushLoop.dispose();
+        }
+        // stripes of the verticles are already closed at this point, so everything is in "handedOver"
+        var journal = this.journal;
+        var closeJournal = journal != null
+                ? Completable.fromAction(journal::close).subscribeOn(Schedulers.io())
+                : Completable.complete();
+        return flush().andThen(closeJournal);
+    }
+
+    Completable flush() {
+        return Observable.fromIterable(stripes)
+                .flatMapCompletable(Stripe::handOverOnItsEventLoop)
+                .andThen(Completable.defer(() -> {
+                    var merged = new HashMap<String, HashMap<String, long[]>>();
+                    merge(merged, unpersisted);
+                    List<TrackedCall.Change> changes;
+                    while ((changes = handedOver.poll()) != null) {
+                        merge(merged, changes);
+                    }
+                    if (merged.isEmpty()) {
+                        return Completable.complete();
+                    }
+                    var toPersist = toChanges(merged);
+                    return appendToJournal(toPersist).flatMapCompletable(seq -> repo.increment(toPersist)
+                            .doOnComplete(() -> unpersisted = List.of())
+                            .andThen(acknowledgeInJournal(seq))
+                            .onErrorComplete(err -> {
+                                log.error("failed to persist tracked calls, will retry with the next flush: "
+                                        + "changes={}", toPersist.size(), err);
+                                unpersisted = toPersist;
+                                return true;
+                            }))
+                            .compose(JfrEvents.flush("call-tracking", toPersist.size()));
+                }));
+    }
+
+    private Completable recoverJournal() {
+        if (journal == null) {
+            return Completable.complete();
+        }
+        return Completable.fromAction(() -> unpersisted = journal.recover())
+                .subscribeOn(Schedulers.io())
+                .onErrorComplete(err -> {
+                    log.error("failed to recover call tracking journal, journaling is disabled", err);
+                    journal = null;
+                    return true;
+                });
+    }
+
+    /**
+     * @return seq of the journaled batch, or {@link #NOT_JOURNALED}
+     */
+    private Single<Long> appendToJournal(List<TrackedCall.Change> changes) {
+        var journal = this.journal;
+        if (journal == null) {
+            return Single.just(NOT_JOURNALED);
+        }
+        return Single.fromCallable(() -> journal.append(changes))
+                .subscribeOn(Schedulers.io())
+                .onErrorReturn(err -> {
+                    // the changes are still persisted to redis, they're just not protected against a crash
+                    log.error("failed to journal tracked calls: changes={}", changes.size(), err);
+                    return NOT_JOURNALED;
+                });
+    }
+
+    private Completable acknowledgeInJournal(long seq) {
+        if (seq == NOT_JOURNALED) {
+            return Completable.complete();
+        }
+        var journal = this.journal;
+        return Completable.fromAction(() -> journal.acknowledge(seq))
+                .subscribeOn(Schedulers.io())
+                .onErrorComplete(err -> {
+                    // the batch will be persisted once again after restart
+                    log.error("failed to acknowledge tracked calls in journal: seq={}", seq, err);
+                    return true;
+                });
+    }
+
+    private static void merge(HashMap<String, HashMap<String, long[]>> merged, List<TrackedCall.Change> changes) {
+        for (var change : changes) {
+            var counters = merged.computeIfAbsent(change.getIp(), ignr -> new HashMap<>())
+                    .computeIfAbsent(change.getMethod(), ignr -> new long[3]);
+            counters[0] += change.getSuccessfulCalls();
+            counters[1] += change.getFailedCalls();
+            counters[2] += change.getUnits();
+        }
+    }
+
+    private static List<TrackedCall.Change> toChanges(HashMap<String, HashMap<String, long[]>> merged) {
+        var changes = new ArrayList<TrackedCall.Change>();
+        merged.forEach((ip, byMethod) -> byMethod.forEach((method, counters) ->
+                changes.add(new TrackedCall.Change(ip, method, counters[0], counters[1], counters[2]))));
+        return changes;
+    }
+
+    /**
+     * Calls counted on a single event loop. Not thread-safe, all the methods must be called on the event loop the
+     * stripe was created for.
+     */
+    public class Stripe {
+        private final Context context;
+        private final CallCountsTable callCounts;
+
+        private Stripe(Context context) {
+            this.context = context;
+            this.callCounts = new CallCountsTable(maxStripeEntries);
+        }
+
+        public void increment(String ip, String method, boolean successful, int units) {
+            callCounts.increment(ip, method, successful, units);
+            if (callCounts.size() >= maxStripeEntries) {
+                // don't wait for the flusher, the table must not grow unbounded
+                handedOver.add(callCounts.drain());
+            }
+        }
+
+        /**
+         * Hands over everything counted so far to the aggregator and detaches the stripe from it.
+         */
+        public void close() {
+            stripes.remove(this);
+            if (!callCounts.isEmpty()) {
+                handedOver.add(callCounts.drain());
+            }
+        }
+
+        /**
+         * Hands over everything counted so far to the aggregator. The drained changes always go to "handedOver", so
+         * that the ones drained after the timeout are not lost, but persisted with the next flush.
+         */
+        private Completable handOverOnItsEventLoop() {
+            return Completable.create(emitter -> context.runOnContext(ignr -> {
+                        if (!callCounts.isEmpty()) {
+                            handedOver.add(callCounts.drain());
+                        }
+                        emitter.onComplete();
+                    }))
+                    // a busy or stopping event loop must not block the flushes of the other stripes
+                    .timeout(flushInterval.toMillis(), MILLISECONDS, Completable.complete());
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.dburyak.exercise.jsonrpc.tracking;
+
+import com.dburyak.exercise.jsonrpc.entity.TrackedCall;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Local append-only journal of tracked call changes that are not confirmed by redis yet. Journal consists of
+ * memory-mapped segment files, each one is a sequence of records:
+ * <pre>
+ * int length | int crc32c | byte type | long seq | payload
+ * </pre>
+ * where "batch" record holds the changes of a single flush, and "ack" record marks the batch with the given seq (and
+ * all the batches before it) as persisted to redis.
+ * <p>
+ * The aggregator merges changes that failed to be persisted into the next flush, so the latest batch always contains
+ * all the changes of the earlier unacknowledged ones. This keeps the journal compact:
+ * <ul>
+ *     <li>once a batch is written into a new segment, older segments are not needed anymore and are deleted</li>
+ *     <li>once the last batch is acknowledged and the current segment is more than half full, a fresh segment is
+ *     started with the ack record, and the older ones are deleted</li>
+ *     <li>recovery needs only the batch with the highest seq, it's pending if there's no ack with the same seq</li>
+ * </ul>
+ * Persisting is at-least-once: if the proxy dies after redis applied the batch but before the ack is written, the
+ * batch is persisted again after restart.
+ * <p>
+ * All the methods do blocking IO and must not be called on event loop. Thread-safe, but meant to be used by a single
+ * flusher.
+ */
+@Log4j2
+public class CallTrackingJournal {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES;
+    private static final byte TYPE_BATCH = 1;
+    private static final byte TYPE_ACK = 2;
+    private static final int ACK_SIZE = HEADER_SIZE + 1 + Long.BYTES;
+
+    private final Path dir;
+    private final int segmentSize;
+    private Path segmentPath;
+    private MappedByteBuffer segment;
+    private long segmentNo;
+    private long lastSeq;
+
+    public CallTrackingJournal(Path dir, int segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Reads the existing segments (if any) and prepares the journal for appending.
+     *
+     * @return changes that were journaled but not confirmed by redis before the previous shutdown, or empty list
+     */
+    public synchronized List<TrackedCall.Change> recover() {
+        try {
+            Files.createDirectories(dir);
+            List<TrackedCall.Change> pending = List.of();
+            var pendingSeq = 0L;
+            var ackSeq = 0L;
+            for (var path : listSegments()) {
+                segmentNo = Math.max(segmentNo, segmentNo(path));
+                var buf = ByteBuffer.wrap(Files.readAllBytes(path));
+                while (buf.remaining() >= HEADER_SIZE) {
+                    var length = buf.getInt();
+                    var crc = buf.getInt();
+                    if (length <= 0 || length > buf.remaining() || crc != crc(buf, buf.position(), length)) {
+                        // end of written records, or a torn write
+                        break;
+                    }
+                    var record = buf.slice(buf.position(), length);
+                    buf.position(buf.position() + length);
+                    var type = record.get();
+                    var seq = record.getLong();
+                    lastSeq = Math.max(lastSeq, seq);
+                    if (type == TYPE_ACK) {
+                        ackSeq = Math.max(ackSeq, seq);
+                    } else if (type == TYPE_BATCH && seq > pendingSeq) {
+                        pendingSeq = seq;
+                        pending = readChanges(record);
+                    }
+                }
+            }
+            if (pendingSeq <= ackSeq) {
+                pending = List.of();
+            }
+            log.info("call tracking journal recovered: dir={}, lastSeq={}, pendingChanges={}", dir, lastSeq,
+                    pending.size());
+            return pending;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Durably appends a batch of changes.
+     *
+     * @return seq of the batch to acknowledge it with
+     */
+    public synchronized long append(List<TrackedCall.Change> changes) {
+        var encoded = new ArrayList<byte[]>(changes.size() * 2);
+        var length = 1 + Long.BYTES + Integer.BYTES;
+        for (var change : changes) {
+            var ip = change.getIp().getBytes(StandardCharsets.UTF_8);
+            var method = change.getMethod().getBytes(StandardCharsets.UTF_8);
+            encoded.add(ip);
+            encoded.add(method);
+            length += Integer.BYTES + ip.length + Integer.BYTES + method.length + 3 * Long.BYTES;
+        }
+        var seq = ++lastSeq;
+        var rolled = segment == null || segment.remaining() < HEADER_SIZE + length;
+        if (rolled) {
+            rollSegment(HEADER_SIZE + length);
+        }
+        var start = segment.position();
+        segment.position(start + HEADER_SIZE);
+        segment.put(TYPE_BATCH);
+        segment.putLong(seq);
+        segment.putInt(changes.size());
+        for (var i = 0; i < changes.size(); i++) {
+            var change = changes.get(i);
+            putString(segment, encoded.get(2 * i));
+            putString(segment, encoded.get(2 * i + 1));
+            segment.putLong(change.getSuccessfulCalls());
+            segment.putLong(change.getFailedCalls());
+            segment.putLong(change.getUnits());
+        }
+        finishRecord(start, length);
+        if (rolled) {
+            // the new batch includes everything that is not acknowledged yet, so older segments are obsolete
+            deleteSegmentsExceptCurrent();
+        }
+        return seq;
+    }
+
+    /**
+     * Durably marks the batch with the given seq and all the batches before it as persisted to redis.
+     */
+    public synchronized void acknowledge(long seq) {
+        var nothingPending = seq == lastSeq;
+        var rolled = segment.remaining() < ACK_SIZE
+                || (nothingPending && segment.position() > segment.capacity() / 2);
+        if (rolled) {
+            rollSegment(ACK_SIZE);
+        }
+        var start = segment.position();
+        segment.position(start + HEADER_SIZE);
+        segment.put(TYPE_ACK);
+        segment.putLong(seq);
+        finishRecord(start, ACK_SIZE - HEADER_SIZE);
+        if (rolled && nothingPending) {
+            // the ack in the fresh segment keeps the seq going after restart, nothing else is needed
+            deleteSegmentsExceptCurrent();
+        }
+    }
+
+    public synchronized void close() {
+        if (segment != null) {
+            segment.force();
+            segment = null;
+        }
+    }
+
+    private void finishRecord(int start, int length) {
+        var end = segment.position();
+        segment.putInt(start, length);
+        segment.putInt(start + Integer.BYTES, crc(segment, start + HEADER_SIZE, length));
+        // segments are zero-filled when created, but a torn record may be left after restart, so the end is marked
+        // explicitly
+        if (end + Integer.BYTES <= segment.capacity()) {
+            segment.putInt(end, 0);
+        }
+        segment.force(start, end - start + Math.min(Integer.BYTES, segment.capacity() - end));
+    }
+
+    private void rollSegment(int minSize) {
+        if (segment != null) {
+            segment.force();
+        }
+        var path = dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, ++segmentNo, SEGMENT_SUFFIX));
+        try (var channel = FileChannel.open(path, CREATE_NEW, READ, WRITE)) {
+            // mapping stays valid after the channel is closed
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, minSize));
+            segmentPath = path;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void deleteSegmentsExceptCurrent() {
+        try {
+            for (var path : listSegments()) {
+                if (!path.equals(segmentPath)) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        } catch (IOException e) {
+            // will be retried with the next roll, leftovers are harmless for recovery
+            log.warn("failed to delete obsolete call tracking journal segments: dir={}", dir, e);
+        }
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                    .filter(p -> p.getFileName().toString().matches(SEGMENT_PREFIX + "\\d+" + SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static long segmentNo(Path segment) {
+        var name = segment.getFileName().toString();
+        return Long.parseLong(name, SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length(), 10);
+    }
+
+    private static List<TrackedCall.Change> readChanges(ByteBuffer record) {
+        var count = record.getInt();
+        var changes = new ArrayList<TrackedCall.Change>(count);
+        for (var i = 0; i < count; i++) {
+            var ip = getString(record);
+            var method = getString(record);
+            changes.add(new TrackedCall.Change(ip, method, record.getLong(), record.getLong(), record.getLong()));
+        }
+        return changes;
+    }
+
+    private static void putString(ByteBuffer buf, byte[] value) {
+        buf.putInt(value.length);
+        buf.put(value);
+    }
+
+    private static String getString(ByteBuffer buf) {
+        var value = new byte[buf.getInt()];
+        buf.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(ByteBuffer buf, int offset, int length) {
+        var crc = new CRC32C();
+        crc.update(buf.slice(offset, length));
+        return (int) crc.getValue();
+    }
+}
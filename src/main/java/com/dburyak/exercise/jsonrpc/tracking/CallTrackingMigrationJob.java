@@ -0,0 +1,41 @@
+package com.dburyak.exercise.jsonrpc.tracking;
+
+import com.dburyak.exercise.jsonrpc.AsyncCloseable;
+import com.dburyak.exercise.jsonrpc.repo.TrackedCallRepository;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.disposables.Disposable;
+import lombok.extern.log4j.Log4j2;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Migrates tracked calls to the current storage layout in the background once on startup (see
+ * {@link TrackedCallRepository#migrate()}). Every proxy instance runs it, the repository makes sure that concurrent
+ * migrations are safe. If the proxy is stopped before the migration is finished, it's restarted from the beginning
+ * with the next startup.
+ */
+@Log4j2
+public class CallTrackingMigrationJob implements AsyncCloseable {
+    private final TrackedCallRepository repo;
+    private volatile Disposable migration;
+
+    public CallTrackingMigrationJob(TrackedCallRepository repo) {
+        this.repo = repo;
+    }
+
+    public void start() {
+        var startedAt = Instant.now();
+        migration = repo.migrate().subscribe(
+                () -> log.info("tracked calls migrated: duration={}", () -> Duration.between(startedAt, Instant.now())),
+                err -> log.error("failed to migrate tracked calls, will retry with the next startup", err));
+    }
+
+    @Override
+    public Completable closeAsync() {
+        if (migration != null) {
+            migration.dispose();
+        }
+        return Completable.complete();
+    }
+}
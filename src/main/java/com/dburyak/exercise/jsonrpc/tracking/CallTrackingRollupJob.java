@@ -0,0 +1,47 @@
+package com.dburyak.exercise.jsonrpc.tracking;
+
+import com.dburyak.exercise.jsonrpc.AsyncCloseable;
+import com.dburyak.exercise.jsonrpc.repo.TrackedCallRepository;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.disposables.Disposable;
+import lombok.extern.log4j.Log4j2;
+
+import java.time.Duration;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Periodically rolls up time buckets of tracked calls (see {@link TrackedCallRepository#rollUp()}). Every proxy
+ * instance runs it, the repository makes sure the work is not duplicated.
+ */
+@Log4j2
+public class CallTrackingRollupJob implements AsyncCloseable {
+    private final TrackedCallRepository repo;
+    private final Duration interval;
+    private volatile Disposable loop;
+
+    public CallTrackingRollupJob(TrackedCallRepository repo, Duration interval) {
+        this.repo = repo;
+        this.interval = interval;
+    }
+
+    public void start() {
+        // first run right away, so that rollup watermarks are initialized before the first calls are tracked
+        loop = Observable.interval(0, interval.toMillis(), MILLISECONDS)
+                .concatMapCompletable(ignr -> repo.rollUp()
+                        .onErrorComplete(err -> {
+                            log.error("failed to roll up tracked calls, will retry", err);
+                            return true;
+                        }))
+                .subscribe();
+    }
+
+    @Override
+    public Completable closeAsync() {
+        if (loop != null) {
+            loop.dispose();
+        }
+        return Completable.complete();
+    }
+}
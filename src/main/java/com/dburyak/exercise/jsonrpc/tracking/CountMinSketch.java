@@ -0,0 +1,106 @@
+package com.dburyak.exercise.jsonrpc.tracking;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Count-Min sketch: approximate counts of any number of distinct keys in fixed memory of "depth" rows of "width"
+ * counters. Each key increments one counter per row, estimate is the minimum of its counters, so it never
+ * underestimates, and overestimates by at most {@code e / width} of the total count with probability
+ * {@code 1 - exp(-depth)}.
+ * <p>
+ * Sketches of the same dimensions are merged by summing the counters, so sketches of different event loops, time
+ * slots and proxy instances add up to the sketch of all of them. Row indexes are derived from {@link String#hashCode()}
+ * which is the same on every JVM, so sketches built by different proxy instances are compatible.
+ * <p>
+ * Not thread-safe.
+ */
+public class CountMinSketch {
+    private final int depth;
+    private final int width;
+    private final int mask;
+    private final int[] counters; // row after row
+
+    /**
+     * @param width number of counters per row, must be a power of 2
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("depth must be > 0");
+        }
+        if (width <= 0 || Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException("width must be a power of 2");
+        }
+        this.depth = depth;
+        this.width = width;
+        this.mask = width - 1;
+        this.counters = new int[depth * width];
+    }
+
+    public void add(String key, int count) {
+        var hash = mix(key.hashCode());
+        var h1 = (int) hash;
+        var h2 = (int) (hash >>> 32) | 1;
+        for (var row = 0; row < depth; row++) {
+            var i = row * width + ((h1 + row * h2) & mask);
+            counters[i] = saturatedAdd(counters[i], count);
+        }
+    }
+
+    public long estimate(String key) {
+        var hash = mix(key.hashCode());
+        var h1 = (int) hash;
+        var h2 = (int) (hash >>> 32) | 1;
+        var min = Integer.MAX_VALUE;
+        for (var row = 0; row < depth; row++) {
+            min = Math.min(min, counters[row * width + ((h1 + row * h2) & mask)]);
+        }
+        return min;
+    }
+
+    public void merge(CountMinSketch other) {
+        if (other.depth != depth || other.width != width) {
+            throw new IllegalArgumentException("sketch dimensions differ: " + other.depth + "x" + other.width
+                    + " vs " + depth + "x" + width);
+        }
+        for (var i = 0; i < counters.length; i++) {
+            counters[i] = saturatedAdd(counters[i], other.counters[i]);
+        }
+    }
+
+    public int serializedSize() {
+        return 2 * Integer.BYTES + counters.length * Integer.BYTES;
+    }
+
+    public void writeTo(ByteBuffer buf) {
+        buf.putInt(depth);
+        buf.putInt(width);
+        for (var counter : counters) {
+            buf.putInt(counter);
+        }
+    }
+
+    public static CountMinSketch readFrom(ByteBuffer buf) {
+        var sketch = new CountMinSketch(buf.getInt(), buf.getInt());
+        for (var i = 0; i < sketch.counters.length; i++) {
+            sketch.counters[i] = buf.getInt();
+        }
+        return sketch;
+    }
+
+    private static int saturatedAdd(int counter, int count) {
+        var sum = counter + count;
+        // counters only grow, so overflow is the only way for the sum to get smaller
+        return sum < counter ? Integer.MAX_VALUE : sum;
+    }
+
+    // murmur3 finalizer, spreads poorly distributed hash codes (e.g. of similar IPs) over all the bits
+    private static long mix(int hashCode) {
+        var h = hashCode * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,191 @@
+package com.dburyak.exercise.jsonrpc.tracking;
+
+import com.dburyak.exercise.jsonrpc.entity.HeavyHitter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Top-K most frequent keys in bounded memory, however many distinct keys there are. Counts of all the keys are kept
+ * in a {@link CountMinSketch}, and up to "capacity" candidates for the top are kept in a Space-Saving summary: a new
+ * key replaces the candidate with the smallest count once its estimated count exceeds it. Unlike the classic
+ * Space-Saving, which inherits the count of the replaced candidate, the new candidate starts with the sketch estimate,
+ * so the error doesn't pile up when the tail of the distribution is long.
+ * <p>
+ * Sketches are merged by merging the Count-Min sketches and offering the candidates of one sketch to another. Merged
+ * serialized sketches (see {@link #toBytes()} and {@link #top}) give the top of all of them, with counts estimated by
+ * the merged Count-Min sketch.
+ * <p>
+ * Not thread-safe.
+ */
+public class HeavyHitterSketch {
+    private final CountMinSketch counts;
+    private final int capacity;
+    private final HashMap<String, Candidate> candidates;
+    // min-heap of candidates by count, its root is the one to be replaced
+    private final Candidate[] heap;
+    private int size;
+
+    public HeavyHitterSketch(int capacity, int depth, int width) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        this.counts = new CountMinSketch(depth, width);
+        this.capacity = capacity;
+        this.candidates = new HashMap<>(capacity * 2);
+        this.heap = new Candidate[capacity];
+    }
+
+    public void add(String key, int count) {
+        counts.add(key, count);
+        offer(key, count);
+    }
+
+    public void merge(HeavyHitterSketch other) {
+        counts.merge(other.counts);
+        for (var i = 0; i < other.size; i++) {
+            offer(other.heap[i].key, other.heap[i].count);
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Serialized Count-Min sketch followed by the keys of the candidates, counts of the candidates are not needed as
+     * they are estimated by the sketch once serialized sketches are merged.
+     */
+    public byte[] toBytes() {
+        var keys = new byte[size][];
+        var keysSize = Integer.BYTES;
+        for (var i = 0; i < size; i++) {
+            keys[i] = heap[i].key.getBytes(StandardCharsets.UTF_8);
+            keysSize += Integer.BYTES + keys[i].length;
+        }
+        var buf = ByteBuffer.allocate(counts.serializedSize() + keysSize);
+        counts.writeTo(buf);
+        buf.putInt(size);
+        for (var key : keys) {
+            buf.putInt(key.length);
+            buf.put(key);
+        }
+        return buf.array();
+    }
+
+    /**
+     * Top keys of all the serialized sketches taken together.
+     *
+     * @param serialized sketches of the same dimensions, serialized by {@link #toBytes()}
+     * @return up to "n" keys with the highest estimated counts, from the highest to the lowest
+     */
+    public static List<HeavyHitter> top(Collection<byte[]> serialized, int n) {
+        CountMinSketch merged = null;
+        var keys = new HashSet<String>();
+        for (var bytes : serialized) {
+            var buf = ByteBuffer.wrap(bytes);
+            var counts = CountMinSketch.readFrom(buf);
+            if (merged == null) {
+                merged = counts;
+            } else {
+                merged.merge(counts);
+            }
+            var numKeys = buf.getInt();
+            for (var i = 0; i < numKeys; i++) {
+                var key = new byte[buf.getInt()];
+                buf.get(key);
+                keys.add(new String(key, StandardCharsets.UTF_8));
+            }
+        }
+        if (merged == null) {
+            return List.of();
+        }
+        var top = new ArrayList<HeavyHitter>(keys.size());
+        for (var key : keys) {
+            top.add(new HeavyHitter(key, merged.estimate(key)));
+        }
+        top.sort(Comparator.comparingLong(HeavyHitter::getCalls).reversed());
+        return top.size() > n ? List.copyOf(top.subList(0, n)) : top;
+    }
+
+    private void offer(String key, long count) {
+        var candidate = candidates.get(key);
+        if (candidate != null) {
+            candidate.count += count;
+            siftDown(candidate.heapIdx);
+            return;
+        }
+        var estimate = counts.estimate(key);
+        if (size < capacity) {
+            candidate = new Candidate(key, estimate, size);
+            heap[size++] = candidate;
+            candidates.put(key, candidate);
+            siftUp(candidate.heapIdx);
+        } else if (estimate > heap[0].count) {
+            // reuse the replaced candidate, so that steady state churn of the tail doesn't allocate
+            candidate = heap[0];
+            candidates.remove(candidate.key);
+            candidate.key = key;
+            candidate.count = estimate;
+            candidates.put(key, candidate);
+            siftDown(0);
+        }
+    }
+
+    private void siftUp(int idx) {
+        var candidate = heap[idx];
+        while (idx > 0) {
+            var parentIdx = (idx - 1) >>> 1;
+            var parent = heap[parentIdx];
+            if (parent.count <= candidate.count) {
+                break;
+            }
+            place(parent, idx);
+            idx = parentIdx;
+        }
+        place(candidate, idx);
+    }
+
+    private void siftDown(int idx) {
+        var candidate = heap[idx];
+        while (true) {
+            var childIdx = 2 * idx + 1;
+            if (childIdx >= size) {
+                break;
+            }
+            if (childIdx + 1 < size && heap[childIdx + 1].count < heap[childIdx].count) {
+                childIdx++;
+            }
+            var child = heap[childIdx];
+            if (candidate.count <= child.count) {
+                break;
+            }
+            place(child, idx);
+            idx = childIdx;
+        }
+        place(candidate, idx);
+    }
+
+    private void place(Candidate candidate, int idx) {
+        heap[idx] = candidate;
+        candidate.heapIdx = idx;
+    }
+
+    private static class Candidate {
+        private String key;
+        private long count;
+        private int heapIdx;
+
+        private Candidate(String key, long count, int heapIdx) {
+            this.key = key;
+            this.count = count;
+            this.heapIdx = heapIdx;
+        }
+    }
+}
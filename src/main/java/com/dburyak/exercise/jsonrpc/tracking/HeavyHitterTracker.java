@@ -0,0 +1,241 @@
+package com.dburyak.exercise.jsonrpc.tracking;
+
+import com.dburyak.exercise.jsonrpc.AsyncCloseable;
+import com.dburyak.exercise.jsonrpc.Config.HeavyHitterTracking;
+import com.dburyak.exercise.jsonrpc.entity.HeavyHitters;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import io.vertx.core.Context;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+import io.vertx.rxjava3.redis.client.RedisConnection;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static io.vertx.redis.client.Command.HGETALL;
+import static io.vertx.redis.client.Command.HSET;
+import static io.vertx.redis.client.Command.PEXPIRE;
+import static io.vertx.redis.client.Request.cmd;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Tracks IPs and methods with the most calls ("heavy hitters") over a sliding window, in bounded memory however many
+ * distinct IPs there are (see {@link HeavyHitterSketch}).
+ * <p>
+ * The window is split into slots. Calls are counted into sketches of stripes, one per event loop, the same way as in
+ * {@link CallTrackingAggregator}. Periodically the publisher drains every stripe on its own event loop, merges them
+ * into the sketches of the current slot of this proxy instance, and publishes the whole slot to redis, overwriting the
+ * previously published one, so publishing is idempotent and a failed publish is fixed by the next one. Every proxy
+ * instance publishes its sketches into its own field of the hash of the slot:
+ * <pre>
+ * hh-ips:&lt;slot&gt; = {&lt;instanceId&gt;: sketch}
+ * hh-methods:&lt;slot&gt; = {&lt;instanceId&gt;: sketch}
+ * </pre>
+ * The top is read by merging sketches of all the instances and all the slots within the window, the window includes
+ * the current (partial) slot. Slot hashes expire right after they leave the window.
+ * <p>
+ * Single instance is shared by all the verticles.
+ */
+@Log4j2
+public class HeavyHitterTracker implements AsyncCloseable {
+    private static final String IPS_PREFIX = "hh-ips:";
+    private static final String METHODS_PREFIX = "hh-methods:";
+
+    private final RedisConnection redis;
+    private final HeavyHitterTracking cfg;
+    private final long slotMs;
+    private final String instanceId = UUID.randomUUID().toString();
+    private final List<Stripe> stripes = new CopyOnWriteArrayList<>();
+    // sketches drained from the stripes (on publish or close), to be merged with the next publish
+    private final Queue<Sketches> handedOver = new ConcurrentLinkedQueue<>();
+    // accessed only by the publisher, publishes never overlap (but may run on different threads)
+    private volatile Sketches current;
+    private volatile long currentSlot;
+    private volatile Disposable publishLoop;
+
+    public HeavyHitterTracker(RedisConnection redis, HeavyHitterTracking cfg) {
+        this.redis = redis;
+        this.cfg = cfg;
+        this.slotMs = cfg.getWindow().toMillis() / cfg.getSlots();
+    }
+
+    /**
+     * Creates a stripe for the event loop of the given context. Must be called on that event loop, the stripe must be
+     * used only on it.
+     */
+    public Stripe newStripe(Context context) {
+        var stripe = new Stripe(context);
+        stripes.add(stripe);
+        return stripe;
+    }
+
+    public void start() {
+        var intervalMs = cfg.getPublishInterval().toMillis();
+        // publishes never overlap, the next one is started only after the previous one is finished
+        publishLoop = Observable.interval(intervalMs, intervalMs, MILLISECONDS)
+                .concatMapCompletable(ignr -> publish()
+                        .onErrorComplete(err -> {
+                            log.warn("failed to publish heavy hitters, will retry with the next publish", err);
+                            return true;
+                        }))
+                .subscribe();
+    }
+
+    @Override
+    public Completable closeAsync() {
+        if (publishLoop != null) {
+            publishLoop.dispose();
+        }
+        // stripes of the verticles are already closed at this point, so everything is in "handedOver"
+        return publish().onErrorComplete(err -> {
+            log.warn("final heavy hitters publish failed", err);
+            return true;
+        });
+    }
+
+    /**
+     * @param n max number of IPs and of methods to return
+     */
+    public Single<HeavyHitters> top(int n) {
+        var lastSlot = System.currentTimeMillis() / slotMs;
+        var reqs = new ArrayList<Request>(2 * cfg.getSlots());
+        for (var slot = lastSlot - cfg.getSlots() + 1; slot <= lastSlot; slot++) {
+            reqs.add(cmd(HGETALL).arg(IPS_PREFIX + slot));
+            reqs.add(cmd(HGETALL).arg(METHODS_PREFIX + slot));
+        }
+        return redis.rxBatch(reqs)
+                // merging sketches of many instances and slots is too much work for the event loop
+                .observeOn(Schedulers.io())
+                .map(resps -> {
+                    var ips = new ArrayList<byte[]>();
+                    var methods = new ArrayList<byte[]>();
+                    for (var i = 0; i < resps.size(); i++) {
+                        addSketches(i % 2 == 0 ? ips : methods, resps.get(i));
+                    }
+                    return new HeavyHitters(cfg.getWindow(), HeavyHitterSketch.top(ips, n),
+                            HeavyHitterSketch.top(methods, n));
+                });
+    }
+
+    Completable publish() {
+        return Observable.fromIterable(stripes)
+                .flatMapCompletable(Stripe::handOverOnItsEventLoop)
+                .andThen(Completable.defer(() -> {
+                    var slot = System.currentTimeMillis() / slotMs;
+                    if (current == null) {
+                        current = new Sketches();
+                        currentSlot = slot;
+                    }
+                    var sketches = current;
+                    var sketchesSlot = currentSlot;
+                    Sketches stripeSketches;
+                    while ((stripeSketches = handedOver.poll()) != null) {
+                        sketches.merge(stripeSketches);
+                    }
+                    if (slot != sketchesSlot) {
+                        // calls drained so far are attributed to the slot that has just ended, this is its last
+                        // publish
+                        current = new Sketches();
+                        currentSlot = slot;
+                    }
+                    if (sketches.isEmpty()) {
+                        return Completable.complete();
+                    }
+                    return write(sketchesSlot, sketches);
+                }));
+    }
+
+    private Completable write(long slot, Sketches sketches) {
+        // slot must stay readable until its end leaves the window
+        var ttlMs = cfg.getWindow().toMillis() + slotMs;
+        var ipsKey = IPS_PREFIX + slot;
+        var methodsKey = METHODS_PREFIX + slot;
+        return redis.rxBatch(List.of(
+                        cmd(HSET).arg(ipsKey).arg(instanceId).arg(sketches.ips.toBytes()),
+                        cmd(PEXPIRE).arg(ipsKey).arg(ttlMs),
+                        cmd(HSET).arg(methodsKey).arg(instanceId).arg(sketches.methods.toBytes()),
+                        cmd(PEXPIRE).arg(methodsKey).arg(ttlMs)))
+                .ignoreElement();
+    }
+
+    private static void addSketches(List<byte[]> sketches, Response hash) {
+        if (hash == null) {
+            return;
+        }
+        for (var instanceId : hash.getKeys()) {
+            sketches.add(hash.get(instanceId).toBuffer().getBytes());
+        }
+    }
+
+    private class Sketches {
+        private final HeavyHitterSketch ips = newSketch();
+        private final HeavyHitterSketch methods = newSketch();
+
+        private void merge(Sketches other) {
+            ips.merge(other.ips);
+            methods.merge(other.methods);
+        }
+
+        private boolean isEmpty() {
+            return ips.isEmpty();
+        }
+
+        private HeavyHitterSketch newSketch() {
+            return new HeavyHitterSketch(cfg.getCapacity(), cfg.getSketchDepth(), cfg.getSketchWidth());
+        }
+    }
+
+    /**
+     * Calls counted on a single event loop. Not thread-safe, all the methods must be called on the event loop the
+     * stripe was created for.
+     */
+    public class Stripe {
+        private final Context context;
+        private Sketches sketches = new Sketches();
+
+        private Stripe(Context context) {
+            this.context = context;
+        }
+
+        public void record(String ip, String method) {
+            sketches.ips.add(ip, 1);
+            sketches.methods.add(method, 1);
+        }
+
+        /**
+         * Hands over everything counted so far to the tracker and detaches the stripe from it.
+         */
+        public void close() {
+            stripes.remove(this);
+            if (!sketches.isEmpty()) {
+                handedOver.add(sketches);
+                sketches = new Sketches();
+            }
+        }
+
+        /**
+         * Hands over everything counted so far to the tracker. The drained sketches always go to "handedOver", so that
+         * the ones drained after the timeout are not lost, but merged with the next publish.
+         */
+        private Completable handOverOnItsEventLoop() {
+            return Completable.create(emitter -> context.runOnContext(ignr -> {
+                        if (!sketches.isEmpty()) {
+                            handedOver.add(sketches);
+                            sketches = new Sketches();
+                        }
+                        emitter.onComplete();
+                    }))
+                    // a busy or stopping event loop must not block the publishes of the other stripes
+                    .timeout(cfg.getPublishInterval().toMillis(), MILLISECONDS, Completable.complete());
+        }
+    }
+}
@@ -0,0 +1,27 @@
+-- Ids of the methods in the tracked calls method dictionary, new ids are assigned atomically to the methods that don't
+-- have them yet. Ids are sequential starting from 1 and are never reassigned.
+--
+-- KEYS[1] - hash of method -> id
+-- KEYS[2] - hash of id -> method
+-- KEYS[3] - last assigned id
+-- ARGV[1] - max number of ids, methods beyond it don't get ids
+-- ARGV[2..] - methods
+--
+-- Returns array with id of each method, or 0 if the dictionary is full.
+local maxIds = tonumber(ARGV[1])
+local result = {}
+for i = 2, #ARGV do
+    local method = ARGV[i]
+    local id = redis.call('HGET', KEYS[1], method)
+    if id then
+        id = tonumber(id)
+    elseif tonumber(redis.call('GET', KEYS[3]) or '0') < maxIds then
+        id = redis.call('INCR', KEYS[3])
+        redis.call('HSET', KEYS[1], method, id)
+        redis.call('HSET', KEYS[2], id, method)
+    else
+        id = 0
+    end
+    result[i - 1] = id
+end
+return result
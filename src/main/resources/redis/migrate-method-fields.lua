@@ -0,0 +1,18 @@
+-- Moves counters of tracked calls from "method:status" fields to method id fields of the same hash, atomically per
+-- field, so that it's safe to run concurrently with the writers and with other migrations, and to repeat it.
+--
+-- KEYS[1] - hash of tracked calls
+-- ARGV[2*i-1] - legacy field
+-- ARGV[2*i] - method id field to move the counter of the legacy field to
+--
+-- Returns number of moved counters.
+local moved = 0
+for i = 1, #ARGV, 2 do
+    local value = redis.call('HGET', KEYS[1], ARGV[i])
+    if value then
+        redis.call('HINCRBY', KEYS[1], ARGV[i + 1], value)
+        redis.call('HDEL', KEYS[1], ARGV[i])
+        moved = moved + 1
+    end
+end
+return moved
@@ -0,0 +1,31 @@
+-- Synchronization of the locally enforced fixed-window rate limits: pushes counter deltas accumulated locally by the
+-- proxy instance since the previous sync, and pulls the global counter values (i.e. including the calls admitted by
+-- all the other proxy instances), atomically.
+--
+-- KEYS[i] - counter key of the i-th limit
+-- ARGV[2*i-1] - number of calls admitted locally since the previous sync
+-- ARGV[2*i] - window size of the i-th limit, ms
+--
+-- Returns flat array with 2 elements per limit: counter value and time left till the end of the window (ms, 0 if
+-- there's no window yet).
+local result = {}
+for i, key in ipairs(KEYS) do
+    local delta = tonumber(ARGV[2 * i - 1])
+    local cnt
+    if delta > 0 then
+        cnt = redis.call('INCRBY', key, delta)
+    else
+        cnt = tonumber(redis.call('GET', key) or '0')
+    end
+    local ttl = redis.call('PTTL', key)
+    if ttl == -1 then
+        -- first hit within the window, or the key has no TTL for whatever reason, it must never stay forever
+        ttl = tonumber(ARGV[2 * i])
+        redis.call('PEXPIRE', key, ttl)
+    elseif ttl < 0 then
+        ttl = 0
+    end
+    result[2 * i - 1] = cnt
+    result[2 * i] = ttl
+end
+return result
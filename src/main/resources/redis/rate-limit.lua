@@ -0,0 +1,152 @@
+-- Rate limit check of all the calls of a request, atomically. Each call may be subject to multiple limits (e.g. per-IP
+-- and per-IP+method), and it's admitted only if it fits into all of them. Limits are budgets of compute units, each
+-- call consumes as many units as it costs, but at most the whole budget of the limit, so that a call that costs more
+-- than the limit is still admitted when the budget is untouched. Only admitted calls are counted.
+--
+-- Every limit uses its own algorithm, all of them keep O(1) state per key:
+-- - fixedWindow: counter of the current window (string), expires at the end of the window
+-- - slidingWindow: current window id and counters of the current and the previous windows (hash), the previous counter
+--   is weighted by the share of the previous window that still overlaps with the sliding window ending now
+-- - gcra: theoretical arrival time of the next call (string), i.e. calls are spread evenly with one call per
+--   window/max ms, bursts of up to max calls are allowed
+-- Time of the redis server is used, so that all the proxy instances see the same clock.
+--
+-- KEYS[i] - state key of the i-th limit
+-- ARGV[3*i-2] - algorithm of the i-th limit
+-- ARGV[3*i-1] - max number of compute units allowed within the window of the i-th limit
+-- ARGV[3*i] - window size of the i-th limit, ms
+-- ARGV[3*#KEYS+j] - cost of the j-th call followed by comma-separated indexes of the limits it's subject to, e.g.
+--   "10:1,2", calls are in the request order
+--
+-- Returns flat array: admission flag (1 or 0) per call, followed by time (ms) till the next call of cost 1 may fit into
+-- the limit, per limit (0 if it fits right now).
+local numLimits = #KEYS
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+local limits = {}
+for i, key in ipairs(KEYS) do
+    local limit = {
+        algorithm = ARGV[3 * i - 2],
+        max = tonumber(ARGV[3 * i - 1]),
+        window = tonumber(ARGV[3 * i]),
+        added = 0
+    }
+    if limit.algorithm == 'fixedWindow' then
+        limit.count = tonumber(redis.call('GET', key) or '0')
+    elseif limit.algorithm == 'slidingWindow' then
+        local state = redis.call('HMGET', key, 'w', 'c', 'p')
+        local windowId = math.floor(now / limit.window)
+        local storedWindowId = tonumber(state[1] or '-1')
+        limit.windowId = windowId
+        if storedWindowId == windowId then
+            limit.count = tonumber(state[2] or '0')
+            limit.prevCount = tonumber(state[3] or '0')
+        elseif storedWindowId == windowId - 1 then
+            limit.count = 0
+            limit.prevCount = tonumber(state[2] or '0')
+        else
+            limit.count = 0
+            limit.prevCount = 0
+        end
+        limit.elapsed = now - windowId * limit.window
+        limit.prevWeight = 1 - limit.elapsed / limit.window
+    elseif limit.algorithm == 'gcra' then
+        limit.interval = limit.window / limit.max
+        limit.tat = math.max(tonumber(redis.call('GET', key) or '0'), now)
+    else
+        return redis.error_reply('unknown rate limiting algorithm: ' .. limit.algorithm)
+    end
+    limits[i] = limit
+end
+
+local function fits(limit, cost)
+    cost = math.min(cost, limit.max)
+    if limit.algorithm == 'fixedWindow' then
+        return limit.count + cost <= limit.max
+    elseif limit.algorithm == 'slidingWindow' then
+        return limit.count + limit.prevCount * limit.prevWeight + cost <= limit.max
+    else
+        -- the call fits if it's not earlier than the burst tolerance allows
+        return limit.tat + limit.interval * cost - now <= limit.window
+    end
+end
+
+local function consume(limit, cost)
+    cost = math.min(cost, limit.max)
+    if limit.algorithm == 'gcra' then
+        limit.tat = limit.tat + limit.interval * cost
+    else
+        limit.count = limit.count + cost
+    end
+    limit.added = limit.added + cost
+end
+
+local function retryAfter(limit, ttl)
+    if fits(limit, 1) then
+        return 0
+    elseif limit.algorithm == 'fixedWindow' then
+        return ttl
+    elseif limit.algorithm == 'slidingWindow' then
+        if limit.count + 1 > limit.max then
+            -- not before the next window, the previous window weight is not known in advance, so this is a lower bound
+            return limit.window - limit.elapsed
+        end
+        -- solve count + prevCount * (1 - (elapsed + t) / window) + 1 <= max for t
+        local t = limit.window * (1 - (limit.max - 1 - limit.count) / limit.prevCount) - limit.elapsed
+        return math.max(1, math.ceil(t))
+    else
+        return math.max(1, math.ceil(limit.tat + limit.interval - now - limit.window))
+    end
+end
+
+local result = {}
+for j = 3 * numLimits + 1, #ARGV do
+    local cost, idxs = string.match(ARGV[j], '^(%d+):(.*)$')
+    cost = tonumber(cost)
+    local limitIdxs = {}
+    local allFit = true
+    for idx in string.gmatch(idxs, '%d+') do
+        idx = tonumber(idx)
+        limitIdxs[#limitIdxs + 1] = idx
+        if not fits(limits[idx], cost) then
+            allFit = false
+        end
+    end
+    if allFit then
+        for _, idx in ipairs(limitIdxs) do
+            consume(limits[idx], cost)
+        end
+        result[#result + 1] = 1
+    else
+        result[#result + 1] = 0
+    end
+end
+
+for i, key in ipairs(KEYS) do
+    local limit = limits[i]
+    local ttl = 0
+    if limit.algorithm == 'fixedWindow' then
+        if limit.added > 0 then
+            redis.call('INCRBY', key, limit.added)
+        end
+        ttl = redis.call('PTTL', key)
+        if ttl == -1 then
+            -- first hit within the window, or the key has no TTL for whatever reason, it must never stay forever
+            ttl = limit.window
+            redis.call('PEXPIRE', key, ttl)
+        elseif ttl < 0 then
+            ttl = 0
+        end
+    elseif limit.added > 0 then
+        if limit.algorithm == 'slidingWindow' then
+            redis.call('HSET', key, 'w', limit.windowId, 'c', limit.count, 'p', limit.prevCount)
+            -- the counter is still needed as the previous one during the next window
+            redis.call('PEXPIRE', key, 2 * limit.window - limit.elapsed)
+        else
+            redis.call('SET', key, string.format('%.3f', limit.tat), 'PX', math.ceil(limit.tat - now))
+        end
+    end
+    result[#result + 1] = retryAfter(limit, ttl)
+end
+return result
@@ -0,0 +1,134 @@
+package com.dburyak.exercise.jsonrpc.accesslog;
+
+import com.dburyak.exercise.jsonrpc.Config.BinaryAccessLogging;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Decodes files written by {@link BinaryAccessLog}.
+ */
+class AccessLogDecoderTest {
+    private static final long TIMESTAMP_MS = Instant.parse("2026-10-17T10:15:30.123Z").toEpochMilli();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void decode_printsEntriesOfAllRings() throws IOException {
+        var log = new BinaryAccessLog(cfg(4));
+        var ring1 = log.newRing();
+        var ring2 = log.newRing();
+        ring1.offer(TIMESTAMP_MS, "1.2.3.4", "eth_call");
+        ring2.offer(TIMESTAMP_MS + 1, "2001:db8::1", "eth_chainId");
+        ring1.offer(TIMESTAMP_MS + 2, "1.2.3.4", "eth_getBalance");
+
+        log.closeAsync().blockingAwait();
+
+        assertThat(decode(dir)).containsExactly(
+                "2026-10-17T10:15:30.123Z - 1.2.3.4 - eth_call",
+                "2026-10-17T10:15:30.125Z - 1.2.3.4 - eth_getBalance",
+                "2026-10-17T10:15:30.124Z - 2001:db8::1 - eth_chainId");
+    }
+
+    @Test
+    void decode_filesOfDirAreDecodedInOrderTheyWereWritten() throws IOException {
+        var log = new BinaryAccessLog(cfg(10));
+        var ring = log.newRing();
+        var entries = offerUntilRotated(ring, 2);
+
+        log.closeAsync().blockingAwait();
+
+        assertThat(BinaryAccessLog.listFiles(dir)).hasSize(3);
+        assertThat(decode(dir)).containsExactlyElementsOf(entries);
+    }
+
+    @Test
+    void decode_oldFilesAreDeletedOnRotation() throws IOException {
+        var log = new BinaryAccessLog(cfg(2));
+        var ring = log.newRing();
+        var entries = offerUntilRotated(ring, 2);
+
+        log.closeAsync().blockingAwait();
+
+        var files = BinaryAccessLog.listFiles(dir);
+        assertThat(files).extracting(file -> file.getFileName().toString())
+                .containsExactly("access-00000000000000000002.alog", "access-00000000000000000003.alog");
+        var decoded = decode(dir);
+        assertThat(decoded).isNotEmpty().isEqualTo(entries.subList(entries.size() - decoded.size(), entries.size()));
+    }
+
+    @Test
+    void decode_singleFile() throws IOException {
+        var log = new BinaryAccessLog(cfg(4));
+        log.newRing().offer(TIMESTAMP_MS, "1.2.3.4", "eth_call");
+        log.closeAsync().blockingAwait();
+
+        var decoded = decode(BinaryAccessLog.listFiles(dir).get(0));
+
+        assertThat(decoded).containsExactly("2026-10-17T10:15:30.123Z - 1.2.3.4 - eth_call");
+    }
+
+    @Test
+    void decode_fileNumberingContinuesAfterRestart() throws IOException {
+        var log = new BinaryAccessLog(cfg(4));
+        log.newRing().offer(TIMESTAMP_MS, "1.2.3.4", "eth_call");
+        log.closeAsync().blockingAwait();
+
+        var restarted = new BinaryAccessLog(cfg(4));
+        restarted.newRing().offer(TIMESTAMP_MS + 1, "1.2.3.4", "eth_chainId");
+        restarted.closeAsync().blockingAwait();
+
+        assertThat(BinaryAccessLog.listFiles(dir)).hasSize(2);
+        assertThat(decode(dir)).containsExactly(
+                "2026-10-17T10:15:30.123Z - 1.2.3.4 - eth_call",
+                "2026-10-17T10:15:30.124Z - 1.2.3.4 - eth_chainId");
+    }
+
+    @Test
+    void decode_otherFilesAreRejected() throws IOException {
+        var file = Files.writeString(dir.resolve("access-00000000000000000001.alog"), "not an access log");
+
+        assertThatThrownBy(() -> decode(file)).isInstanceOf(IOException.class);
+    }
+
+    private BinaryAccessLogging cfg(int maxFiles) {
+        return new BinaryAccessLogging(true, dir.toString(), 1, maxFiles, 1 << 16);
+    }
+
+    /**
+     * Offers just enough entries to fill "rotations + 1" files, none of them are drained yet. Entries are of the max
+     * size, so that the number of entries per file is known.
+     *
+     * @return decoded offered entries
+     */
+    private static List<String> offerUntilRotated(AccessLogRing ring, int rotations) {
+        var perFile = (1024 * 1024 - Integer.BYTES - Short.BYTES) / AccessLogRing.MAX_RECORD_SIZE;
+        var method = "m".repeat(AccessLogRing.MAX_METHOD_LENGTH);
+        var entries = new ArrayList<String>();
+        for (var i = 0; i < perFile * rotations + 10; i++) {
+            var ip = String.format("ffff:ffff:ffff:ffff:ffff:ffff:%03d.%03d.%03d.%03d", 10, 0, i / 256 % 256, i % 256);
+            ring.offer(TIMESTAMP_MS + i, ip, method);
+            entries.add(Instant.ofEpochMilli(TIMESTAMP_MS + i) + " - " + ip + " - " + method);
+        }
+        return entries;
+    }
+
+    private static List<String> decode(Path path) throws IOException {
+        var out = new ByteArrayOutputStream();
+        AccessLogDecoder.decode(path, new PrintStream(out, true, StandardCharsets.UTF_8));
+        return out.toString(StandardCharsets.UTF_8).lines().toList();
+    }
+}
@@ -0,0 +1,131 @@
+package com.dburyak.exercise.jsonrpc.accesslog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AccessLogRingTest {
+
+    @Test
+    void drainTo_entriesComeOutInOrderAfterRingWrapsAround() {
+        var ring = new AccessLogRing(4);
+        ring.offer(1, "1.1.1.1", "eth_call");
+        ring.offer(2, "2.2.2.2", "eth_chainId");
+        ring.offer(3, "3.3.3.3", "eth_blockNumber");
+        var first = drain(ring);
+
+        ring.offer(4, "4.4.4.4", "eth_getBalance");
+        ring.offer(5, "5.5.5.5", "eth_getLogs");
+        ring.offer(6, "6.6.6.6", "eth_call");
+        var second = drain(ring);
+
+        assertThat(first).containsExactly("1 1.1.1.1 eth_call", "2 2.2.2.2 eth_chainId", "3 3.3.3.3 eth_blockNumber");
+        assertThat(second).containsExactly("4 4.4.4.4 eth_getBalance", "5 5.5.5.5 eth_getLogs", "6 6.6.6.6 eth_call");
+        assertThat(ring.isEmpty()).isTrue();
+    }
+
+    @Test
+    void offer_entryIsDroppedIfRingIsFull() {
+        var ring = new AccessLogRing(2);
+        ring.offer(1, "1.1.1.1", "a");
+        ring.offer(2, "2.2.2.2", "b");
+
+        var offered = ring.offer(3, "3.3.3.3", "c");
+
+        assertThat(offered).isFalse();
+        assertThat(ring.dropped()).isEqualTo(1);
+        assertThat(drain(ring)).containsExactly("1 1.1.1.1 a", "2 2.2.2.2 b");
+    }
+
+    @Test
+    void offer_drainedSlotsAreReused() {
+        var ring = new AccessLogRing(2);
+        ring.offer(1, "1.1.1.1", "a");
+        ring.offer(2, "2.2.2.2", "b");
+        drain(ring);
+
+        assertThat(ring.offer(3, "3.3.3.3", "c")).isTrue();
+        assertThat(ring.offer(4, "4.4.4.4", "d")).isTrue();
+        assertThat(drain(ring)).containsExactly("3 3.3.3.3 c", "4 4.4.4.4 d");
+        assertThat(ring.dropped()).isZero();
+    }
+
+    @Test
+    void offer_tooLongValuesAreTruncated() {
+        var ring = new AccessLogRing(2);
+        var ip = "1".repeat(AccessLogRing.MAX_IP_LENGTH + 10);
+        var method = "m".repeat(AccessLogRing.MAX_METHOD_LENGTH + 10);
+
+        ring.offer(1, ip, method);
+
+        assertThat(drain(ring)).containsExactly("1 " + ip.substring(0, AccessLogRing.MAX_IP_LENGTH) + " "
+                + method.substring(0, AccessLogRing.MAX_METHOD_LENGTH));
+    }
+
+    @Test
+    void offer_nonAsciiCharactersAreReplaced() {
+        var ring = new AccessLogRing(2);
+
+        ring.offer(1, "1.1.1.1", "eth_запит");
+
+        assertThat(drain(ring)).containsExactly("1 1.1.1.1 eth_?????");
+    }
+
+    @Test
+    void offer_missingMethodIsEmpty() {
+        var ring = new AccessLogRing(2);
+
+        ring.offer(1, "1.1.1.1", null);
+
+        assertThat(drain(ring)).containsExactly("1 1.1.1.1 ");
+    }
+
+    @Test
+    void drainTo_movesOnlyEntriesThatSurelyFitIntoBuffer() {
+        var ring = new AccessLogRing(4);
+        ring.offer(1, "1.1.1.1", "a");
+        ring.offer(2, "2.2.2.2", "b");
+        var out = ByteBuffer.allocate(AccessLogRing.MAX_RECORD_SIZE + 1);
+
+        var moved = ring.drainTo(out);
+
+        assertThat(moved).isEqualTo(1);
+        assertThat(ring.isEmpty()).isFalse();
+        assertThat(drain(ring)).containsExactly("2 2.2.2.2 b");
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, -2, 3, 1_000})
+    void constructor_capacityMustBePowerOfTwo(int capacity) {
+        assertThatThrownBy(() -> new AccessLogRing(capacity)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * @return drained entries as "timestampMs ip method"
+     */
+    private static List<String> drain(AccessLogRing ring) {
+        var out = ByteBuffer.allocate(16 * AccessLogRing.MAX_RECORD_SIZE);
+        ring.drainTo(out);
+        out.flip();
+        var entries = new ArrayList<String>();
+        while (out.hasRemaining()) {
+            var length = out.getShort();
+            var timestampMs = out.getLong();
+            var ip = new byte[out.get()];
+            out.get(ip);
+            var method = new byte[length - Long.BYTES - 1 - ip.length];
+            out.get(method);
+            entries.add(timestampMs + " " + new String(ip, StandardCharsets.US_ASCII) + " "
+                    + new String(method, StandardCharsets.US_ASCII));
+        }
+        return entries;
+    }
+}
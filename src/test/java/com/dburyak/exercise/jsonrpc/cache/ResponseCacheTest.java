@@ -0,0 +1,200 @@
+package com.dburyak.exercise.jsonrpc.cache;
+
+import com.dburyak.exercise.jsonrpc.Config;
+import com.dburyak.exercise.jsonrpc.JsonRpcRequest;
+import com.dburyak.exercise.jsonrpc.json.JsonRpcEnvelopeScanner;
+import com.dburyak.exercise.jsonrpc.metrics.PrometheusWriter;
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResponseCacheTest {
+    private static final int FINALITY_DEPTH = 64;
+    // rough overhead of an entry, as accounted by the cache
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private final ChainHead chainHead = new ChainHead();
+    // maintenance runs on the calling thread, so that evictions and sizes are deterministic
+    private final ResponseCache cache = new ResponseCache(new Config.ResponseCaching(true, 1, FINALITY_DEPTH),
+            chainHead, Runnable::run);
+
+    @ParameterizedTest
+    @ValueSource(strings = {"eth_chainId", "net_version", "eth_getBlockByHash", "eth_getTransactionReceipt"})
+    void key_cacheableMethod(String method) {
+        var req = req("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"" + method + "\",\"params\":[\"0xAB\"]}");
+
+        assertThat(cache.key(req)).isEqualTo(method + ":[\"0xab\"]");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"eth_getBalance", "eth_call", "eth_blockNumber", "eth_sendRawTransaction"})
+    void key_nonCacheableMethod(String method) {
+        var req = req("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"" + method + "\",\"params\":[\"0x1\"]}");
+
+        assertThat(cache.key(req)).isNull();
+    }
+
+    @Test
+    void key_blockByNumberIsNotCacheableUntilHeadIsKnown() {
+        assertThat(cache.key(blockByNumber("0x1"))).isNull();
+    }
+
+    @Test
+    void key_blockByNumberIsCacheableOnceFinalityDepthBehindHead() {
+        observeHead(0x100);
+
+        assertThat(cache.key(blockByNumber("0xc0"))).isEqualTo("eth_getBlockByNumber:[\"0xc0\",false]");
+        assertThat(cache.key(blockByNumber("0xc1"))).isNull();
+        assertThat(cache.key(blockByNumber("0x100"))).isNull();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"latest", "finalized", "earliest", "0x", "12", "0xzz"})
+    void key_blockTagsAndMalformedNumbersAreNotCacheable(String block) {
+        observeHead(0x100);
+
+        assertThat(cache.key(blockByNumber(block))).isNull();
+    }
+
+    @Test
+    void offer_headFollowsTheMostAdvancedBackend() {
+        observeHead(0x100);
+        observeHead(0xf0);
+
+        assertThat(chainHead.getLatestBlock()).isEqualTo(0x100);
+    }
+
+    @Test
+    void offer_minedTransactionIsCached() {
+        var req = txByHash(1);
+        var key = cache.key(req);
+
+        cache.offer(req, key, Buffer.buffer(
+                "{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":{\"hash\":\"0xaa\",\"blockHash\":\"0xbb\"}}"));
+
+        assertThat(cache.get(key, "1")).isNotNull();
+    }
+
+    @Test
+    void offer_pendingTransactionIsNotCached() {
+        var req = txByHash(1);
+        var key = cache.key(req);
+
+        cache.offer(req, key, Buffer.buffer(
+                "{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":{\"hash\":\"0xaa\",\"blockHash\":null}}"));
+
+        assertThat(cache.get(key, "1")).isNull();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":null}",
+            "{\"jsonrpc\":\"2.0\",\"id\":1,\"error\":{\"code\":-32000,\"message\":\"header not found\"}}",
+            "<html>bad gateway</html>"
+    })
+    void offer_nullResultsErrorsAndMalformedResponsesAreNotCached(String resp) {
+        var req = req("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_getBlockByHash\",\"params\":[\"0xaa\",false]}");
+        var key = cache.key(req);
+
+        cache.offer(req, key, Buffer.buffer(resp));
+
+        assertThat(cache.get(key, "1")).isNull();
+    }
+
+    @Test
+    void get_rewritesIdOfTheCachedResponse() {
+        var req = req("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_chainId\"}");
+        var key = cache.key(req);
+        cache.offer(req, key, Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":\"0x1\"}"));
+
+        var resp = cache.get(key, "\"some-longer-id\"");
+
+        assertThat(resp.toString()).isEqualTo("{\"jsonrpc\":\"2.0\",\"id\":\"some-longer-id\",\"result\":\"0x1\"}");
+    }
+
+    @Test
+    void get_sharesResponseAcrossDifferentlyFormattedParams() {
+        var req = req("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_getBlockByHash\",\"params\":[\"0xAA\", false]}");
+        cache.offer(req, cache.key(req),
+                Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":{\"number\":\"0x1\"}}"));
+        var other = req("{\"jsonrpc\":\"2.0\",\"id\":7,\"method\":\"eth_getBlockByHash\",\"params\":[\"0xaa\",false]}");
+
+        var resp = cache.get(cache.key(other), "7");
+
+        assertThat(resp.toString()).isEqualTo("{\"jsonrpc\":\"2.0\",\"id\":7,\"result\":{\"number\":\"0x1\"}}");
+    }
+
+    @Test
+    void get_missIsNull() {
+        assertThat(cache.get("eth_chainId:", "1")).isNull();
+    }
+
+    @Test
+    void stats_sizeIsTheBytesOfTheKeyAndTheResponse() {
+        var req = req("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_chainId\"}");
+        var key = cache.key(req);
+        var resp = Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":\"0x1\"}");
+
+        cache.offer(req, key, resp);
+
+        assertThat(cache.stats().getLong("sizeBytes")).isEqualTo(key.length() + resp.length() + ENTRY_OVERHEAD_BYTES);
+    }
+
+    @Test
+    void stats_largeResponsesAreEvictedByTotalSize() {
+        var result = "\"0x" + "a".repeat(100 * 1024) + "\"";
+        for (var i = 0; i < 20; i++) {
+            var req = req("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_getBlockByHash\",\"params\":[\"0x" + i
+                    + "\",true]}");
+            cache.offer(req, cache.key(req), Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":" + result + "}"));
+        }
+
+        var stats = cache.stats();
+        assertThat(stats.getLong("evictions")).isPositive();
+        assertThat(stats.getLong("evictedBytes")).isPositive();
+        assertThat(stats.getLong("sizeBytes")).isLessThanOrEqualTo(1024 * 1024);
+        assertThat(stats.getLong("entries")).isLessThan(20);
+    }
+
+    @Test
+    void writeTo_exportsHitsMissesAndSize() {
+        var req = req("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_chainId\"}");
+        var key = cache.key(req);
+        cache.get(key, "1");
+        cache.offer(req, key, Buffer.buffer("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":\"0x1\"}"));
+        cache.get(key, "2");
+        cache.get(key, "3");
+        var out = new PrometheusWriter();
+
+        cache.writeTo(out);
+
+        assertThat(out.toBuffer().toString())
+                .contains("\njsonrpc_response_cache_hits_total 2\n")
+                .contains("\njsonrpc_response_cache_misses_total 1\n")
+                .contains("\njsonrpc_response_cache_entries 1\n")
+                .contains("\njsonrpc_response_cache_max_size_bytes 1048576\n");
+    }
+
+    private void observeHead(long blockNum) {
+        var req = req("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_blockNumber\"}");
+        cache.offer(req, cache.key(req), Buffer.buffer(
+                "{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":\"0x" + Long.toHexString(blockNum) + "\"}"));
+    }
+
+    private static JsonRpcRequest blockByNumber(String block) {
+        return req("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_getBlockByNumber\",\"params\":[\"" + block
+                + "\", false]}");
+    }
+
+    private static JsonRpcRequest txByHash(int id) {
+        return req("{\"jsonrpc\":\"2.0\",\"id\":" + id
+                + ",\"method\":\"eth_getTransactionByHash\",\"params\":[\"0xaa\"]}");
+    }
+
+    private static JsonRpcRequest req(String json) {
+        return JsonRpcEnvelopeScanner.scanRequest(Buffer.buffer(json));
+    }
+}
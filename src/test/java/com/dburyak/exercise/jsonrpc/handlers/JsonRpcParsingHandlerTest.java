@@ -0,0 +1,140 @@
+package com.dburyak.exercise.jsonrpc.handlers;
+
+import com.dburyak.exercise.jsonrpc.Config;
+import com.dburyak.exercise.jsonrpc.JsonRpcCall;
+import com.dburyak.exercise.jsonrpc.ProxiedReqCtx;
+import com.dburyak.exercise.jsonrpc.cache.ChainHead;
+import com.dburyak.exercise.jsonrpc.err.InvalidJsonRpcRequestException;
+import com.dburyak.exercise.jsonrpc.err.MalformedJsonRpcRequestException;
+import com.dburyak.exercise.jsonrpc.err.UnsupportedJsonRpcVersionException;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Collections;
+
+import static com.dburyak.exercise.jsonrpc.json.JsonRpcResponses.INVALID_REQUEST_CODE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JsonRpcParsingHandlerTest {
+    private static final int MAX_BATCH_SIZE = 3;
+
+    private final JsonRpcParsingHandler handler = new JsonRpcParsingHandler(new Config(new JsonObject()
+            .put(Config.PROXIED_BACKEND_URLS_ENV, "http://localhost:8545")
+            .put("jsonrpc", new JsonObject()
+                    .put("maxBatchSize", MAX_BATCH_SIZE)
+                    .put("perMethodIpRateLimiting", new JsonObject().put("methods", new JsonObject()
+                            .put("eth_call", new JsonObject().put("requests", 10).put("timeWindow", "1s"))))
+                    .put("computeUnits", new JsonObject()
+                            .put("methods", new JsonObject()
+                                    .put("eth_getLogs", new JsonObject().put("cost", 10).put("perBlockCost", 1)))))),
+            new ChainHead());
+
+    @Test
+    void parse_singleRequest() {
+        var reqCtx = parse("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_chainId\"}");
+
+        assertThat(reqCtx.isBatch()).isFalse();
+        assertThat(reqCtx.getCalls()).hasSize(1);
+        var call = reqCtx.getCalls().get(0);
+        assertThat(call.getRequest().getMethod()).isEqualTo("eth_chainId");
+        assertThat(call.isPending()).isTrue();
+        assertThat(call.getComputeUnits()).isEqualTo(1);
+    }
+
+    @Test
+    void parse_singleRequestCostsItsComputeUnits() {
+        var reqCtx = parse("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_getLogs\","
+                + "\"params\":[{\"fromBlock\":\"0x1\",\"toBlock\":\"0x4\"}]}");
+
+        assertThat(reqCtx.getCalls().get(0).getComputeUnits()).isEqualTo(14);
+    }
+
+    @Test
+    void parse_singleRequestWithoutMethodIsRejected() {
+        assertThatThrownBy(() -> parse("{\"jsonrpc\":\"2.0\",\"id\":1}"))
+                .isInstanceOf(InvalidJsonRpcRequestException.class);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{\"jsonrpc\":\"1.0\",\"id\":1,\"method\":\"eth_chainId\"}",
+            "{\"id\":1,\"method\":\"eth_chainId\"}"
+    })
+    void parse_singleRequestOfUnsupportedVersionIsRejected(String json) {
+        assertThatThrownBy(() -> parse(json)).isInstanceOf(UnsupportedJsonRpcVersionException.class);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"{\"jsonrpc\":\"2.0\",\"id\":1,", "not a json", "[1, 2"})
+    void parse_malformedRequestIsRejected(String json) {
+        assertThatThrownBy(() -> parse(json)).isInstanceOf(MalformedJsonRpcRequestException.class);
+    }
+
+    @Test
+    void parse_batchRequest() {
+        var reqCtx = parse("[{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_chainId\"},"
+                + " {\"jsonrpc\":\"2.0\",\"method\":\"eth_blockNumber\"} ]");
+
+        assertThat(reqCtx.isBatch()).isTrue();
+        assertThat(reqCtx.getCalls()).hasSize(2);
+        assertThat(reqCtx.getCalls()).allMatch(JsonRpcCall::isPending);
+        assertThat(reqCtx.getCalls().get(0).getRequest().getRawId()).isEqualTo("1");
+        assertThat(reqCtx.getCalls().get(1).getRequest().getMethod()).isEqualTo("eth_blockNumber");
+        assertThat(reqCtx.getCalls().get(1).getRequest().getRawId()).isNull();
+    }
+
+    @Test
+    void parse_invalidElementsOfBatchAreRejectedIndividually() {
+        var reqCtx = parse("[{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_chainId\"},"
+                + "{\"jsonrpc\":\"1.0\",\"id\":2,\"method\":\"eth_chainId\"},"
+                + "{\"jsonrpc\":\"2.0\",\"id\":\"x\"}]");
+
+        var calls = reqCtx.getCalls();
+        assertThat(calls.get(0).isPending()).isTrue();
+        assertInvalidRequest(calls.get(1), 2);
+        assertInvalidRequest(calls.get(2), "x");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"1", "\"str\"", "[]", "null"})
+    void parse_nonObjectElementsOfBatchAreRejectedWithNullId(String element) {
+        var reqCtx = parse("[" + element + ",{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_chainId\"}]");
+
+        var call = reqCtx.getCalls().get(0);
+        assertThat(call.getRequest()).isNull();
+        assertInvalidRequest(call, null);
+        assertThat(reqCtx.getCalls().get(1).isPending()).isTrue();
+    }
+
+    @Test
+    void parse_emptyBatchIsRejected() {
+        assertThatThrownBy(() -> parse("[ ]")).isInstanceOf(InvalidJsonRpcRequestException.class);
+    }
+
+    @Test
+    void parse_tooLargeBatchIsRejected() {
+        var call = "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_chainId\"}";
+        var batch = "[" + String.join(",", Collections.nCopies(MAX_BATCH_SIZE + 1, call)) + "]";
+
+        assertThatThrownBy(() -> parse(batch)).isInstanceOf(InvalidJsonRpcRequestException.class);
+    }
+
+    private static void assertInvalidRequest(JsonRpcCall call, Object id) {
+        assertThat(call.isRejected()).isTrue();
+        assertThat(call.isPending()).isFalse();
+        var resp = new JsonObject(call.getResp());
+        assertThat(resp.getValue("id")).isEqualTo(id);
+        assertThat(resp.getJsonObject("error").getInteger("code")).isEqualTo(INVALID_REQUEST_CODE);
+        assertThat(resp.getJsonObject("error").getString("message")).isEqualTo("Invalid Request");
+    }
+
+    private ProxiedReqCtx parse(String json) {
+        var reqCtx = new ProxiedReqCtx(null);
+        handler.parse(reqCtx, Buffer.buffer(json));
+        return reqCtx;
+    }
+}
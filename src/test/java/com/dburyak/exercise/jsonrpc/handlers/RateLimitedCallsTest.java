@@ -0,0 +1,83 @@
+package com.dburyak.exercise.jsonrpc.handlers;
+
+import com.dburyak.exercise.jsonrpc.JsonRpcCall;
+import com.dburyak.exercise.jsonrpc.ProxiedReqCtx;
+import com.dburyak.exercise.jsonrpc.json.JsonRpcEnvelopeScanner;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.dburyak.exercise.jsonrpc.json.JsonRpcResponses.LIMIT_EXCEEDED_CODE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimitedCallsTest {
+
+    @Test
+    void reject_callGetsLimitExceededErrorWithItsId() {
+        var call = call("{\"jsonrpc\":\"2.0\",\"id\":\"abc\",\"method\":\"eth_chainId\"}");
+
+        RateLimitedCalls.reject(call);
+
+        assertThat(call.isRejected()).isTrue();
+        var resp = new JsonObject(call.getResp());
+        assertThat(resp.getString("id")).isEqualTo("abc");
+        assertThat(resp.getJsonObject("error").getInteger("code")).isEqualTo(LIMIT_EXCEEDED_CODE);
+    }
+
+    @Test
+    void reject_notificationGetsNoResponse() {
+        var call = call("{\"jsonrpc\":\"2.0\",\"method\":\"eth_chainId\"}");
+
+        RateLimitedCalls.reject(call);
+
+        assertThat(call.isRejected()).isTrue();
+        assertThat(call.isPending()).isFalse();
+        assertThat(call.getResp()).isNull();
+    }
+
+    @Test
+    void reject_batchResponseHasNoEntriesForRejectedNotifications() {
+        var reqCtx = new ProxiedReqCtx(null);
+        reqCtx.setBatch(true);
+        var notification = call("{\"jsonrpc\":\"2.0\",\"method\":\"eth_chainId\"}");
+        var call = call("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_chainId\"}");
+        reqCtx.setCalls(List.of(notification, call));
+
+        RateLimitedCalls.reject(notification);
+        RateLimitedCalls.reject(call);
+
+        var resp = ReqForwardingHandler.assembleBatchResp(reqCtx);
+        assertThat(new JsonArray(resp)).hasSize(1);
+    }
+
+    @Test
+    void reject_batchOfRejectedNotificationsGetsEmptyResponse() {
+        var reqCtx = new ProxiedReqCtx(null);
+        reqCtx.setBatch(true);
+        var notification = call("{\"jsonrpc\":\"2.0\",\"method\":\"eth_chainId\"}");
+        reqCtx.setCalls(List.of(notification));
+
+        RateLimitedCalls.reject(notification);
+
+        assertThat(ReqForwardingHandler.assembleBatchResp(reqCtx).length()).isZero();
+    }
+
+    @Test
+    void pending_excludesRejectedCallsOfBatch() {
+        var reqCtx = new ProxiedReqCtx(null);
+        reqCtx.setBatch(true);
+        var rejected = call("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_chainId\"}");
+        var pending = call("{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"eth_chainId\"}");
+        reqCtx.setCalls(List.of(rejected, pending));
+        RateLimitedCalls.reject(rejected);
+
+        assertThat(RateLimitedCalls.pending(reqCtx)).containsExactly(pending);
+    }
+
+    private static JsonRpcCall call(String json) {
+        return new JsonRpcCall(JsonRpcEnvelopeScanner.scanRequest(Buffer.buffer(json)));
+    }
+}
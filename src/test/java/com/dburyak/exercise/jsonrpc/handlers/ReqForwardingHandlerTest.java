@@ -0,0 +1,122 @@
+package com.dburyak.exercise.jsonrpc.handlers;
+
+import com.dburyak.exercise.jsonrpc.BackendResponse;
+import com.dburyak.exercise.jsonrpc.Config;
+import com.dburyak.exercise.jsonrpc.JsonRpcCall;
+import com.dburyak.exercise.jsonrpc.json.JsonRpcEnvelopeScanner;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static com.dburyak.exercise.jsonrpc.json.JsonRpcResponses.INTERNAL_ERROR_CODE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReqForwardingHandlerTest {
+    private final ReqForwardingHandler handler = new ReqForwardingHandler(new Config(new JsonObject()
+            .put(Config.PROXIED_BACKEND_URLS_ENV, "http://localhost:8545")
+            .put("jsonrpc", new JsonObject()
+                    .put("perMethodIpRateLimiting", new JsonObject().put("methods", new JsonObject()
+                            .put("eth_call", new JsonObject().put("requests", 10).put("timeWindow", "1s")))))),
+            null, null, null, null, null);
+
+    @Test
+    void chunks_splitsCallsInOrder() {
+        var calls = calls(5);
+
+        var chunks = ReqForwardingHandler.chunks(calls, 2);
+
+        assertThat(chunks).containsExactly(calls.subList(0, 2), calls.subList(2, 4), calls.subList(4, 5));
+    }
+
+    @Test
+    void chunks_singleChunkIfCallsFit() {
+        var calls = calls(3);
+
+        assertThat(ReqForwardingHandler.chunks(calls, 3)).containsExactly(calls);
+        assertThat(ReqForwardingHandler.chunks(List.of(), 3)).isEmpty();
+    }
+
+    @Test
+    void distributeChunkResp_matchesResponsesById() {
+        var chunk = calls(3);
+
+        handler.distributeChunkResp(null, chunk, resp(200, "[" + result(3, "0xc") + "," + result(1, "0xa") + ","
+                + result(2, "0xb") + "]"));
+
+        assertThat(chunk).allMatch(JsonRpcCall::isSuccessful);
+        assertThat(new JsonObject(chunk.get(0).getResp()).getString("result")).isEqualTo("0xa");
+        assertThat(new JsonObject(chunk.get(1).getResp()).getString("result")).isEqualTo("0xb");
+        assertThat(new JsonObject(chunk.get(2).getResp()).getString("result")).isEqualTo("0xc");
+    }
+
+    @Test
+    void distributeChunkResp_missingResponsesAreErrors() {
+        var chunk = calls(2);
+
+        handler.distributeChunkResp(null, chunk, resp(200, "[" + result(2, "0xb") + "]"));
+
+        var missing = new JsonObject(chunk.get(0).getResp());
+        assertThat(missing.getInteger("id")).isEqualTo(1);
+        assertThat(missing.getJsonObject("error").getInteger("code")).isEqualTo(INTERNAL_ERROR_CODE);
+        assertThat(new JsonObject(chunk.get(1).getResp()).getString("result")).isEqualTo("0xb");
+    }
+
+    @Test
+    void distributeChunkResp_notificationsGetNoResponse() {
+        var notification = call("{\"jsonrpc\":\"2.0\",\"method\":\"eth_chainId\"}");
+        var chunk = new ArrayList<>(calls(1));
+        chunk.add(notification);
+
+        handler.distributeChunkResp(null, chunk, resp(200, "[" + result(1, "0xa") + "]"));
+
+        assertThat(notification.getResp()).isNull();
+        assertThat(notification.isSuccessful()).isTrue();
+    }
+
+    @Test
+    void distributeChunkResp_failedChunkGetsErrorsWithIds() {
+        var chunk = calls(2);
+
+        handler.distributeChunkResp(null, chunk, resp(502, "<html>bad gateway</html>"));
+
+        for (var i = 0; i < chunk.size(); i++) {
+            var resp = new JsonObject(chunk.get(i).getResp());
+            assertThat(resp.getInteger("id")).isEqualTo(i + 1);
+            assertThat(resp.getJsonObject("error").getInteger("code")).isEqualTo(INTERNAL_ERROR_CODE);
+            assertThat(chunk.get(i).isSuccessful()).isFalse();
+        }
+    }
+
+    @Test
+    void distributeChunkResp_nonArrayResponseFailsChunk() {
+        var chunk = calls(1);
+
+        handler.distributeChunkResp(null, chunk, resp(200, result(1, "0xa")));
+
+        assertThat(chunk.get(0).isSuccessful()).isFalse();
+        assertThat(new JsonObject(chunk.get(0).getResp()).getJsonObject("error")).isNotNull();
+    }
+
+    private static List<JsonRpcCall> calls(int num) {
+        return IntStream.rangeClosed(1, num)
+                .mapToObj(i -> call("{\"jsonrpc\":\"2.0\",\"id\":" + i + ",\"method\":\"eth_chainId\"}"))
+                .toList();
+    }
+
+    private static JsonRpcCall call(String json) {
+        return new JsonRpcCall(JsonRpcEnvelopeScanner.scanRequest(Buffer.buffer(json)));
+    }
+
+    private static String result(int id, String result) {
+        return "{\"jsonrpc\":\"2.0\",\"id\":" + id + ",\"result\":\"" + result + "\"}";
+    }
+
+    private static BackendResponse resp(int status, String body) {
+        return new BackendResponse(status, "", MultiMap.caseInsensitiveMultiMap(), Buffer.buffer(body));
+    }
+}
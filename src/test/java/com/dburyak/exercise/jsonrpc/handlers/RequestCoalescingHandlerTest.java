@@ -0,0 +1,210 @@
+package com.dburyak.exercise.jsonrpc.handlers;
+
+import com.dburyak.exercise.jsonrpc.BackendResponse;
+import com.dburyak.exercise.jsonrpc.JsonRpcCall;
+import com.dburyak.exercise.jsonrpc.ProxiedReqCtx;
+import com.dburyak.exercise.jsonrpc.ReqHandler;
+import com.dburyak.exercise.jsonrpc.cache.CoalescingStats;
+import com.dburyak.exercise.jsonrpc.json.JsonRpcEnvelopeScanner;
+import com.dburyak.exercise.jsonrpc.json.JsonRpcResponses;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.subjects.MaybeSubject;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestCoalescingHandlerTest {
+    private final FakeForwardingHandler forwarding = new FakeForwardingHandler();
+    private final CoalescingStats stats = new CoalescingStats();
+    private final RequestCoalescingHandler handler = new RequestCoalescingHandler(forwarding, stats);
+
+    @Test
+    void followersGetLeaderResponseWithTheirOwnIds() {
+        var leader = single("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_getBalance\","
+                + "\"params\":[\"0xAB\",\"latest\"]}");
+        var follower1 = single("{\"jsonrpc\":\"2.0\",\"id\":\"abc\",\"method\":\"eth_getBalance\","
+                + "\"params\":[ \"0xab\", \"latest\" ]}");
+        var follower2 = single("{\"jsonrpc\":\"2.0\",\"id\":null,\"method\":\"eth_getBalance\","
+                + "\"params\":[\"0xab\",\"latest\"]}");
+
+        var leaderResult = handler.handle(leader).test();
+        var follower1Result = handler.handle(follower1).test();
+        var follower2Result = handler.handle(follower2).test();
+        forwarding.respond(0, 200, "{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":\"0x10\"}");
+
+        assertThat(forwarding.forwardedCalls()).isEqualTo(1);
+        leaderResult.assertValue(leader);
+        follower1Result.assertValue(follower1);
+        follower2Result.assertValue(follower2);
+        assertThat(json(follower1.getRespBody())).isEqualTo(resp("\"abc\"", "\"0x10\""));
+        assertThat(json(follower2.getRespBody())).isEqualTo(resp("null", "\"0x10\""));
+        assertThat(follower1.getCalls().get(0).isSuccessful()).isTrue();
+        assertThat(stats.toJson().getLong("savedUpstreamCalls")).isEqualTo(2);
+    }
+
+    @Test
+    void followersGetErrorWithTheirOwnIdsIfLeaderFails() {
+        var leader = single("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_blockNumber\"}");
+        var follower = single("{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"eth_blockNumber\"}");
+
+        handler.handle(leader).test();
+        handler.handle(follower).test();
+        forwarding.respond(0, 502, "bad gateway");
+
+        var resp = new JsonObject(follower.getRespBody());
+        assertThat(resp.getInteger("id")).isEqualTo(2);
+        assertThat(resp.getJsonObject("error").getInteger("code")).isEqualTo(JsonRpcResponses.INTERNAL_ERROR_CODE);
+        assertThat(follower.getCalls().get(0).isSuccessful()).isFalse();
+    }
+
+    @Test
+    void callsAfterLeaderCompletedAreForwardedAgain() {
+        var first = single("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_blockNumber\"}");
+        handler.handle(first).test();
+        forwarding.respond(0, 200, "{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":\"0x10\"}");
+
+        var second = single("{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"eth_blockNumber\"}");
+        handler.handle(second).test();
+
+        assertThat(forwarding.forwardedCalls()).isEqualTo(2);
+        assertThat(second.getCalls().get(0).isCoalesced()).isFalse();
+    }
+
+    @Test
+    void identicalCallsOfBatchAreForwardedOnce() {
+        var batch = batch("[{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_chainId\"},"
+                + "{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"eth_blockNumber\"},"
+                + "{\"jsonrpc\":\"2.0\",\"id\":3,\"method\":\"eth_chainId\"}]");
+
+        var result = handler.handle(batch).test();
+        forwarding.respondBatch(0, List.of(
+                "{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":\"0x1\"}",
+                "{\"jsonrpc\":\"2.0\",\"id\":2,\"result\":\"0x10\"}"));
+
+        result.assertValue(batch);
+        assertThat(forwarding.forwardedCalls()).isEqualTo(2);
+        assertThat(new JsonArray(batch.getRespBody())).containsExactly(
+                resp("1", "\"0x1\""), resp("2", "\"0x10\""), resp("3", "\"0x1\""));
+    }
+
+    @Test
+    void nonCoalescableCallsAreAlwaysForwarded() {
+        var tx = "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_sendRawTransaction\",\"params\":[\"0xaa\"]}";
+        var unknown = "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"custom_method\"}";
+
+        handler.handle(single(tx)).test();
+        handler.handle(single(tx)).test();
+        handler.handle(single(unknown)).test();
+        handler.handle(single(unknown)).test();
+
+        assertThat(forwarding.forwardedCalls()).isEqualTo(4);
+    }
+
+    @Test
+    void notificationsAreNotCoalesced() {
+        handler.handle(single("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_blockNumber\"}")).test();
+
+        var notification = single("{\"jsonrpc\":\"2.0\",\"method\":\"eth_blockNumber\"}");
+        handler.handle(notification).test();
+
+        assertThat(notification.getCalls().get(0).isCoalesced()).isFalse();
+        assertThat(forwarding.forwardedCalls()).isEqualTo(2);
+    }
+
+    @Test
+    void differentParamsAreNotCoalesced() {
+        handler.handle(single("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_getBalance\",\"params\":[\"0x1\"]}"))
+                .test();
+        handler.handle(single("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"eth_getBalance\",\"params\":[\"0x2\"]}"))
+                .test();
+
+        assertThat(forwarding.forwardedCalls()).isEqualTo(2);
+    }
+
+    private static ProxiedReqCtx single(String json) {
+        var reqCtx = new ProxiedReqCtx(null);
+        reqCtx.setCalls(List.of(new JsonRpcCall(JsonRpcEnvelopeScanner.scanRequest(Buffer.buffer(json)))));
+        return reqCtx;
+    }
+
+    private static ProxiedReqCtx batch(String json) {
+        var buf = Buffer.buffer(json);
+        var bounds = JsonRpcResponses.arrayElements(buf);
+        var calls = new ArrayList<JsonRpcCall>();
+        for (var i = 0; i < bounds.length; i += 2) {
+            calls.add(new JsonRpcCall(JsonRpcEnvelopeScanner.scanRequest(buf, bounds[i], bounds[i + 1])));
+        }
+        var reqCtx = new ProxiedReqCtx(null);
+        reqCtx.setBatch(true);
+        reqCtx.setCalls(calls);
+        return reqCtx;
+    }
+
+    private static JsonObject json(Buffer buf) {
+        return new JsonObject(buf);
+    }
+
+    private static JsonObject resp(String rawId, String rawResult) {
+        return new JsonObject("{\"jsonrpc\":\"2.0\",\"id\":" + rawId + ",\"result\":" + rawResult + "}");
+    }
+
+    /**
+     * Completes the forwarded requests only when told to, as the real forwarding handler does for the pending calls
+     * only.
+     */
+    private static class FakeForwardingHandler implements ReqHandler {
+        private final List<ProxiedReqCtx> forwarded = new ArrayList<>();
+        private final List<MaybeSubject<ProxiedReqCtx>> results = new ArrayList<>();
+        private int forwardedCalls;
+
+        @Override
+        public Maybe<ProxiedReqCtx> handle(ProxiedReqCtx reqCtx) {
+            var pending = reqCtx.getCalls().stream().filter(JsonRpcCall::isPending).count();
+            if (pending == 0) {
+                if (reqCtx.isBatch()) {
+                    reqCtx.setRespBody(ReqForwardingHandler.assembleBatchResp(reqCtx));
+                }
+                return Maybe.just(reqCtx);
+            }
+            forwardedCalls += (int) pending;
+            var result = MaybeSubject.<ProxiedReqCtx>create();
+            forwarded.add(reqCtx);
+            results.add(result);
+            return result;
+        }
+
+        int forwardedCalls() {
+            return forwardedCalls;
+        }
+
+        void respond(int idx, int status, String body) {
+            var reqCtx = forwarded.get(idx);
+            var buf = Buffer.buffer(body);
+            reqCtx.setBackendResp(new BackendResponse(status, "", MultiMap.caseInsensitiveMultiMap(), buf));
+            reqCtx.getCalls().get(0).setResp(buf);
+            reqCtx.getCalls().get(0).setSuccessful(status == 200);
+            results.get(idx).onSuccess(reqCtx);
+        }
+
+        /**
+         * @param resps responses of the pending calls, in order
+         */
+        void respondBatch(int idx, List<String> resps) {
+            var reqCtx = forwarded.get(idx);
+            var pending = reqCtx.getCalls().stream().filter(JsonRpcCall::isPending).toList();
+            for (var i = 0; i < pending.size(); i++) {
+                pending.get(i).setResp(Buffer.buffer(resps.get(i)));
+                pending.get(i).setSuccessful(true);
+            }
+            reqCtx.setRespBody(ReqForwardingHandler.assembleBatchResp(reqCtx));
+            results.get(idx).onSuccess(reqCtx);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.dburyak.exercise.jsonrpc.json;
+
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CanonicalJsonTest {
+
+    @Test
+    void canonicalize_removesWhitespacesOutsideStrings() {
+        assertThat(canonicalize("[ \"0x1\" ,\n\t{ \"a\" : true }\r\n]")).isEqualTo("[\"0x1\",{\"a\":true}]");
+    }
+
+    @Test
+    void canonicalize_keepsWhitespacesInsideStrings() {
+        assertThat(canonicalize("[\"a b\", \" \"]")).isEqualTo("[\"a b\",\" \"]");
+    }
+
+    @Test
+    void canonicalize_lowerCasesHexStrings() {
+        assertThat(canonicalize("[\"0xABCdef01\", \"0XFF\"]")).isEqualTo("[\"0xabcdef01\",\"0xff\"]");
+    }
+
+    @Test
+    void canonicalize_lowerCasesHexStringsOfNestedObjects() {
+        assertThat(canonicalize("[{\"to\": \"0xAB\", \"data\": \"0xCD\"}, \"latest\"]"))
+                .isEqualTo("[{\"to\":\"0xab\",\"data\":\"0xcd\"},\"latest\"]");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"\"Latest\"", "\"0x\"", "\"0xABG\"", "\"AB\"", "\"0xAB CD\""})
+    void canonicalize_keepsCaseOfOtherStrings(String str) {
+        assertThat(canonicalize("[" + str + "]")).isEqualTo("[" + str + "]");
+    }
+
+    @Test
+    void canonicalize_keepsCaseOfFieldNames() {
+        assertThat(canonicalize("{\"fromBlock\":\"0xA\"}")).isEqualTo("{\"fromBlock\":\"0xa\"}");
+    }
+
+    @Test
+    void canonicalize_keepsEscapedQuotesInsideStrings() {
+        assertThat(canonicalize("[\"a\\\" B\", 1]")).isEqualTo("[\"a\\\" B\",1]");
+    }
+
+    @Test
+    void canonicalize_keepsFieldsOrder() {
+        assertThat(canonicalize("{\"b\":1,\"a\":2}")).isNotEqualTo(canonicalize("{\"a\":2,\"b\":1}"));
+    }
+
+    @Test
+    void canonicalize_differentlyFormattedEqualParamsAreEqual() {
+        var compact = canonicalize("[{\"to\":\"0xabcd\",\"data\":\"0x70a08231\"},\"latest\"]");
+        var formatted = canonicalize("[ {\n  \"to\": \"0xABCD\",\n  \"data\": \"0x70A08231\"\n}, \"latest\" ]");
+
+        assertThat(formatted).isEqualTo(compact);
+    }
+
+    @Test
+    void canonicalize_differentValuesAreNotEqual() {
+        assertThat(canonicalize("[\"0x1\", false]")).isNotEqualTo(canonicalize("[\"0x1\", true]"));
+        assertThat(canonicalize("[\"0x1\"]")).isNotEqualTo(canonicalize("[\"0x01\"]"));
+    }
+
+    @Test
+    void canonicalize_onlyTheGivenRange() {
+        var buf = Buffer.buffer("{\"params\": [ \"0xAA\" ], \"id\": 1}");
+        var start = buf.toString().indexOf('[');
+        var end = buf.toString().indexOf(']') + 1;
+
+        assertThat(CanonicalJson.canonicalize(buf, start, end)).isEqualTo("[\"0xaa\"]");
+    }
+
+    @Test
+    void canonicalize_keepsMultiByteCharacters() {
+        assertThat(canonicalize("[ \"привіт\" ]")).isEqualTo("[\"привіт\"]");
+    }
+
+    private static String canonicalize(String json) {
+        var buf = Buffer.buffer(json);
+        return CanonicalJson.canonicalize(buf, 0, buf.length());
+    }
+}
@@ -0,0 +1,240 @@
+package com.dburyak.exercise.jsonrpc.json;
+
+import com.dburyak.exercise.jsonrpc.JsonRpcRequest;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JsonRpcEnvelopeScannerTest {
+
+    @Test
+    void scanRequest_extractsEnvelopeFields() {
+        var req = scan("{\"jsonrpc\":\"2.0\",\"method\":\"eth_getBalance\",\"params\":[\"0xab\",\"latest\"],\"id\":7}");
+
+        assertThat(req.getVersion()).isEqualTo(JsonRpcRequest.VERSION_2_0);
+        assertThat(req.getMethod()).isEqualTo("eth_getBalance");
+        assertThat(req.getMethodId()).isEqualTo(KnownMethods.idOf("eth_getBalance"));
+        assertThat(req.getRawId()).isEqualTo("7");
+        assertThat(params(req)).isEqualTo("[\"0xab\",\"latest\"]");
+    }
+
+    @Test
+    void scanRequest_returnsInternedKnownMethod() {
+        var req = scan("{\"method\":\"eth_call\"}");
+
+        assertThat(req.getMethod()).isSameAs(KnownMethods.intern("eth_call"));
+    }
+
+    @Test
+    void scanRequest_keepsRawIdAsIs() {
+        assertThat(scan("{\"id\":\"a\\\"b\",\"method\":\"m\"}").getRawId()).isEqualTo("\"a\\\"b\"");
+        assertThat(scan("{\"id\":null,\"method\":\"m\"}").getRawId()).isEqualTo("null");
+        assertThat(scan("{\"id\": -1.5e3 ,\"method\":\"m\"}").getRawId()).isEqualTo("-1.5e3");
+    }
+
+    @Test
+    void scanRequest_toleratesWhitespaces() {
+        var req = scan(" {\n\t\"method\" : \"eth_chainId\" ,\r\n \"id\" : 1 } \n");
+
+        assertThat(req.getMethod()).isEqualTo("eth_chainId");
+        assertThat(req.getRawId()).isEqualTo("1");
+    }
+
+    @Test
+    void scanRequest_decodesEscapedMethod() {
+        var req = scan("{\"method\":\"eth_\\u0063all\",\"id\":1}");
+
+        assertThat(req.getMethod()).isSameAs(KnownMethods.intern("eth_call"));
+        assertThat(req.getMethodId()).isEqualTo(KnownMethods.idOf("eth_call"));
+    }
+
+    @Test
+    void scanRequest_readsUnknownMethod() {
+        var req = scan("{\"method\":\"custom_method\\\"x\",\"id\":1}");
+
+        assertThat(req.getMethod()).isEqualTo("custom_method\"x");
+        assertThat(req.getMethodId()).isEqualTo(KnownMethods.UNKNOWN_ID);
+    }
+
+    @Test
+    void scanRequest_ignoresFieldsNestedInParams() {
+        var req = scan("{\"method\":\"eth_call\",\"params\":[{\"method\":\"x\",\"id\":2,\"data\":\"}]\\\"\"}],"
+                + "\"id\":1}");
+
+        assertThat(req.getMethod()).isEqualTo("eth_call");
+        assertThat(req.getRawId()).isEqualTo("1");
+        assertThat(params(req)).isEqualTo("[{\"method\":\"x\",\"id\":2,\"data\":\"}]\\\"\"}]");
+    }
+
+    @Test
+    void scanRequest_keepsParamsOfAnyType() {
+        assertThat(params(scan("{\"method\":\"m\",\"params\":{\"a\":[1,2]}}"))).isEqualTo("{\"a\":[1,2]}");
+        assertThat(params(scan("{\"method\":\"m\",\"params\":\"str\"}"))).isEqualTo("\"str\"");
+    }
+
+    @Test
+    void scanRequest_lastOfDuplicateFieldsWins() {
+        // same as when the full JSON tree is decoded
+        var json = "{\"method\":\"eth_call\",\"id\":1,\"method\":\"eth_chainId\",\"id\":2}";
+
+        var req = scan(json);
+
+        assertThat(req.getMethod()).isEqualTo("eth_chainId");
+        assertThat(req.getMethodId()).isEqualTo(KnownMethods.idOf("eth_chainId"));
+        assertThat(req.getRawId()).isEqualTo("2");
+        assertThat(req.getFullRequest().getString(JsonRpcRequest.FIELD_METHOD)).isEqualTo(req.getMethod());
+    }
+
+    @Test
+    void scanRequest_missingFieldsAreAbsent() {
+        var req = scan("{}");
+
+        assertThat(req.getVersion()).isNull();
+        assertThat(req.getMethod()).isNull();
+        assertThat(req.getMethodId()).isEqualTo(KnownMethods.UNKNOWN_ID);
+        assertThat(req.getRawId()).isNull();
+        assertThat(req.hasParams()).isFalse();
+    }
+
+    @Test
+    void scanRequest_nonStringMethodIsAbsent() {
+        var req = scan("{\"method\":123,\"id\":1}");
+
+        assertThat(req.getMethod()).isNull();
+        assertThat(req.getMethodId()).isEqualTo(KnownMethods.UNKNOWN_ID);
+    }
+
+    @Test
+    void scanRequest_keepsUnsupportedVersion() {
+        assertThat(scan("{\"jsonrpc\":\"1.0\",\"method\":\"m\"}").getVersion()).isEqualTo("\"1.0\"");
+    }
+
+    @Test
+    void scanRequest_scansBatchElementInPlace() {
+        var batch = Buffer.buffer("[{\"method\":\"a\",\"id\":1},{\"method\":\"b\",\"params\":[2],\"id\":2}]");
+        var start = batch.toString().indexOf("},{") + 2;
+        var end = batch.length() - 1;
+
+        var req = JsonRpcEnvelopeScanner.scanRequest(batch, start, end);
+
+        assertThat(req.getMethod()).isEqualTo("b");
+        assertThat(req.getRaw().toString()).isEqualTo("{\"method\":\"b\",\"params\":[2],\"id\":2}");
+        assertThat(params(req)).isEqualTo("[2]");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "",
+            "   ",
+            "{",
+            "{\"method\"",
+            "{\"method\":",
+            "{\"method\":\"eth_",
+            "{\"method\":\"eth_call\\",
+            "{\"method\":\"eth_call\"",
+            "{\"method\":\"eth_call\",",
+            "{\"method\":\"eth_call\",\"params\":[1,{\"a\":2}",
+            "{\"method\":\"eth_call\",\"params\":[\"]}",
+            "{\"method\" \"eth_call\"}",
+            "{\"method\":\"eth_call\" \"id\":1}",
+            "{\"method\":\"eth_call\"} x",
+            "{\"method\":\"eth_call\"}}",
+            "[{\"method\":\"eth_call\"}]",
+            "{method:\"eth_call\"}",
+    })
+    void scanRequest_failsOnMalformedInput(String json) {
+        assertThatThrownBy(() -> scan(json)).isInstanceOf(DecodeException.class);
+    }
+
+    @Test
+    void scanResponse_extractsResultAndId() {
+        var json = "{\"jsonrpc\":\"2.0\",\"id\":\"x\",\"result\":{\"id\":2,\"error\":{\"code\":1}}}";
+        var buf = Buffer.buffer(json);
+
+        var env = JsonRpcEnvelopeScanner.scanResponse(buf, 0, buf.length());
+
+        assertThat(env.isError()).isFalse();
+        assertThat(env.getRawId()).isEqualTo("\"x\"");
+        assertThat(buf.getString(env.getIdStart(), env.getIdEnd())).isEqualTo("\"x\"");
+        assertThat(buf.getString(env.getResultStart(), env.getResultEnd()))
+                .isEqualTo("{\"id\":2,\"error\":{\"code\":1}}");
+    }
+
+    @Test
+    void scanResponse_extractsError() {
+        var json = "{\"id\":1,\"error\":{\"message\":\"header \\\"x\\\" not found\",\"data\":{\"code\":1},"
+                + "\"code\":-32000}}";
+        var buf = Buffer.buffer(json);
+
+        var env = JsonRpcEnvelopeScanner.scanResponse(buf, 0, buf.length());
+
+        assertThat(env.isError()).isTrue();
+        assertThat(env.getErrorCode()).isEqualTo(-32000);
+        assertThat(env.getErrorMessage()).isEqualTo("header \"x\" not found");
+        assertThat(env.getResultStart()).isEqualTo(-1);
+    }
+
+    @Test
+    void scanResponse_errorWithoutCodeIsInternalError() {
+        var buf = Buffer.buffer("{\"id\":1,\"error\":{\"message\":\"oops\"}}");
+
+        var env = JsonRpcEnvelopeScanner.scanResponse(buf, 0, buf.length());
+
+        assertThat(env.getErrorCode()).isEqualTo(JsonRpcResponses.INTERNAL_ERROR_CODE);
+        assertThat(env.getErrorMessage()).isEqualTo("oops");
+    }
+
+    @Test
+    void scanResponse_missingIdIsAbsent() {
+        var buf = Buffer.buffer("{\"result\":\"0x1\"}");
+
+        var env = JsonRpcEnvelopeScanner.scanResponse(buf, 0, buf.length());
+
+        assertThat(env.getRawId()).isNull();
+        assertThat(env.getIdStart()).isEqualTo(-1);
+    }
+
+    @Test
+    void scanResponse_scansBatchElementsInPlace() {
+        var buf = Buffer.buffer(new JsonArray()
+                .add(new JsonObject().put("id", 1).put("result", "a"))
+                .add(new JsonObject().put("id", 2).put("result", "b"))
+                .encode());
+        var bounds = JsonRpcResponses.arrayElements(buf);
+
+        var env = JsonRpcEnvelopeScanner.scanResponse(buf, bounds[2], bounds[3]);
+
+        assertThat(env.getRawId()).isEqualTo("2");
+        assertThat(buf.getString(env.getResultStart(), env.getResultEnd())).isEqualTo("\"b\"");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{\"id\":1,\"result\":",
+            "{\"id\":1,\"result\":[1,2}",
+            "{\"id\":1,\"error\":{\"code\":1",
+            "{\"id\":1,\"error\":{\"message\":\"x",
+            "{\"id\":1 \"result\":1}",
+    })
+    void scanResponse_failsOnMalformedInput(String json) {
+        var buf = Buffer.buffer(json);
+
+        assertThatThrownBy(() -> JsonRpcEnvelopeScanner.scanResponse(buf, 0, buf.length()))
+                .isInstanceOf(DecodeException.class);
+    }
+
+    private static JsonRpcRequest scan(String json) {
+        return JsonRpcEnvelopeScanner.scanRequest(Buffer.buffer(json));
+    }
+
+    private static String params(JsonRpcRequest req) {
+        return req.getRaw().getString(req.getParamsStart(), req.getParamsEnd());
+    }
+}
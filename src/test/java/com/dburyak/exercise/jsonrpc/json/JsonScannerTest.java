@@ -0,0 +1,142 @@
+package com.dburyak.exercise.jsonrpc.json;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JsonScannerTest {
+
+    @Test
+    void skipString_skipsEscapedQuotesAndBackslashes() {
+        var buf = Buffer.buffer("\"a\\\"b\\\\\",1");
+
+        var pos = JsonScanner.skipString(buf, 0, buf.length());
+
+        assertThat(buf.getString(0, pos)).isEqualTo("\"a\\\"b\\\\\"");
+    }
+
+    @Test
+    void skipString_skipsUnicodeEscapes() {
+        var buf = Buffer.buffer("\"\\u0022\\u005c\"}");
+
+        var pos = JsonScanner.skipString(buf, 0, buf.length());
+
+        assertThat(pos).isEqualTo(buf.length() - 1);
+    }
+
+    @Test
+    void skipString_failsOnUnterminatedString() {
+        var buf = Buffer.buffer("\"abc");
+
+        assertThatThrownBy(() -> JsonScanner.skipString(buf, 0, buf.length()))
+                .isInstanceOf(DecodeException.class);
+    }
+
+    @Test
+    void skipString_failsOnStringTruncatedInEscape() {
+        var buf = Buffer.buffer("\"abc\\");
+
+        assertThatThrownBy(() -> JsonScanner.skipString(buf, 0, buf.length()))
+                .isInstanceOf(DecodeException.class);
+    }
+
+    @Test
+    void skipValue_skipsNestedContainers() {
+        var value = "{\"a\":[1,{\"b\":[[]]},\"c\"],\"d\":{}}";
+        var buf = Buffer.buffer(value + ",2");
+
+        var pos = JsonScanner.skipValue(buf, 0, buf.length());
+
+        assertThat(pos).isEqualTo(value.length());
+    }
+
+    @Test
+    void skipValue_ignoresBracesAndBracketsInStrings() {
+        var value = "[\"}]\",\"\\\"]\",{\"{\":\"[\"}]";
+        var buf = Buffer.buffer(value + "]");
+
+        var pos = JsonScanner.skipValue(buf, 0, buf.length());
+
+        assertThat(pos).isEqualTo(value.length());
+    }
+
+    @Test
+    void skipValue_skipsScalars() {
+        var buf = Buffer.buffer("-1.5e+3,true");
+
+        assertThat(JsonScanner.skipValue(buf, 0, buf.length())).isEqualTo(7);
+        assertThat(JsonScanner.skipValue(buf, 8, buf.length())).isEqualTo(buf.length());
+    }
+
+    @Test
+    void skipValue_failsOnTruncatedContainer() {
+        var buf = Buffer.buffer("[1,{\"a\":2}");
+
+        assertThatThrownBy(() -> JsonScanner.skipValue(buf, 0, buf.length()))
+                .isInstanceOf(DecodeException.class);
+    }
+
+    @Test
+    void skipValue_failsOnEmptyInput() {
+        var buf = Buffer.buffer("");
+
+        assertThatThrownBy(() -> JsonScanner.skipValue(buf, 0, buf.length()))
+                .isInstanceOf(DecodeException.class);
+    }
+
+    @Test
+    void skipValue_failsOnUnexpectedCharacter() {
+        var buf = Buffer.buffer(":");
+
+        assertThatThrownBy(() -> JsonScanner.skipValue(buf, 0, buf.length()))
+                .isInstanceOf(DecodeException.class);
+    }
+
+    @Test
+    void skipWs_stopsAtRangeEnd() {
+        var buf = Buffer.buffer(" \t\r\n  x");
+
+        assertThat(JsonScanner.skipWs(buf, 0, 6)).isEqualTo(6);
+        assertThat(JsonScanner.skipWs(buf, 0, 3)).isEqualTo(3);
+    }
+
+    @Test
+    void hasEscapes() {
+        var buf = Buffer.buffer("ab\\nc");
+
+        assertThat(JsonScanner.hasEscapes(buf, 0, 2)).isFalse();
+        assertThat(JsonScanner.hasEscapes(buf, 0, buf.length())).isTrue();
+    }
+
+    @Test
+    void findField_findsTopLevelFieldOnly() {
+        var buf = Buffer.buffer("{\"a\":{\"id\":1},\"b\":\"id\",\"id\":2}");
+
+        var pos = JsonScanner.findField(buf, 0, buf.length(), bytes("id"));
+
+        assertThat(buf.getString(pos, pos + 1)).isEqualTo("2");
+    }
+
+    @Test
+    void findField_returnsMinusOneIfThereIsNoField() {
+        var buf = Buffer.buffer("{\"a\":1}");
+
+        assertThat(JsonScanner.findField(buf, 0, buf.length(), bytes("id"))).isEqualTo(-1);
+    }
+
+    @Test
+    void findField_returnsMinusOneIfNotAnObject() {
+        var buf = Buffer.buffer("[{\"id\":1}]");
+
+        assertThat(JsonScanner.findField(buf, 0, buf.length(), bytes("id"))).isEqualTo(-1);
+    }
+
+    private static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,157 @@
+package com.dburyak.exercise.jsonrpc.lb;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class BackendTest {
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+    private static final long COOLDOWN_MS = 1_000;
+    private static final long SLOW_START_MS = 10_000;
+
+    private final AtomicLong nowMs = new AtomicLong(1_000_000);
+    private final Backend backend = new Backend(0, "http://localhost:8545", MAX_CONSECUTIVE_FAILURES, COOLDOWN_MS,
+            SLOW_START_MS, nowMs::get);
+
+    @Test
+    void ejectedOnceFailuresReachThreshold() {
+        fail(MAX_CONSECUTIVE_FAILURES - 1);
+        assertThat(backend.isEjected(nowMs.get())).isFalse();
+
+        fail(1);
+
+        assertThat(backend.isEjected(nowMs.get())).isTrue();
+        assertThat(backend.getEjectedUntilMs()).isEqualTo(nowMs.get() + COOLDOWN_MS);
+    }
+
+    @Test
+    void successResetsConsecutiveFailures() {
+        fail(MAX_CONSECUTIVE_FAILURES - 1);
+        succeed();
+        fail(MAX_CONSECUTIVE_FAILURES - 1);
+
+        assertThat(backend.isEjected(nowMs.get())).isFalse();
+    }
+
+    @Test
+    void returnsOnceCooldownPasses() {
+        fail(MAX_CONSECUTIVE_FAILURES);
+
+        assertThat(backend.isEjected(nowMs.get() + COOLDOWN_MS - 1)).isTrue();
+        assertThat(backend.isEjected(nowMs.get() + COOLDOWN_MS)).isFalse();
+    }
+
+    @Test
+    void cooldownDoublesIfFailingRightAfterReturn() {
+        for (var i = 0; i < 4; i++) {
+            var ejectedAt = nowMs.get();
+            fail(MAX_CONSECUTIVE_FAILURES);
+
+            assertThat(backend.getEjectedUntilMs()).isEqualTo(ejectedAt + (COOLDOWN_MS << i));
+            nowMs.set(backend.getEjectedUntilMs());
+        }
+    }
+
+    @Test
+    void cooldownIsCapped() {
+        for (var i = 0; i < 10; i++) {
+            fail(MAX_CONSECUTIVE_FAILURES);
+            nowMs.set(backend.getEjectedUntilMs());
+        }
+        var ejectedAt = nowMs.get();
+
+        fail(MAX_CONSECUTIVE_FAILURES);
+
+        assertThat(backend.getEjectedUntilMs()).isEqualTo(ejectedAt + COOLDOWN_MS * 32);
+    }
+
+    @Test
+    void cooldownIsResetBySuccessAfterReturn() {
+        fail(MAX_CONSECUTIVE_FAILURES);
+        nowMs.set(backend.getEjectedUntilMs());
+        fail(MAX_CONSECUTIVE_FAILURES);
+        nowMs.set(backend.getEjectedUntilMs());
+        succeed();
+        var ejectedAt = nowMs.get();
+
+        fail(MAX_CONSECUTIVE_FAILURES);
+
+        assertThat(backend.getEjectedUntilMs()).isEqualTo(ejectedAt + COOLDOWN_MS);
+    }
+
+    @Test
+    void failuresWhileEjectedDoNotExtendEjection() {
+        fail(MAX_CONSECUTIVE_FAILURES);
+        var ejectedUntil = backend.getEjectedUntilMs();
+
+        nowMs.addAndGet(COOLDOWN_MS / 2);
+        fail(MAX_CONSECUTIVE_FAILURES);
+
+        assertThat(backend.getEjectedUntilMs()).isEqualTo(ejectedUntil);
+    }
+
+    @Test
+    void warmupFactor_fullIfNeverEjected() {
+        assertThat(backend.warmupFactor(nowMs.get())).isEqualTo(1.0);
+    }
+
+    @Test
+    void warmupFactor_growsDuringSlowStart() {
+        fail(MAX_CONSECUTIVE_FAILURES);
+        var returnedAt = backend.getEjectedUntilMs();
+
+        assertThat(backend.warmupFactor(returnedAt)).isEqualTo(0.1);
+        assertThat(backend.warmupFactor(returnedAt + SLOW_START_MS / 2)).isCloseTo(0.5, within(1e-9));
+        assertThat(backend.warmupFactor(returnedAt + SLOW_START_MS)).isEqualTo(1.0);
+    }
+
+    @Test
+    void ewmaLatencyFollowsSamples() {
+        var initial = backend.getEwmaLatencyNanos();
+        backend.onRequestStarted();
+
+        backend.onRequestFinished((long) initial + 10_000_000, false);
+
+        assertThat(backend.getEwmaLatencyNanos()).isCloseTo(initial + 3_000_000, within(1.0));
+    }
+
+    @Test
+    void inFlightIsTracked() {
+        backend.onRequestStarted();
+        backend.onRequestStarted();
+        backend.onRequestStarted();
+
+        backend.onRequestFinished(1_000, false);
+        backend.onRequestCancelled();
+
+        assertThat(backend.getInFlight()).isEqualTo(1);
+    }
+
+    @Test
+    void cancelledRequestsDoNotAffectHealth() {
+        fail(MAX_CONSECUTIVE_FAILURES - 1);
+        var ewma = backend.getEwmaLatencyNanos();
+        backend.onRequestStarted();
+
+        backend.onRequestCancelled();
+
+        assertThat(backend.getEwmaLatencyNanos()).isEqualTo(ewma);
+        fail(1);
+        assertThat(backend.isEjected(nowMs.get())).isTrue();
+    }
+
+    private void fail(int times) {
+        for (var i = 0; i < times; i++) {
+            backend.onRequestStarted();
+            backend.onRequestFinished(1_000_000, true);
+        }
+    }
+
+    private void succeed() {
+        backend.onRequestStarted();
+        backend.onRequestFinished(1_000_000, false);
+    }
+}
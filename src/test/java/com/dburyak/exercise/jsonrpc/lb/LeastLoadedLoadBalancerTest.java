@@ -0,0 +1,185 @@
+package com.dburyak.exercise.jsonrpc.lb;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.random.RandomGenerator;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LeastLoadedLoadBalancerTest {
+    private static final int MAX_CONSECUTIVE_FAILURES = 1;
+    private static final long COOLDOWN_MS = 1_000;
+    private static final long SLOW_START_MS = 10_000;
+
+    private final AtomicLong nowMs = new AtomicLong(1_000_000);
+    private final ScriptedRandom random = new ScriptedRandom();
+    private final List<Backend> backends = IntStream.range(0, 4)
+            .mapToObj(i -> new Backend(i, "http://backend-" + i, MAX_CONSECUTIVE_FAILURES, COOLDOWN_MS,
+                    SLOW_START_MS, nowMs::get))
+            .toList();
+    private final LeastLoadedLoadBalancer lb = new LeastLoadedLoadBalancer(backends, nowMs::get, () -> random);
+
+    @Test
+    void pick_lessLoadedOfTwoCandidates() {
+        load(backends.get(1), 3);
+        load(backends.get(2), 1);
+
+        random.probe(1, 2);
+
+        assertThat(lb.pick()).isSameAs(backends.get(2));
+    }
+
+    @Test
+    void pick_onlyTheTwoCandidatesAreCompared() {
+        load(backends.get(1), 3);
+        load(backends.get(2), 2);
+
+        // backend 0 is the least loaded, but it's not among the candidates
+        random.probe(1, 2);
+
+        assertThat(lb.pick()).isSameAs(backends.get(2));
+    }
+
+    @Test
+    void pick_slowerBackendIsMoreLoaded() {
+        record(backends.get(0), 100_000_000);
+        random.probe(0, 3);
+
+        assertThat(lb.pick()).isSameAs(backends.get(3));
+    }
+
+    @Test
+    void pick_sameCandidateIsProbedAgain() {
+        load(backends.get(3), 1);
+        random.probe(3, 3, 0);
+
+        assertThat(lb.pick()).isSameAs(backends.get(0));
+    }
+
+    @Test
+    void pick_skipsEjectedBackends() {
+        eject(backends.get(1));
+        random.probe(1, 2, 1, 3);
+
+        var picked = lb.pick();
+
+        assertThat(picked).isIn(backends.get(2), backends.get(3));
+        assertThat(random.remaining()).isZero();
+    }
+
+    @Test
+    void pick_skipsExcludedBackends() {
+        load(backends.get(3), 1);
+        random.probe(0, 1, 2, 3);
+
+        assertThat(lb.pick(Set.of(backends.get(0), backends.get(1)))).isSameAs(backends.get(2));
+    }
+
+    @Test
+    void pick_singleAvailableCandidate() {
+        eject(backends.get(0));
+        eject(backends.get(1));
+        eject(backends.get(2));
+        random.probe(0, 1, 2, 3, 0, 1, 2, 0);
+
+        assertThat(lb.pick()).isSameAs(backends.get(3));
+    }
+
+    @Test
+    void pick_leastRecentlyEjectedIfAllAreEjected() {
+        eject(backends.get(2));
+        nowMs.addAndGet(10);
+        eject(backends.get(0));
+        eject(backends.get(1));
+        eject(backends.get(3));
+        random.probe(0, 1, 2, 3, 0, 1, 2, 3);
+
+        assertThat(lb.pick()).isSameAs(backends.get(2));
+    }
+
+    @Test
+    void pick_warmingUpBackendGetsLessTraffic() {
+        eject(backends.get(0));
+        nowMs.set(backends.get(0).getEjectedUntilMs() + SLOW_START_MS / 4);
+        load(backends.get(1), 2);
+
+        // cost of the warming up one is 4x, cost of the loaded one is 3x
+        random.probe(0, 1);
+
+        assertThat(lb.pick()).isSameAs(backends.get(1));
+    }
+
+    @Test
+    void pick_warmedUpBackendGetsFullTraffic() {
+        eject(backends.get(0));
+        nowMs.set(backends.get(0).getEjectedUntilMs() + SLOW_START_MS);
+        load(backends.get(1), 1);
+
+        random.probe(0, 1);
+
+        assertThat(lb.pick()).isSameAs(backends.get(0));
+    }
+
+    @Test
+    void pick_singleBackend() {
+        var single = new LeastLoadedLoadBalancer(List.of(backends.get(0)), nowMs::get, () -> random);
+        eject(backends.get(0));
+
+        assertThat(single.pick()).isSameAs(backends.get(0));
+    }
+
+    private static void load(Backend backend, int inFlight) {
+        for (var i = 0; i < inFlight; i++) {
+            backend.onRequestStarted();
+        }
+    }
+
+    private static void record(Backend backend, long latencyNanos) {
+        for (var i = 0; i < 20; i++) {
+            backend.onRequestStarted();
+            backend.onRequestFinished(latencyNanos, false);
+        }
+    }
+
+    private static void eject(Backend backend) {
+        for (var i = 0; i < MAX_CONSECUTIVE_FAILURES; i++) {
+            backend.onRequestStarted();
+            backend.onRequestFinished(1_000_000, true);
+        }
+    }
+
+    /**
+     * Returns the given indexes of the backends to probe, in order.
+     */
+    private static class ScriptedRandom implements RandomGenerator {
+        private final Queue<Integer> indexes = new ArrayDeque<>();
+
+        void probe(int... idxs) {
+            for (var idx : idxs) {
+                indexes.add(idx);
+            }
+        }
+
+        int remaining() {
+            return indexes.size();
+        }
+
+        @Override
+        public int nextInt(int bound) {
+            var idx = indexes.remove();
+            assertThat(idx).isLessThan(bound);
+            return idx;
+        }
+
+        @Override
+        public long nextLong() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
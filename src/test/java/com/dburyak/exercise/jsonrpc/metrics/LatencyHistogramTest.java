@@ -0,0 +1,132 @@
+package com.dburyak.exercise.jsonrpc.metrics;
+
+import com.dburyak.exercise.jsonrpc.metrics.LatencyHistogram.Snapshot;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static com.dburyak.exercise.jsonrpc.metrics.LatencyHistogram.BUCKETS;
+import static com.dburyak.exercise.jsonrpc.metrics.LatencyHistogram.MAX_TRACKABLE_NANOS;
+import static com.dburyak.exercise.jsonrpc.metrics.LatencyHistogram.SUB_BUCKETS;
+import static com.dburyak.exercise.jsonrpc.metrics.LatencyHistogram.bucketIndex;
+import static com.dburyak.exercise.jsonrpc.metrics.LatencyHistogram.bucketUpperBound;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketIndex_smallValuesHaveBucketsOfTheirOwn() {
+        for (var value = 0; value < 2 * SUB_BUCKETS; value++) {
+            assertThat(bucketIndex(value)).isEqualTo(value);
+            assertThat(bucketUpperBound(value)).isEqualTo(value);
+        }
+    }
+
+    @Test
+    void bucketUpperBound_bucketsAreContiguousUpToMaxTrackable() {
+        assertThat(bucketUpperBound(0)).isZero();
+        for (var idx = 1; idx < BUCKETS; idx++) {
+            var lowerBound = bucketUpperBound(idx - 1) + 1;
+            var upperBound = bucketUpperBound(idx);
+
+            assertThat(upperBound).isGreaterThanOrEqualTo(lowerBound);
+            assertThat(bucketIndex(lowerBound)).isEqualTo(idx);
+            assertThat(bucketIndex(upperBound)).isEqualTo(idx);
+        }
+        assertThat(bucketUpperBound(BUCKETS - 1)).isEqualTo(MAX_TRACKABLE_NANOS);
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = {33, 100, 1_000, 12_345, 999_999, 1_048_576, 123_456_789, 5_000_000_000L,
+            MAX_TRACKABLE_NANOS})
+    void bucketUpperBound_isOffByAtMostSubBucketFractionOfValue(long value) {
+        var upperBound = bucketUpperBound(bucketIndex(value));
+
+        assertThat(upperBound).isGreaterThanOrEqualTo(value);
+        assertThat(upperBound - value).isLessThanOrEqualTo(value / SUB_BUCKETS);
+    }
+
+    @Test
+    void bucketUpperBound_bucketsNeverCrossPowersOfTwo() {
+        for (var bit = 5; bit < 40; bit++) {
+            var powerOfTwo = 1L << bit;
+
+            assertThat(bucketUpperBound(bucketIndex(powerOfTwo - 1))).isEqualTo(powerOfTwo - 1);
+        }
+    }
+
+    @Test
+    void record_outOfRangeValuesAreClamped() {
+        var snapshot = new Snapshot();
+
+        snapshot.record(-5);
+        snapshot.record(Long.MAX_VALUE);
+
+        assertThat(snapshot.countAtOrBelow(0)).isEqualTo(1);
+        assertThat(snapshot.valueAtQuantile(1.0)).isEqualTo(MAX_TRACKABLE_NANOS);
+        assertThat(snapshot.getSumNanos()).isEqualTo(MAX_TRACKABLE_NANOS);
+    }
+
+    @Test
+    void countAtOrBelow_isExactAtPowersOfTwoMinusOne() {
+        var snapshot = new Snapshot();
+        for (var value = 1; value <= 1_000; value++) {
+            snapshot.record(value);
+        }
+
+        assertThat(snapshot.countAtOrBelow(31)).isEqualTo(31);
+        assertThat(snapshot.countAtOrBelow(511)).isEqualTo(511);
+        assertThat(snapshot.countAtOrBelow(1_023)).isEqualTo(1_000);
+        assertThat(snapshot.getCount()).isEqualTo(1_000);
+    }
+
+    @ParameterizedTest
+    @ValueSource(doubles = {0.5, 0.9, 0.99, 1.0})
+    void valueAtQuantile_isRoundedUpBySubBucketFractionAtMost(double quantile) {
+        var snapshot = new Snapshot();
+        for (var i = 1; i <= 1_000; i++) {
+            snapshot.record(i * 1_000L);
+        }
+        var exact = (long) Math.ceil(quantile * 1_000) * 1_000;
+
+        var value = snapshot.valueAtQuantile(quantile);
+
+        assertThat(value).isBetween(exact, exact + exact / SUB_BUCKETS);
+    }
+
+    @Test
+    void valueAtQuantile_isZeroIfNothingIsRecorded() {
+        assertThat(new Snapshot().valueAtQuantile(0.99)).isZero();
+    }
+
+    @Test
+    void addTo_mergesHistogramsOfAllRecorders() {
+        var histogram1 = new LatencyHistogram();
+        var histogram2 = new LatencyHistogram();
+        histogram1.record(10);
+        histogram1.record(1_000);
+        histogram2.record(20);
+        var snapshot = new Snapshot();
+
+        histogram1.addTo(snapshot);
+        histogram2.addTo(snapshot);
+
+        assertThat(snapshot.getCount()).isEqualTo(3);
+        assertThat(snapshot.getSumNanos()).isEqualTo(1_030);
+        assertThat(snapshot.countAtOrBelow(31)).isEqualTo(2);
+    }
+
+    @Test
+    void addTo_histogramIsNotResetBySnapshot() {
+        var histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.addTo(new Snapshot());
+        histogram.record(20);
+        var snapshot = new Snapshot();
+
+        histogram.addTo(snapshot);
+
+        assertThat(snapshot.getCount()).isEqualTo(2);
+        assertThat(snapshot.getSumNanos()).isEqualTo(30);
+    }
+}
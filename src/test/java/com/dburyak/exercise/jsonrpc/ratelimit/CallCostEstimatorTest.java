@@ -0,0 +1,150 @@
+package com.dburyak.exercise.jsonrpc.ratelimit;
+
+import com.dburyak.exercise.jsonrpc.Config.ComputeUnits;
+import com.dburyak.exercise.jsonrpc.Config.ComputeUnits.MethodCost;
+import com.dburyak.exercise.jsonrpc.JsonRpcRequest;
+import com.dburyak.exercise.jsonrpc.cache.ChainHead;
+import com.dburyak.exercise.jsonrpc.json.JsonRpcEnvelopeScanner;
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CallCostEstimatorTest {
+    private static final int DEFAULT_COST = 2;
+    private static final int MAX_BLOCK_RANGE = 1_000;
+    private static final int LOGS_COST = 10;
+    private static final int LOGS_PER_BLOCK_COST = 3;
+
+    private final ChainHead chainHead = new ChainHead();
+    private final CallCostEstimator estimator = new CallCostEstimator(new ComputeUnits(DEFAULT_COST, MAX_BLOCK_RANGE,
+            Map.of("eth_getLogs", new MethodCost("eth_getLogs", LOGS_COST, LOGS_PER_BLOCK_COST),
+                    "eth_call", new MethodCost("eth_call", 5, 0))),
+            chainHead);
+
+    @Test
+    void cost_defaultForMethodsWithoutCfg() {
+        assertThat(estimator.cost(req("eth_chainId", null))).isEqualTo(DEFAULT_COST);
+    }
+
+    @Test
+    void cost_fixedForMethodsWithoutPerBlockCost() {
+        assertThat(estimator.cost(req("eth_call", "[{\"fromBlock\":\"0x1\",\"toBlock\":\"0x100\"}]"))).isEqualTo(5);
+    }
+
+    @Test
+    void cost_fixedPartOnlyWithoutParams() {
+        assertThat(estimator.cost(req("eth_getLogs", null))).isEqualTo(LOGS_COST);
+    }
+
+    @Test
+    void cost_hexRangeIsInclusive() {
+        assertThat(logsCost("{\"fromBlock\":\"0x10\",\"toBlock\":\"0x19\"}")).isEqualTo(cost(10));
+    }
+
+    @Test
+    void cost_hexRangeIsCaseInsensitive() {
+        assertThat(logsCost("{\"fromBlock\":\"0XA\",\"toBlock\":\"0xaB\"}")).isEqualTo(cost(0xab - 0xa + 1));
+    }
+
+    @Test
+    void cost_reversedRangeIsSingleBlock() {
+        assertThat(logsCost("{\"fromBlock\":\"0x20\",\"toBlock\":\"0x10\"}")).isEqualTo(cost(1));
+    }
+
+    @Test
+    void cost_rangeIsCappedByMaxBlockRange() {
+        assertThat(logsCost("{\"fromBlock\":\"0x0\",\"toBlock\":\"0xffffff\"}")).isEqualTo(cost(MAX_BLOCK_RANGE));
+    }
+
+    @Test
+    void cost_blockHashIsSingleBlock() {
+        assertThat(logsCost("{\"blockHash\":\"0xabc\",\"fromBlock\":\"0x0\"}")).isEqualTo(cost(1));
+    }
+
+    @Test
+    void cost_earliestIsBlockZero() {
+        assertThat(logsCost("{\"fromBlock\":\"earliest\",\"toBlock\":\"0x4\"}")).isEqualTo(cost(5));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{\"fromBlock\":\"0x100\",\"toBlock\":\"latest\"}",
+            "{\"fromBlock\":\"0x100\",\"toBlock\":\"pending\"}",
+            "{\"fromBlock\":\"0x100\"}"
+    })
+    void cost_latestIsResolvedAgainstHead(String filter) {
+        chainHead.observe(0x104);
+
+        assertThat(logsCost(filter)).isEqualTo(cost(5));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{\"fromBlock\":\"0x100\",\"toBlock\":\"latest\"}",
+            "{\"fromBlock\":\"0x100\"}",
+            "{\"fromBlock\":\"safe\",\"toBlock\":\"0x100\"}",
+            "{\"fromBlock\":\"0x1\",\"toBlock\":12}",
+            "{\"fromBlock\":\"0x1\",\"toBlock\":\"0x1234567890abcdef0\"}"
+    })
+    void cost_unresolvableRangeIsMaxBlockRange(String filter) {
+        assertThat(logsCost(filter)).isEqualTo(cost(MAX_BLOCK_RANGE));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{}",
+            "{\"fromBlock\":\"latest\",\"toBlock\":\"latest\"}",
+            "{\"fromBlock\":\"latest\"}",
+            "{\"toBlock\":\"latest\"}",
+            "{\"fromBlock\":\"safe\",\"toBlock\":\"safe\"}"
+    })
+    void cost_sameTagsOnBothEndsAreSingleBlockWithoutHead(String filter) {
+        assertThat(logsCost(filter)).isEqualTo(cost(1));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"[]", "[\"0x1\"]", "{\"fromBlock\":\"0x1\"}", "[ 1, {\"fromBlock\":\"0x1\"} ]"})
+    void cost_paramsWithoutFilterAreSingleBlock(String params) {
+        assertThat(estimator.cost(req("eth_getLogs", params))).isEqualTo(cost(1));
+    }
+
+    @Test
+    void cost_whitespacesAroundFilterAreIgnored() {
+        assertThat(estimator.cost(req("eth_getLogs", "[ \n {\"toBlock\" : \"0x3\", \"fromBlock\" : \"0x1\"} ]")))
+                .isEqualTo(cost(3));
+    }
+
+    @Test
+    void cost_malformedFilterIsSingleBlock() {
+        assertThat(estimator.cost(req("eth_getLogs", "[{\"fromBlock\":}]"))).isEqualTo(cost(1));
+    }
+
+    @Test
+    void cost_doesNotOverflow() {
+        var estimator = new CallCostEstimator(new ComputeUnits(1, Integer.MAX_VALUE,
+                Map.of("eth_getLogs", new MethodCost("eth_getLogs", 1, Integer.MAX_VALUE))), chainHead);
+
+        var cost = estimator.cost(req("eth_getLogs", "[{\"fromBlock\":\"0x0\",\"toBlock\":\"0xffff\"}]"));
+
+        assertThat(cost).isEqualTo(Integer.MAX_VALUE);
+    }
+
+    private int logsCost(String filter) {
+        return estimator.cost(req("eth_getLogs", "[" + filter + "]"));
+    }
+
+    private static int cost(int blocks) {
+        return LOGS_COST + blocks * LOGS_PER_BLOCK_COST;
+    }
+
+    private static JsonRpcRequest req(String method, String params) {
+        var json = "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"" + method + "\""
+                + (params != null ? ",\"params\":" + params : "") + "}";
+        return JsonRpcEnvelopeScanner.scanRequest(Buffer.buffer(json));
+    }
+}
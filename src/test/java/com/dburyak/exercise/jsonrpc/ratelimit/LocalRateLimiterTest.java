@@ -0,0 +1,259 @@
+package com.dburyak.exercise.jsonrpc.ratelimit;
+
+import com.dburyak.exercise.jsonrpc.redis.RedisScript;
+import io.reactivex.rxjava3.core.Single;
+import io.vertx.redis.client.Response;
+import io.vertx.redis.client.impl.types.MultiType;
+import io.vertx.redis.client.impl.types.NumberType;
+import io.vertx.rxjava3.redis.client.RedisConnection;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LocalRateLimiterTest {
+    private static final String KEY = "rtlmt:1.2.3.4";
+    private static final int MAX = 10;
+    private static final long WINDOW_MS = 60_000;
+    private static final double MAX_OVERSHOOT = 0.5;
+
+    private final AtomicLong nowMs = new AtomicLong(1_000_000);
+    private final FakeSyncScript syncScript = new FakeSyncScript();
+    // two proxy instances sharing the same redis
+    private final LocalRateLimiter instance1 = limiter();
+    private final LocalRateLimiter instance2 = limiter();
+
+    @Test
+    void tryAcquire_admitsUpToOvershootAllowanceBetweenSyncs() {
+        var limit = instance1.limit(KEY, MAX, WINDOW_MS, MAX_OVERSHOOT);
+
+        assertThat(acquire(limit, 5)).isEqualTo(5);
+    }
+
+    @Test
+    void tryAcquire_singleCallIsAdmittedEvenIfItCostsMoreThanAllowance() {
+        var limit = instance1.limit(KEY, MAX, WINDOW_MS, MAX_OVERSHOOT);
+
+        assertThat(limit.tryAcquire(nowMs.get(), 8)).isTrue();
+        assertThat(limit.tryAcquire(nowMs.get(), 1)).isFalse();
+    }
+
+    @Test
+    void tryAcquire_callCostingMoreThanLimitIsChargedTheWholeLimit() {
+        var limit = instance1.limit(KEY, MAX, WINDOW_MS, MAX_OVERSHOOT);
+
+        assertThat(limit.tryAcquire(nowMs.get(), 100)).isTrue();
+        instance1.sync().blockingAwait();
+
+        assertThat(syncScript.counters.get(KEY)).isEqualTo(MAX);
+    }
+
+    @Test
+    void sync_pushesLocallyAdmittedCallsAndRefillsAllowance() {
+        var limit = instance1.limit(KEY, MAX, WINDOW_MS, MAX_OVERSHOOT);
+        acquire(limit, 5);
+
+        instance1.sync().blockingAwait();
+
+        assertThat(syncScript.counters.get(KEY)).isEqualTo(5);
+        assertThat(acquire(limit, 10)).isEqualTo(5);
+    }
+
+    @Test
+    void sync_pushesOnlyCallsAdmittedSincePreviousSync() {
+        var limit = instance1.limit(KEY, MAX, WINDOW_MS, MAX_OVERSHOOT);
+        acquire(limit, 3);
+        instance1.sync().blockingAwait();
+
+        acquire(limit, 2);
+        instance1.sync().blockingAwait();
+
+        assertThat(syncScript.deltas).containsExactly(3, 2);
+        assertThat(syncScript.counters.get(KEY)).isEqualTo(5);
+    }
+
+    @Test
+    void sync_pullsCallsAdmittedByOtherInstances() {
+        var limit1 = instance1.limit(KEY, MAX, WINDOW_MS, MAX_OVERSHOOT);
+        var limit2 = instance2.limit(KEY, MAX, WINDOW_MS, MAX_OVERSHOOT);
+        acquire(limit2, 5);
+        instance2.sync().blockingAwait();
+        acquire(limit2, 3);
+        instance2.sync().blockingAwait();
+
+        instance1.sync().blockingAwait();
+
+        assertThat(acquire(limit1, 10)).isEqualTo(2);
+    }
+
+    @Test
+    void sync_overshootIsBoundedByAllowanceOfEachInstance() {
+        var limit1 = instance1.limit(KEY, MAX, WINDOW_MS, MAX_OVERSHOOT);
+        var limit2 = instance2.limit(KEY, MAX, WINDOW_MS, MAX_OVERSHOOT);
+        acquire(limit1, 5);
+        acquire(limit2, 5);
+        instance1.sync().blockingAwait();
+        instance2.sync().blockingAwait();
+        instance1.sync().blockingAwait();
+
+        assertThat(acquire(limit1, 10)).isZero();
+        assertThat(acquire(limit2, 10)).isZero();
+        assertThat(syncScript.counters.get(KEY)).isEqualTo(MAX);
+    }
+
+    @Test
+    void sync_limitIsRestoredOnceWindowEnds() {
+        var limit = instance1.limit(KEY, MAX, WINDOW_MS, 1.0);
+        acquire(limit, MAX);
+        instance1.sync().blockingAwait();
+        assertThat(acquire(limit, 1)).isZero();
+
+        nowMs.addAndGet(WINDOW_MS);
+
+        assertThat(acquire(limit, MAX)).isEqualTo(MAX);
+    }
+
+    @Test
+    void sync_releasedCallsAreNotPushed() {
+        var limit = instance1.limit(KEY, MAX, WINDOW_MS, MAX_OVERSHOOT);
+        acquire(limit, 3);
+        limit.release(1);
+
+        instance1.sync().blockingAwait();
+
+        assertThat(syncScript.counters.get(KEY)).isEqualTo(2);
+    }
+
+    @Test
+    void sync_callsReleasedAfterPushStayCounted() {
+        var limit = instance1.limit(KEY, MAX, WINDOW_MS, MAX_OVERSHOOT);
+        acquire(limit, 3);
+        instance1.sync().blockingAwait();
+
+        limit.release(3);
+        instance1.sync().blockingAwait();
+
+        assertThat(syncScript.deltas).containsExactly(3, 0);
+        assertThat(acquire(limit, 10)).isEqualTo(5);
+    }
+
+    @Test
+    void sync_failedSyncIsRetriedWithTheNext() {
+        var limit = instance1.limit(KEY, MAX, WINDOW_MS, MAX_OVERSHOOT);
+        acquire(limit, 2);
+        syncScript.failing = true;
+        instance1.sync().onErrorComplete().blockingAwait();
+        syncScript.failing = false;
+        acquire(limit, 1);
+
+        instance1.sync().blockingAwait();
+
+        assertThat(syncScript.counters.get(KEY)).isEqualTo(3);
+    }
+
+    @Test
+    void sync_idleLimitsAreForgotten() {
+        var limit = instance1.limit(KEY, MAX, WINDOW_MS, MAX_OVERSHOOT);
+        acquire(limit, 1);
+        instance1.sync().blockingAwait();
+
+        nowMs.addAndGet(WINDOW_MS);
+        instance1.sync().blockingAwait();
+
+        assertThat(syncScript.syncedKeys).hasSize(1);
+        assertThat(instance1.limit(KEY, MAX, WINDOW_MS, MAX_OVERSHOOT)).isNotSameAs(limit);
+    }
+
+    @Test
+    void sync_recentlyUsedLimitsAreKept() {
+        var limit = instance1.limit(KEY, MAX, WINDOW_MS, MAX_OVERSHOOT);
+        acquire(limit, 1);
+        instance1.sync().blockingAwait();
+
+        nowMs.addAndGet(WINDOW_MS - 1);
+        instance1.sync().blockingAwait();
+
+        assertThat(syncScript.syncedKeys).hasSize(2);
+        assertThat(instance1.limit(KEY, MAX, WINDOW_MS, MAX_OVERSHOOT)).isSameAs(limit);
+    }
+
+    @Test
+    void sync_manyLimitsAreSyncedInChunks() {
+        for (var i = 0; i < 2_500; i++) {
+            acquire(instance1.limit(KEY + i, MAX, WINDOW_MS, MAX_OVERSHOOT), 1);
+        }
+
+        instance1.sync().blockingAwait();
+
+        assertThat(syncScript.calls).isEqualTo(3);
+        assertThat(syncScript.counters).hasSize(2_500);
+    }
+
+    private LocalRateLimiter limiter() {
+        return new LocalRateLimiter(null, syncScript, Duration.ofMillis(100), nowMs::get);
+    }
+
+    /**
+     * @return number of the admitted calls of a single unit out of the given number
+     */
+    private int acquire(LocalLimit limit, int calls) {
+        var admitted = 0;
+        for (var i = 0; i < calls; i++) {
+            if (limit.tryAcquire(nowMs.get(), 1)) {
+                admitted++;
+            }
+        }
+        return admitted;
+    }
+
+    /**
+     * Does what "redis/rate-limit-sync.lua" does, against in-memory counters that share the clock of the test.
+     */
+    private class FakeSyncScript extends RedisScript {
+        private final Map<String, Integer> counters = new HashMap<>();
+        private final Map<String, Long> expiresAtMs = new HashMap<>();
+        private final List<Integer> deltas = new ArrayList<>();
+        private final List<String> syncedKeys = new ArrayList<>();
+        private int calls;
+        private boolean failing;
+
+        FakeSyncScript() {
+            super("redis/rate-limit-sync.lua", "");
+        }
+
+        @Override
+        public Single<Response> rxEval(RedisConnection redis, List<String> keys, List<?> args) {
+            return Single.fromCallable(() -> {
+                if (failing) {
+                    throw new IllegalStateException("connection closed");
+                }
+                calls++;
+                var now = nowMs.get();
+                var resp = MultiType.create(keys.size() * 2L, false);
+                for (var i = 0; i < keys.size(); i++) {
+                    var key = keys.get(i);
+                    var delta = Integer.parseInt(args.get(2 * i).toString());
+                    var windowMs = Long.parseLong(args.get(2 * i + 1).toString());
+                    deltas.add(delta);
+                    syncedKeys.add(key);
+                    var expiresAt = expiresAtMs.get(key);
+                    if (expiresAt != null && expiresAt <= now) {
+                        counters.remove(key);
+                        expiresAtMs.remove(key);
+                    }
+                    var cnt = counters.merge(key, delta, Integer::sum);
+                    var ttl = expiresAtMs.computeIfAbsent(key, k -> now + windowMs) - now;
+                    resp.add(NumberType.create(cnt));
+                    resp.add(NumberType.create(ttl));
+                }
+                return resp;
+            });
+        }
+    }
+}
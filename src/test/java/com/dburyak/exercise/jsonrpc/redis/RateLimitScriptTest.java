@@ -0,0 +1,399 @@
+package com.dburyak.exercise.jsonrpc.redis;
+
+import org.junit.jupiter.api.Test;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.OneArgFunction;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Runs the rate limit script against an in-memory redis with a controllable clock, only the commands used by the
+ * script are supported.
+ */
+class RateLimitScriptTest {
+    private static final String SCRIPT = readScript("redis/rate-limit.lua");
+    // aligned to the windows used below, so that the first call is at the window start
+    private static final long START_MS = 1_800_000_000_000L;
+    private static final long WINDOW_MS = 1_000;
+
+    private final FakeRedis redis = new FakeRedis(START_MS);
+
+    @Test
+    void fixedWindow_admitsUpToMaxThenRejects() {
+        var limit = new Limit("k", "fixedWindow", 10);
+
+        var result = redis.eval(List.of(limit), "5:1", "5:1", "1:1");
+
+        assertThat(result).containsExactly(1L, 1L, 0L, WINDOW_MS);
+        assertThat(redis.get("k")).isEqualTo("10");
+        assertThat(redis.pttl("k")).isEqualTo(WINDOW_MS);
+    }
+
+    @Test
+    void fixedWindow_retryAfterIsTimeTillWindowEnd() {
+        var limit = new Limit("k", "fixedWindow", 10);
+        redis.eval(List.of(limit), "10:1");
+
+        redis.advance(300);
+        var result = redis.eval(List.of(limit), "1:1");
+
+        assertThat(result).containsExactly(0L, 700L);
+    }
+
+    @Test
+    void fixedWindow_retryAfterIsZeroIfNextCallFits() {
+        var limit = new Limit("k", "fixedWindow", 10);
+
+        var result = redis.eval(List.of(limit), "9:1");
+
+        assertThat(result).containsExactly(1L, 0L);
+    }
+
+    @Test
+    void fixedWindow_startsOverOnceWindowExpires() {
+        var limit = new Limit("k", "fixedWindow", 10);
+        redis.eval(List.of(limit), "10:1");
+
+        redis.advance(WINDOW_MS);
+        var result = redis.eval(List.of(limit), "10:1");
+
+        assertThat(result).containsExactly(1L, WINDOW_MS);
+    }
+
+    @Test
+    void fixedWindow_rejectedCallsAreNotCounted() {
+        var limit = new Limit("k", "fixedWindow", 10);
+
+        var result = redis.eval(List.of(limit), "5:1", "6:1", "5:1");
+
+        assertThat(result).containsExactly(1L, 0L, 1L, WINDOW_MS);
+        assertThat(redis.get("k")).isEqualTo("10");
+    }
+
+    @Test
+    void costAboveMaxIsAdmittedOnlyWhenBudgetIsUntouched() {
+        var limit = new Limit("k", "fixedWindow", 10);
+
+        var result = redis.eval(List.of(limit), "25:1", "25:1");
+
+        assertThat(result).containsExactly(1L, 0L, WINDOW_MS);
+        assertThat(redis.get("k")).isEqualTo("10");
+    }
+
+    @Test
+    void slidingWindow_admitsUpToMaxThenRejectsTillNextWindow() {
+        var limit = new Limit("k", "slidingWindow", 10);
+
+        var result = redis.eval(List.of(limit), "6:1", "4:1", "1:1");
+
+        assertThat(result).containsExactly(1L, 1L, 0L, WINDOW_MS);
+    }
+
+    @Test
+    void slidingWindow_weightsPreviousWindowCount() {
+        var limit = new Limit("k", "slidingWindow", 10);
+        redis.eval(List.of(limit), "8:1");
+
+        // 3/4 of the previous window overlaps with the sliding one, i.e. 6 units of it are still counted
+        redis.advance(WINDOW_MS + 250);
+        var result = redis.eval(List.of(limit), "3:1", "1:1", "1:1");
+
+        // 4 + 8 * (1 - (250 + t) / 1000) + 1 <= 10 once t >= 125
+        assertThat(result).containsExactly(1L, 1L, 0L, 125L);
+    }
+
+    @Test
+    void slidingWindow_admitsOnceRetryAfterPasses() {
+        var limit = new Limit("k", "slidingWindow", 10);
+        redis.eval(List.of(limit), "8:1");
+        redis.advance(WINDOW_MS + 250);
+        redis.eval(List.of(limit), "4:1");
+
+        redis.advance(100);
+        var rejected = redis.eval(List.of(limit), "1:1");
+        redis.advance(25);
+        var admitted = redis.eval(List.of(limit), "1:1");
+
+        assertThat(rejected).containsExactly(0L, 25L);
+        assertThat(admitted).first().isEqualTo(1L);
+    }
+
+    @Test
+    void slidingWindow_forgetsWindowsOlderThanPrevious() {
+        var limit = new Limit("k", "slidingWindow", 10);
+        redis.eval(List.of(limit), "10:1");
+
+        redis.advance(2 * WINDOW_MS);
+        var result = redis.eval(List.of(limit), "10:1");
+
+        assertThat(result).containsExactly(1L, WINDOW_MS);
+    }
+
+    @Test
+    void slidingWindow_stateOutlivesNextWindow() {
+        var limit = new Limit("k", "slidingWindow", 10);
+
+        redis.advance(400);
+        redis.eval(List.of(limit), "1:1");
+
+        assertThat(redis.pttl("k")).isEqualTo(2 * WINDOW_MS - 400);
+    }
+
+    @Test
+    void gcra_allowsBurstOfMax() {
+        var limit = new Limit("k", "gcra", 10);
+
+        var result = redis.eval(List.of(limit), "10:1", "1:1");
+
+        // one unit per 100ms once the burst is spent
+        assertThat(result).containsExactly(1L, 0L, 100L);
+    }
+
+    @Test
+    void gcra_spreadsCallsEvenlyAfterBurst() {
+        var limit = new Limit("k", "gcra", 10);
+        redis.eval(List.of(limit), "10:1");
+
+        redis.advance(100);
+        var first = redis.eval(List.of(limit), "1:1", "1:1");
+        redis.advance(30);
+        var second = redis.eval(List.of(limit), "1:1");
+        redis.advance(70);
+        var third = redis.eval(List.of(limit), "1:1");
+
+        assertThat(first).containsExactly(1L, 0L, 100L);
+        assertThat(second).containsExactly(0L, 70L);
+        assertThat(third).containsExactly(1L, 100L);
+    }
+
+    @Test
+    void gcra_retryAfterIsZeroIfNextCallFits() {
+        var limit = new Limit("k", "gcra", 10);
+
+        var result = redis.eval(List.of(limit), "3:1");
+
+        assertThat(result).containsExactly(1L, 0L);
+        assertThat(redis.pttl("k")).isEqualTo(300L);
+    }
+
+    @Test
+    void gcra_burstIsRestoredAfterWindow() {
+        var limit = new Limit("k", "gcra", 10);
+        redis.eval(List.of(limit), "10:1");
+
+        redis.advance(WINDOW_MS);
+        var result = redis.eval(List.of(limit), "10:1");
+
+        assertThat(result).containsExactly(1L, 100L);
+    }
+
+    @Test
+    void multipleLimits_callIsAdmittedOnlyIfItFitsAllOfThem() {
+        var perIp = new Limit("ip", "fixedWindow", 10);
+        var perMethod = new Limit("method", "gcra", 5);
+
+        var result = redis.eval(List.of(perIp, perMethod), "3:1,2", "3:1,2", "3:1");
+
+        // the second call doesn't fit the per method limit, so it doesn't consume the per IP one either
+        assertThat(result).containsExactly(1L, 0L, 1L, 0L, 0L);
+        assertThat(redis.get("ip")).isEqualTo("6");
+    }
+
+    @Test
+    void multipleLimits_retryAfterIsPerLimit() {
+        var perIp = new Limit("ip", "fixedWindow", 10);
+        var perMethod = new Limit("method", "gcra", 5);
+
+        var result = redis.eval(List.of(perIp, perMethod), "5:1,2", "5:1");
+
+        // gcra interval is 200ms
+        assertThat(result).containsExactly(1L, 1L, WINDOW_MS, 200L);
+    }
+
+    @Test
+    void unknownAlgorithm_isError() {
+        var limit = new Limit("k", "leakyBucket", 10);
+
+        assertThatThrownBy(() -> redis.eval(List.of(limit), "1:1"))
+                .hasMessage("unknown rate limiting algorithm: leakyBucket");
+    }
+
+    private static String readScript(String path) {
+        try (var in = RateLimitScriptTest.class.getClassLoader().getResourceAsStream(path)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private record Limit(String key, String algorithm, int max) {
+    }
+
+    /**
+     * Strings and hashes with expiration, time is advanced manually.
+     */
+    private static class FakeRedis {
+        private final Map<String, Object> values = new HashMap<>();
+        private final Map<String, Long> expireAt = new HashMap<>();
+        private final Globals globals = JsePlatform.standardGlobals();
+        private long now;
+
+        FakeRedis(long now) {
+            this.now = now;
+            var redis = new LuaTable();
+            redis.set("call", new VarArgFunction() {
+                @Override
+                public Varargs invoke(Varargs args) {
+                    return redisCall(args);
+                }
+            });
+            redis.set("error_reply", new OneArgFunction() {
+                @Override
+                public LuaValue call(LuaValue msg) {
+                    var reply = new LuaTable();
+                    reply.set("err", msg);
+                    return reply;
+                }
+            });
+            globals.set("redis", redis);
+        }
+
+        void advance(long ms) {
+            now += ms;
+        }
+
+        /**
+         * @return script result, numbers are truncated to integers as redis does
+         */
+        List<Long> eval(List<Limit> limits, String... calls) {
+            var keys = new LuaTable();
+            var argv = new LuaTable();
+            for (var limit : limits) {
+                append(keys, LuaValue.valueOf(limit.key()));
+                append(argv, LuaValue.valueOf(limit.algorithm()));
+                append(argv, LuaValue.valueOf(String.valueOf(limit.max())));
+                append(argv, LuaValue.valueOf(String.valueOf(WINDOW_MS)));
+            }
+            for (var call : calls) {
+                append(argv, LuaValue.valueOf(call));
+            }
+            globals.set("KEYS", keys);
+            globals.set("ARGV", argv);
+            var reply = globals.load(SCRIPT, "rate-limit").call();
+            if (reply.get("err").isstring()) {
+                throw new IllegalStateException(reply.get("err").tojstring());
+            }
+            var result = new ArrayList<Long>();
+            for (var i = 1; i <= reply.length(); i++) {
+                result.add((long) reply.get(i).todouble());
+            }
+            return result;
+        }
+
+        String get(String key) {
+            return (String) value(key);
+        }
+
+        long pttl(String key) {
+            if (value(key) == null) {
+                return -2;
+            }
+            var at = expireAt.get(key);
+            return at != null ? at - now : -1;
+        }
+
+        private Varargs redisCall(Varargs args) {
+            var cmd = args.checkjstring(1).toUpperCase(Locale.ROOT);
+            var key = args.narg() > 1 ? args.checkjstring(2) : null;
+            return switch (cmd) {
+                case "TIME" -> LuaValue.listOf(new LuaValue[] {
+                        LuaValue.valueOf(String.valueOf(now / 1000)),
+                        LuaValue.valueOf(String.valueOf(now % 1000 * 1000))});
+                case "GET" -> {
+                    var value = get(key);
+                    yield value != null ? LuaValue.valueOf(value) : LuaValue.FALSE;
+                }
+                case "HMGET" -> {
+                    var hash = hash(key);
+                    var reply = new LuaTable();
+                    for (var i = 3; i <= args.narg(); i++) {
+                        var value = hash.get(args.checkjstring(i));
+                        reply.set(i - 2, value != null ? LuaValue.valueOf(value) : LuaValue.FALSE);
+                    }
+                    yield reply;
+                }
+                case "INCRBY" -> {
+                    var value = get(key);
+                    var incremented = (value != null ? Long.parseLong(value) : 0) + integer(args, 3);
+                    values.put(key, String.valueOf(incremented));
+                    yield LuaValue.valueOf(incremented);
+                }
+                case "PTTL" -> LuaValue.valueOf(pttl(key));
+                case "PEXPIRE" -> {
+                    if (value(key) == null) {
+                        yield LuaValue.valueOf(0);
+                    }
+                    expireAt.put(key, now + integer(args, 3));
+                    yield LuaValue.valueOf(1);
+                }
+                case "HSET" -> {
+                    var hash = hash(key);
+                    values.put(key, hash);
+                    for (var i = 3; i < args.narg(); i += 2) {
+                        hash.put(args.checkjstring(i), args.checkjstring(i + 1));
+                    }
+                    yield LuaValue.valueOf(args.narg() / 2 - 1);
+                }
+                case "SET" -> {
+                    values.put(key, args.checkjstring(3));
+                    expireAt.remove(key);
+                    if (args.narg() == 5 && args.checkjstring(4).equalsIgnoreCase("PX")) {
+                        expireAt.put(key, now + integer(args, 5));
+                    }
+                    yield LuaValue.valueOf("OK");
+                }
+                default -> throw new LuaError("unsupported command: " + cmd);
+            };
+        }
+
+        private Object value(String key) {
+            var at = expireAt.get(key);
+            if (at != null && at <= now) {
+                values.remove(key);
+                expireAt.remove(key);
+            }
+            return values.get(key);
+        }
+
+        @SuppressWarnings("unchecked")
+        private Map<String, String> hash(String key) {
+            var value = (Map<String, String>) value(key);
+            return value != null ? value : new HashMap<>();
+        }
+
+        private static void append(LuaTable table, LuaValue value) {
+            table.set(table.length() + 1, value);
+        }
+
+        // redis rejects non-integer arguments where integers are expected
+        private static long integer(Varargs args, int idx) {
+            return Long.parseLong(args.checkjstring(idx));
+        }
+    }
+}
@@ -0,0 +1,606 @@
+package com.dburyak.exercise.jsonrpc.repo;
+
+import com.dburyak.exercise.jsonrpc.Config.CallTrackingBuckets;
+import com.dburyak.exercise.jsonrpc.Config.CallTrackingMethodIds;
+import com.dburyak.exercise.jsonrpc.entity.CallsOfUser;
+import com.dburyak.exercise.jsonrpc.entity.CallsOfUser.CallStats;
+import com.dburyak.exercise.jsonrpc.entity.CallsOfUserPage;
+import com.dburyak.exercise.jsonrpc.entity.TrackedCall;
+import com.dburyak.exercise.jsonrpc.entity.TrackedCall.Change;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+import io.vertx.redis.client.impl.RequestImpl;
+import io.vertx.redis.client.impl.types.BulkType;
+import io.vertx.redis.client.impl.types.MultiType;
+import io.vertx.redis.client.impl.types.NumberType;
+import io.vertx.redis.client.impl.types.SimpleStringType;
+import io.vertx.rxjava3.redis.client.RedisConnection;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+class TrackedCallRepositoryRedisImplTest {
+    private static final long DAY_START = 1_792_195_200L; // 2026-10-17T00:00:00Z
+    private static final long MINUTE = 60;
+    private static final long HOUR = 3_600;
+    private static final long DAY = 86_400;
+    private static final String IP = "1.2.3.4";
+    private static final String IP2 = "5.6.7.8";
+    private static final String IP3 = "9.10.11.12";
+
+    private final AtomicLong nowMs = new AtomicLong(at(10 * MINUTE));
+    private final FakeRedis redis = new FakeRedis();
+    private final TrackedCallRepositoryRedisImpl repo = repo();
+
+    @Test
+    void rollUp_firstRunOnlyStartsWatermarks() {
+        repo.increment(List.of(change("eth_call", 1, 0, 1))).blockingAwait();
+
+        repo.rollUp().blockingAwait();
+
+        assertThat(redis.get("trck-rollup:h")).isEqualTo(Long.toString(DAY_START));
+        assertThat(redis.get("trck-rollup:d")).isEqualTo(Long.toString(DAY_START));
+        assertThat(redis.exists(hourKey(0))).isFalse();
+    }
+
+    @Test
+    void rollUp_sumsMinuteBucketsOfCompleteHourIntoHourBucket() {
+        repo.rollUp().blockingAwait();
+        repo.increment(List.of(change("eth_call", 2, 1, 5))).blockingAwait();
+        nowMs.set(at(40 * MINUTE));
+        repo.increment(List.of(change("eth_call", 1, 0, 3), change("eth_getBalance", 1, 0, 1))).blockingAwait();
+
+        nowMs.set(at(HOUR + 2 * MINUTE));
+        repo.rollUp().blockingAwait();
+
+        assertThat(redis.hash(hourKey(0))).containsOnly(
+                entry("eth_call:s", "3"), entry("eth_call:f", "1"), entry("eth_call:u", "8"),
+                entry("eth_getBalance:s", "1"), entry("eth_getBalance:f", "0"), entry("eth_getBalance:u", "1"));
+        assertThat(redis.get("trck-rollup:h")).isEqualTo(Long.toString(DAY_START + HOUR));
+        assertThat(redis.set("trck-ips-d:" + DAY_START)).containsExactly(IP);
+    }
+
+    @Test
+    void rollUp_hourIsNotRolledUpUntilRollupDelayPasses() {
+        repo.rollUp().blockingAwait();
+        repo.increment(List.of(change("eth_call", 1, 0, 1))).blockingAwait();
+
+        nowMs.set(at(HOUR + MINUTE));
+        repo.rollUp().blockingAwait();
+
+        assertThat(redis.get("trck-rollup:h")).isEqualTo(Long.toString(DAY_START));
+        assertThat(redis.exists(hourKey(0))).isFalse();
+    }
+
+    @Test
+    void rollUp_catchesUpWithAllCompleteHours() {
+        repo.rollUp().blockingAwait();
+        repo.increment(List.of(change("eth_call", 1, 0, 1))).blockingAwait();
+        nowMs.set(at(2 * HOUR + 10 * MINUTE));
+        repo.increment(List.of(change("eth_call", 2, 0, 2))).blockingAwait();
+
+        nowMs.set(at(3 * HOUR + 5 * MINUTE));
+        repo.rollUp().blockingAwait();
+
+        assertThat(redis.get("trck-rollup:h")).isEqualTo(Long.toString(DAY_START + 3 * HOUR));
+        assertThat(redis.hash(hourKey(0))).contains(entry("eth_call:s", "1"));
+        assertThat(redis.exists(hourKey(HOUR))).isFalse();
+        assertThat(redis.hash(hourKey(2 * HOUR))).contains(entry("eth_call:s", "2"));
+    }
+
+    @Test
+    void rollUp_rollsUpDayOnceAllItsHoursAreRolledUp() {
+        repo.rollUp().blockingAwait();
+        repo.increment(List.of(change("eth_call", 2, 1, 5))).blockingAwait();
+        nowMs.set(at(23 * HOUR + 30 * MINUTE));
+        repo.increment(List.of(change("eth_call", 1, 1, 1))).blockingAwait();
+
+        nowMs.set(at(DAY + 2 * MINUTE));
+        repo.rollUp().blockingAwait();
+
+        assertThat(redis.hash("trck-d:" + DAY_START + ":" + IP)).containsOnly(
+                entry("eth_call:s", "3"), entry("eth_call:f", "2"), entry("eth_call:u", "6"));
+        assertThat(redis.get("trck-rollup:h")).isEqualTo(Long.toString(DAY_START + DAY));
+        assertThat(redis.get("trck-rollup:d")).isEqualTo(Long.toString(DAY_START + DAY));
+    }
+
+    @Test
+    void rollUp_nothingIsDoneWhileAnotherInstanceHoldsTheLock() {
+        repo.rollUp().blockingAwait();
+        repo.increment(List.of(change("eth_call", 1, 0, 1))).blockingAwait();
+        nowMs.set(at(HOUR + 2 * MINUTE));
+        redis.put("trck-rollup-lock", "1");
+
+        repo.rollUp().blockingAwait();
+
+        assertThat(redis.get("trck-rollup:h")).isEqualTo(Long.toString(DAY_START));
+    }
+
+    @Test
+    void findByIpInRange_readsHourBucketsOfRolledUpHours() {
+        repo.rollUp().blockingAwait();
+        repo.increment(List.of(change("eth_call", 2, 1, 5))).blockingAwait();
+        nowMs.set(at(HOUR + 2 * MINUTE));
+        repo.rollUp().blockingAwait();
+        redis.readKeys.clear();
+
+        var calls = repo.findByIp(IP, instant(0), instant(HOUR)).blockingGet();
+
+        assertThat(redis.readKeys).containsExactly(hourKey(0));
+        assertThat(calls.getMethods()).containsOnly(entry("eth_call", new CallStats(2, 1, 5)));
+    }
+
+    @Test
+    void findByIpInRange_readsMinuteBucketsOfPartiallyCoveredHours() {
+        repo.rollUp().blockingAwait();
+        repo.increment(List.of(change("eth_call", 2, 1, 5))).blockingAwait();
+        nowMs.set(at(40 * MINUTE));
+        repo.increment(List.of(change("eth_call", 1, 0, 3))).blockingAwait();
+        nowMs.set(at(HOUR + 2 * MINUTE));
+        repo.rollUp().blockingAwait();
+        redis.readKeys.clear();
+
+        var calls = repo.findByIp(IP, instant(10 * MINUTE), instant(40 * MINUTE + 1)).blockingGet();
+
+        assertThat(redis.readKeys).hasSize(31)
+                .startsWith(minuteKey(10 * MINUTE))
+                .endsWith(minuteKey(40 * MINUTE));
+        assertThat(calls.getMethods()).containsOnly(entry("eth_call", new CallStats(3, 1, 8)));
+    }
+
+    @Test
+    void findByIpInRange_combinesDayHourAndMinuteBuckets() {
+        repo.rollUp().blockingAwait();
+        repo.increment(List.of(change("eth_call", 2, 1, 5))).blockingAwait();
+        nowMs.set(at(DAY + 2 * MINUTE));
+        repo.rollUp().blockingAwait();
+        repo.increment(List.of(change("eth_call", 1, 0, 1))).blockingAwait();
+        nowMs.set(at(DAY + HOUR + 3 * MINUTE));
+        repo.rollUp().blockingAwait();
+        redis.readKeys.clear();
+
+        var calls = repo.findByIp(IP, instant(0), instant(DAY + HOUR + 2 * MINUTE)).blockingGet();
+
+        assertThat(redis.readKeys).containsExactly(
+                "trck-d:" + DAY_START + ":" + IP, hourKey(DAY), minuteKey(DAY + HOUR), minuteKey(DAY + HOUR + MINUTE));
+        assertThat(calls.getMethods()).containsOnly(entry("eth_call", new CallStats(3, 1, 6)));
+    }
+
+    @Test
+    void findByIpInRange_rangeIsLimitedByNow() {
+        nowMs.set(at(10 * MINUTE + 30));
+        repo.increment(List.of(change("eth_call", 1, 0, 1))).blockingAwait();
+        redis.readKeys.clear();
+
+        repo.findByIp(IP, instant(9 * MINUTE), instant(DAY)).blockingGet();
+
+        assertThat(redis.readKeys).containsExactly(minuteKey(9 * MINUTE), minuteKey(10 * MINUTE));
+    }
+
+    @Test
+    void findByIpInRange_emptyIfNoCallsInRange() {
+        repo.increment(List.of(change("eth_call", 1, 0, 1))).blockingAwait();
+        nowMs.set(at(30 * MINUTE));
+
+        var calls = repo.findByIp(IP, instant(11 * MINUTE), instant(30 * MINUTE)).blockingGet();
+
+        assertThat(calls).isNull();
+    }
+
+    @Test
+    void findByIpInRange_hourBucketsStayAfterMinuteBucketsExpire() {
+        repo.rollUp().blockingAwait();
+        repo.increment(List.of(change("eth_call", 2, 1, 5))).blockingAwait();
+        nowMs.set(at(HOUR + 2 * MINUTE));
+        repo.rollUp().blockingAwait();
+
+        nowMs.set(at(3 * DAY));
+        var calls = repo.findByIp(IP, instant(0), instant(HOUR)).blockingGet();
+
+        assertThat(redis.exists(minuteKey(10 * MINUTE))).isFalse();
+        assertThat(calls.getMethods()).containsOnly(entry("eth_call", new CallStats(2, 1, 5)));
+    }
+
+    @Test
+    void findPageByIp_methodSplitBetweenPagesIsIncludedOnlyIntoPageOfItsFirstCounter() {
+        var hash = redis.hash("trck:" + IP);
+        hash.put("eth_getBalance:u", "4");
+        hash.put("eth_call:s", "1");
+        hash.put("eth_getBalance:s", "2");
+        hash.put("eth_call:f", "3");
+        hash.put("eth_call:u", "5");
+
+        var pages = allPages(2);
+
+        assertThat(pages).extracting(CallsOfUserPage::getNextCursor).containsExactly("2", "4", null);
+        assertThat(pages.get(0).getMethods()).containsOnly(entry("eth_call", new CallStats(1, 3, 5)));
+        assertThat(pages.get(1).getMethods()).containsOnly(entry("eth_getBalance", new CallStats(2, 0, 4)));
+        assertThat(pages.get(2).getMethods()).isEmpty();
+    }
+
+    @Test
+    void findPageByIp_countersOfBothLayoutsAreSummedUp() {
+        redis.hash("trck-method-ids").put("eth_call", "1");
+        redis.hash("trck-method-names").put("1", "eth_call");
+        var hash = redis.hash("trck:" + IP);
+        hash.put("eth_call:s", "1");
+        hash.put("3", "2");
+        hash.put("eth_getBalance:s", "1");
+        hash.put("4", "1");
+
+        var pages = allPages(1);
+
+        assertThat(pages).hasSize(4);
+        assertThat(pages).flatExtracting(page -> page.getMethods().entrySet()).containsExactlyInAnyOrder(
+                entry("eth_call", new CallStats(3, 1, 0)), entry("eth_getBalance", new CallStats(1, 0, 0)));
+    }
+
+    @Test
+    void findPageByIp_allMethodsFitIntoSinglePage() {
+        repo.increment(List.of(change("eth_call", 2, 1, 5), change("eth_getBalance", 1, 0, 1))).blockingAwait();
+
+        var page = repo.findPageByIp(IP, TrackedCallRepository.FIRST_PAGE, 100).blockingGet();
+
+        assertThat(page.getNextCursor()).isNull();
+        assertThat(page.getMethods()).containsOnly(
+                entry("eth_call", new CallStats(2, 1, 5)), entry("eth_getBalance", new CallStats(1, 0, 1)));
+    }
+
+    @Test
+    void findPageByIp_unknownIpIsSingleEmptyPage() {
+        var page = repo.findPageByIp("5.6.7.8", TrackedCallRepository.FIRST_PAGE, 100).blockingGet();
+
+        assertThat(page.getMethods()).isEmpty();
+        assertThat(page.getNextCursor()).isNull();
+    }
+
+    private List<CallsOfUserPage> allPages(int count) {
+        var pages = new ArrayList<CallsOfUserPage>();
+        var cursor = TrackedCallRepository.FIRST_PAGE;
+        do {
+            var page = repo.findPageByIp(IP, cursor, count).blockingGet();
+            pages.add(page);
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return pages;
+    }
+
+    @Test
+    void findByIps_allIpsAreReadWithSingleBatchInOrderOfIps() {
+        repo.increment(List.of(change(IP, "eth_call", 1, 0, 1), change(IP2, "eth_call", 2, 0, 2),
+                change(IP3, "eth_getBalance", 3, 1, 4))).blockingAwait();
+        redis.batches = 0;
+
+        var calls = repo.findByIps(List.of(IP3, IP, IP2), null).blockingGet();
+
+        assertThat(redis.batches).isEqualTo(1);
+        assertThat(calls).containsExactly(
+                new CallsOfUser(IP3, Map.of("eth_getBalance", new CallStats(3, 1, 4))),
+                new CallsOfUser(IP, Map.of("eth_call", new CallStats(1, 0, 1))),
+                new CallsOfUser(IP2, Map.of("eth_call", new CallStats(2, 0, 2))));
+    }
+
+    @Test
+    void findByIps_ipsWithoutCallsAreNotIncluded() {
+        repo.increment(List.of(change(IP2, "eth_call", 1, 0, 1))).blockingAwait();
+
+        var calls = repo.findByIps(List.of(IP, IP2, IP3), null).blockingGet();
+
+        assertThat(calls).extracting(CallsOfUser::getIp).containsExactly(IP2);
+    }
+
+    @Test
+    void findByIps_onlyGivenMethodsAreRead() {
+        repo.increment(List.of(change(IP, "eth_call", 1, 0, 1), change(IP, "eth_getBalance", 2, 0, 2),
+                change(IP2, "eth_getBalance", 3, 0, 3))).blockingAwait();
+        redis.batches = 0;
+
+        var calls = repo.findByIps(List.of(IP, IP2), List.of("eth_call", "eth_chainId")).blockingGet();
+
+        assertThat(redis.batches).isEqualTo(1);
+        assertThat(calls).containsExactly(new CallsOfUser(IP, Map.of("eth_call", new CallStats(1, 0, 1))));
+    }
+
+    @Test
+    void findByIps_countersOfBothLayoutsAreSummedUp() {
+        redis.hash("trck-method-ids").put("eth_call", "1");
+        var hash = redis.hash("trck:" + IP);
+        hash.put("eth_call:s", "1");
+        hash.put("3", "2");
+        hash.put("5", "7");
+
+        var withMethods = repo.findByIps(List.of(IP), List.of("eth_call")).blockingGet();
+        redis.hash("trck-method-names").put("1", "eth_call");
+        var allMethods = repo.findByIps(List.of(IP), null).blockingGet();
+
+        var expected = new CallsOfUser(IP, Map.of("eth_call", new CallStats(3, 0, 7)));
+        assertThat(withMethods).containsExactly(expected);
+        assertThat(allMethods).containsExactly(expected);
+    }
+
+    @Test
+    void findByIps_noIpsAreNotReadFromRedis() {
+        var calls = repo.findByIps(List.of(), List.of("eth_call")).blockingGet();
+
+        assertThat(calls).isEmpty();
+        assertThat(redis.batches).isZero();
+    }
+
+    @Test
+    void findByIpAndMethod_readsCountersOfTheMethod() {
+        repo.increment(List.of(change(IP, "eth_call", 2, 1, 5), change(IP, "eth_getBalance", 1, 0, 1)))
+                .blockingAwait();
+
+        assertThat(repo.findByIpAndMethod(IP, "eth_call").blockingGet())
+                .isEqualTo(new TrackedCall(IP, "eth_call", 2, 1, 5));
+        assertThat(repo.findByIpAndMethod(IP, "eth_chainId").blockingGet()).isNull();
+    }
+
+    private TrackedCallRepositoryRedisImpl repo() {
+        var rxRedis = RedisConnection.newInstance(redis);
+        var buckets = new CallTrackingBuckets(true, Duration.ofHours(48), Duration.ofHours(840),
+                Duration.ofHours(9_600), Duration.ofMinutes(2));
+        return new TrackedCallRepositoryRedisImpl(rxRedis, buckets, new CallTrackingMethodIds(false, 100),
+                new MethodDictionary(rxRedis, null, 100), null, nowMs::get);
+    }
+
+    private static Change change(String method, long successful, long failed, long units) {
+        return change(IP, method, successful, failed, units);
+    }
+
+    private static Change change(String ip, String method, long successful, long failed, long units) {
+        return new Change(ip, method, successful, failed, units);
+    }
+
+    /**
+     * @param offsetSec seconds since the start of the day
+     */
+    private static long at(long offsetSec) {
+        return (DAY_START + offsetSec) * 1_000;
+    }
+
+    private static Instant instant(long offsetSec) {
+        return Instant.ofEpochSecond(DAY_START + offsetSec);
+    }
+
+    private static String minuteKey(long offsetSec) {
+        return "trck-m:" + (DAY_START + offsetSec) + ":" + IP;
+    }
+
+    private static String hourKey(long offsetSec) {
+        return "trck-h:" + (DAY_START + offsetSec) + ":" + IP;
+    }
+
+    /**
+     * In-memory redis with the clock of the test, only the commands used by the repository are supported. HSCAN and
+     * SSCAN return fields and members in the insertion order, "COUNT" at a time, the cursor is the offset.
+     */
+    private class FakeRedis implements io.vertx.redis.client.RedisConnection {
+        private final Map<String, Object> data = new HashMap<>(); // strings, hashes and sets
+        private final Map<String, Long> expiresAtMs = new HashMap<>();
+        private final Map<Command, Function<List<String>, Response>> commands = new HashMap<>();
+        private final List<String> readKeys = new ArrayList<>(); // keys read by HGETALL, in order
+        private int batches;
+
+        FakeRedis() {
+            commands.put(Command.GET, args -> bulk(get(args.get(0))));
+            commands.put(Command.MGET, args -> array(args.stream().map(key -> bulk(get(key))).toList()));
+            commands.put(Command.SET, this::setCmd);
+            commands.put(Command.DEL, args -> NumberType.create(args.stream().filter(this::del).count()));
+            commands.put(Command.EXPIRE, args -> {
+                if (!data.containsKey(args.get(0))) {
+                    return NumberType.create(0);
+                }
+                expiresAtMs.put(args.get(0), nowMs.get() + Long.parseLong(args.get(1)) * 1_000);
+                return NumberType.create(1);
+            });
+            commands.put(Command.HINCRBY, args -> {
+                var hash = hash(args.get(0));
+                var value = Long.parseLong(hash.getOrDefault(args.get(1), "0")) + Long.parseLong(args.get(2));
+                hash.put(args.get(1), Long.toString(value));
+                return NumberType.create(value);
+            });
+            commands.put(Command.HSET, args -> {
+                var hash = hash(args.get(0));
+                var added = 0;
+                for (var i = 1; i < args.size(); i += 2) {
+                    added += hash.put(args.get(i), args.get(i + 1)) == null ? 1 : 0;
+                }
+                return NumberType.create(added);
+            });
+            commands.put(Command.HMGET, args -> {
+                var hash = hash(args.get(0));
+                return array(args.subList(1, args.size()).stream().map(field -> bulk(hash.get(field))).toList());
+            });
+            commands.put(Command.HGETALL, args -> {
+                readKeys.add(args.get(0));
+                var hash = hash(args.get(0));
+                var resp = MultiType.create(hash.size() * 2L, true);
+                hash.forEach((field, value) -> {
+                    resp.add(bulk(field));
+                    resp.add(bulk(value));
+                });
+                return resp;
+            });
+            commands.put(Command.HSCAN, args -> scan(args, new ArrayList<>(hash(args.get(0)).entrySet()), 2,
+                    (e, resp) -> {
+                        resp.add(bulk(e.getKey()));
+                        resp.add(bulk(e.getValue()));
+                    }));
+            commands.put(Command.SADD, args -> {
+                var set = set(args.get(0));
+                return NumberType.create(args.subList(1, args.size()).stream().filter(set::add).count());
+            });
+            commands.put(Command.SSCAN, args -> scan(args, new ArrayList<>(set(args.get(0))), 1,
+                    (member, resp) -> resp.add(bulk(member))));
+        }
+
+        String get(String key) {
+            expire();
+            return data.get(key) instanceof String str ? str : null;
+        }
+
+        void put(String key, String value) {
+            del(key);
+            data.put(key, value);
+        }
+
+        boolean exists(String key) {
+            expire();
+            return data.containsKey(key);
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, String> hash(String key) {
+            expire();
+            return (Map<String, String>) data.computeIfAbsent(key, k -> new LinkedHashMap<String, String>());
+        }
+
+        @SuppressWarnings("unchecked")
+        Set<String> set(String key) {
+            expire();
+            return (Set<String>) data.computeIfAbsent(key, k -> new LinkedHashSet<String>());
+        }
+
+        private Response execute(Request req) {
+            expire();
+            var cmd = commands.get(req.command());
+            if (cmd == null) {
+                throw new UnsupportedOperationException("command is not supported: " + req.command());
+            }
+            var args = ((RequestImpl) req).getArgs().stream()
+                    .map(arg -> new String(arg, StandardCharsets.UTF_8))
+                    .toList();
+            var resp = cmd.apply(args);
+            // redis doesn't keep empty hashes and sets, reads above create them
+            data.values().removeIf(value -> value instanceof Map<?, ?> map && map.isEmpty()
+                    || value instanceof Set<?> set && set.isEmpty());
+            return resp;
+        }
+
+        private Response setCmd(List<String> args) {
+            var key = args.get(0);
+            var options = args.subList(2, args.size());
+            if (options.contains("NX") && data.containsKey(key)) {
+                return null;
+            }
+            del(key);
+            data.put(key, args.get(1));
+            var pxIdx = options.indexOf("PX");
+            if (pxIdx >= 0) {
+                expiresAtMs.put(key, nowMs.get() + Long.parseLong(options.get(pxIdx + 1)));
+            }
+            return SimpleStringType.OK;
+        }
+
+        private boolean del(String key) {
+            expiresAtMs.remove(key);
+            return data.remove(key) != null;
+        }
+
+        private <T> Response scan(List<String> args, List<T> items, int respPerItem,
+                BiConsumer<T, MultiType> addItem) {
+            var cursor = Integer.parseInt(args.get(1));
+            var count = Integer.parseInt(args.get(args.indexOf("COUNT") + 1));
+            var end = Math.min(cursor + count, items.size());
+            var page = MultiType.create((long) (end - cursor) * respPerItem, false);
+            for (var i = cursor; i < end; i++) {
+                addItem.accept(items.get(i), page);
+            }
+            return array(List.of(bulk(end < items.size() ? Integer.toString(end) : "0"), page));
+        }
+
+        private void expire() {
+            var now = nowMs.get();
+            expiresAtMs.entrySet().removeIf(e -> {
+                if (e.getValue() <= now) {
+                    data.remove(e.getKey());
+                    return true;
+                }
+                return false;
+            });
+        }
+
+        private static Response bulk(String value) {
+            return value != null ? BulkType.create(Buffer.buffer(value), false) : null;
+        }
+
+        private static Response array(List<Response> items) {
+            var resp = MultiType.create(items.size(), false);
+            items.forEach(resp::add);
+            return resp;
+        }
+
+        @Override
+        public Future<Response> send(Request req) {
+            return Future.succeededFuture(execute(req));
+        }
+
+        @Override
+        public Future<List<Response>> batch(List<Request> reqs) {
+            batches++;
+            var resps = new ArrayList<Response>(reqs.size());
+            reqs.forEach(req -> resps.add(execute(req)));
+            return Future.succeededFuture(resps);
+        }
+
+        @Override
+        public Future<Void> close() {
+            return Future.succeededFuture();
+        }
+
+        @Override
+        public boolean pendingQueueFull() {
+            return false;
+        }
+
+        @Override
+        public FakeRedis exceptionHandler(Handler<Throwable> handler) {
+            return this;
+        }
+
+        @Override
+        public FakeRedis handler(Handler<Response> handler) {
+            return this;
+        }
+
+        @Override
+        public FakeRedis pause() {
+            return this;
+        }
+
+        @Override
+        public FakeRedis resume() {
+            return this;
+        }
+
+        @Override
+        public FakeRedis fetch(long amount) {
+            return this;
+        }
+
+        @Override
+        public FakeRedis endHandler(Handler<Void> endHandler) {
+            return this;
+        }
+    }
+}
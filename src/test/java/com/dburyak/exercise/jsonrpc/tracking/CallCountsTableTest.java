@@ -0,0 +1,97 @@
+package com.dburyak.exercise.jsonrpc.tracking;
+
+import com.dburyak.exercise.jsonrpc.entity.TrackedCall.Change;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CallCountsTableTest {
+    private final CallCountsTable table = new CallCountsTable(4);
+
+    @Test
+    void increment_aggregatesByIpAndMethod() {
+        table.increment("1.1.1.1", "eth_call", true, 5);
+        table.increment("1.1.1.1", "eth_call", false, 5);
+        table.increment("1.1.1.1", "eth_call", true, 2);
+        table.increment("1.1.1.1", "eth_chainId", true, 1);
+        table.increment("2.2.2.2", "eth_call", false, 5);
+
+        assertThat(table.size()).isEqualTo(3);
+        assertThat(table.calls()).isEqualTo(5);
+        assertThat(table.drain()).containsExactlyInAnyOrder(
+                new Change("1.1.1.1", "eth_call", 2, 1, 12),
+                new Change("1.1.1.1", "eth_chainId", 1, 0, 1),
+                new Change("2.2.2.2", "eth_call", 0, 1, 5));
+    }
+
+    @Test
+    void increment_keepsCountersWhileGrowing() {
+        var expected = new HashMap<String, Long>();
+        for (var i = 0; i < 5_000; i++) {
+            var ip = "10.0." + (i % 500) / 250 + "." + i % 250;
+            var method = "method_" + i % 7;
+            table.increment(ip, method, true, i % 3 + 1);
+            expected.merge(ip + "/" + method, (long) (i % 3 + 1), Long::sum);
+        }
+
+        var changes = table.drain();
+
+        assertThat(changes).hasSize(expected.size());
+        var actual = changes.stream()
+                .collect(Collectors.toMap(c -> c.getIp() + "/" + c.getMethod(), Change::getUnits));
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    @Test
+    void drain_resetsTable() {
+        table.increment("1.1.1.1", "eth_call", true, 1);
+        table.drain();
+
+        assertThat(table.isEmpty()).isTrue();
+        assertThat(table.size()).isZero();
+        assertThat(table.calls()).isZero();
+        assertThat(table.drain()).isEmpty();
+    }
+
+    @Test
+    void drain_countersStartOverAfterDrain() {
+        table.increment("1.1.1.1", "eth_call", true, 3);
+        table.increment("2.2.2.2", "eth_chainId", true, 1);
+        table.drain();
+
+        table.increment("2.2.2.2", "eth_call", false, 4);
+
+        assertThat(table.drain()).containsExactly(new Change("2.2.2.2", "eth_call", 0, 1, 4));
+    }
+
+    @Test
+    void drain_tableIsReusableAfterGrowing() {
+        for (var round = 0; round < 3; round++) {
+            for (var i = 0; i < 1_000; i++) {
+                table.increment("ip-" + i, "eth_call", true, 1);
+            }
+
+            var changes = table.drain().stream().collect(Collectors.toMap(Change::getIp, Function.identity()));
+
+            assertThat(changes).hasSize(1_000);
+            assertThat(changes.values()).allMatch(c -> c.getSuccessfulCalls() == 1 && c.getUnits() == 1);
+        }
+    }
+
+    @Test
+    void increment_sameMethodOfManyIpsIsCountedSeparately() {
+        for (var i = 0; i < 100; i++) {
+            table.increment("ip-" + i, "eth_call", i % 2 == 0, 1);
+        }
+
+        var changes = table.drain();
+
+        assertThat(changes).hasSize(100);
+        assertThat(changes.stream().mapToLong(Change::getSuccessfulCalls).sum()).isEqualTo(50);
+        assertThat(changes.stream().mapToLong(Change::getFailedCalls).sum()).isEqualTo(50);
+    }
+}
@@ -0,0 +1,270 @@
+package com.dburyak.exercise.jsonrpc.tracking;
+
+import com.dburyak.exercise.jsonrpc.entity.CallsOfUser;
+import com.dburyak.exercise.jsonrpc.entity.CallsOfUserPage;
+import com.dburyak.exercise.jsonrpc.entity.CallsOfUsersPage;
+import com.dburyak.exercise.jsonrpc.entity.TrackedCall;
+import com.dburyak.exercise.jsonrpc.entity.TrackedCall.Change;
+import com.dburyak.exercise.jsonrpc.repo.TrackedCallRepository;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.core.Single;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.VerticleBase;
+import io.vertx.core.Vertx;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CallTrackingAggregatorTest {
+    private static final Duration FLUSH_INTERVAL = Duration.ofMillis(100);
+    private static final int MAX_STRIPE_ENTRIES = 3;
+
+    private final Vertx vertx = Vertx.vertx();
+    private final FakeRepo repo = new FakeRepo();
+    private final CallTrackingAggregator aggregator = new CallTrackingAggregator(repo, FLUSH_INTERVAL,
+            MAX_STRIPE_ENTRIES, null);
+
+    @AfterEach
+    void closeVertx() {
+        await(vertx.close());
+    }
+
+    @Test
+    void flush_mergesChangesOfAllStripesIntoSingleBatch() {
+        var ctx1 = newEventLoopContext();
+        var ctx2 = newEventLoopContext();
+        var stripe1 = onLoop(ctx1, () -> aggregator.newStripe(ctx1));
+        var stripe2 = onLoop(ctx2, () -> aggregator.newStripe(ctx2));
+        onLoop(ctx1, () -> stripe1.increment("1.1.1.1", "eth_call", true, 5));
+        onLoop(ctx2, () -> stripe2.increment("1.1.1.1", "eth_call", false, 5));
+        onLoop(ctx2, () -> stripe2.increment("2.2.2.2", "eth_chainId", true, 1));
+
+        aggregator.flush().blockingAwait();
+
+        assertThat(repo.batches).hasSize(1);
+        assertThat(repo.batches.get(0)).containsExactlyInAnyOrder(
+                new Change("1.1.1.1", "eth_call", 1, 1, 10),
+                new Change("2.2.2.2", "eth_chainId", 1, 0, 1));
+    }
+
+    @Test
+    void flush_nothingIsPersistedIfNothingWasCounted() {
+        var ctx = newEventLoopContext();
+        onLoop(ctx, () -> aggregator.newStripe(ctx));
+
+        aggregator.flush().blockingAwait();
+
+        assertThat(repo.batches).isEmpty();
+    }
+
+    @Test
+    void flush_stripeStartsOverAfterFlush() {
+        var ctx = newEventLoopContext();
+        var stripe = onLoop(ctx, () -> aggregator.newStripe(ctx));
+        onLoop(ctx, () -> stripe.increment("1.1.1.1", "eth_call", true, 1));
+        aggregator.flush().blockingAwait();
+
+        onLoop(ctx, () -> stripe.increment("1.1.1.1", "eth_call", true, 1));
+        aggregator.flush().blockingAwait();
+
+        assertThat(repo.batches).containsExactly(
+                List.of(new Change("1.1.1.1", "eth_call", 1, 0, 1)),
+                List.of(new Change("1.1.1.1", "eth_call", 1, 0, 1)));
+    }
+
+    @Test
+    void flush_failedChangesAreMergedIntoNextFlush() {
+        var ctx = newEventLoopContext();
+        var stripe = onLoop(ctx, () -> aggregator.newStripe(ctx));
+        onLoop(ctx, () -> stripe.increment("1.1.1.1", "eth_call", true, 1));
+        repo.failing = true;
+        aggregator.flush().blockingAwait();
+        repo.failing = false;
+
+        onLoop(ctx, () -> stripe.increment("1.1.1.1", "eth_call", true, 2));
+        aggregator.flush().blockingAwait();
+
+        assertThat(repo.batches).containsExactly(List.of(new Change("1.1.1.1", "eth_call", 2, 0, 3)));
+    }
+
+    @Test
+    void flush_changesOfOverflowedStripeAreNotLost() {
+        var ctx = newEventLoopContext();
+        var stripe = onLoop(ctx, () -> aggregator.newStripe(ctx));
+        onLoop(ctx, () -> {
+            for (var i = 0; i < MAX_STRIPE_ENTRIES * 3 + 1; i++) {
+                stripe.increment("ip-" + i, "eth_call", true, 1);
+            }
+        });
+
+        aggregator.flush().blockingAwait();
+
+        assertThat(repo.batches).hasSize(1);
+        assertThat(repo.batches.get(0)).hasSize(MAX_STRIPE_ENTRIES * 3 + 1);
+    }
+
+    @Test
+    void flush_changesOfBusyEventLoopAreHandedOverToNextFlush() {
+        var busyCtx = newEventLoopContext();
+        var busyStripe = onLoop(busyCtx, () -> aggregator.newStripe(busyCtx));
+        var ctx = newEventLoopContext();
+        var stripe = onLoop(ctx, () -> aggregator.newStripe(ctx));
+        onLoop(busyCtx, () -> busyStripe.increment("1.1.1.1", "eth_call", true, 1));
+        onLoop(ctx, () -> stripe.increment("2.2.2.2", "eth_call", true, 1));
+        var unblock = new CountDownLatch(1);
+        busyCtx.runOnContext(ignr -> await(unblock));
+
+        // the busy event loop doesn't respond within the flush interval
+        aggregator.flush().blockingAwait();
+        unblock.countDown();
+        onLoop(busyCtx, () -> null);
+        aggregator.flush().blockingAwait();
+
+        assertThat(repo.batches).containsExactly(
+                List.of(new Change("2.2.2.2", "eth_call", 1, 0, 1)),
+                List.of(new Change("1.1.1.1", "eth_call", 1, 0, 1)));
+    }
+
+    @Test
+    void closeAsync_persistsChangesOfClosedStripes() {
+        var ctx = newEventLoopContext();
+        var stripe = onLoop(ctx, () -> aggregator.newStripe(ctx));
+        onLoop(ctx, () -> stripe.increment("1.1.1.1", "eth_call", false, 4));
+        onLoop(ctx, stripe::close);
+
+        aggregator.closeAsync().blockingAwait();
+
+        assertThat(repo.batches).containsExactly(List.of(new Change("1.1.1.1", "eth_call", 0, 1, 4)));
+    }
+
+    /**
+     * Each verticle gets its own event loop context, same as the verticles that own the stripes in the proxy.
+     */
+    private Context newEventLoopContext() {
+        var started = new CompletableFuture<Context>();
+        await(vertx.deployVerticle(new VerticleBase() {
+            @Override
+            public Future<?> start() throws Exception {
+                started.complete(context);
+                return super.start();
+            }
+        }));
+        return started.join();
+    }
+
+    private static <T> T onLoop(Context ctx, Supplier<T> action) {
+        var result = new CompletableFuture<T>();
+        ctx.runOnContext(ignr -> result.complete(action.get()));
+        try {
+            return result.get(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void onLoop(Context ctx, Runnable action) {
+        onLoop(ctx, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Records persisted batches, only {@link #increment} is supported.
+     */
+    private static class FakeRepo implements TrackedCallRepository {
+        private final List<List<Change>> batches = new ArrayList<>();
+        private volatile boolean failing;
+
+        @Override
+        public Completable increment(Collection<Change> calls) {
+            return Completable.fromAction(() -> {
+                if (failing) {
+                    throw new IllegalStateException("connection closed");
+                }
+                synchronized (batches) {
+                    batches.add(List.copyOf(calls));
+                }
+            });
+        }
+
+        @Override
+        public Maybe<TrackedCall> findByIpAndMethod(String ip, String method) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Maybe<TrackedCall> findByIpAndMethod(String ip, String method, Instant from, Instant to) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Maybe<CallsOfUser> findByIp(String ip) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Single<List<CallsOfUser>> findByIps(List<String> ips, List<String> methods) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Single<CallsOfUserPage> findPageByIp(String ip, String cursor, int count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Single<CallsOfUsersPage> findAllPage(String cursor, int count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Maybe<CallsOfUser> findByIp(String ip, Instant from, Instant to) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Single<Boolean> deleteByIp(String ip) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Completable rollUp() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Completable migrate() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
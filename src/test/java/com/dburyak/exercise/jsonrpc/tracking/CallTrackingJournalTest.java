@@ -0,0 +1,296 @@
+package com.dburyak.exercise.jsonrpc.tracking;
+
+import com.dburyak.exercise.jsonrpc.entity.TrackedCall;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CallTrackingJournalTest {
+    private static final int SEGMENT_SIZE = 1024;
+    // type + seq
+    private static final int RECORD_PREFIX_SIZE = 1 + Long.BYTES;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recover_emptyDir() {
+        var journal = new CallTrackingJournal(dir.resolve("journal"), SEGMENT_SIZE);
+
+        assertThat(journal.recover()).isEmpty();
+        assertThat(dir.resolve("journal")).isDirectory();
+    }
+
+    @Test
+    void recover_returnsUnacknowledgedBatch() {
+        var journal = open();
+        journal.append(changes("1.1.1.1", 1));
+        journal.close();
+
+        assertThat(open().recover()).isEqualTo(changes("1.1.1.1", 1));
+    }
+
+    @Test
+    void recover_returnsNothingIfLastBatchIsAcknowledged() {
+        var journal = open();
+        journal.acknowledge(journal.append(changes("1.1.1.1", 1)));
+        journal.close();
+
+        assertThat(open().recover()).isEmpty();
+    }
+
+    @Test
+    void recover_returnsOnlyLatestBatch() {
+        // the latest batch includes all the changes of the earlier unacknowledged ones
+        var journal = open();
+        journal.append(changes("1.1.1.1", 1));
+        journal.append(changes("1.1.1.1", 3));
+        journal.close();
+
+        assertThat(open().recover()).isEqualTo(changes("1.1.1.1", 3));
+    }
+
+    @Test
+    void recover_ackOfEarlierBatchDoesNotAcknowledgeLaterOne() {
+        var journal = open();
+        var seq1 = journal.append(changes("1.1.1.1", 1));
+        journal.append(changes("2.2.2.2", 2));
+        journal.acknowledge(seq1);
+        journal.close();
+
+        assertThat(open().recover()).isEqualTo(changes("2.2.2.2", 2));
+    }
+
+    @Test
+    void recover_ackOfLaterBatchAcknowledgesEarlierOnes() {
+        var journal = open();
+        journal.append(changes("1.1.1.1", 1));
+        var seq2 = journal.append(changes("2.2.2.2", 2));
+        journal.acknowledge(seq2);
+        journal.close();
+
+        assertThat(open().recover()).isEmpty();
+    }
+
+    @Test
+    void recover_stopsAtTornRecord() throws IOException {
+        var journal = open();
+        journal.append(changes("1.1.1.1", 1));
+        journal.append(changes("2.2.2.2", 2));
+        journal.close();
+        var segment = single(segments());
+        // flip the last byte of the second record
+        var secondRecordStart = HEADER_SIZE + readInt(segment, 0);
+        var secondRecordEnd = secondRecordStart + HEADER_SIZE + readInt(segment, secondRecordStart);
+        flipByte(segment, secondRecordEnd - 1);
+
+        assertThat(open().recover()).isEqualTo(changes("1.1.1.1", 1));
+    }
+
+    @Test
+    void recover_stopsAtRecordWithLengthBeyondSegmentEnd() throws IOException {
+        var journal = open();
+        journal.append(changes("1.1.1.1", 1));
+        journal.close();
+        var segment = single(segments());
+        var secondRecordStart = HEADER_SIZE + readInt(segment, 0);
+        writeInt(segment, secondRecordStart, SEGMENT_SIZE * 2);
+        writeInt(segment, secondRecordStart + Integer.BYTES, 12345);
+
+        assertThat(open().recover()).isEqualTo(changes("1.1.1.1", 1));
+    }
+
+    @Test
+    void recover_ignoresCorruptAck() throws IOException {
+        var journal = open();
+        journal.acknowledge(journal.append(changes("1.1.1.1", 1)));
+        journal.close();
+        var segment = single(segments());
+        var ackStart = HEADER_SIZE + readInt(segment, 0);
+        flipByte(segment, ackStart + HEADER_SIZE + RECORD_PREFIX_SIZE - 1);
+
+        // persisting is at-least-once, the batch is persisted once again
+        assertThat(open().recover()).isEqualTo(changes("1.1.1.1", 1));
+    }
+
+    @Test
+    void recover_tornOlderSegmentDoesNotHideNewerOne() throws IOException {
+        var journal = open();
+        journal.recover();
+        journal.append(changes("2.2.2.2", 2));
+        journal.close();
+        // leftover of an older segment that failed to be deleted, with a torn record
+        var olderSegment = dir.resolve("segment-00000000000000000000.journal");
+        Files.write(olderSegment, new byte[SEGMENT_SIZE]);
+        writeInt(olderSegment, 0, 20);
+        writeInt(olderSegment, Integer.BYTES, 12345);
+
+        assertThat(open().recover()).isEqualTo(changes("2.2.2.2", 2));
+    }
+
+    @Test
+    void append_rollsSegmentAndDeletesOlderOnes() throws IOException {
+        var journal = open();
+        journal.recover();
+        journal.append(changes("1.1.1.1", 1));
+        var firstSegment = single(segments());
+        var seq = 0L;
+        // each batch is ~100 bytes, so a few of them overflow the segment
+        for (var i = 0; i < 20; i++) {
+            seq = journal.append(changes("2.2.2.2", i));
+        }
+        journal.close();
+
+        var segment = single(segments());
+        assertThat(segment).isNotEqualTo(firstSegment);
+        assertThat(open().recover()).isEqualTo(changes("2.2.2.2", 19));
+        assertThat(seq).isEqualTo(21);
+    }
+
+    @Test
+    void append_batchLargerThanSegmentGetsLargerSegment() throws IOException {
+        var journal = open();
+        journal.recover();
+        var large = Stream.iterate(0, i -> i + 1)
+                .limit(100)
+                .map(i -> new TrackedCall.Change("10.0.0." + i, "eth_getBalance", i, 1, i))
+                .toList();
+        journal.append(large);
+        journal.close();
+
+        assertThat(Files.size(single(segments()))).isGreaterThan(SEGMENT_SIZE);
+        assertThat(open().recover()).isEqualTo(large);
+    }
+
+    @Test
+    void acknowledge_startsFreshSegmentOnceMoreThanHalfFull() throws IOException {
+        var journal = open();
+        journal.recover();
+        var seq = journal.append(changes("1.1.1.1", 0));
+        journal.acknowledge(seq);
+        var firstSegment = single(segments());
+        while (segments().contains(firstSegment) && seq < 100) {
+            seq = journal.append(changes("1.1.1.1", seq));
+            journal.acknowledge(seq);
+        }
+        journal.close();
+
+        // the fresh segment holds only the ack
+        var segment = single(segments());
+        assertThat(segment).isNotEqualTo(firstSegment);
+        var length = readInt(segment, 0);
+        assertThat(length).isEqualTo(RECORD_PREFIX_SIZE);
+        assertThat(readInt(segment, HEADER_SIZE + length)).isZero();
+        assertThat(open().recover()).isEmpty();
+    }
+
+    @Test
+    void acknowledge_doesNotStartFreshSegmentWhileSomethingIsPending() throws IOException {
+        var journal = open();
+        journal.recover();
+        var seq = 0L;
+        for (var i = 0; i < 5; i++) {
+            seq = journal.append(changes("1.1.1.1", i));
+        }
+        var segment = single(segments());
+        journal.acknowledge(seq - 1);
+        journal.close();
+
+        assertThat(single(segments())).isEqualTo(segment);
+        assertThat(open().recover()).isEqualTo(changes("1.1.1.1", 4));
+    }
+
+    @Test
+    void restart_continuesSeqAndSegmentNumbering() throws IOException {
+        var journal = open();
+        journal.recover();
+        var seq = journal.append(changes("1.1.1.1", 1));
+        journal.acknowledge(seq);
+        journal.close();
+        var segmentBefore = single(segments());
+
+        journal = open();
+        assertThat(journal.recover()).isEmpty();
+        var seqAfter = journal.append(changes("2.2.2.2", 2));
+        journal.close();
+
+        assertThat(seqAfter).isGreaterThan(seq);
+        var segmentAfter = single(segments());
+        assertThat(segmentAfter.getFileName().toString())
+                .isGreaterThan(segmentBefore.getFileName().toString());
+        assertThat(open().recover()).isEqualTo(changes("2.2.2.2", 2));
+    }
+
+    @Test
+    void restart_keepsPendingBatchUntilItsReplacedByNewerOne() throws IOException {
+        var journal = open();
+        journal.recover();
+        journal.append(changes("1.1.1.1", 1));
+        journal.close();
+
+        // crash right after the restart, before the recovered changes are flushed again
+        journal = open();
+        assertThat(journal.recover()).isEqualTo(changes("1.1.1.1", 1));
+        journal.close();
+        assertThat(segments()).hasSize(1);
+
+        journal = open();
+        var recovered = journal.recover();
+        journal.append(recovered);
+        journal.close();
+        assertThat(open().recover()).isEqualTo(changes("1.1.1.1", 1));
+    }
+
+    private CallTrackingJournal open() {
+        return new CallTrackingJournal(dir, SEGMENT_SIZE);
+    }
+
+    private static List<TrackedCall.Change> changes(String ip, long calls) {
+        return List.of(
+                new TrackedCall.Change(ip, "eth_call", calls, 1, calls * 10),
+                new TrackedCall.Change(ip, "eth_getLogs", 0, calls, calls));
+    }
+
+    private List<Path> segments() throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".journal")).sorted().toList();
+        }
+    }
+
+    private static Path single(List<Path> paths) {
+        assertThat(paths).hasSize(1);
+        return paths.get(0);
+    }
+
+    private static int readInt(Path file, long pos) throws IOException {
+        try (var raf = new RandomAccessFile(file.toFile(), "r")) {
+            raf.seek(pos);
+            return raf.readInt();
+        }
+    }
+
+    private static void writeInt(Path file, long pos, int value) throws IOException {
+        try (var raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(pos);
+            raf.writeInt(value);
+        }
+    }
+
+    private static void flipByte(Path file, long pos) throws IOException {
+        try (var raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(pos);
+            var b = raf.read();
+            raf.seek(pos);
+            raf.write(~b);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.dburyak.exercise.jsonrpc.tracking;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CountMinSketchTest {
+
+    @Test
+    void estimate_isExactForFewKeysInWideSketch() {
+        var sketch = new CountMinSketch(4, 1 << 16);
+
+        sketch.add("1.2.3.4", 3);
+        sketch.add("1.2.3.5", 5);
+        sketch.add("1.2.3.4", 2);
+
+        assertThat(sketch.estimate("1.2.3.4")).isEqualTo(5);
+        assertThat(sketch.estimate("1.2.3.5")).isEqualTo(5);
+        assertThat(sketch.estimate("1.2.3.6")).isZero();
+    }
+
+    @Test
+    void estimate_neverUnderestimatesWhenCountersCollide() {
+        var sketch = new CountMinSketch(2, 16);
+        var counts = new HashMap<String, Integer>();
+        for (var i = 0; i < 1_000; i++) {
+            var key = "10.0." + (i / 256) + "." + (i % 256);
+            sketch.add(key, i % 7 + 1);
+            counts.put(key, i % 7 + 1);
+        }
+
+        counts.forEach((key, count) -> assertThat(sketch.estimate(key)).isGreaterThanOrEqualTo(count));
+    }
+
+    @Test
+    void add_saturatesInsteadOfOverflowing() {
+        var sketch = new CountMinSketch(2, 16);
+
+        sketch.add("k", Integer.MAX_VALUE);
+        sketch.add("k", 1);
+
+        assertThat(sketch.estimate("k")).isEqualTo(Integer.MAX_VALUE);
+    }
+
+    @Test
+    void merge_sumsUpCounters() {
+        var sketch = new CountMinSketch(4, 1 << 16);
+        var other = new CountMinSketch(4, 1 << 16);
+        sketch.add("a", 3);
+        other.add("a", 4);
+        other.add("b", 1);
+
+        sketch.merge(other);
+
+        assertThat(sketch.estimate("a")).isEqualTo(7);
+        assertThat(sketch.estimate("b")).isEqualTo(1);
+        assertThat(other.estimate("a")).isEqualTo(4);
+    }
+
+    @Test
+    void merge_saturatesInsteadOfOverflowing() {
+        var sketch = new CountMinSketch(2, 16);
+        var other = new CountMinSketch(2, 16);
+        sketch.add("k", Integer.MAX_VALUE - 1);
+        other.add("k", 2);
+
+        sketch.merge(other);
+
+        assertThat(sketch.estimate("k")).isEqualTo(Integer.MAX_VALUE);
+    }
+
+    @Test
+    void merge_sketchesOfDifferentDimensionsAreRejected() {
+        var sketch = new CountMinSketch(4, 16);
+
+        assertThatThrownBy(() -> sketch.merge(new CountMinSketch(4, 32)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> sketch.merge(new CountMinSketch(2, 16)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void readFrom_readsWhatWasWritten() {
+        var sketch = new CountMinSketch(3, 64);
+        sketch.add("a", 10);
+        sketch.add("b", 20);
+        var buf = ByteBuffer.allocate(sketch.serializedSize());
+
+        sketch.writeTo(buf);
+        var read = CountMinSketch.readFrom(buf.flip());
+
+        assertThat(buf.hasRemaining()).isFalse();
+        assertThat(read.estimate("a")).isEqualTo(sketch.estimate("a"));
+        assertThat(read.estimate("b")).isEqualTo(sketch.estimate("b"));
+        assertThat(read.estimate("c")).isEqualTo(sketch.estimate("c"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, -1, 3, 100})
+    void constructor_widthMustBePowerOfTwo(int width) {
+        assertThatThrownBy(() -> new CountMinSketch(4, width)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void constructor_depthMustBePositive() {
+        assertThatThrownBy(() -> new CountMinSketch(0, 16)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,112 @@
+package com.dburyak.exercise.jsonrpc.tracking;
+
+import com.dburyak.exercise.jsonrpc.entity.HeavyHitter;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HeavyHitterSketchTest {
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 1 << 12;
+
+    @Test
+    void top_heavyHittersStayCandidatesDespiteLongTail() {
+        var sketch = new HeavyHitterSketch(3, DEPTH, WIDTH);
+        sketch.add("a", 100);
+        sketch.add("b", 50);
+        for (var i = 0; i < 500; i++) {
+            sketch.add("tail-" + i, 1);
+        }
+        sketch.add("c", 30);
+
+        var top = HeavyHitterSketch.top(List.of(sketch.toBytes()), 3);
+
+        assertThat(top).extracting(HeavyHitter::getKey).containsExactly("a", "b", "c");
+        assertThat(top.get(0).getCalls()).isGreaterThanOrEqualTo(100);
+    }
+
+    @Test
+    void top_isLimitedToN() {
+        var sketch = new HeavyHitterSketch(10, DEPTH, WIDTH);
+        sketch.add("a", 3);
+        sketch.add("b", 2);
+        sketch.add("c", 1);
+
+        var top = HeavyHitterSketch.top(List.of(sketch.toBytes()), 2);
+
+        assertThat(top).containsExactly(new HeavyHitter("a", 3), new HeavyHitter("b", 2));
+    }
+
+    @Test
+    void top_ofNoSketchesIsEmpty() {
+        assertThat(HeavyHitterSketch.top(List.of(), 10)).isEmpty();
+    }
+
+    @Test
+    void add_newKeyReplacesSmallestCandidateOnceItOutgrowsIt() {
+        var sketch = new HeavyHitterSketch(2, DEPTH, WIDTH);
+        sketch.add("a", 10);
+        sketch.add("b", 5);
+
+        sketch.add("c", 3);
+        var beforeOutgrowing = HeavyHitterSketch.top(List.of(sketch.toBytes()), 10);
+        sketch.add("c", 3);
+        var afterOutgrowing = HeavyHitterSketch.top(List.of(sketch.toBytes()), 10);
+
+        assertThat(beforeOutgrowing).containsExactly(new HeavyHitter("a", 10), new HeavyHitter("b", 5));
+        assertThat(afterOutgrowing).containsExactly(new HeavyHitter("a", 10), new HeavyHitter("c", 6));
+    }
+
+    @Test
+    void merge_candidatesOfBothSketchesAreKept() {
+        var sketch = new HeavyHitterSketch(2, DEPTH, WIDTH);
+        var other = new HeavyHitterSketch(2, DEPTH, WIDTH);
+        sketch.add("a", 100);
+        other.add("b", 200);
+        other.add("a", 20);
+
+        sketch.merge(other);
+        var top = HeavyHitterSketch.top(List.of(sketch.toBytes()), 10);
+
+        assertThat(top).containsExactly(new HeavyHitter("b", 200), new HeavyHitter("a", 120));
+    }
+
+    @Test
+    void merge_ofEmptySketchKeepsSketchAsIs() {
+        var sketch = new HeavyHitterSketch(2, DEPTH, WIDTH);
+        sketch.add("a", 7);
+
+        sketch.merge(new HeavyHitterSketch(2, DEPTH, WIDTH));
+        var top = HeavyHitterSketch.top(List.of(sketch.toBytes()), 10);
+
+        assertThat(top).containsExactly(new HeavyHitter("a", 7));
+    }
+
+    @Test
+    void top_keySpreadOverSerializedSketchesAddsUpAcrossThem() {
+        // e.g. sketches of different proxy instances, "x" is the top one only once they are merged
+        var instance1 = new HeavyHitterSketch(1, DEPTH, WIDTH);
+        var instance2 = new HeavyHitterSketch(1, DEPTH, WIDTH);
+        var instance3 = new HeavyHitterSketch(2, DEPTH, WIDTH);
+        instance1.add("x", 40);
+        instance2.add("x", 40);
+        instance3.add("y", 100);
+        instance3.add("x", 40);
+
+        var top = HeavyHitterSketch.top(List.of(instance1.toBytes(), instance2.toBytes(), instance3.toBytes()), 10);
+
+        assertThat(top).containsExactly(new HeavyHitter("x", 120), new HeavyHitter("y", 100));
+    }
+
+    @Test
+    void isEmpty_untilFirstKeyIsAdded() {
+        var sketch = new HeavyHitterSketch(2, DEPTH, WIDTH);
+        assertThat(sketch.isEmpty()).isTrue();
+
+        sketch.add("a", 1);
+
+        assertThat(sketch.isEmpty()).isFalse();
+    }
+}